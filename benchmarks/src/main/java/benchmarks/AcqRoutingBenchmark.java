@@ -0,0 +1,83 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import modules.AcsGroup;
+import modules.CardBrand;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// AcqRoutingBenchmark.java
+// Step 4 on the ACQ: the plausibility check and the routing decision run for every payment.
+// The BIN table is the demo file's range plus generated ones, nested and of every prefix length,
+// so a lookup walks all six interval arrays as it would with a real issuer list.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AcqRoutingBenchmark {
+    // Routed to our ACS, plausible but routed elsewhere, wrong check digit, too short
+    @Param({"1234123412341238", "4111111111111111", "4111111111111112", "123456"})
+    public String cardNumber;
+
+    // BIN ranges in the routing table besides the demo one
+    @Param({"0", "10000"})
+    public int extraRanges;
+
+    private Object binRoutes;
+
+    @Setup
+    public void setUp() throws Throwable {
+        Path file = Files.createTempFile("bin-routes", ".txt");
+        try {
+            StringBuilder routes = new StringBuilder("acs;local;localhost;5050\nacs;other;localhost;5051\nbin;123400-123499;local\n");
+            for (int i = 0; i < extraRanges; i++) {
+                int digits = 6 + i % 6;
+                long low = (long) (i * 7919L % 900_000 + 100_000) * (long) Math.pow(10, digits - 6);
+                long width = (long) Math.pow(10, digits - 6) * (1 + i % 50);
+                routes.append("bin;").append(low).append('-').append(low + width - 1).append(';')
+                        .append(i % 2 == 0 ? "local" : "other").append('\n');
+            }
+            Files.writeString(file, routes);
+            // Loading logs a line; keep it off the benchmark's console
+            PrintStream stdout = System.out;
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            try {
+                binRoutes = (Object) Internals.NEW_BIN_ROUTES.invokeExact(file.toString());
+            } finally {
+                System.setOut(stdout);
+            }
+        } finally {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    @Benchmark
+    public CardBrand validateCardNumber() throws Throwable {
+        return (CardBrand) Internals.VALIDATE_CARD_NUMBER.invokeExact(cardNumber);
+    }
+
+    @Benchmark
+    public AcsGroup routeBin() throws Throwable {
+        return (AcsGroup) Internals.ROUTE_BIN.invokeExact(binRoutes, cardNumber);
+    }
+}
@@ -0,0 +1,29 @@
+package benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// BenchmarkRunner.java
+// Entry point of benchmarks.jar: the usual JMH command line, except that results are written as
+// JSON by default (jmh-result.json unless -rf / -rff say otherwise) so runs of different releases
+// can be compared by a script.
+//
+//   java -jar benchmarks/target/benchmarks.jar                      all suites
+//   java -jar benchmarks/target/benchmarks.jar PasswordBenchmark -prof gc
+//
+// Run it from the project root: the TLS suite loads ./keystore and ./truststore.
+public class BenchmarkRunner {
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        OptionsBuilder options = new OptionsBuilder();
+        options.parent(commandLine);
+        if (!commandLine.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        new Runner(options.build()).run();
+    }
+}
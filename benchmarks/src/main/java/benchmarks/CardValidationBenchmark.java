@@ -0,0 +1,70 @@
+package benchmarks;
+
+import java.io.BufferedWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// CardValidationBenchmark.java
+// Step 5 on the ACS: the card data checked against the enrolled cardholders, with the repository
+// loaded from a generated file of the given size.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CardValidationBenchmark {
+    @Param({"1000", "1000000"})
+    public int cardholders;
+
+    private Object repository;
+    private Path file;
+
+    @Setup
+    public void setUp() throws Throwable {
+        file = Files.createTempFile("cardholders", ".txt");
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("1234123412341238;12;2025;123;Joe\n");
+            for (long i = 1; i < cardholders; i++) {
+                writer.write(String.valueOf(5_000_000_000_000_000L + i * 7919));
+                writer.write(";6;2030;" + (i % 1000) + ";Holder" + i + "\n");
+            }
+        }
+        repository = (Object) Internals.NEW_CARDHOLDERS.invokeExact(file.toString());
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public boolean verifyEnrolled() throws Throwable {
+        return (boolean) Internals.VERIFY_CARD.invokeExact(repository, "1234123412341238", 12, 2025, "123", "Joe");
+    }
+
+    @Benchmark
+    public boolean verifyWrongCvv() throws Throwable {
+        return (boolean) Internals.VERIFY_CARD.invokeExact(repository, "1234123412341238", 12, 2025, "321", "Joe");
+    }
+
+    @Benchmark
+    public boolean verifyUnknown() throws Throwable {
+        return (boolean) Internals.VERIFY_CARD.invokeExact(repository, "4111111111111111", 1, 2030, "1", "Bob");
+    }
+}
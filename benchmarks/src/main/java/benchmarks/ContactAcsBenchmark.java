@@ -0,0 +1,189 @@
+package benchmarks;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandleProxies;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.security.KeyStore;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManagerFactory;
+
+import modules.PaymentInfo;
+import modules.ValidationResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// ContactAcsBenchmark.java
+// Steps 4 and 5 over the wire: AcqServer.contactAcs on its multiplexed TLS channel pool, against
+// a loopback ACS listener in the same JVM (the real keystores, the real MuxServerSession, an
+// answer that skips the card lookup CardValidationBenchmark already covers). Connections are
+// opened and handshaken during warmup, so this is the per-request round trip.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ContactAcsBenchmark {
+    private static final String PASSWORD = "password";
+
+    // Binary frames (the default) or text frames on the channel
+    @Param({"true", "false"})
+    public boolean binaryWire;
+
+    private SSLServerSocket listener;
+    private ExecutorService connections;
+    private ExecutorService workers;
+    private Object channelPool;
+    private PrintStream stdout;
+
+    @State(Scope.Thread)
+    public static class Request {
+        private static final AtomicInteger threads = new AtomicInteger();
+
+        final PaymentInfo payment = new PaymentInfo();
+        final String prefix = "bench-" + threads.incrementAndGet() + "-";
+        long sequence;
+
+        @Setup
+        public void setUp() {
+            payment.setClientName("Joe");
+            payment.setCardNumber("1234123412341238");
+            payment.setMonth(12);
+            payment.setYear(2025);
+            payment.setCvv("123");
+            payment.setDueAmount(49.99f);
+            payment.setReceiverIdToken("merchant-42");
+        }
+
+        // tokenA is the correlation id on a shared channel, so it must be unique among requests in flight
+        PaymentInfo next() {
+            payment.setTokenA(prefix + sequence++);
+            return payment;
+        }
+    }
+
+    @Setup
+    public void setUp() throws Throwable {
+        // contactAcs logs every request; keep that off the benchmark's console
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        SSLContext acs = sslContext("./keystore/acsKeystore.jks", "./truststore/acsTruststore.jks");
+        SSLContext acq = sslContext("./keystore/acqKeystore.jks", "./truststore/acqTruststore.jks");
+
+        listener = (SSLServerSocket) acs.getServerSocketFactory().createServerSocket(0);
+        connections = Executors.newVirtualThreadPerTaskExecutor();
+        workers = Executors.newFixedThreadPool(4);
+        Object handler = MethodHandleProxies.asInterfaceInstance(Internals.REQUEST_HANDLER, MethodHandles.lookup()
+                .findStatic(ContactAcsBenchmark.class, "answer", MethodType.methodType(CompletableFuture.class, PaymentInfo.class, long.class)));
+        connections.execute(() -> accept(handler));
+
+        Supplier<SSLSocketFactory> socketFactory = acq::getSocketFactory;
+        channelPool = (Object) Internals.NEW_CHANNEL_POOL.invokeExact("ACS", "localhost", listener.getLocalPort(), socketFactory,
+                4, 10_000L, 5_000, 10_000L, binaryWire);
+    }
+
+    @TearDown
+    public void tearDown() throws Throwable {
+        Internals.CLOSE_CHANNEL_POOL.invokeExact(channelPool);
+        listener.close();
+        connections.shutdownNow();
+        workers.shutdownNow();
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public ValidationResult contactAcs(Request request) throws Throwable {
+        return roundTrip(request, channelPool);
+    }
+
+    // Many requests in flight at once, sharing the pool's few connections
+    @Benchmark
+    @Threads(16)
+    public ValidationResult contactAcsConcurrent(Request request) throws Throwable {
+        return roundTrip(request, channelPool);
+    }
+
+    private static ValidationResult roundTrip(Request request, Object channelPool) throws Throwable {
+        CompletableFuture<?> response = (CompletableFuture<?>) Internals.CONTACT_ACS.invokeExact(request.next(), channelPool, 0L);
+        ValidationResult result = (ValidationResult) response.join();
+        if (!result.isSuccess()) {
+            throw new IllegalStateException("ACS round trip failed: " + result);
+        }
+        return result;
+    }
+
+    // What AcsServer answers for an enrolled card
+    static CompletableFuture<ValidationResult> answer(PaymentInfo payment, long deadlineMillis) {
+        return CompletableFuture.completedFuture(ValidationResult.link("https://3dsecure.makeitnextgen.com/validate-payment?tokenA=" + payment.getTokenA()));
+    }
+
+    // Same connection handling as AcsServer.handleAcqConnection, multiplexed channels only
+    private void accept(Object handler) {
+        while (!listener.isClosed()) {
+            SSLSocket socket;
+            try {
+                socket = (SSLSocket) listener.accept();
+            } catch (IOException e) {
+                return;
+            }
+            connections.execute(() -> {
+                try (socket;
+                     InputStream in = new BufferedInputStream(socket.getInputStream());
+                     OutputStream out = socket.getOutputStream()) {
+                    String hello = (String) Internals.READ_LINE.invokeExact(in);
+                    Internals.SERVE_MUX.invokeExact("ACS", hello, in, out, (Executor) workers, handler);
+                } catch (Throwable e) {
+                    // Channel closed at tear down
+                }
+            });
+        }
+    }
+
+    private static SSLContext sslContext(String keystorePath, String truststorePath) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        try (InputStream in = new FileInputStream(keystorePath)) {
+            keyStore.load(in, PASSWORD.toCharArray());
+        }
+        KeyStore trustStore = KeyStore.getInstance("JKS");
+        try (InputStream in = new FileInputStream(truststorePath)) {
+            trustStore.load(in, PASSWORD.toCharArray());
+        }
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keyStore, PASSWORD.toCharArray());
+        TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(trustStore);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keyManagers.getKeyManagers(), trustManagers.getTrustManagers(), null);
+        return context;
+    }
+}
@@ -0,0 +1,103 @@
+package benchmarks;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+import modules.AcsGroup;
+import modules.CardBrand;
+import modules.PaymentInfo;
+
+// Internals.java
+// The servers live in the default package, which named packages cannot import, and JMH refuses
+// benchmarks in the default package. The suites reach the code under test through these handles
+// instead: static final MethodHandles are constants to the JIT and get inlined like direct calls.
+final class Internals {
+    static final MethodHandle VALIDATE_CARD_NUMBER;    // (String) CardBrand
+    static final MethodHandle CONTACT_ACS;             // (PaymentInfo, Object, long) CompletableFuture
+    static final MethodHandle NEW_BIN_ROUTES;          // (String) Object
+    static final MethodHandle ROUTE_BIN;               // (Object, String) AcsGroup
+    static final MethodHandle PARSE_PAYMENT;           // (String) PaymentInfo
+    static final MethodHandle HASH_PASSWORD;           // (String, String) String
+    static final MethodHandle VERIFY_PASSWORD;         // (String, String, String) boolean
+    static final MethodHandle GENERATE_SALT;           // () String
+    static final MethodHandle NEW_CARDHOLDERS;         // (String) Object
+    static final MethodHandle VERIFY_CARD;             // (Object, String, int, int, String, String) boolean
+    static final MethodHandle CONFIRM_PAYMENT_PAGE;    // () Object
+    static final MethodHandle PAYMENT_FAILED_PAGE;     // () Object
+    static final MethodHandle WRITE_PAGE;              // (Object, OutputStream, Object[]) void
+    static final MethodHandle NEW_CHANNEL_POOL;        // (String, String, int, Supplier, int, long, int, long, boolean) Object
+    static final MethodHandle CLOSE_CHANNEL_POOL;      // (Object) void
+    static final MethodHandle READ_LINE;               // (InputStream) String
+    static final MethodHandle SERVE_MUX;               // (String, String, InputStream, OutputStream, Executor, Object) void
+    static final Class<?> REQUEST_HANDLER;             // MuxServerSession.RequestHandler
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            Class<?> acqServer = Class.forName("AcqServer");
+            MethodHandles.Lookup acq = MethodHandles.privateLookupIn(acqServer, lookup);
+            Class<?> channelPool = Class.forName("MuxChannelPool");
+            CONTACT_ACS = acq.findStatic(acqServer, "contactAcs", MethodType.methodType(CompletableFuture.class, PaymentInfo.class, channelPool, long.class))
+                    .asType(MethodType.methodType(CompletableFuture.class, PaymentInfo.class, Object.class, long.class));
+
+            VALIDATE_CARD_NUMBER = lookup.findStatic(Class.forName("CardNumberValidator"), "validate", MethodType.methodType(CardBrand.class, String.class));
+
+            Class<?> binRoutes = Class.forName("BinRoutingTable");
+            NEW_BIN_ROUTES = lookup.findConstructor(binRoutes, MethodType.methodType(void.class, String.class))
+                    .asType(MethodType.methodType(Object.class, String.class));
+            ROUTE_BIN = lookup.findVirtual(binRoutes, "route", MethodType.methodType(AcsGroup.class, String.class))
+                    .asType(MethodType.methodType(AcsGroup.class, Object.class, String.class));
+
+            Class<?> paymentJson = Class.forName("PaymentJson");
+            PARSE_PAYMENT = lookup.findStatic(paymentJson, "parse", MethodType.methodType(PaymentInfo.class, String.class));
+
+            Class<?> passwordUtils = Class.forName("PasswordUtils");
+            HASH_PASSWORD = lookup.findStatic(passwordUtils, "hashPassword", MethodType.methodType(String.class, String.class, String.class));
+            VERIFY_PASSWORD = lookup.findStatic(passwordUtils, "verifyPassword", MethodType.methodType(boolean.class, String.class, String.class, String.class));
+            GENERATE_SALT = lookup.findStatic(passwordUtils, "generateSalt", MethodType.methodType(String.class));
+
+            Class<?> cardholders = Class.forName("InMemoryCardholderRepository");
+            NEW_CARDHOLDERS = lookup.findConstructor(cardholders, MethodType.methodType(void.class, String.class))
+                    .asType(MethodType.methodType(Object.class, String.class));
+            VERIFY_CARD = lookup.findVirtual(cardholders, "verify", MethodType.methodType(boolean.class, String.class, int.class, int.class, String.class, String.class))
+                    .asType(MethodType.methodType(boolean.class, Object.class, String.class, int.class, int.class, String.class, String.class));
+
+            Class<?> acsPages = Class.forName("AcsPages");
+            Class<?> pageTemplate = Class.forName("PageTemplate");
+            CONFIRM_PAYMENT_PAGE = lookup.findStaticGetter(acsPages, "CONFIRM_PAYMENT", pageTemplate)
+                    .asType(MethodType.methodType(Object.class));
+            PAYMENT_FAILED_PAGE = lookup.findStaticGetter(acsPages, "PAYMENT_FAILED", pageTemplate)
+                    .asType(MethodType.methodType(Object.class));
+            WRITE_PAGE = lookup.findVirtual(pageTemplate, "writeTo", MethodType.methodType(void.class, OutputStream.class, Object[].class))
+                    .asType(MethodType.methodType(void.class, Object.class, OutputStream.class, Object[].class))
+                    .asFixedArity();
+
+            NEW_CHANNEL_POOL = lookup.findConstructor(channelPool, MethodType.methodType(void.class, String.class, String.class, int.class,
+                            Supplier.class, int.class, long.class, int.class, long.class, boolean.class))
+                    .asType(MethodType.methodType(Object.class, String.class, String.class, int.class,
+                            Supplier.class, int.class, long.class, int.class, long.class, boolean.class));
+            CLOSE_CHANNEL_POOL = lookup.findVirtual(channelPool, "close", MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(void.class, Object.class));
+
+            Class<?> wireCodec = Class.forName("WireCodec");
+            READ_LINE = lookup.findStatic(wireCodec, "readLine", MethodType.methodType(String.class, InputStream.class));
+            Class<?> serverSession = Class.forName("MuxServerSession");
+            REQUEST_HANDLER = Class.forName("MuxServerSession$RequestHandler");
+            SERVE_MUX = lookup.findStatic(serverSession, "serve", MethodType.methodType(void.class, String.class, String.class,
+                            InputStream.class, OutputStream.class, Executor.class, REQUEST_HANDLER))
+                    .asType(MethodType.methodType(void.class, String.class, String.class,
+                            InputStream.class, OutputStream.class, Executor.class, Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Internals() {
+    }
+}
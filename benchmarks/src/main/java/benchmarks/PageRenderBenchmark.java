@@ -0,0 +1,51 @@
+package benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// PageRenderBenchmark.java
+// Step 9 on the ACS: the precompiled validation pages written out, one with slots to HTML-escape,
+// one with a slot to percent-encode as well.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PageRenderBenchmark {
+    private Object confirmPayment;
+    private Object paymentFailed;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+
+    @Setup
+    public void setUp() throws Throwable {
+        confirmPayment = (Object) Internals.CONFIRM_PAYMENT_PAGE.invokeExact();
+        paymentFailed = (Object) Internals.PAYMENT_FAILED_PAGE.invokeExact();
+    }
+
+    @Benchmark
+    public int confirmPaymentPage() throws Throwable {
+        out.reset();
+        Internals.WRITE_PAGE.invokeExact(confirmPayment, (OutputStream) out, new Object[]{"6f1c2b9e-3d4a-4c8b-9a57-1e2f3a4b5c6d"});
+        return out.size();
+    }
+
+    @Benchmark
+    public int paymentFailedPage() throws Throwable {
+        out.reset();
+        Internals.WRITE_PAGE.invokeExact(paymentFailed, (OutputStream) out, new Object[]{"too_many_attempts", "<6f1c2b9e & co>"});
+        return out.size();
+    }
+}
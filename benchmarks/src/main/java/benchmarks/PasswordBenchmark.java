@@ -0,0 +1,44 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// PasswordBenchmark.java
+// Step 9 on the ACS: the salted hash computed for every bank login attempt.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PasswordBenchmark {
+    public String password = "securePass";
+    public String salt;
+    public String storedHash;
+
+    @Setup
+    public void setUp() throws Throwable {
+        salt = (String) Internals.GENERATE_SALT.invokeExact();
+        storedHash = (String) Internals.HASH_PASSWORD.invokeExact(password, salt);
+    }
+
+    @Benchmark
+    public String hashPassword() throws Throwable {
+        return (String) Internals.HASH_PASSWORD.invokeExact(password, salt);
+    }
+
+    @Benchmark
+    public boolean verifyPassword() throws Throwable {
+        return (boolean) Internals.VERIFY_PASSWORD.invokeExact(password, storedHash, salt);
+    }
+}
@@ -0,0 +1,34 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import modules.PaymentInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// PaymentJsonBenchmark.java
+// Step 2 on the HttpsServer: the /initiate-payment body parsed into a PaymentInfo.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PaymentJsonBenchmark {
+    // What MerchantSimulator sends
+    public String payload = "{\"tokenA\":\"6f1c2b9e-3d4a-4c8b-9a57-1e2f3a4b5c6d\",\"clientName\":\"Joe\","
+            + "\"cardNumber\":\"1234123412341238\",\"month\":12,\"year\":2025,\"cvv\":123,"
+            + "\"dueAmount\":49.99,\"receiverIdToken\":\"merchant-42\"}";
+
+    @Benchmark
+    public PaymentInfo parse() throws Throwable {
+        return (PaymentInfo) Internals.PARSE_PAYMENT.invokeExact(payload);
+    }
+}
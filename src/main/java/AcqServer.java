@@ -2,17 +2,35 @@
 import javax.net.ssl.*;
 import java.io.*;
 import java.security.KeyStore;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 // Removed unused imports: PrivateKey, Signature
 
-import org.json.JSONObject; // Added for JSON handling
-import org.json.JSONException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import io.javalin.Javalin;
+import modules.AcsEndpoint;
+import modules.AcsGroup;
+import modules.CardBrand;
+import modules.PaymentInfo;
+import modules.ValidationResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class AcqServer {
+    private static final Logger log = LoggerFactory.getLogger(AcqServer.class);
     // Port for listening to HttpsServer
     private static final int ACQ_LISTEN_PORT = 8443;
-    // Port for connecting to AcsServer
-    private static final int ACS_CONNECT_PORT = 5050;
-    private static final String ACS_HOST = "localhost"; // Assuming ACS is on the same machine
+    // Which ACS serves which card BINs, and how often the file is checked for changes
+    private static final String BIN_ROUTES_PATH = Config.setting("acq.binRoutesFile", "./routing/bin-routes.txt");
+    private static final long BIN_ROUTES_CHECK_INTERVAL_MS = Config.longSetting("acq.binRoutesCheckIntervalMs", 30_000);
 
     // Keystore for ACQ's identity (private key)
     private static final String KEYSTORE_PATH = "./keystore/acqKeystore.jks";
@@ -20,6 +38,77 @@ public class AcqServer {
     private static final String TRUSTSTORE_PATH = "./truststore/acqTruststore.jks";
     private static final String PASSWORD = "password";
 
+    // Listener concurrency: connections served at once, socket read timeout and shutdown grace period
+    private static final int ACQ_MAX_CONCURRENCY = Config.intSetting("acq.maxConcurrency", 256);
+    private static final int ACQ_READ_TIMEOUT_MS = Config.intSetting("acq.readTimeoutMs", 30_000);
+    private static final long ACQ_SHUTDOWN_GRACE_MS = Config.longSetting("acq.shutdownGraceMs", 10_000);
+
+    // Requests in flight on keep-alive (multiplexed) connections, counted until their response is sent,
+    // and how long such a connection may stay silent
+    private static final int ACQ_MAX_IN_FLIGHT_REQUESTS = Config.intSetting("acq.maxInFlightRequests", 1024);
+    private static final int ACQ_MUX_IDLE_TIMEOUT_MS = Config.intSetting("acq.muxIdleTimeoutMs", 60_000);
+
+    private static final Semaphore connectionPermits = new Semaphore(ACQ_MAX_CONCURRENCY);
+    private static final Semaphore requestPermits = new Semaphore(ACQ_MAX_IN_FLIGHT_REQUESTS);
+    private static final ExecutorService connectionExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private static volatile SSLServerSocket listenerSocket;
+    // Listener transport: "nio" serves every connection from a few event-loop threads (TlsEventLoopServer),
+    // "blocking" gives each connection its own virtual thread, at most ACQ_MAX_CONCURRENCY of them
+    private static final String ACQ_TRANSPORT = Config.setting("acq.transport", "nio");
+    private static final int ACQ_EVENT_LOOPS = Config.intSetting("acq.eventLoops", Runtime.getRuntime().availableProcessors());
+    private static final int ACQ_MAX_CONNECTIONS = Config.intSetting("acq.maxConnections", 50_000);
+    // Replies a connection may have waiting for a peer that does not read them before it is closed
+    private static final long ACQ_MAX_QUEUED_BYTES = Config.longSetting("acq.maxQueuedBytesPerConnection", 16L << 20);
+    private static volatile TlsEventLoopServer eventLoopServer;
+
+    // Persistent, multiplexed connections to each ACS (one TLS handshake per connection, not per request)
+    private static final int ACS_POOL_SIZE = Config.intSetting("acq.acsPoolSize", 4);
+    private static final long ACS_REQUEST_TIMEOUT_MS = Config.longSetting("acq.acsRequestTimeoutMs", 10_000);
+    private static final int ACS_CONNECT_TIMEOUT_MS = Config.intSetting("acq.acsConnectTimeoutMs", 5_000);
+    private static final long ACS_HEALTH_CHECK_INTERVAL_MS = Config.longSetting("acq.acsHealthCheckIntervalMs", 10_000);
+    // Offer the binary frame format to ACS; text frames are used when this is off or ACS does not support it
+    private static final boolean ACS_BINARY_WIRE = Config.booleanSetting("acq.acsBinaryWire", true);
+    // Enrollments for the same ACS instance sent together under load: at most this many per batch, held at
+    // most this long (0 or 1 item turns batching off)
+    private static final int ACS_BATCH_MAX_ITEMS = Config.intSetting("acq.acsBatchMaxItems", 32);
+    private static final long ACS_BATCH_WINDOW_MICROS = Config.longSetting("acq.acsBatchWindowMicros", 200);
+    // Failures in a row that take an ACS instance out of rotation, and for how long
+    private static final int ACS_BREAKER_FAILURES = Config.intSetting("acq.acsBreakerFailures", 5);
+    private static final long ACS_BREAKER_OPEN_MS = Config.longSetting("acq.acsBreakerOpenMs", 10_000);
+    private static BinRoutingTable binRoutes;
+    private static AcsBalancer acsBalancer;
+    private static Supplier<SSLSocketFactory> acsSocketFactory;
+    private static ScheduledExecutorService backgroundTasks;
+    private static volatile boolean running = true;
+
+    // Prometheus scrape endpoint on its own port, ACQ has no HTTP server otherwise (0 disables it)
+    private static final int METRICS_PORT = Config.intSetting("acq.metricsPort", 9464);
+    private static final Metrics.Counter acceptedConnections = Metrics.counter(
+            "acq_connections_total", "Connections from HttpsServer, served or turned away as busy", "result", "accepted");
+    private static final Metrics.Counter rejectedConnections = Metrics.counter(
+            "acq_connections_total", "Connections from HttpsServer, served or turned away as busy", "result", "rejected");
+    private static final Metrics.Histogram handshakeSeconds = Metrics.histogram(
+            "tls_server_handshake_duration_seconds", "TLS handshake time of incoming connections", "listener", "acq");
+    private static final Metrics.Counter invalidCards = Metrics.counter(
+            "acq_card_checks_total", "Card numbers checked (digits, Luhn, brand length) by brand", "brand", "invalid");
+    private static final Metrics.Counter[] validCardsByBrand = new Metrics.Counter[CardBrand.values().length];
+    private static final Metrics.Counter unroutedCards = Metrics.counter(
+            "acq_unrouted_cards_total", "Valid card numbers whose BIN matches no ACS");
+    private static final Metrics.Histogram acsRoundTripSeconds = Metrics.histogram(
+            "acq_acs_request_duration_seconds", "ACQ to ACS round trip of one enrollment request, per attempt");
+    private static final Metrics.Counter[] acsResultsByCode = new Metrics.Counter[ValidationResult.Code.values().length];
+
+    static {
+        for (CardBrand brand : CardBrand.values()) {
+            validCardsByBrand[brand.ordinal()] = Metrics.counter("acq_card_checks_total",
+                    "Card numbers checked (digits, Luhn, brand length) by brand", "brand", brand.name().toLowerCase());
+        }
+        for (ValidationResult.Code code : ValidationResult.Code.values()) {
+            acsResultsByCode[code.ordinal()] = Metrics.counter("acq_acs_results_total",
+                    "Outcome of ACQ to ACS requests, per attempt", "code", code.name());
+        }
+    }
+
     public static void main(String[] args) throws Exception {
         // Load ACQ's KeyStore (contains its private key and certificate)
         KeyStore keyStore = KeyStore.getInstance("JKS");
@@ -43,130 +132,341 @@ public class AcqServer {
         // Init with KeyManagers (ACQ's identity) and TrustManagers (who ACQ trusts)
         sslContext.init(keyManagerFactory.getKeyManagers(), trustManagerFactory.getTrustManagers(), null);
 
+        // Client side of the ACQ -> ACS hop, sharing the same SSLContext
+        acsSocketFactory = sslContext::getSocketFactory;
+        binRoutes = new BinRoutingTable(BIN_ROUTES_PATH);
+        acsBalancer = new AcsBalancer(AcqServer::openAcsChannels, AcqServer::contactAcs, ACS_BREAKER_FAILURES, ACS_BREAKER_OPEN_MS);
+
+        backgroundTasks = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "acq-background");
+            t.setDaemon(true);
+            return t;
+        });
+        // Snapshot reload runs here, lookups keep using the previous snapshot until it is swapped in
+        backgroundTasks.scheduleWithFixedDelay(AcqServer::reloadRoutes, BIN_ROUTES_CHECK_INTERVAL_MS, BIN_ROUTES_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
         // Start the server thread to listen for connections from HttpsServer
         Thread serverThread = new Thread(() -> {
             try {
-                startAcqServerListener(sslContext);
+                if ("blocking".equals(ACQ_TRANSPORT)) {
+                    startAcqServerListener(sslContext);
+                } else {
+                    startEventLoopListener(sslContext);
+                }
             } catch (Exception e) {
-                System.err.println("ACQ Server Listener failed: " + e.getMessage());
-                e.printStackTrace();
+                log.error("ACQ Server Listener failed", e);
             }
         });
 
         serverThread.start();
+
+        Metrics.gauge("acq_connections_active", "Connections from HttpsServer being served",
+                AcqServer::activeConnections);
+        Metrics.gauge("acq_requests_in_flight", "Multiplexed requests waiting for their answer",
+                () -> ACQ_MAX_IN_FLIGHT_REQUESTS - requestPermits.availablePermits());
+        Metrics.gauge("acq_bin_ranges", "BIN ranges in the routing table", () -> binRoutes.size());
+        Metrics.counterFunction("acq_acs_retries_total", "Requests retried on another ACS instance", acsBalancer::retried);
+        Metrics.counterFunction("acq_acs_unavailable_total", "Requests with no ACS instance available", acsBalancer::rejected);
+        if (METRICS_PORT > 0) {
+            Javalin.create().get("/metrics", Metrics::handle).start(METRICS_PORT);
+            log.info("Metrics on port {} at /metrics", METRICS_PORT);
+        }
+
+        // Stop accepting and drain in-flight requests on SIGTERM / Ctrl+C
+        Runtime.getRuntime().addShutdownHook(new Thread(AcqServer::shutdown, "acq-shutdown"));
     }
 
     // Listens for connections from HttpsServer (Step 3)
+    // Each accepted socket is handed to its own virtual thread, so a slow ACS round-trip
+    // only holds up the merchant that triggered it. At most ACQ_MAX_CONCURRENCY connections
+    // are served at once; above that the client immediately gets "ERROR: busy".
     private static void startAcqServerListener(SSLContext sslContext) throws IOException {
         SSLServerSocketFactory serverSocketFactory = sslContext.getServerSocketFactory();
         try (SSLServerSocket serverSocket = (SSLServerSocket) serverSocketFactory.createServerSocket(ACQ_LISTEN_PORT)) {
             // Optional: Require client authentication if HttpsServer should present a certificate
             // serverSocket.setNeedClientAuth(true);
-            System.out.println("ACQ Server listening on port " + ACQ_LISTEN_PORT);
-
-            while (true) {
-                try (SSLSocket httpsClientSocket = (SSLSocket) serverSocket.accept();
-                     BufferedReader in = new BufferedReader(new InputStreamReader(httpsClientSocket.getInputStream()));
-                     BufferedWriter out = new BufferedWriter(new OutputStreamWriter(httpsClientSocket.getOutputStream()))) {
+            listenerSocket = serverSocket;
+            log.info("ACQ Server listening on port {} (max {} concurrent connections)", ACQ_LISTEN_PORT, ACQ_MAX_CONCURRENCY);
 
-                    System.out.println("ACQ Server: Connection received from " + httpsClientSocket.getInetAddress());
-                    String requestJson = in.readLine(); // Read JSON from HttpsServer
-                    System.out.println("ACQ Server: Received data: " + requestJson);
-
-                    if (requestJson == null || requestJson.isEmpty()) {
-                        System.err.println("ACQ Server: Received empty request.");
-                        continue;
+            while (running) {
+                SSLSocket httpsClientSocket;
+                try {
+                    httpsClientSocket = (SSLSocket) serverSocket.accept();
+                } catch (IOException e) {
+                    if (!running) {
+                        break; // Server socket closed by the shutdown hook
                     }
+                    log.warn("Error accepting connection: {}", e.getMessage());
+                    continue;
+                }
 
-                    String validationLink = "ERROR: Processing failed"; // Default error response
-                    try {
-                        JSONObject paymentData = new JSONObject(requestJson);
-                        String cardNumber = paymentData.optString("cardNumber", "");
-
-                        // Step 4: Basic card validation and routing
-                        if (isCardPlausible(cardNumber)) {
-                            // Route to ACS based on card number (simplified)
-                            if (shouldRouteToAcs(cardNumber)) {
-                                // Step 4 & 5: Contact ACS Server
-                                validationLink = contactAcs(sslContext, requestJson); // Pass the original JSON
-                            } else {
-                                System.out.println("ACQ Server: Card number " + cardNumber + " not routed to known ACS.");
-                                // In a real system, might route to a default handler or reject
-                                validationLink = "ERROR: Card issuer not supported";
-                            }
-                        } else {
-                            System.out.println("ACQ Server: Card number " + cardNumber + " is not plausible.");
-                            validationLink = "ERROR: Invalid card number format";
+                if (!connectionPermits.tryAcquire()) {
+                    rejectedConnections.increment();
+                    // Backpressure: answer on a separate thread so the TLS handshake of a rejected
+                    // client cannot stall the accept loop either
+                    connectionExecutor.execute(() -> rejectBusy(httpsClientSocket));
+                    continue;
+                }
+                acceptedConnections.increment();
+                try {
+                    connectionExecutor.execute(() -> {
+                        try {
+                            handleHttpsConnection(httpsClientSocket);
+                        } finally {
+                            connectionPermits.release();
                         }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // Executor already shut down
+                    connectionPermits.release();
+                    closeQuietly(httpsClientSocket);
+                }
+            } // end while(running)
+        } // end try-with-resources (serverSocket)
+        log.info("Listener stopped");
+    }
 
-                    } catch (JSONException e) {
-                        System.err.println("ACQ Server: Invalid JSON received: " + requestJson + " - Error: " + e.getMessage());
-                        validationLink = "ERROR: Invalid request format";
-                    } catch (Exception e) {
-                        System.err.println("ACQ Server: Error processing request: " + e.getMessage());
-                        e.printStackTrace();
-                        validationLink = "ERROR: Internal ACQ error";
-                    }
+    // Same exchanges as startAcqServerListener, on TlsEventLoopServer: connections cost no thread while
+    // idle, only their requests run on connectionExecutor. Beyond ACQ_MAX_CONNECTIONS, "ERROR: busy".
+    private static void startEventLoopListener(SSLContext sslContext) throws IOException {
+        TlsEventLoopServer server = new TlsEventLoopServer("ACQ Server", sslContext, ACQ_LISTEN_PORT, ACQ_EVENT_LOOPS,
+                ACQ_MAX_CONNECTIONS, ACQ_READ_TIMEOUT_MS, Integer.BYTES + BinaryWireCodec.MAX_FRAME_LENGTH, ACQ_MAX_QUEUED_BYTES,
+                "ERROR: busy\n", acceptedConnections, rejectedConnections, handshakeSeconds,
+                connection -> new MuxServerConnection("ACQ Server", connectionExecutor, AcqServer::processLimited,
+                        connectionExecutor, AcqServer::answerLegacyRequest, ACQ_MUX_IDLE_TIMEOUT_MS));
+        eventLoopServer = server;
+        server.serve();
+    }
 
-                    // Step 6: Send the validation link (or error) back to HttpsServer
-                    System.out.println("ACQ Server: Sending response back to HttpsServer: " + validationLink);
-                    out.write(validationLink + "\n");
-                    out.flush();
+    // Handles a single HttpsServer connection. A connection that opens with the multiplexed-protocol
+    // hello is kept alive and carries many requests; otherwise one request line in, one response line out.
+    private static void handleHttpsConnection(SSLSocket httpsClientSocket) {
+        try (httpsClientSocket;
+             InputStream in = new BufferedInputStream(httpsClientSocket.getInputStream());
+             OutputStream out = httpsClientSocket.getOutputStream()) {
 
-                } catch (IOException e) {
-                    System.err.println("ACQ Server: Error handling connection: " + e.getMessage());
-                    // Continue listening for next connection
-                } catch (Exception e) {
-                    System.err.println("ACQ Server: Unexpected error: " + e.getMessage());
-                    e.printStackTrace();
+            httpsClientSocket.setSoTimeout(ACQ_READ_TIMEOUT_MS);
+            // Explicit, so the handshake is timed apart from the first read
+            long handshakeStart = System.nanoTime();
+            httpsClientSocket.startHandshake();
+            handshakeSeconds.observeSince(handshakeStart);
+            log.debug("Connection received from {}", httpsClientSocket.getInetAddress());
+            String requestJson = WireCodec.readLine(in); // Read JSON (or the multiplexed hello) from HttpsServer
+
+            if (MuxServerSession.isHello(requestJson)) {
+                // Keep-alive channel from HttpsServer, which pings well within the idle timeout
+                log.info("Multiplexed channel ({}) opened by {}", requestJson, httpsClientSocket.getInetAddress());
+                httpsClientSocket.setSoTimeout(ACQ_MUX_IDLE_TIMEOUT_MS);
+                MuxServerSession.serve("ACQ Server", requestJson, in, out, connectionExecutor, AcqServer::processLimited);
+                log.info("Multiplexed channel closed by {}", httpsClientSocket.getInetAddress());
+                return;
+            }
+
+            if (requestJson == null || requestJson.isEmpty()) {
+                log.warn("Received empty request");
+                return;
+            }
+
+            ValidationResult result = answerLegacyRequest(requestJson);
+
+            // Step 6: Send the validation link (or error) back to HttpsServer
+            log.debug("Sending response back to HttpsServer: {}", result);
+            WireCodec.writeLine(out, result.toLine());
+
+        } catch (IOException e) {
+            log.warn("Error handling connection: {}", e.getMessage());
+        } catch (Exception e) {
+            log.error("Unexpected error", e);
+        }
+    }
+
+    // One request line of the original exchange (one request per connection), answered once ACS has
+    private static ValidationResult answerLegacyRequest(String requestJson) {
+        try {
+            return processPaymentRequest(PaymentJson.parse(requestJson), MuxChannelPool.NO_DEADLINE).join();
+        } catch (JsonProcessingException e) {
+            // The request is not logged, it holds card data
+            log.warn("Invalid JSON received ({} bytes): {}", requestJson.length(), PaymentJson.describe(e));
+            return ValidationResult.error(ValidationResult.Code.INVALID_REQUEST, "Invalid request format");
+        }
+    }
+
+    // Steps 4 & 5: Validates and routes one payment request. The future completes with the validation
+    // link (or an error) once ACS answers; no thread waits for ACS in the meantime.
+    private static CompletableFuture<ValidationResult> processPaymentRequest(PaymentInfo payment, long deadlineMillis) {
+        ValidationResult result;
+        try {
+            String cardNumber = payment.getCardNumber();
+
+            // Step 4: Basic card validation and routing
+            CardBrand brand = CardNumberValidator.validate(cardNumber);
+            (brand != null ? validCardsByBrand[brand.ordinal()] : invalidCards).increment();
+            if (brand != null) {
+                // Route to the issuer's ACS based on the card's BIN
+                AcsGroup acs = binRoutes.route(cardNumber);
+                if (acs != null) {
+                    // Step 4 & 5: Contact ACS Server
+                    String tokenA = payment.getTokenA();
+                    if (tokenA == null || tokenA.isEmpty()) {
+                        result = ValidationResult.error(ValidationResult.Code.INVALID_REQUEST, "Missing tokenA");
+                    } else {
+                        return acsBalancer.send(acs, payment, deadlineMillis);
+                    }
+                } else {
+                    unroutedCards.increment();
+                    log.atInfo().addKeyValue("tokenA", payment.getTokenA()).addKeyValue("cardNumber", cardNumber)
+                            .log("Card number not routed to known ACS");
+                    // In a real system, might route to a default handler or reject
+                    result = ValidationResult.error(ValidationResult.Code.ISSUER_NOT_SUPPORTED, "Card issuer not supported");
                 }
-            } // end while(true)
-        } // end try-with-resources (serverSocket)
+            } else {
+                log.atInfo().addKeyValue("tokenA", payment.getTokenA()).addKeyValue("cardNumber", cardNumber)
+                        .log("Card number is not plausible");
+                result = ValidationResult.error(ValidationResult.Code.INVALID_CARD, "Invalid card number");
+            }
+
+        } catch (Exception e) {
+            log.atError().addKeyValue("tokenA", payment.getTokenA()).setCause(e).log("Error processing request");
+            result = ValidationResult.error(ValidationResult.Code.ERROR, "Internal ACQ error");
+        }
+
+        return CompletableFuture.completedFuture(result);
     }
 
-    // Step 4: Basic Plausibility Check (Example)
-    private static boolean isCardPlausible(String cardNumber) {
-        // Vérifie s'il y a entre 13 et 19 chiffres pour le numéro de carte
-        // on peut aussi verifier si le nombre 4 est le début de la carte Visa
-        return cardNumber != null && cardNumber.matches("\\d{13,19}");
+    // Runs one request from a multiplexed channel within the in-flight limit; the permit is
+    // held until the response is ready, not just while a thread is working on it
+    private static CompletableFuture<ValidationResult> processLimited(PaymentInfo payment, long deadlineMillis) {
+        if (!requestPermits.tryAcquire()) {
+            log.atWarn().addKeyValue("tokenA", payment.getTokenA()).log("Too many in-flight requests, rejecting request");
+            return CompletableFuture.completedFuture(ValidationResult.busy());
+        }
+        CompletableFuture<ValidationResult> response;
+        try {
+            response = processPaymentRequest(payment, deadlineMillis);
+        } catch (RuntimeException e) {
+            requestPermits.release();
+            throw e;
+        }
+        return response.whenComplete((result, error) -> requestPermits.release());
     }
 
-    // Step 4: Routing Logic (Simplified Example)
-    private static boolean shouldRouteToAcs(String cardNumber) {
-        // Route cards starting with "1234" to our example ACS
-        return cardNumber != null && cardNumber.startsWith("1234");
+    // Tells a client that arrived while all permits are taken to come back later
+    private static void rejectBusy(SSLSocket socket) {
+        try (socket;
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()))) {
+            socket.setSoTimeout(ACQ_READ_TIMEOUT_MS);
+            log.warn("Too many concurrent connections, rejecting {}", socket.getInetAddress());
+            out.write("ERROR: busy\n");
+            out.flush();
+        } catch (IOException e) {
+            log.warn("Error rejecting connection: {}", e.getMessage());
+        }
     }
 
-    // Step 4 & 5: Connects to ACS, sends data, receives validation link
-    private static String contactAcs(SSLContext sslContext, String paymentDataJson) {
-        // Use the *same* SSLContext, which has KeyManagers and TrustManagers configured
-        SSLSocketFactory socketFactory = sslContext.getSocketFactory();
-        try (SSLSocket socket = (SSLSocket) socketFactory.createSocket(ACS_HOST, ACS_CONNECT_PORT);
-             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+    // Connections from HttpsServer open on either transport
+    private static int activeConnections() {
+        TlsEventLoopServer server = eventLoopServer;
+        return ACQ_MAX_CONCURRENCY - connectionPermits.availablePermits() + (server != null ? server.activeConnections() : 0);
+    }
 
-            System.out.println("ACQ Server: Connecting to ACS Server on port " + ACS_CONNECT_PORT);
-            socket.startHandshake(); // Explicitly start handshake
-            System.out.println("ACQ Server: Connection with ACS established.");
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
 
-            // Send payment data (JSON) to ACS
-            out.write(paymentDataJson + "\n");
-            out.flush();
-            System.out.println("ACQ Server: Sent data to ACS: " + paymentDataJson);
+    // Stops accepting, then gives in-flight authentications a grace period to finish
+    private static void shutdown() {
+        log.info("Shutting down...");
+        running = false;
+        SSLServerSocket serverSocket = listenerSocket;
+        if (serverSocket != null) {
+            closeQuietly(serverSocket);
+        }
+        TlsEventLoopServer server = eventLoopServer;
+        if (server != null) {
+            server.stopAccepting();
+        }
+        connectionExecutor.shutdown();
+        try {
+            if (!connectionExecutor.awaitTermination(ACQ_SHUTDOWN_GRACE_MS, TimeUnit.MILLISECONDS)) {
+                log.warn("{} connection(s) still active after grace period, forcing shutdown", activeConnections());
+                connectionExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            connectionExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        if (server != null) {
+            server.close();
+        }
+        if (backgroundTasks != null) {
+            backgroundTasks.shutdownNow();
+        }
+        if (acsBalancer != null) {
+            acsBalancer.close();
+        }
+    }
+
+    // Channel pool to one ACS instance, opened by the balancer on its first request
+    private static MuxChannelPool openAcsChannels(AcsEndpoint acs) {
+        return new MuxChannelPool("ACS " + acs.getName() + "@" + acs.getHost() + ":" + acs.getPort(), acs.getHost(), acs.getPort(),
+                acsSocketFactory, ACS_POOL_SIZE, ACS_REQUEST_TIMEOUT_MS, ACS_CONNECT_TIMEOUT_MS, ACS_HEALTH_CHECK_INTERVAL_MS, ACS_BINARY_WIRE,
+                ACS_BATCH_MAX_ITEMS, ACS_BATCH_WINDOW_MICROS);
+    }
 
-            // Receive validation link from ACS (Step 5)
-            String response = in.readLine();
-            System.out.println("ACQ Server: Received response from ACS: " + response);
-            if (response == null) {
-                return "ERROR: No response from ACS";
+    // Picks up edits to the routing file, then closes the pools of ACS it no longer declares. They are
+    // closed only after the request timeout, so requests already routed there still get their answer.
+    // Checked on every run, not just after a reload, which also catches a pool opened by a request
+    // that was routed with the previous snapshot.
+    private static void reloadRoutes() {
+        try {
+            binRoutes.reloadIfChanged();
+            for (MuxChannelPool retired : acsBalancer.retainOnly(binRoutes.endpoints())) {
+                backgroundTasks.schedule(retired::close, ACS_REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS);
             }
-            return response; // This should be the validation link or an error from ACS
+        } catch (RuntimeException e) {
+            // Keep the task scheduled
+            log.error("Error reloading BIN routes", e);
+        }
+    }
 
-        } catch (Exception e) {
-            System.err.println("ACQ Server: Error communicating with ACS: " + e.getMessage());
-            e.printStackTrace();
-            return "ERROR: Failed to connect or communicate with ACS";
+    // Step 4 & 5: Sends the payment data to one ACS instance over its persistent channel pool; the future completes with the
+    // validation link. tokenA is the correlation id, so responses can come back in any order on a shared connection,
+    // and the caller's deadline travels along so ACS does not work on requests nobody is waiting for anymore.
+    private static CompletableFuture<ValidationResult> contactAcs(PaymentInfo payment, MuxChannelPool acsChannels, long deadlineMillis) {
+        String tokenA = payment.getTokenA();
+        log.atDebug().addKeyValue("tokenA", tokenA).log("Sending data to ACS");
+        long start = System.nanoTime();
+        return acsChannels.sendAsync(payment, deadlineMillis).handle((response, error) -> {
+            acsRoundTripSeconds.observeSince(start);
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (cause instanceof MuxChannelPool.NotSentException) {
+                // Never reached the instance: left as a failure for the balancer, which may try another one
+                log.atWarn().addKeyValue("tokenA", tokenA).log("Could not reach ACS: {}", cause.getMessage());
+                acsResultsByCode[ValidationResult.Code.UPSTREAM_FAILURE.ordinal()].increment();
+                throw new CompletionException(cause);
+            }
+            ValidationResult result = toResult(tokenA, response, error);
+            acsResultsByCode[result.getCode().ordinal()].increment();
+            return result;
+        });
+    }
+
+    // Turns the outcome of one ACS exchange into the result passed back to the balancer
+    private static ValidationResult toResult(String tokenA, ValidationResult response, Throwable error) {
+        if (error != null) {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (cause instanceof TimeoutException) {
+                log.atWarn().addKeyValue("tokenA", tokenA).log("No answer from ACS in time");
+                return ValidationResult.deadlineExceeded();
+            }
+            log.atWarn().addKeyValue("tokenA", tokenA).log("Error communicating with ACS: {}", cause.getMessage());
+            return ValidationResult.error(ValidationResult.Code.UPSTREAM_FAILURE, "Failed to connect or communicate with ACS");
         }
+        log.atInfo().addKeyValue("tokenA", tokenA).log("Received response from ACS: {}", response);
+        return response; // This should be the validation link or an error from ACS
     }
 }
 // End of AcqServer.java //
\ No newline at end of file
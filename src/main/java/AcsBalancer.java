@@ -0,0 +1,257 @@
+// Beggining of AcsBalancer.java //
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import modules.AcsEndpoint;
+import modules.AcsGroup;
+import modules.PaymentInfo;
+import modules.ValidationResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Spreads enrollment requests over the ACS instances of an issuer and keeps unhealthy ones out.
+ *
+ * Each instance has its own channel pool, a count of requests in flight and an EWMA of its
+ * response time (weight 1/8, as TCP smooths round-trip times). A request goes to the better of
+ * two instances picked at random, the one with the lower latency x (in flight + 1); instances with
+ * no answer yet are compared on requests in flight alone, so a new one is not flooded before its
+ * first response. With one instance this is plain routing.
+ *
+ * A circuit breaker per instance opens after a run of failures (transport errors, timeouts) and
+ * takes the instance out of the rotation for a while. Once that time is up a single request is let
+ * through as a probe: an answer closes the breaker, another failure opens it again.
+ *
+ * A request that provably never reached an instance (no connection could be made to it, see
+ * {@link MuxChannelPool.NotSentException}) or that it turned away as busy is retried once on a
+ * different instance while its deadline allows. A failure after the request was written is not:
+ * the first instance may have acted on it. Timeouts are not retried either: the time is spent.
+ */
+public class AcsBalancer {
+    // How one request is sent to one instance; AcqServer.contactAcs, which turns errors into results
+    // except MuxChannelPool.NotSentException, left as a failure so the request can go elsewhere
+    interface Transport {
+        CompletableFuture<ValidationResult> send(PaymentInfo payment, MuxChannelPool channels, long deadlineMillis);
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(AcsBalancer.class);
+    private static final int EWMA_WEIGHT_SHIFT = 3; // New samples weigh 1/8
+
+    private final ConcurrentHashMap<AcsEndpoint, Node> nodes = new ConcurrentHashMap<>();
+    private final Function<AcsEndpoint, MuxChannelPool> poolFactory;
+    private final Transport transport;
+    private final int breakerFailureThreshold;
+    private final long breakerOpenMs;
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public AcsBalancer(Function<AcsEndpoint, MuxChannelPool> poolFactory, Transport transport,
+                       int breakerFailureThreshold, long breakerOpenMs) {
+        this.poolFactory = poolFactory;
+        this.transport = transport;
+        this.breakerFailureThreshold = Math.max(1, breakerFailureThreshold);
+        this.breakerOpenMs = breakerOpenMs;
+    }
+
+    public CompletableFuture<ValidationResult> send(AcsGroup group, PaymentInfo payment, long deadlineMillis) {
+        Node first = choose(group, null, System.currentTimeMillis());
+        if (first == null) {
+            rejected.incrementAndGet();
+            log.atWarn().addKeyValue("tokenA", payment.getTokenA()).log("No ACS instance of {} is available", group.getName());
+            return CompletableFuture.completedFuture(ValidationResult.error(ValidationResult.Code.UPSTREAM_FAILURE, "No ACS available"));
+        }
+        return attempt(first, payment, deadlineMillis).handle((result, error) -> {
+            long now = System.currentTimeMillis();
+            if (!isRetryable(result, error) || (deadlineMillis != MuxChannelPool.NO_DEADLINE && deadlineMillis <= now)) {
+                return CompletableFuture.completedFuture(orFailure(result));
+            }
+            Node second = choose(group, first, now);
+            if (second == null) {
+                return CompletableFuture.completedFuture(orFailure(result));
+            }
+            retried.incrementAndGet();
+            log.atInfo().addKeyValue("tokenA", payment.getTokenA())
+                    .log("Retrying on {} after {} from {}", second.endpoint, result != null ? result.getCode() : "no connection", first.endpoint);
+            return attempt(second, payment, deadlineMillis).handle((retry, retryError) -> orFailure(retry));
+        }).thenCompose(response -> response);
+    }
+
+    // Forgets the instances that are no longer declared and returns their channel pools, for the
+    // caller to close once requests already sent there have had time to finish
+    public List<MuxChannelPool> retainOnly(Collection<AcsEndpoint> declared) {
+        List<MuxChannelPool> retired = new ArrayList<>();
+        for (AcsEndpoint endpoint : nodes.keySet()) {
+            if (!declared.contains(endpoint)) {
+                Node node = nodes.remove(endpoint);
+                if (node != null) {
+                    log.info("{} removed from the routing file, closing its connections", endpoint);
+                    retired.add(node.channels);
+                }
+            }
+        }
+        return retired;
+    }
+
+    public void close() {
+        nodes.values().forEach(node -> node.channels.close());
+    }
+
+    public long retried() {
+        return retried.get();
+    }
+
+    public long rejected() {
+        return rejected.get();
+    }
+
+    // Requests that never reached the instance, or got turned away, are worth another instance
+    private static boolean isRetryable(ValidationResult result, Throwable error) {
+        return error != null || result.getCode() == ValidationResult.Code.BUSY;
+    }
+
+    // The only failure a transport leaves unconverted is a request that could not be sent
+    private static ValidationResult orFailure(ValidationResult result) {
+        return result != null ? result : ValidationResult.error(ValidationResult.Code.UPSTREAM_FAILURE, "Failed to connect to ACS");
+    }
+
+    private CompletableFuture<ValidationResult> attempt(Node node, PaymentInfo payment, long deadlineMillis) {
+        node.outstanding.incrementAndGet();
+        long start = System.nanoTime();
+        CompletableFuture<ValidationResult> response;
+        try {
+            response = transport.send(payment, node.channels, deadlineMillis);
+        } catch (RuntimeException e) {
+            node.outstanding.decrementAndGet();
+            node.onFailure(this);
+            throw e;
+        }
+        return response.whenComplete((result, error) -> {
+            node.outstanding.decrementAndGet();
+            if (error != null) {
+                node.onFailure(this);
+                return;
+            }
+            switch (result.getCode()) {
+                case UPSTREAM_FAILURE, DEADLINE_EXCEEDED -> node.onFailure(this);
+                // Overloaded but alive: closes the breaker, says nothing about its usual latency
+                case BUSY -> node.onAnswer(-1);
+                default -> node.onAnswer(System.nanoTime() - start);
+            }
+        });
+    }
+
+    // Power of two choices among the usable instances, excluding the one a retry comes from
+    private Node choose(AcsGroup group, Node excluded, long now) {
+        List<AcsEndpoint> instances = group.getInstances();
+        int count = instances.size();
+        if (count == 0) {
+            return null;
+        }
+        int firstIndex = 0;
+        if (count > 1) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            firstIndex = random.nextInt(count);
+            int secondIndex = random.nextInt(count - 1);
+            if (secondIndex >= firstIndex) {
+                secondIndex++;
+            }
+            Node best = better(node(instances.get(firstIndex)), node(instances.get(secondIndex)), excluded, now);
+            if (best != null && best.admit(now)) {
+                return best;
+            }
+        }
+        // Both picks unusable (or a single instance): first usable one, starting from a random place
+        for (int i = 0; i < count; i++) {
+            Node candidate = node(instances.get((firstIndex + i) % count));
+            if (candidate != excluded && candidate.isAvailable(now) && candidate.admit(now)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private static Node better(Node a, Node b, Node excluded, long now) {
+        boolean aUsable = a != excluded && a.isAvailable(now);
+        boolean bUsable = b != excluded && b.isAvailable(now);
+        if (!aUsable || !bUsable) {
+            return aUsable ? a : bUsable ? b : null;
+        }
+        long aLatency = a.latencyEwmaNanos.get();
+        long bLatency = b.latencyEwmaNanos.get();
+        long aLoad = a.outstanding.get() + 1L;
+        long bLoad = b.outstanding.get() + 1L;
+        if (aLatency == 0 || bLatency == 0) {
+            return aLoad <= bLoad ? a : b;
+        }
+        return aLatency * aLoad <= bLatency * bLoad ? a : b;
+    }
+
+    private Node node(AcsEndpoint endpoint) {
+        Node node = nodes.get(endpoint);
+        return node != null ? node : nodes.computeIfAbsent(endpoint, e -> new Node(e, poolFactory.apply(e)));
+    }
+
+    private static final class Node {
+        final AcsEndpoint endpoint;
+        final MuxChannelPool channels;
+        final AtomicInteger outstanding = new AtomicInteger();
+        final AtomicLong latencyEwmaNanos = new AtomicLong(); // 0 until the first answer
+        final AtomicInteger consecutiveFailures = new AtomicInteger();
+        final AtomicBoolean probing = new AtomicBoolean();
+        volatile long openUntilMillis; // 0 while the breaker is closed
+
+        Node(AcsEndpoint endpoint, MuxChannelPool channels) {
+            this.endpoint = endpoint;
+            this.channels = channels;
+        }
+
+        // Closed, or open long enough that a probe may go out and none is out yet
+        boolean isAvailable(long now) {
+            long openUntil = openUntilMillis;
+            return openUntil == 0 || (now >= openUntil && !probing.get());
+        }
+
+        // Called on the chosen instance: while the breaker is half-open only one caller gets through
+        boolean admit(long now) {
+            long openUntil = openUntilMillis;
+            if (openUntil == 0) {
+                return true;
+            }
+            return now >= openUntil && probing.compareAndSet(false, true);
+        }
+
+        void onAnswer(long latencyNanos) {
+            if (latencyNanos >= 0) {
+                latencyEwmaNanos.accumulateAndGet(latencyNanos, (average, sample) ->
+                        average == 0 ? sample : average + ((sample - average) >> EWMA_WEIGHT_SHIFT));
+            }
+            consecutiveFailures.set(0);
+            if (openUntilMillis != 0) {
+                openUntilMillis = 0;
+                log.info("{} answered again, back in rotation", endpoint);
+            }
+            probing.set(false);
+        }
+
+        void onFailure(AcsBalancer balancer) {
+            int failures = consecutiveFailures.incrementAndGet();
+            if (probing.get()) {
+                openUntilMillis = System.currentTimeMillis() + balancer.breakerOpenMs;
+                probing.set(false);
+                log.warn("Probe of {} failed, keeping it out for {} ms", endpoint, balancer.breakerOpenMs);
+            } else if (failures >= balancer.breakerFailureThreshold && openUntilMillis == 0) {
+                openUntilMillis = System.currentTimeMillis() + balancer.breakerOpenMs;
+                log.warn("{} failed {} times in a row, out of rotation for {} ms", endpoint, failures, balancer.breakerOpenMs);
+            }
+        }
+    }
+}
+// End of AcsBalancer.java //
@@ -0,0 +1,225 @@
+// Beggining of AcsPages.java //
+/**
+ * Pages of the ACS validation web server (Steps 8 and 9), compiled once at startup.
+ * They share one stylesheet, served by STYLESHEET at STYLESHEET_PATH and cached by the browser.
+ */
+public final class AcsPages {
+    public static final String STYLESHEET_PATH = "/assets/acs.css";
+
+    public static final StaticAsset STYLESHEET = new StaticAsset("""
+            body {
+              font-family: Arial, sans-serif;
+              margin: 0;
+              padding: 0;
+              background-color: #F5F5F5;
+              color: #0A2463;
+              display: flex;
+              justify-content: center;
+              align-items: center;
+              height: 100vh;
+            }
+
+            h1 {
+              color: #0A2463;
+              text-align: center;
+              margin-bottom: 20px;
+            }
+
+            p {
+              text-align: center;
+              margin-bottom: 20px;
+            }
+
+            a {
+              color: #00BFA5;
+              text-decoration: none;
+              font-weight: bold;
+            }
+
+            a:hover {
+              text-decoration: underline;
+            }
+
+            form {
+              background-color: #FFFFFF;
+              padding: 20px;
+              border-radius: 8px;
+              box-shadow: 0 4px 6px rgba(0, 0, 0, 0.1);
+              width: 300px;
+              text-align: center;
+            }
+
+            label {
+              display: block;
+              margin-bottom: 10px;
+              text-align: left;
+            }
+
+            input[type="text"],
+            input[type="password"] {
+              width: 100%;
+              padding: 10px;
+              margin-top: 5px;
+              margin-bottom: 15px;
+              border: 1px solid #0A2463;
+              border-radius: 4px;
+              box-sizing: border-box;
+            }
+
+            button {
+              background-color: #00BFA5;
+              color: white;
+              border: none;
+              padding: 10px 20px;
+              border-radius: 4px;
+              cursor: pointer;
+              font-size: 16px;
+              transition: background-color 0.3s ease;
+            }
+
+            button:hover {
+              background-color: #009688;
+            }
+
+            .error {
+              color: #FF5252;
+              text-align: center;
+            }
+
+            /* Payment failed page */
+            body.failed h1 {
+              color: #FF5252;
+            }
+
+            body.failed p {
+              margin-bottom: 10px;
+            }
+            """, "text/css; charset=UTF-8");
+
+    // Landing page of the validation link: confirm or cancel
+    public static final PageTemplate CONFIRM_PAYMENT = page("Bank Application", "", """
+            <!-- Confirm Payment Page -->
+            <div id="confirm-payment" style="display: flex;flex-direction: column;">
+              <div>
+                <h1>Confirm Payment</h1>
+                <p>Please confirm the transaction associated with request token: {{tokenA}}</p>
+              </div>
+              <div style="display: flex; align-content: center; justify-content: center;">
+                <form action="/confirm-payment" method="post">
+                  <input type="hidden" name="tokenA" value="{{tokenA}}">
+                  <div style="display: flex;">
+                    <button style="margin: 20px;" type="submit" name="action" value="confirm">Confirm Payment</button>
+                    <button style="margin: 20px;" type="submit" name="action" value="cancel">Cancel Payment</button>
+                  </div>
+                </form>
+              </div>
+            </div>
+            """, "tokenA");
+
+    public static final PageTemplate INVALID_REQUEST = page("Bank Application", "", """
+            <!-- Login Failed Page -->
+            <div id="login-failed">
+              <h1>Invalid or Expired Payment Request</h1>
+            </div>
+            """);
+
+    public static final PageTemplate INVALID_ACTION = page("Bank Application", "", """
+            <!-- Invalid Action or Expired Request Page -->
+            <div id="invalid-action">
+              <h1 class="error">Invalid Action or Expired Request</h1>
+            </div>
+            """);
+
+    public static final PageTemplate PAYMENT_CONFIRMED = page("Bank Application", "", """
+            <!-- Payment Confirmed Page -->
+            <div id="payment-confirmed">
+              <h1>Payment Confirmed</h1>
+              <p>Thank you.</p>
+            </div>
+            <script>
+              // Fonction pour détecter si l'utilisateur est sur Android mobile
+              function isAndroidMobile() {
+                return /Android/i.test(navigator.userAgent);
+              }
+              if (isAndroidMobile()) {
+                // Exécuter le deep link uniquement sur mobile Android
+                window.location.href = "cla://payment-success";
+              }
+            </script>
+            """);
+
+    public static final PageTemplate PAYMENT_CANCELLED = page("Bank Application", "", """
+            <!-- Payment Cancelled Page -->
+            <div id="payment-cancelled">
+              <h1>Payment Cancelled</h1>
+              <p>Transaction was cancelled.</p>
+            </div>
+            """);
+
+    public static final PageTemplate PROCESSING_ERROR = page("Bank Application", "", """
+            <!-- Processing Error Page -->
+            <div id="processing-error">
+              <h1 class="error">Processing Error</h1>
+              <p>Could not complete the final step. Please contact support.</p>
+            </div>
+            """);
+
+    public static final PageTemplate PAYMENT_FAILED = page("Payment Failed", " class=\"failed\"", """
+            <div>
+              <h1>Payment Failed</h1>
+              <p>Reason: {{reason}}</p>
+              <p>Reference: {{tokenA}}</p>
+              <a href="/bank-login?tokenA={{tokenA:url}}">Try Again</a>
+            </div>
+            """, "reason", "tokenA");
+
+    public static final PageTemplate INVALID_TOKEN = page("Bank Application", "", """
+            <!-- Login Failed Page -->
+            <div id="login-failed">
+              <h1>Invalid or Expired Payment Token</h1>
+            </div>
+            """);
+
+    public static final PageTemplate BANK_LOGIN = page("Bank Application", "", """
+            <!-- Bank Login Page -->
+            <div id="bank-login">
+              <h1>Bank Login</h1>
+              <form action="/bank-login" method="post">
+                <input type="hidden" name="tokenA" value="{{tokenA}}">
+                <label>Name: <input type="text" name="clientName" required></label><br>
+                <label>Password: <input type="password" name="clientPassword" required></label><br>
+                <label>Card Number: <input type="text" name="clientCard" required></label><br>
+                <button type="submit">Login</button>
+              </form>
+            </div>
+            """, "tokenA");
+
+    public static final PageTemplate LOGIN_FAILED = page("Bank Application", "", """
+            <!-- Login Failed Page -->
+            <div id="login-failed">
+              <h1>Login Failed</h1>
+              <p>Invalid credentials. You have {{remaining}} attempt(s) remaining.</p>
+              <a style="display: flex; justify-content: center;" href="/bank-login?tokenA={{tokenA:url}}">Try Again</a>
+            </div>
+            """, "remaining", "tokenA");
+
+    private AcsPages() {
+    }
+
+    // Shared document head, linking the stylesheet with its content hash so caches never serve a stale one
+    private static PageTemplate page(String title, String bodyAttributes, String body, String... parameters) {
+        return PageTemplate.compile("<!DOCTYPE html>\n"
+                + "<html lang=\"en\">\n"
+                + "<head>\n"
+                + "  <meta charset=\"UTF-8\">\n"
+                + "  <meta name=\"viewport\" content=\"width=device-width, initial-scale=1.0\">\n"
+                + "  <title>" + title + "</title>\n"
+                + "  <link rel=\"stylesheet\" href=\"" + STYLESHEET_PATH + "?v=" + STYLESHEET.version() + "\">\n"
+                + "</head>\n"
+                + "<body" + bodyAttributes + ">\n"
+                + body
+                + "</body>\n"
+                + "</html>\n", parameters);
+    }
+}
+// End of AcsPages.java //
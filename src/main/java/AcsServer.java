@@ -2,28 +2,41 @@
 
 import javax.net.ssl.*;
 import java.io.*;
-import java.net.URI;
+import java.net.SocketTimeoutException;
 import java.net.URLEncoder;
 import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.security.*;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
 import io.javalin.Javalin;
 import io.javalin.http.Handler;
 import modules.LoginSession;
+import modules.PaymentInfo;
+import modules.TransactionState;
+import modules.ValidationResult;
 import org.json.JSONObject;
 import org.json.JSONException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 
 public class AcsServer {
+    private static final Logger log = LoggerFactory.getLogger(AcsServer.class);
     // Port for listening to AcqServer
-    private static final int ACS_LISTEN_PORT = 5050;
+    private static final int ACS_LISTEN_PORT = Config.intSetting("acs.listenPort", 5050);
     // Port for the validation web interface (Javalin)
-    private static final int ACS_WEB_PORT = 7071;
+    private static final int ACS_WEB_PORT = Config.intSetting("acs.webPort", 7071);
     // Base URL for the validation links (adjust host/port as needed)
     private static final String VALIDATION_BASE_URL = Config.BASE_URL; // Use HTTPS in production
 
@@ -33,26 +46,133 @@ public class AcsServer {
     private static final String TRUSTSTORE_PATH = "./truststore/acsTruststore.jks";
     private static final String PASSWORD = "password";
 
-    // Hardcoded customer data (for Step 5 validation)
-    private static final String VALID_CARD_NUMBER = "1234123412341234";
-    private static final String VALID_CVV = "123";
-    private static final String VALID_MONTH = "12";
-    private static final String VALID_YEAR = "2025";
-    private static final String VALID_NAME = "Joe";
-
-    // In-memory store for pending transactions (Token A -> Status) - simplified
-    private static final Map<String, String> pendingTransactions = new ConcurrentHashMap<>(); // Use ConcurrentHashMap for thread safety
+    // Bank-login attempts per transaction before it is cancelled
+    private static final int MAX_LOGIN_ATTEMPTS = 3;
+
+    // ACQ listener: worker threads, pending-connection queue, per-connection read timeout
+    private static final int ACS_WORKER_THREADS = Config.intSetting("acs.workerThreads", 32);
+    private static final int ACS_WORKER_QUEUE_CAPACITY = Config.intSetting("acs.workerQueueCapacity", 256);
+    private static final int ACS_READ_TIMEOUT_MS = Config.intSetting("acs.readTimeoutMs", 10_000);
+    private static final long ACS_STATS_INTERVAL_MS = Config.longSetting("acs.statsIntervalMs", 60_000);
+    // Multiplexed ACQ channels: idle timeout (ACQ pings more often than this) and request worker pool
+    private static final int ACS_MUX_IDLE_TIMEOUT_MS = Config.intSetting("acs.muxIdleTimeoutMs", 60_000);
+    private static final int ACS_REQUEST_WORKER_THREADS = Config.intSetting("acs.requestWorkerThreads", 32);
+    private static final int ACS_REQUEST_QUEUE_CAPACITY = Config.intSetting("acs.requestQueueCapacity", 1024);
+    // Listener transport: "nio" serves connections from a few event-loop threads (TlsEventLoopServer) and
+    // only their requests use the worker pools; "blocking" holds a connection worker per connection
+    private static final String ACS_TRANSPORT = Config.setting("acs.transport", "nio");
+    private static final int ACS_EVENT_LOOPS = Config.intSetting("acs.eventLoops", Runtime.getRuntime().availableProcessors());
+    private static final int ACS_MAX_CONNECTIONS = Config.intSetting("acs.maxConnections", 50_000);
+    // Replies a connection may have waiting for a peer that does not read them before it is closed
+    private static final long ACS_MAX_QUEUED_BYTES = Config.longSetting("acs.maxQueuedBytesPerConnection", 16L << 20);
+
+    // Bounded pool: once every worker is busy and the queue is full, new connections get "ERROR: busy"
+    private static final ThreadPoolExecutor acqWorkers = new ThreadPoolExecutor(
+            ACS_WORKER_THREADS, ACS_WORKER_THREADS, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(ACS_WORKER_QUEUE_CAPACITY));
+    // Requests arriving on multiplexed channels; a full queue answers that request with "ERROR: busy"
+    private static final ThreadPoolExecutor acqRequestWorkers = new ThreadPoolExecutor(
+            ACS_REQUEST_WORKER_THREADS, ACS_REQUEST_WORKER_THREADS, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(ACS_REQUEST_QUEUE_CAPACITY));
+    // Rejections still need a TLS handshake to deliver the message, keep that off the accept thread
+    private static final ExecutorService busyResponder = Executors.newVirtualThreadPerTaskExecutor();
+    // Answers requests once their transaction is durable, so writing a response never holds up the journal writer
+    private static final ExecutorService durableResponder = Executors.newVirtualThreadPerTaskExecutor();
+    private static final AtomicInteger activeConnections = new AtomicInteger();
+    private static final Metrics.Counter acceptedConnections = Metrics.counter(
+            "acs_connections_total", "Connections from ACQ, served or turned away as busy", "result", "accepted");
+    private static final Metrics.Counter rejectedConnections = Metrics.counter(
+            "acs_connections_total", "Connections from ACQ, served or turned away as busy", "result", "rejected");
+    private static volatile TlsEventLoopServer eventLoopServer;
+    private static final Metrics.Histogram handshakeSeconds = Metrics.histogram(
+            "tls_server_handshake_duration_seconds", "TLS handshake time of incoming connections", "listener", "acs");
+    private static final Metrics.Counter cardsVerified = cardChecks("verified");
+    private static final Metrics.Counter cardsMismatched = cardChecks("mismatch");
+    private static final Metrics.Counter cardsUnknown = cardChecks("unknown");
+    private static final Metrics.Counter loginSuccesses = loginAttempts("success");
+    private static final Metrics.Counter loginFailures = loginAttempts("failure");
+    private static final Metrics.Counter loginLockouts = loginAttempts("locked");
+
+    // Enrolled cards (for Step 5 validation), reloaded when the file changes
+    private static final String CARDHOLDERS_PATH = Config.setting("acs.cardholdersFile", "./cardsDb/cardholders.txt");
+    private static final long CARDHOLDERS_CHECK_INTERVAL_MS = Config.longSetting("acs.cardholdersCheckIntervalMs", 30_000);
+    private static InMemoryCardholderRepository cardholders;
+
+    // Bank login users (Step 9); users.txt is imported the first time the store is created
+    private static final String USERS_DB_PATH = Config.setting("acs.usersDbFile", "./usersDb/users.db");
+    private static final String USERS_TEXT_PATH = "./usersDb/users.txt";
+    private static final int USERS_DB_CAPACITY = Config.intSetting("acs.usersDbCapacity", 65_536);
+    private static UserStore users;
+
+    // Transaction state and login session per tokenA, with per-state TTL and a hard size cap.
+    // A PENDING transaction that expires (or is evicted) is reported to the merchant as failed.
+    private static final int ACS_MAX_TRANSACTIONS = Config.intSetting("acs.maxTransactions", 100_000);
+    private static final long ACS_PENDING_TTL_MS = Config.longSetting("acs.pendingTtlMs", 600_000);
+    private static final long ACS_COMPLETED_TTL_MS = Config.longSetting("acs.completedTtlMs", 300_000);
+    private static final long ACS_EXPIRY_TICK_MS = Config.longSetting("acs.expiryTickMs", 1_000);
+    private static final TransactionStateStore localTransactions = new TransactionStateStore(
+            ACS_MAX_TRANSACTIONS, ACS_PENDING_TTL_MS, ACS_COMPLETED_TTL_MS, ACS_EXPIRY_TICK_MS, AcsServer::onTransactionExpired);
+    // "local" keeps the transactions in this JVM; "replicated" shares them with the other ACS nodes
+    // listed in acs.sessionPeers (id@host:port,...), so any node can serve any step
+    private static final String ACS_SESSION_STORE = Config.setting("acs.sessionStore", "local");
+    private static final String ACS_SESSION_NODE_ID = Config.setting("acs.sessionNodeId", "acs1");
+    private static final String ACS_SESSION_PEERS = Config.setting("acs.sessionPeers", "acs1@localhost:6060");
+    private static final int ACS_SESSION_PEER_CONNECTIONS = Config.intSetting("acs.sessionPeerConnections", 4);
+    private static final int ACS_SESSION_REQUEST_TIMEOUT_MS = Config.intSetting("acs.sessionRequestTimeoutMs", 2_000);
+    private static final long ACS_SESSION_HEARTBEAT_MS = Config.longSetting("acs.sessionHeartbeatMs", 1_000);
+    private static SessionStore transactions = localTransactions;
+    // Write-ahead journal of the transactions, replayed at startup so a restart keeps them
+    private static final String TRANSACTION_JOURNAL_DIR = Config.setting("acs.journalDir", "./transactionsDb");
+    private static final long ACS_JOURNAL_SNAPSHOT_INTERVAL_MS = Config.longSetting("acs.journalSnapshotIntervalMs", 60_000);
+    private static final long ACS_JOURNAL_MAX_BYTES = Config.longSetting("acs.journalMaxBytes", 64L << 20);
+    private static TransactionJournal transactionJournal;
 
     // URL for the Merchant Backend callback (Step 10) - ** CHANGE THIS **
-    private static final String MERCHANT_CALLBACK_URL = "https://api-achat.makeitnextgen.com/api/order/callback"; // Example URL // https://api-achat.makeitnextgen.com/
+    private static final String MERCHANT_CALLBACK_URL = Config.setting("acs.merchantCallbackUrl", "https://api-achat.makeitnextgen.com/api/order/callback"); // Example URL // https://api-achat.makeitnextgen.com/
 
     // HttpClient for making the callback (Step 10)
     private static final HttpClient httpClient = HttpClient.newBuilder().build();
-    // Store login state AND attempts per tokenA
-    private static final Map<String, LoginSession> loginStatus = new ConcurrentHashMap<>();
+
+    // Callbacks go through a durable outbox and are retried with backoff, at most
+    // ACS_CALLBACK_CONCURRENCY at a time per merchant
+    private static final String CALLBACK_OUTBOX_PATH = Config.setting("acs.callbackOutboxFile", "./callbacksDb/outbox.log");
+    private static final int ACS_CALLBACK_MAX_ATTEMPTS = Config.intSetting("acs.callbackMaxAttempts", 12);
+    private static final long ACS_CALLBACK_BASE_BACKOFF_MS = Config.longSetting("acs.callbackBaseBackoffMs", 500);
+    private static final long ACS_CALLBACK_MAX_BACKOFF_MS = Config.longSetting("acs.callbackMaxBackoffMs", 300_000);
+    private static final long ACS_CALLBACK_TIMEOUT_MS = Config.longSetting("acs.callbackTimeoutMs", 10_000);
+    private static final int ACS_CALLBACK_CONCURRENCY = Config.intSetting("acs.callbackConcurrencyPerMerchant", 8);
+    private static CallbackDispatcher callbacks;
 
 
     public static void main(String[] args) throws Exception {
+        cardholders = new InMemoryCardholderRepository(CARDHOLDERS_PATH);
+        users = UserStore.open(USERS_DB_PATH, USERS_DB_CAPACITY);
+        if (users.size() == 0 && new File(USERS_TEXT_PATH).exists()) {
+            log.info("Imported {} users from {}", users.importTextFile(USERS_TEXT_PATH), USERS_TEXT_PATH);
+        }
+        callbacks = CallbackDispatcher.open(CALLBACK_OUTBOX_PATH, httpClient, "Bearer " + Config.JWT, ACS_CALLBACK_MAX_ATTEMPTS,
+                ACS_CALLBACK_BASE_BACKOFF_MS, ACS_CALLBACK_MAX_BACKOFF_MS, ACS_CALLBACK_TIMEOUT_MS, ACS_CALLBACK_CONCURRENCY);
+        ReplicatedSessionStore replicated = null;
+        if ("replicated".equalsIgnoreCase(ACS_SESSION_STORE)) {
+            replicated = new ReplicatedSessionStore(localTransactions, ACS_SESSION_NODE_ID, ACS_SESSION_PEERS,
+                    ACS_SESSION_PEER_CONNECTIONS, ACS_SESSION_REQUEST_TIMEOUT_MS, ACS_SESSION_HEARTBEAT_MS);
+            transactions = replicated;
+        }
+        // After the dispatcher: pending transactions that expired while the ACS was down are
+        // reported to the merchant as soon as they are restored
+        transactionJournal = TransactionJournal.open(TRANSACTION_JOURNAL_DIR, localTransactions,
+                ACS_JOURNAL_SNAPSHOT_INTERVAL_MS, ACS_JOURNAL_MAX_BYTES);
+        if (replicated != null) {
+            // Once the journal is replayed, so copies from the other nodes are merged over it
+            replicated.start();
+        }
+        // Flush the journal and the outbox on SIGTERM / Ctrl+C; both are replayed on the next start
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            transactions.close();
+            transactionJournal.close();
+            callbacks.close();
+        }, "acs-shutdown"));
+
         // Load ACS KeyStore (identity)
         KeyStore keyStore = KeyStore.getInstance("JKS");
         keyStore.load(new FileInputStream(KEYSTORE_PATH), PASSWORD.toCharArray());
@@ -76,110 +196,252 @@ public class AcsServer {
         // --- Start ACQ Listener Thread ---
         Thread acqListenerThread = new Thread(() -> {
             try {
-                startAcqListener(sslContext);
+                if ("blocking".equals(ACS_TRANSPORT)) {
+                    startAcqListener(sslContext);
+                } else {
+                    startEventLoopListener(sslContext);
+                }
             } catch (Exception e) {
-                System.err.println("ACS Server ACQ Listener failed: " + e.getMessage());
-                e.printStackTrace();
+                log.error("ACS Server ACQ Listener failed", e);
             }
         });
         acqListenerThread.start();
 
+        ScheduledExecutorService backgroundTasks = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "acs-background");
+            t.setDaemon(true);
+            return t;
+        });
+        registerMetrics();
+        backgroundTasks.scheduleAtFixedRate(AcsServer::logListenerStats, ACS_STATS_INTERVAL_MS, ACS_STATS_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        // Snapshot reload runs here, lookups keep using the previous snapshot until it is swapped in
+        backgroundTasks.scheduleWithFixedDelay(cardholders::reloadIfChanged, CARDHOLDERS_CHECK_INTERVAL_MS, CARDHOLDERS_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
         // --- Start Javalin Web Server Thread (for validation link) ---
         Thread apiThread = new Thread(() -> {
             try {
                 // Note: Javalin setup here uses HTTP. Configure for HTTPS for production.
                 startValidationWebServer();
             } catch (Exception e) {
-                System.err.println("ACS Server Validation Web Server failed: " + e.getMessage());
-                e.printStackTrace();
+                log.error("ACS Server Validation Web Server failed", e);
             }
         });
         apiThread.start();
     }
 
     // Listens for connections from AcqServer (Step 4)
+    // The accept loop only hands sockets off: TLS handshake, read, card check and reply all run on
+    // a bounded worker pool, and every socket has a read timeout so a peer that never sends a
+    // newline ties up one worker for at most ACS_READ_TIMEOUT_MS instead of the whole listener.
     private static void startAcqListener(SSLContext sslContext) throws IOException {
         SSLServerSocketFactory serverSocketFactory = sslContext.getServerSocketFactory();
         try (SSLServerSocket serverSocket = (SSLServerSocket) serverSocketFactory.createServerSocket(ACS_LISTEN_PORT)) {
             // Optional: Require client auth if ACQ must present its certificate
             // serverSocket.setNeedClientAuth(true);
-            System.out.println("ACS Server listening for ACQ on port " + ACS_LISTEN_PORT);
+            log.info("ACS Server listening for ACQ on port {} ({} workers, queue {})", ACS_LISTEN_PORT, ACS_WORKER_THREADS, ACS_WORKER_QUEUE_CAPACITY);
 
             while (true) {
-                try (SSLSocket acqClientSocket = (SSLSocket) serverSocket.accept();
-                     BufferedReader in = new BufferedReader(new InputStreamReader(acqClientSocket.getInputStream()));
-                     BufferedWriter out = new BufferedWriter(new OutputStreamWriter(acqClientSocket.getOutputStream()))) {
+                SSLSocket acqClientSocket;
+                try {
+                    acqClientSocket = (SSLSocket) serverSocket.accept();
+                } catch (IOException e) {
+                    log.warn("Error accepting ACQ connection: {}", e.getMessage());
+                    continue;
+                }
+                acceptedConnections.increment();
+
+                try {
+                    acqWorkers.execute(() -> {
+                        activeConnections.incrementAndGet();
+                        try {
+                            handleAcqConnection(acqClientSocket);
+                        } finally {
+                            activeConnections.decrementAndGet();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // Pool and queue are full: shed load instead of letting the backlog grow
+                    rejectedConnections.increment();
+                    busyResponder.execute(() -> rejectBusy(acqClientSocket));
+                }
+            } // end while
+        } // end try-with-resources (serverSocket)
+    }
 
-                    System.out.println("ACS Server: Connection received from ACQ: " + acqClientSocket.getInetAddress());
-                    String requestJson = in.readLine(); // Read JSON from AcqServer
-                    System.out.println("ACS Server: Received data from ACQ: " + requestJson);
+    // Same exchanges as startAcqListener, on TlsEventLoopServer: a connection holds no worker, only its
+    // requests run on the pools (legacy ones on acqWorkers, multiplexed ones on acqRequestWorkers).
+    // Beyond ACS_MAX_CONNECTIONS, "ERROR: busy".
+    private static void startEventLoopListener(SSLContext sslContext) throws IOException {
+        TlsEventLoopServer server = new TlsEventLoopServer("ACS Server", sslContext, ACS_LISTEN_PORT, ACS_EVENT_LOOPS,
+                ACS_MAX_CONNECTIONS, ACS_READ_TIMEOUT_MS, Integer.BYTES + BinaryWireCodec.MAX_FRAME_LENGTH, ACS_MAX_QUEUED_BYTES,
+                "ERROR: busy\n", acceptedConnections, rejectedConnections, handshakeSeconds,
+                connection -> new MuxServerConnection("ACS Server", acqRequestWorkers,
+                        (payment, deadlineMillis) -> processAcqRequest(payment),
+                        acqWorkers, AcsServer::answerLegacyRequest, ACS_MUX_IDLE_TIMEOUT_MS));
+        eventLoopServer = server;
+        server.serve();
+    }
 
-                    if (requestJson == null || requestJson.isEmpty()) {
-                        System.err.println("ACS Server: Received empty request from ACQ.");
-                        continue;
-                    }
+    // Handles one ACQ connection on a worker thread. A connection that opens with the
+    // multiplexed-protocol hello stays open and carries many requests; anything else is the
+    // original exchange: one request line in, one response line out.
+    private static void handleAcqConnection(SSLSocket acqClientSocket) {
+        try (acqClientSocket;
+             InputStream in = new BufferedInputStream(acqClientSocket.getInputStream());
+             OutputStream out = acqClientSocket.getOutputStream()) {
+
+            acqClientSocket.setSoTimeout(ACS_READ_TIMEOUT_MS);
+            long handshakeStart = System.nanoTime();
+            acqClientSocket.startHandshake();
+            handshakeSeconds.observeSince(handshakeStart);
+            log.debug("Connection received from ACQ: {}", acqClientSocket.getInetAddress());
+            String requestJson = WireCodec.readLine(in); // Read JSON (or the multiplexed hello) from AcqServer
+
+            if (MuxServerSession.isHello(requestJson)) {
+                // Persistent channel: ACQ pings well within the idle timeout
+                log.info("Multiplexed channel ({}) opened by ACQ: {}", requestJson, acqClientSocket.getInetAddress());
+                acqClientSocket.setSoTimeout(ACS_MUX_IDLE_TIMEOUT_MS);
+                MuxServerSession.serve("ACS Server", requestJson, in, out, acqRequestWorkers,
+                        (payment, deadlineMillis) -> processAcqRequest(payment));
+                log.info("Multiplexed channel closed by ACQ: {}", acqClientSocket.getInetAddress());
+                return;
+            }
 
-                    String validationLink = "ERROR: ACS Processing failed"; // Default
-                    try {
-                        JSONObject paymentData = new JSONObject(requestJson);
-                        String cardNumber = paymentData.optString("cardNumber", "");
-                        String cvv = paymentData.optString("cvv", "");
-                        String month = paymentData.optString("month", "");
-                        String year = paymentData.optString("year", "");
-                        String clientName = paymentData.optString("clientName", "");
-                        String tokenA = paymentData.optString("tokenA", "");
-
-                        if (tokenA.isEmpty()) {
-                            validationLink = "ERROR: Missing tokenA";
-                        } else {
-                            // Step 5: Validate card number, cvv, month and year against known customers
-                            if (VALID_CARD_NUMBER.equals(cardNumber) && VALID_CVV.equals(cvv) && VALID_MONTH.equals(month) && VALID_YEAR.equals(year) && VALID_NAME.equals(clientName)) {
-                                System.out.println("ACS Server: Card number " + cardNumber + " is valid. Generating success link.");
-                                // Store token as pending validation
-                                pendingTransactions.put(tokenA, "PENDING");
-                                // Generate link for successful validation path
-                                validationLink = VALIDATION_BASE_URL + "/validate-payment?tokenA=" + URLEncoder.encode(tokenA, StandardCharsets.UTF_8);
-                            } else {
-                                // Card number doesn't match a known client
-                                System.out.println("ACS Server: Card number " + cardNumber + " is UNKNOWN. Generating failure link and logging.");
-                                // Log the attempt (simple console log here)
-                                System.err.println("LOG: Attempted payment with unknown card: " + cardNumber + ", Token: " + tokenA);
-                                // Generate a link that leads directly to a failure indication
-                                // Include tokenA so failure page can potentially reference it
-                                validationLink = VALIDATION_BASE_URL + "/payment-failed?reason=unknown_card&tokenA=" + URLEncoder.encode(tokenA, StandardCharsets.UTF_8);
-                                // Do NOT store this token in pendingTransactions as it's already failed.
-                            }
-                        }
-                    } catch (JSONException e) {
-                        System.err.println("ACS Server: Invalid JSON from ACQ: " + requestJson + " - Error: " + e.getMessage());
-                        validationLink = "ERROR: Invalid data format from ACQ";
-                    } catch (Exception e) {
-                        System.err.println("ACS Server: Error processing ACQ request: " + e.getMessage());
-                        e.printStackTrace();
-                        validationLink = "ERROR: Internal ACS error";
+            if (requestJson == null || requestJson.isEmpty()) {
+                log.warn("Received empty request from ACQ");
+                return;
+            }
+
+            ValidationResult result = answerLegacyRequest(requestJson);
+
+            // Step 5: Send the generated validation link (or error) back to AcqServer
+            log.debug("Sending response back to ACQ: {}", result);
+            WireCodec.writeLine(out, result.toLine());
+
+        } catch (SocketTimeoutException e) {
+            log.warn("ACQ connection timed out waiting for data from {}", acqClientSocket.getInetAddress());
+        } catch (IOException e) {
+            log.warn("Error handling ACQ connection: {}", e.getMessage());
+        } catch (Exception e) {
+            log.error("Unexpected error in ACQ connection handler", e);
+        }
+    }
+
+    // One request line of the original exchange (one request per connection)
+    private static ValidationResult answerLegacyRequest(String requestJson) {
+        try {
+            return processAcqRequest(PaymentJson.parse(requestJson)).join();
+        } catch (JsonProcessingException e) {
+            // The request is not logged, it holds card data
+            log.warn("Invalid JSON from ACQ ({} bytes): {}", requestJson.length(), PaymentJson.describe(e));
+            return ValidationResult.error(ValidationResult.Code.INVALID_REQUEST, "Invalid data format from ACQ");
+        }
+    }
+
+    // Step 5: Checks the card data of one enrollment request. The future completes with the validation
+    // link (or an error) once the transaction is durable; no thread waits for the journal meanwhile, so
+    // the requests of a batch, processed one after the other, still share one group commit.
+    private static CompletableFuture<ValidationResult> processAcqRequest(PaymentInfo payment) {
+        try {
+            String cardNumber = payment.getCardNumber();
+            String tokenA = payment.getTokenA();
+
+            if (tokenA == null || tokenA.isEmpty()) {
+                return CompletableFuture.completedFuture(ValidationResult.error(ValidationResult.Code.INVALID_REQUEST, "Missing tokenA"));
+            }
+            // Step 5: Validate card number, cvv, month and year against known customers
+            if (cardholders.verify(cardNumber, payment.getMonth(), payment.getYear(), payment.getCvv(), payment.getClientName())) {
+                cardsVerified.increment();
+                log.atInfo().addKeyValue("tokenA", tokenA).addKeyValue("cardNumber", cardNumber).log("Card is valid, generating success link");
+                // Store token as pending validation, bound to this card, durably before the link goes out
+                transactions.begin(tokenA, SessionStore.cardDigest(tokenA, cardNumber));
+                // Generate link for successful validation path
+                ValidationResult link = ValidationResult.link(VALIDATION_BASE_URL + "/validate-payment?tokenA=" + URLEncoder.encode(tokenA, StandardCharsets.UTF_8));
+                return transactions.sync().handleAsync((synced, error) -> {
+                    if (error != null) {
+                        log.atError().addKeyValue("tokenA", tokenA).setCause(error).log("Could not persist transaction");
+                        return ValidationResult.error(ValidationResult.Code.ERROR, "Internal ACS error");
                     }
+                    return link;
+                }, durableResponder);
+            }
+            // Card number doesn't match a known client
+            boolean enrolled = cardholders.isEnrolled(cardNumber);
+            (enrolled ? cardsMismatched : cardsUnknown).increment();
+            // Logged as a warning: attempts with unknown cards are worth auditing
+            log.atWarn().addKeyValue("tokenA", tokenA).addKeyValue("cardNumber", cardNumber)
+                    .log(enrolled ? "Card is enrolled but the card details do not match, generating failure link"
+                            : "Card is UNKNOWN, generating failure link");
+            // Generate a link that leads directly to a failure indication
+            // Include tokenA so failure page can potentially reference it
+            // Do NOT store this token in transactions as it's already failed.
+            return CompletableFuture.completedFuture(ValidationResult.link(
+                    VALIDATION_BASE_URL + "/payment-failed?reason=unknown_card&tokenA=" + URLEncoder.encode(tokenA, StandardCharsets.UTF_8)));
+        } catch (Exception e) {
+            log.atError().addKeyValue("tokenA", payment.getTokenA()).setCause(e).log("Error processing ACQ request");
+            return CompletableFuture.completedFuture(ValidationResult.error(ValidationResult.Code.ERROR, "Internal ACS error"));
+        }
+    }
 
-                    // Step 5: Send the generated validation link (or error) back to AcqServer
-                    System.out.println("ACS Server: Sending response back to ACQ: " + validationLink);
-                    out.write(validationLink + "\n");
-                    out.flush();
+    // Tells an ACQ that arrived while the worker pool was saturated to retry later
+    private static void rejectBusy(SSLSocket socket) {
+        try (socket;
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()))) {
+            socket.setSoTimeout(ACS_READ_TIMEOUT_MS);
+            log.warn("Worker pool saturated, rejecting ACQ connection from {}", socket.getInetAddress());
+            out.write("ERROR: busy\n");
+            out.flush();
+        } catch (IOException e) {
+            log.warn("Error rejecting ACQ connection: {}", e.getMessage());
+        }
+    }
 
-                } catch (IOException e) {
-                    System.err.println("ACS Server: Error handling ACQ connection: " + e.getMessage());
-                    // Continue listening
-                } catch (Exception e) {
-                    System.err.println("ACS Server: Unexpected error in listener loop: " + e.getMessage());
-                    e.printStackTrace();
-                }
-            } // end while
-        } // end try-with-resources (serverSocket)
+    private static Metrics.Counter cardChecks(String result) {
+        return Metrics.counter("acs_card_checks_total", "Enrollment requests by card check outcome", "result", result);
     }
 
+    private static Metrics.Counter loginAttempts(String result) {
+        return Metrics.counter("acs_login_attempts_total", "Bank login attempts by outcome", "result", result);
+    }
+
+    // The counters and queues logListenerStats() reports, read when /metrics is scraped
+    private static void registerMetrics() {
+        Metrics.gauge("acs_connections_active", "Connections from ACQ being served", AcsServer::connectionsActive);
+        Metrics.gauge("acs_worker_queue_size", "Work waiting for a worker thread", () -> acqWorkers.getQueue().size(), "pool", "connections");
+        Metrics.gauge("acs_worker_queue_size", "Work waiting for a worker thread", () -> acqRequestWorkers.getQueue().size(), "pool", "requests");
+        Metrics.gauge("acs_transactions", "Transactions held by this node", () -> transactions.size());
+        Metrics.gauge("acs_callbacks_pending", "Merchant callbacks not yet delivered or given up", () -> callbacks.pending());
+        Metrics.counterFunction("acs_callbacks_total", "Merchant callbacks by final outcome", () -> callbacks.delivered(), "result", "delivered");
+        Metrics.counterFunction("acs_callbacks_total", "Merchant callbacks by final outcome", () -> callbacks.abandoned(), "result", "abandoned");
+        Metrics.counterFunction("acs_callback_retries_total", "Merchant callback attempts scheduled again after a failure", () -> callbacks.retried());
+    }
+
+    // Periodic one-line summary of the ACQ listener load
+    private static void logListenerStats() {
+        log.atInfo()
+                .addKeyValue("active", connectionsActive())
+                .addKeyValue("queued", acqWorkers.getQueue().size())
+                .addKeyValue("requestsQueued", acqRequestWorkers.getQueue().size())
+                .addKeyValue("transactions", transactions.size())
+                .addKeyValue("callbacksPending", callbacks.pending())
+                .addKeyValue("callbacksDelivered", callbacks.delivered())
+                .addKeyValue("callbacksAbandoned", callbacks.abandoned())
+                .addKeyValue("accepted", acceptedConnections.get())
+                .addKeyValue("rejected", rejectedConnections.get())
+                .log("ACQ listener stats");
+    }
+
+
+    // Connections from ACQ open on either transport
+    private static int connectionsActive() {
+        TlsEventLoopServer server = eventLoopServer;
+        return activeConnections.get() + (server != null ? server.activeConnections() : 0);
+    }
 
     // Starts the Javalin Web Server for handling the validation link (Steps 8, 9)
     public static void startValidationWebServer() {
         Javalin app = Javalin.create().start(ACS_WEB_PORT);
-        System.out.println("ACS Server Validation Web Server listening on " + Config.BASE_URL);
+        log.info("ACS Server Validation Web Server listening on {}", Config.BASE_URL);
 
         // Endpoint for the user to land on from the validation link (valid card case)
         app.get("/validate-payment", handleValidationPage);
@@ -193,6 +455,12 @@ public class AcsServer {
         app.get("/bank-login", handleLoginGet);
 
         app.post("/bank-login", handleLoginSubmit);
+
+        // Stylesheet shared by all the pages above, cached by the browser
+        app.get(AcsPages.STYLESHEET_PATH, AcsPages.STYLESHEET);
+
+        // Prometheus scrape endpoint
+        app.get("/metrics", Metrics::handle);
     }
 
     // Handler for Step 9: Display validation page/options to the user
@@ -200,7 +468,7 @@ public class AcsServer {
         String tokenA = ctx.queryParam("tokenA");
 
         // Retrieve login session info
-        LoginSession session = loginStatus.get(tokenA);
+        LoginSession session = transactions.loginSession(tokenA);
         // If not logged in, redirect to login
         if (session == null || !session.isLoggedIn) {
             ctx.redirect("/bank-login?tokenA=" + URLEncoder.encode(tokenA, StandardCharsets.UTF_8));
@@ -208,233 +476,13 @@ public class AcsServer {
         }
 
         // Basic validation for the token
-        if (tokenA == null || !pendingTransactions.containsKey(tokenA) || !"PENDING".equals(pendingTransactions.get(tokenA)) || session.attempts >= 3) {
-            ctx.status(400).html("""
-                    <!DOCTYPE html>
-                    <html lang="en">
-                    
-                    <head>
-                      <meta charset="UTF-8">
-                      <meta name="viewport" content="width=device-width, initial-scale=1.0">
-                      <title>Bank Application</title>
-                      <style>
-                        body {
-                          font-family: Arial, sans-serif;
-                          margin: 0;
-                          padding: 0;
-                          background-color: #F5F5F5;
-                          color: #0A2463;
-                          display: flex;
-                          justify-content: center;
-                          align-items: center;
-                          height: 100vh;
-                        }
-                    
-                        h1 {
-                          color: #0A2463;
-                          text-align: center;
-                          margin-bottom: 20px;
-                        }
-                    
-                        p {
-                          text-align: center;
-                          margin-bottom: 20px;
-                        }
-                    
-                        a {
-                          color: #00BFA5;
-                          text-decoration: none;
-                          font-weight: bold;
-                        }
-                    
-                        a:hover {
-                          text-decoration: underline;
-                        }
-                    
-                        form {
-                          background-color: #FFFFFF;
-                          padding: 20px;
-                          border-radius: 8px;
-                          box-shadow: 0 4px 6px rgba(0, 0, 0, 0.1);
-                          width: 300px;
-                          text-align: center;
-                        }
-                    
-                        label {
-                          display: block;
-                          margin-bottom: 10px;
-                          text-align: left;
-                        }
-                    
-                        input[type="text"],
-                        input[type="password"] {
-                          width: 100%%;
-                          padding: 10px;
-                          margin-top: 5px;
-                          margin-bottom: 15px;
-                          border: 1px solid #0A2463;
-                          border-radius: 4px;
-                          box-sizing: border-box;
-                        }
-                    
-                        button {
-                          background-color: #00BFA5;
-                    
-                          color: white;
-                          border: none;
-                          padding: 10px 20px;
-                          border-radius: 4px;
-                          cursor: pointer;
-                          font-size: 16px;
-                          transition: background-color 0.3s ease;
-                        }
-                    
-                        button:hover {
-                          background-color: #009688;
-                    
-                        }
-                    
-                        .error {
-                          color: #FF5252;
-                    
-                          text-align: center;
-                        }
-                      </style>
-                    </head>
-                    
-                    <body>
-                    
-                    
-                      <!-- Login Failed Page -->
-                      <div id="login-failed">
-                        <h1>Invalid or Expired Payment Request</h1>
-                      </div>
-                    
-                    </body>
-                    
-                    </html>
-                    """);
+        if (tokenA == null || !transactions.isPending(tokenA) || session.attempts >= MAX_LOGIN_ATTEMPTS) {
+            AcsPages.INVALID_REQUEST.render(ctx, 400);
             return;
         }
 
         // User is authenticated — show the payment confirmation form
-        ctx.html("""
-                <!DOCTYPE html>
-                <html lang="en">
-                
-                <head>
-                  <meta charset="UTF-8">
-                  <meta name="viewport" content="width=device-width, initial-scale=1.0">
-                  <title>Bank Application</title>
-                  <style>
-                    body {
-                      font-family: Arial, sans-serif;
-                      margin: 0;
-                      padding: 0;
-                      background-color: #F5F5F5;
-                      color: #0A2463;
-                      display: flex;
-                      justify-content: center;
-                      align-items: center;
-                      height: 100vh;
-                    }
-                
-                    h1 {
-                      color: #0A2463;
-                      text-align: center;
-                      margin-bottom: 20px;
-                    }
-                
-                    p {
-                      text-align: center;
-                      margin-bottom: 20px;
-                    }
-                
-                    a {
-                      color: #00BFA5;
-                      text-decoration: none;
-                      font-weight: bold;
-                    }
-                
-                    a:hover {
-                      text-decoration: underline;
-                    }
-                
-                    form {
-                      background-color: #FFFFFF;
-                      padding: 20px;
-                      border-radius: 8px;
-                      box-shadow: 0 4px 6px rgba(0, 0, 0, 0.1);
-                      width: 300px;
-                      text-align: center;
-                    }
-                
-                    label {
-                      display: block;
-                      margin-bottom: 10px;
-                      text-align: left;
-                    }
-                
-                    input[type="text"],
-                    input[type="password"] {
-                      width: 100%%;
-                      padding: 10px;
-                      margin-top: 5px;
-                      margin-bottom: 15px;
-                      border: 1px solid #0A2463;
-                      border-radius: 4px;
-                      box-sizing: border-box;
-                    }
-                
-                    button {
-                      background-color: #00BFA5;
-                
-                      color: white;
-                      border: none;
-                      padding: 10px 20px;
-                      border-radius: 4px;
-                      cursor: pointer;
-                      font-size: 16px;
-                      transition: background-color 0.3s ease;
-                    }
-                
-                    button:hover {
-                      background-color: #009688;
-                
-                    }
-                
-                    .error {
-                      color: #FF5252;
-                
-                      text-align: center;
-                    }
-                  </style>
-                </head>
-                
-                <body>
-                  <!-- Confirm Payment Page -->
-                  <div id="confirm-payment" style="display: flex;flex-direction: column;">
-                    <div>
-                      <h1>Confirm Payment</h1>
-                      <p>Please confirm the transaction associated with request token: %s</p>
-                
-                    </div>
-                    <div style="display: flex; align-content: center; justify-content: center;">
-                      <form action="/confirm-payment" method="post">
-                        <input type="hidden" name="tokenA" value="%s">
-                        <div style="display: flex;">
-                          <button style="margin: 20px;" type="submit" name="action" value="confirm">Confirm Payment</button>
-                          <button style="margin: 20px;" type="submit" name="action" value="cancel">Cancel Payment</button>
-                
-                        </div>
-                      </form>
-                    </div>
-                  </div>
-                  </div>
-                </body>
-                
-                </html>
-                """.formatted(tokenA, tokenA));
+        AcsPages.CONFIRM_PAYMENT.render(ctx, 200, tokenA);
     };
 
     // Handler for Step 9: User confirms/cancels payment
@@ -443,417 +491,45 @@ public class AcsServer {
         String tokenA = ctx.formParam("tokenA");
         String action = ctx.formParam("action"); // "confirm" or "cancel"
 
-        if (tokenA == null || action == null || !pendingTransactions.containsKey(tokenA) || !"PENDING".equals(pendingTransactions.get(tokenA))) {
-            ctx.status(400).html("""
-                    <!DOCTYPE html>
-                    <html lang="en">
-                    <head>
-                      <meta charset="UTF-8">
-                      <meta name="viewport" content="width=device-width, initial-scale=1.0">
-                      <title>Bank Application</title>
-                    <style>
-                      body {
-                        font-family: Arial, sans-serif;
-                        margin: 0;
-                        padding: 0;
-                        background-color: #F5F5F5;
-                        color: #0A2463;
-                        display: flex;
-                        justify-content: center;
-                        align-items: center;
-                        height: 100vh;
-                      }
-                      h1 {
-                        color: #0A2463;
-                        text-align: center;
-                        margin-bottom: 20px;
-                      }
-                      p {
-                        text-align: center;
-                        margin-bottom: 20px;
-                      }
-                      a {
-                        color: #00BFA5;
-                        text-decoration: none;
-                        font-weight: bold;
-                      }
-                      a:hover {
-                        text-decoration: underline;
-                      }
-                      form {
-                        background-color: #FFFFFF;
-                        padding: 20px;
-                        border-radius: 8px;
-                        box-shadow: 0 4px 6px rgba(0, 0, 0, 0.1);
-                        width: 300px;
-                        text-align: center;
-                      }
-                      label {
-                        display: block;
-                        margin-bottom: 10px;
-                        text-align: left;
-                      }
-                      input[type="text"],
-                      input[type="password"] {
-                        width: 100%%;
-                        padding: 10px;
-                        margin-top: 5px;
-                        margin-bottom: 15px;
-                        border: 1px solid #0A2463;
-                        border-radius: 4px;
-                        box-sizing: border-box;
-                      }
-                      button {
-                        background-color: #00BFA5;
-                    
-                        color: white;
-                        border: none;
-                        padding: 10px 20px;
-                        border-radius: 4px;
-                        cursor: pointer;
-                        font-size: 16px;
-                        transition: background-color 0.3s ease;
-                      }
-                      button:hover {
-                        background-color: #009688;
-                    
-                      }
-                      .error {
-                        color: #FF5252;
-                    
-                        text-align: center;
-                      }
-                    </style>
-                    </head>
-                    <body>
-                    
-                      <!-- Invalid Action or Expired Request Page -->
-                      <div id="invalid-action">
-                        <h1 class="error">Invalid Action or Expired Request</h1>
-                      </div>
-                    
-                    
-                      </div>
-                    </body>
-                    </html>
-                    """);
+        if (tokenA == null || action == null || !transactions.isPending(tokenA)) {
+            AcsPages.INVALID_ACTION.render(ctx, 400);
             return;
         }
 
         boolean isSuccessful = "confirm".equalsIgnoreCase(action);
 
-        // Update status locally (optional, callback is key)
-        pendingTransactions.put(tokenA, isSuccessful ? "CONFIRMED" : "CANCELLED");
-
-        // Remove login status for the token
-        loginStatus.remove(tokenA);
-
-        // Step 10: Trigger callback to Merchant Backend
-        System.out.println("ACS Server: Performing callback for TokenA: " + tokenA + ", Success: " + isSuccessful);
-        boolean callbackSent = sendCallbackToMerchant(tokenA, isSuccessful);
-
-        if (callbackSent) {
-            System.out.println("ACS Server: Callback successful.");
-            ctx.html(isSuccessful ? """
-                                <!DOCTYPE html>
-                                <html lang="en">
-                                <head>
-                                  <meta charset="UTF-8">
-                                  <meta name="viewport" content="width=device-width, initial-scale=1.0">
-                                  <title>Bank Application</title>
-                                <style>
-                                  body {
-                                    font-family: Arial, sans-serif;
-                                    margin: 0;
-                                    padding: 0;
-                                    background-color: #F5F5F5;
-                                    color: #0A2463;
-                                    display: flex;
-                                    justify-content: center;
-                                    align-items: center;
-                                    height: 100vh;
-                                  }
-                                  h1 {
-                                    color: #0A2463;
-                                    text-align: center;
-                                    margin-bottom: 20px;
-                                  }
-                                  p {
-                                    text-align: center;
-                                    margin-bottom: 20px;
-                                  }
-                                  a {
-                                    color: #00BFA5;
-                                    text-decoration: none;
-                                    font-weight: bold;
-                                  }
-                                  a:hover {
-                                    text-decoration: underline;
-                                  }
-                                  form {
-                                    background-color: #FFFFFF;
-                                    padding: 20px;
-                                    border-radius: 8px;
-                                    box-shadow: 0 4px 6px rgba(0, 0, 0, 0.1);
-                                    width: 300px;
-                                    text-align: center;
-                                  }
-                                  label {
-                                    display: block;
-                                    margin-bottom: 10px;
-                                    text-align: left;
-                                  }
-                                  input[type="text"],
-                                  input[type="password"] {
-                                    width: 100%%;
-                                    padding: 10px;
-                                    margin-top: 5px;
-                                    margin-bottom: 15px;
-                                    border: 1px solid #0A2463;
-                                    border-radius: 4px;
-                                    box-sizing: border-box;
-                                  }
-                                  button {
-                                    background-color: #00BFA5;
-                    
-                                    color: white;
-                                    border: none;
-                                    padding: 10px 20px;
-                                    border-radius: 4px;
-                                    cursor: pointer;
-                                    font-size: 16px;
-                                    transition: background-color 0.3s ease;
-                                  }
-                                  button:hover {
-                                    background-color: #009688;
-                    
-                                  }
-                                  .error {
-                                    color: #FF5252;
-                    
-                                    text-align: center;
-                                  }
-                                </style>
-                                </head>
-                                <body>
-                    
-                                  <!-- Payment Confirmed Page -->
-                                  <div id="payment-confirmed">
-                                    <h1>Payment Confirmed</h1>
-                                    <p>Thank you.</p>
-                                  </div>
-                                  <script>
-                                    // Fonction pour détecter si l'utilisateur est sur Android mobile
-                                    function isAndroidMobile() {
-                                      return /Android/i.test(navigator.userAgent);
-                                    }
-                    
-                                    if (isAndroidMobile()) {
-                                      // Exécuter le deep link uniquement sur mobile Android
-                                      window.location.href = "cla://payment-success";
-                                    }
-                                  </script>
-                                </body>
-                                </html>
-                    """ : """
-                    
-                    <!DOCTYPE html>
-                    <html lang="en">
-                    <head>
-                      <meta charset="UTF-8">
-                      <meta name="viewport" content="width=device-width, initial-scale=1.0">
-                      <title>Bank Application</title>
-                    <style>
-                      body {
-                        font-family: Arial, sans-serif;
-                        margin: 0;
-                        padding: 0;
-                        background-color: #F5F5F5;
-                        color: #0A2463;
-                        display: flex;
-                        justify-content: center;
-                        align-items: center;
-                        height: 100vh;
-                      }
-                      h1 {
-                        color: #0A2463;
-                        text-align: center;
-                        margin-bottom: 20px;
-                      }
-                      p {
-                        text-align: center;
-                        margin-bottom: 20px;
-                      }
-                      a {
-                        color: #00BFA5;
-                        text-decoration: none;
-                        font-weight: bold;
-                      }
-                      a:hover {
-                        text-decoration: underline;
-                      }
-                      form {
-                        background-color: #FFFFFF;
-                        padding: 20px;
-                        border-radius: 8px;
-                        box-shadow: 0 4px 6px rgba(0, 0, 0, 0.1);
-                        width: 300px;
-                        text-align: center;
-                      }
-                      label {
-                        display: block;
-                        margin-bottom: 10px;
-                        text-align: left;
-                      }
-                      input[type="text"],
-                      input[type="password"] {
-                        width: 100%%;
-                        padding: 10px;
-                        margin-top: 5px;
-                        margin-bottom: 15px;
-                        border: 1px solid #0A2463;
-                        border-radius: 4px;
-                        box-sizing: border-box;
-                      }
-                      button {
-                        background-color: #00BFA5;
-                    
-                        color: white;
-                        border: none;
-                        padding: 10px 20px;
-                        border-radius: 4px;
-                        cursor: pointer;
-                        font-size: 16px;
-                        transition: background-color 0.3s ease;
-                      }
-                      button:hover {
-                        background-color: #009688;
-                    
-                      }
-                      .error {
-                        color: #FF5252;
-                    
-                        text-align: center;
-                      }
-                    </style>
-                    </head>
-                    <body>
-                    
-                      <!-- Payment Cancelled Page -->
-                      <div id="payment-cancelled">
-                        <h1>Payment Cancelled</h1>
-                        <p>Transaction was cancelled.</p>
-                      </div>
-                    
-                    
-                    
-                      </div>
-                    </body>
-                    </html>
-                    
-                    """);
+        // Update status locally (optional, callback is key); this also drops the login session.
+        // Journaled before the callback is queued, so a restart cannot expire it as failed later.
+        transactions.transition(tokenA, isSuccessful ? TransactionState.CONFIRMED : TransactionState.CANCELLED);
+        try {
+            transactions.sync().join();
+        } catch (CompletionException e) {
+            log.atError().addKeyValue("tokenA", tokenA).log("Failed to journal decision: {}", e.getCause().getMessage());
+        }
+
+        // Step 10: Trigger callback to Merchant Backend. The page only waits for the callback to be
+        // in the outbox, delivery to the merchant is retried in the background.
+        log.atInfo().addKeyValue("tokenA", tokenA).addKeyValue("success", isSuccessful).log("Performing callback");
+        boolean callbackQueued;
+        try {
+            sendCallbackToMerchant(tokenA, isSuccessful).join();
+            callbackQueued = true;
+        } catch (CompletionException e) {
+            log.atError().addKeyValue("tokenA", tokenA).log("Failed to queue callback: {}", e.getCause().getMessage());
+            callbackQueued = false;
+        }
+
+        if (callbackQueued) {
+            log.atDebug().addKeyValue("tokenA", tokenA).log("Callback queued");
+            (isSuccessful ? AcsPages.PAYMENT_CONFIRMED : AcsPages.PAYMENT_CANCELLED).render(ctx, 200);
         } else {
-            System.err.println("ACS Server: Callback FAILED for TokenA: " + tokenA);
+            log.atError().addKeyValue("tokenA", tokenA).log("Callback FAILED");
 
             // Reverting local status
-            pendingTransactions.put(tokenA, "PENDING");
+            transactions.transition(tokenA, TransactionState.PENDING);
 
             // Show error to user, even if payment was 'confirmed', as the merchant wasn't notified.
-            ctx.status(500).html("""
-                    <!DOCTYPE html>
-                    <html lang="en">
-                    <head>
-                      <meta charset="UTF-8">
-                      <meta name="viewport" content="width=device-width, initial-scale=1.0">
-                      <title>Bank Application</title>
-                    <style>
-                      body {
-                        font-family: Arial, sans-serif;
-                        margin: 0;
-                        padding: 0;
-                        background-color: #F5F5F5;
-                        color: #0A2463;
-                        display: flex;
-                        justify-content: center;
-                        align-items: center;
-                        height: 100vh;
-                      }
-                      h1 {
-                        color: #0A2463;
-                        text-align: center;
-                        margin-bottom: 20px;
-                      }
-                      p {
-                        text-align: center;
-                        margin-bottom: 20px;
-                      }
-                      a {
-                        color: #00BFA5;
-                        text-decoration: none;
-                        font-weight: bold;
-                      }
-                      a:hover {
-                        text-decoration: underline;
-                      }
-                      form {
-                        background-color: #FFFFFF;
-                        padding: 20px;
-                        border-radius: 8px;
-                        box-shadow: 0 4px 6px rgba(0, 0, 0, 0.1);
-                        width: 300px;
-                        text-align: center;
-                      }
-                      label {
-                        display: block;
-                        margin-bottom: 10px;
-                        text-align: left;
-                      }
-                      input[type="text"],
-                      input[type="password"] {
-                        width: 100%%;
-                        padding: 10px;
-                        margin-top: 5px;
-                        margin-bottom: 15px;
-                        border: 1px solid #0A2463;
-                        border-radius: 4px;
-                        box-sizing: border-box;
-                      }
-                      button {
-                        background-color: #00BFA5;
-                    
-                        color: white;
-                        border: none;
-                        padding: 10px 20px;
-                        border-radius: 4px;
-                        cursor: pointer;
-                        font-size: 16px;
-                        transition: background-color 0.3s ease;
-                      }
-                      button:hover {
-                        background-color: #009688;
-                    
-                      }
-                      .error {
-                        color: #FF5252;
-                    
-                        text-align: center;
-                      }
-                    </style>
-                    </head>
-                    <body>
-                    
-                      <!-- Processing Error Page -->
-                      <div id="processing-error">
-                        <h1 class="error">Processing Error</h1>
-                        <p>Could not complete the final step. Please contact support.</p>
-                      </div>
-                    
-                    
-                    
-                      </div>
-                    </body>
-                    </html>
-                    """);
+            AcsPages.PROCESSING_ERROR.render(ctx, 500);
 
         }
     };
@@ -862,43 +538,16 @@ public class AcsServer {
     private static Handler handleFailedPage = ctx -> {
         String reason = ctx.queryParam("reason");
         if (reason == null) {
-            System.err.println("ACS Server: recieved empty reason parameter");
+            log.warn("Received empty reason parameter");
             reason = "generic_error";
         }
         String tokenA = ctx.queryParam("tokenA");
         if (tokenA == null) {
-            System.err.println("ACS Server: recieved empty tokenA parameter");
+            log.warn("Received empty tokenA parameter");
             tokenA = "N/A";
         }
-        System.out.println("ACS Server: Displaying failure page. Reason: " + reason + ", Token: " + tokenA);
-        System.out.println("ACS Server: Displaying failure page. Reason: " + reason + ", Token: " + tokenA);
-//        ctx.status(400).html("<h1>Payment Failed</h1><p>Reason: " + reason + "</p><p>Reference: " + tokenA + "</p>");
-
-        ctx.status(400).html(
-                "<!DOCTYPE html>" +
-                        "<html lang=\"en\">" +
-                        "<head>" +
-                        "<meta charset=\"UTF-8\">" +
-                        "<meta name=\"viewport\" content=\"width=device-width, initial-scale=1.0\">" +
-                        "<title>Payment Failed</title>" +
-                        "<style>" +
-                        "body { font-family: Arial, sans-serif; margin: 0; padding: 0; background-color: #F5F5F5; color: #0A2463; display: flex; justify-content: center; align-items: center; height: 100vh; }" +
-                        "h1 { color: #FF5252; text-align: center; margin-bottom: 20px; }" +
-                        "p { text-align: center; margin-bottom: 10px; }" +
-                        "a { color: #00BFA5; text-decoration: none; font-weight: bold; }" +
-                        "a:hover { text-decoration: underline; }" +
-                        "</style>" +
-                        "</head>" +
-                        "<body>" +
-                        "<div>" +
-                        "<h1>Payment Failed</h1>" +
-                        "<p>Reason: " + reason + "</p>" +
-                        "<p>Reference: " + tokenA + "</p>" +
-                        "<a href=\"/bank-login?tokenA=" + tokenA + "\">Try Again</a>" +
-                        "</div>" +
-                        "</body>" +
-                        "</html>"
-        );
+        log.atInfo().addKeyValue("tokenA", tokenA).addKeyValue("reason", reason).log("Displaying failure page");
+        AcsPages.PAYMENT_FAILED.render(ctx, 400, reason, tokenA);
 
         // Note: No callback needed here as the failure was determined before user interaction.
     };
@@ -907,238 +556,12 @@ public class AcsServer {
     // Handler for Step 9: Bank Login Page
     private static Handler handleLoginGet = ctx -> {
         String tokenA = ctx.queryParam("tokenA");
-        if (tokenA == null || !pendingTransactions.containsKey(tokenA)) {
-            ctx.status(400).html("""
-                    <!DOCTYPE html>
-                    <html lang="en">
-                    
-                    <head>
-                      <meta charset="UTF-8">
-                      <meta name="viewport" content="width=device-width, initial-scale=1.0">
-                      <title>Bank Application</title>
-                      <style>
-                        body {
-                          font-family: Arial, sans-serif;
-                          margin: 0;
-                          padding: 0;
-                          background-color: #F5F5F5;
-                          color: #0A2463;
-                          display: flex;
-                          justify-content: center;
-                          align-items: center;
-                          height: 100vh;
-                        }
-                    
-                        h1 {
-                          color: #0A2463;
-                          text-align: center;
-                          margin-bottom: 20px;
-                        }
-                    
-                        p {
-                          text-align: center;
-                          margin-bottom: 20px;
-                        }
-                    
-                        a {
-                          color: #00BFA5;
-                          text-decoration: none;
-                          font-weight: bold;
-                        }
-                    
-                        a:hover {
-                          text-decoration: underline;
-                        }
-                    
-                        form {
-                          background-color: #FFFFFF;
-                          padding: 20px;
-                          border-radius: 8px;
-                          box-shadow: 0 4px 6px rgba(0, 0, 0, 0.1);
-                          width: 300px;
-                          text-align: center;
-                        }
-                    
-                        label {
-                          display: block;
-                          margin-bottom: 10px;
-                          text-align: left;
-                        }
-                    
-                        input[type="text"],
-                        input[type="password"] {
-                          width: 100%%;
-                          padding: 10px;
-                          margin-top: 5px;
-                          margin-bottom: 15px;
-                          border: 1px solid #0A2463;
-                          border-radius: 4px;
-                          box-sizing: border-box;
-                        }
-                    
-                        button {
-                          background-color: #00BFA5;
-                    
-                          color: white;
-                          border: none;
-                          padding: 10px 20px;
-                          border-radius: 4px;
-                          cursor: pointer;
-                          font-size: 16px;
-                          transition: background-color 0.3s ease;
-                        }
-                    
-                        button:hover {
-                          background-color: #009688;
-                    
-                        }
-                    
-                        .error {
-                          color: #FF5252;
-                    
-                          text-align: center;
-                        }
-                      </style>
-                    </head>
-                    
-                    <body>
-                    
-                    
-                      <!-- Login Failed Page -->
-                      <div id="login-failed">
-                        <h1>Invalid or Expired Payment Token</h1>
-                      </div>
-                    
-                    </body>
-                    
-                    </html>
-                    """);
+        if (tokenA == null || !transactions.contains(tokenA)) {
+            AcsPages.INVALID_TOKEN.render(ctx, 400);
             return;
         }
 
-        ctx.html("""
-                <!DOCTYPE html>
-                <html lang="en">
-                
-                <head>
-                  <meta charset="UTF-8">
-                  <meta name="viewport" content="width=device-width, initial-scale=1.0">
-                  <title>Bank Application</title>
-                <style>
-                  body {
-                    font-family: Arial, sans-serif;
-                    margin: 0;
-                    padding: 0;
-                    background-color: #F5F5F5;
-                
-                    color: #0A2463;
-                
-                    display: flex;
-                    justify-content: center;
-                    align-items: center;
-                    height: 100vh;
-                  }
-                
-                  h1 {
-                    color: #0A2463;
-                
-                    text-align: center;
-                    margin-bottom: 20px;
-                  }
-                
-                  p {
-                    text-align: center;
-                    margin-bottom: 20px;
-                  }
-                
-                  a {
-                    color: #00BFA5;
-                
-                    text-decoration: none;
-                    font-weight: bold;
-                  }
-                
-                  a:hover {
-                    text-decoration: underline;
-                  }
-                
-                  form {
-                    background-color: #FFFFFF;
-                
-                    padding: 20px;
-                    border-radius: 8px;
-                    box-shadow: 0 4px 6px rgba(0, 0, 0, 0.1);
-                    width: 300px;
-                    text-align: center;
-                  }
-                
-                  label {
-                    display: block;
-                    margin-bottom: 10px;
-                    text-align: left;
-                  }
-                
-                  input[type="text"],
-                  input[type="password"] {
-                    width: 100%%;
-                    padding: 10px;
-                    margin-top: 5px;
-                    margin-bottom: 15px;
-                    border: 1px solid #0A2463;
-                
-                    border-radius: 4px;
-                    box-sizing: border-box;
-                  }
-                
-                  button {
-                    background-color: #00BFA5;
-                
-                    color: white;
-                    border: none;
-                    padding: 10px 20px;
-                    border-radius: 4px;
-                    cursor: pointer;
-                    font-size: 16px;
-                    transition: background-color 0.3s ease;
-                  }
-                
-                  button:hover {
-                    background-color: #009688;
-                
-                  }
-                
-                  .error {
-                    color: #FF5252;
-                
-                    text-align: center;
-                  }
-                </style>
-                </head>
-                
-                <body>
-                
-                
-                  <!-- Bank Login Page -->
-                  <div id="bank-login">
-                    <h1>Bank Login</h1>
-                    <form action="/bank-login" method="post">
-                      <input type="hidden" name="tokenA" value="%s">
-                      <label>Name: <input type="text" name="clientName" required></label><br>
-                      <label>Password: <input type="password" name="clientPassword" required></label><br>
-                      <label>Card Number: <input type="text" name="clientCard" required></label><br>
-                      <button type="submit">Login</button>
-                    </form>
-                  </div>
-                
-                
-                
-                
-                
-                </body>
-                
-                </html>
-                
-                """.formatted(tokenA));
+        AcsPages.BANK_LOGIN.render(ctx, 200, tokenA);
     };
 
     // Handler for Step 9: Bank Login Submit
@@ -1153,166 +576,62 @@ public class AcsServer {
             return;
         }
 
-        LoginSession session = loginStatus.computeIfAbsent(tokenA, k -> new LoginSession());
+        // The attempt is counted before the password is checked, so parallel submits cannot
+        // all get past the limit; a successful login clears the count again
+        int attempt = transactions.recordFailedLogin(tokenA, MAX_LOGIN_ATTEMPTS);
+        if (attempt < 0) {
+            ctx.status(400).result("Unknown or expired transaction");
+            return;
+        }
 
-        if (session.attempts >= 3) {
+        if (attempt > MAX_LOGIN_ATTEMPTS) {
+            loginLockouts.increment();
+            log.atWarn().addKeyValue("tokenA", tokenA).log("Too many failed bank logins, cancelling the transaction");
             // Cancel the transaction after too many failed attempts
-            pendingTransactions.put(tokenA, "CANCELLED");
-            loginStatus.remove(tokenA); // Cleanup
+            transactions.transition(tokenA, TransactionState.CANCELLED); // Also drops the login session
             ctx.redirect("/payment-failed?reason=too_many_attempts&tokenA=" + URLEncoder.encode(tokenA, StandardCharsets.UTF_8));
             return;
         }
 
-        String clientPassword = "securePass"; // TODO - check with db data
-
-        if (VALID_NAME.equals(name) && card.equals(VALID_CARD_NUMBER) && password.equals(clientPassword)) {
-            session.isLoggedIn = true;
-            session.attempts = 0; // Reset on success
+        // The login is the cardholder name, and it must own the card this transaction pays with
+        if (transactions.isCardOf(tokenA, SessionStore.cardDigest(tokenA, card))
+                && cardholders.isCardholder(card, name) && users.verifyPassword(name, password)) {
+            loginSuccesses.increment();
+            transactions.recordLogin(tokenA); // Reset on success
             ctx.redirect("/validate-payment?tokenA=" + URLEncoder.encode(tokenA, StandardCharsets.UTF_8));
         } else {
-            session.attempts++;
-            int remaining = 3 - session.attempts;
-            ctx.status(401).html("""
-                        <!DOCTYPE html>
-                                    <html lang="en">
-                    
-                                    <head>
-                                      <meta charset="UTF-8">
-                                      <meta name="viewport" content="width=device-width, initial-scale=1.0">
-                                      <title>Bank Application</title>
-                                    <style>
-                                      body {
-                                        font-family: Arial, sans-serif;
-                                        margin: 0;
-                                        padding: 0;
-                                        background-color: #F5F5F5;
-                    
-                                        color: #0A2463;
-                    
-                                        display: flex;
-                                        justify-content: center;
-                                        align-items: center;
-                                        height: 100vh;
-                                      }
-                    
-                                      h1 {
-                                        color: #0A2463;
-                    
-                                        text-align: center;
-                                        margin-bottom: 20px;
-                                      }
-                    
-                                      p {
-                                        text-align: center;
-                                        margin-bottom: 20px;
-                                      }
-                    
-                                      a {
-                                        color: #00BFA5;
-                    
-                                        text-decoration: none;
-                                        font-weight: bold;
-                                      }
-                    
-                                      a:hover {
-                                        text-decoration: underline;
-                                      }
-                    
-                                      form {
-                                        background-color: #FFFFFF;
-                    
-                                        padding: 20px;
-                                        border-radius: 8px;
-                                        box-shadow: 0 4px 6px rgba(0, 0, 0, 0.1);
-                                        width: 300px;
-                                        text-align: center;
-                                      }
-                    
-                                      label {
-                                        display: block;
-                                        margin-bottom: 10px;
-                                        text-align: left;
-                                      }
-                    
-                                      input[type="text"],
-                                      input[type="password"] {
-                                        width: 100%%;
-                                        padding: 10px;
-                                        margin-top: 5px;
-                                        margin-bottom: 15px;
-                                        border: 1px solid #0A2463;
-                    
-                                        border-radius: 4px;
-                                        box-sizing: border-box;
-                                      }
-                    
-                                      button {
-                                        background-color: #00BFA5;
-                    
-                                        color: white;
-                                        border: none;
-                                        padding: 10px 20px;
-                                        border-radius: 4px;
-                                        cursor: pointer;
-                                        font-size: 16px;
-                                        transition: background-color 0.3s ease;
-                                      }
-                    
-                                      button:hover {
-                                        background-color: #009688;
-                                      }
-                                      .error {
-                                        color: #FF5252;
-                                        text-align: center;
-                                      }
-                                    </style>
-                                    </head>
-                                    <body>
-                                      <!-- Login Failed Page -->
-                                      <div id="login-failed">
-                                        <h1>Login Failed</h1>
-                                        <p>Invalid credentials. You have %d attempt(s) remaining.</p>
-                                        <a style="display: flex; justify-content: center;" href="/bank-login?tokenA=%s">Try Again</a>
-                                      </div>
-                                    </body>
-                                    </html>
-                    """.formatted(Math.max(0, remaining), URLEncoder.encode(tokenA, StandardCharsets.UTF_8)));
+            loginFailures.increment();
+            log.atWarn().addKeyValue("tokenA", tokenA).log("Bank login failed, attempt {} of {}", attempt, MAX_LOGIN_ATTEMPTS);
+            int remaining = MAX_LOGIN_ATTEMPTS - attempt;
+            AcsPages.LOGIN_FAILED.render(ctx, 401, remaining, tokenA);
         }
     };
 
-    // Step 10: Method to send callback to the Merchant Backend
-    private static boolean sendCallbackToMerchant(String tokenA, boolean isSuccessful) {
+    // A transaction left PENDING until its TTL ran out (or evicted at capacity) will never be
+    // confirmed: tell the merchant it failed. Completed ones were already reported.
+    private static void onTransactionExpired(String tokenA, TransactionState state, boolean evicted) {
+        if (state != TransactionState.PENDING || !transactions.ownsExpiry(tokenA)) {
+            return;
+        }
+        log.atInfo().addKeyValue("tokenA", tokenA).log("Transaction {} while pending, notifying merchant", evicted ? "evicted" : "expired");
+        sendCallbackToMerchant(tokenA, false).exceptionally(e -> {
+            log.atError().addKeyValue("tokenA", tokenA).log("Expiry callback FAILED: {}", e.getMessage());
+            return null;
+        });
+    }
+
+    // Step 10: Queue the callback to the Merchant Backend; completes once it is in the outbox,
+    // the dispatcher delivers it (and retries it) in the background
+    private static CompletableFuture<Void> sendCallbackToMerchant(String tokenA, boolean isSuccessful) {
+        JSONObject payload = new JSONObject();
         try {
-            System.out.println("ACS Server - sendCallbackToMerchant - tokenA: " + tokenA + ", isSuccessful: " + isSuccessful);
-            JSONObject payload = new JSONObject();
             payload.put("orderId", tokenA);
             payload.put("status", isSuccessful ? "paid" : "failed");
-
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(MERCHANT_CALLBACK_URL))
-                    .header("Content-Type", "application/json")
-                    .header("accept", "application/json")
-                    .header("Authorization", "Bearer " + Config.JWT)
-                    .POST(HttpRequest.BodyPublishers.ofString(payload.toString()))
-                    .build();
-
-            System.out.println("ACS Server - sendCallbackToMerchant - request: " + request);
-
-            // Send request asynchronously (can use .send() for synchronous)
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-
-            System.out.println("ACS Server - sendCallbackToMerchant - response: " + response);
-            System.out.println("ACS Server: Callback response status code: " + response.statusCode());
-            System.out.println("ACS Server: Callback response body: " + response.body());
-
-            // Check if the merchant backend acknowledged successfully (e.g., 2xx status code)
-            return response.statusCode() >= 200 && response.statusCode() < 300;
-
-        } catch (Exception e) {
-            System.err.println("ACS Server: Failed to send callback for token " + tokenA + ": " + e.getMessage());
-            e.printStackTrace();
-            return false;
+        } catch (JSONException e) {
+            return CompletableFuture.failedFuture(e);
         }
+        log.atDebug().addKeyValue("tokenA", tokenA).addKeyValue("success", isSuccessful).log("Queueing callback to merchant");
+        return callbacks.submit(MERCHANT_CALLBACK_URL, payload.toString());
     }
 }
 // End of AcsServer.java //
\ No newline at end of file
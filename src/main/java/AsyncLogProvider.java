@@ -0,0 +1,107 @@
+// Beggining of AsyncLogProvider.java //
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.ILoggerFactory;
+import org.slf4j.IMarkerFactory;
+import org.slf4j.Logger;
+import org.slf4j.event.Level;
+import org.slf4j.helpers.BasicMDCAdapter;
+import org.slf4j.helpers.BasicMarkerFactory;
+import org.slf4j.spi.MDCAdapter;
+import org.slf4j.spi.SLF4JServiceProvider;
+
+/**
+ * SLF4J backend of the servers (registered in META-INF/services), used for our own logs and for
+ * Javalin's and Jetty's: structured JSON lines written asynchronously by {@link LogRingBuffer},
+ * with card numbers and CVVs masked.
+ *
+ * Request-path logs carry the transaction's tokenA as a key-value (log.atInfo().addKeyValue(
+ * "tokenA", tokenA)), the id HttpsServer, ACQ and ACS all see, so one payment can be followed
+ * across the three logs. Key-values named cardNumber are masked to the BIN and last four digits,
+ * cvv and password are never written.
+ *
+ * Settings:
+ *   log.level           default level: trace, debug, info, warn, error or off (default info)
+ *   log.level.<name>    level of a logger and the loggers below it, by class or package name,
+ *                       e.g. -Dlog.level.AcqServer=debug or LOG_LEVEL_ORG_ECLIPSE_JETTY=warn
+ *   log.bufferSize      events the ring holds before info and debug are dropped (default 8192)
+ */
+public class AsyncLogProvider implements SLF4JServiceProvider, ILoggerFactory {
+    static final int OFF = Integer.MAX_VALUE;
+
+    private final Map<String, Logger> loggers = new ConcurrentHashMap<>();
+    private final BasicMarkerFactory markerFactory = new BasicMarkerFactory();
+    private final BasicMDCAdapter mdcAdapter = new BasicMDCAdapter();
+    private LogRingBuffer ring;
+    private int defaultLevel;
+
+    @Override
+    public void initialize() {
+        defaultLevel = parseLevel(Config.setting("log.level", "info"), Level.INFO.toInt());
+        ring = new LogRingBuffer(Config.intSetting("log.bufferSize", 8192));
+        Metrics.counterFunction("log_events_dropped_total", "Log events dropped because the log writer fell behind", ring::dropped);
+    }
+
+    @Override
+    public ILoggerFactory getLoggerFactory() {
+        return this;
+    }
+
+    @Override
+    public IMarkerFactory getMarkerFactory() {
+        return markerFactory;
+    }
+
+    @Override
+    public MDCAdapter getMDCAdapter() {
+        return mdcAdapter;
+    }
+
+    @Override
+    public String getRequestedApiVersion() {
+        return "2.0.99";
+    }
+
+    @Override
+    public Logger getLogger(String name) {
+        Logger logger = loggers.get(name);
+        return logger != null ? logger : loggers.computeIfAbsent(name, n -> new AsyncLogger(n, levelOf(n), ring, this));
+    }
+
+    // MDC entries of the calling thread, or null when there are none (the common case, no copy made)
+    Map<String, String> context() {
+        Set<String> keys = mdcAdapter.getKeys();
+        return keys == null || keys.isEmpty() ? null : mdcAdapter.getCopyOfContextMap();
+    }
+
+    // Most specific log.level.<prefix> set for the logger name, else log.level
+    private int levelOf(String name) {
+        String prefix = name;
+        while (!prefix.isEmpty()) {
+            String value = Config.setting("log.level." + prefix, null);
+            if (value != null) {
+                return parseLevel(value, defaultLevel);
+            }
+            int dot = prefix.lastIndexOf('.');
+            prefix = dot < 0 ? "" : prefix.substring(0, dot);
+        }
+        return defaultLevel;
+    }
+
+    private static int parseLevel(String value, int fallback) {
+        String level = value.trim().toUpperCase(Locale.ROOT);
+        if (level.equals("OFF")) {
+            return OFF;
+        }
+        try {
+            return Level.valueOf(level).toInt();
+        } catch (IllegalArgumentException e) {
+            System.err.println("AsyncLogProvider: Invalid log level " + value + ", using " + Level.intToLevel(fallback));
+            return fallback;
+        }
+    }
+}
+// End of AsyncLogProvider.java //
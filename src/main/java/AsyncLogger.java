@@ -0,0 +1,71 @@
+// Beggining of AsyncLogger.java //
+import org.slf4j.Marker;
+import org.slf4j.event.Level;
+import org.slf4j.event.LoggingEvent;
+import org.slf4j.helpers.LegacyAbstractLogger;
+import org.slf4j.spi.LoggingEventAware;
+
+/**
+ * Logger handed out by {@link AsyncLogProvider}. The level is fixed when the logger is created, so
+ * a disabled statement costs one int comparison; an enabled one is handed to the ring as is,
+ * message arguments and key-values unformatted.
+ */
+final class AsyncLogger extends LegacyAbstractLogger implements LoggingEventAware {
+    private static final long serialVersionUID = 1L;
+
+    private final int threshold;
+    private final transient LogRingBuffer ring;
+    private final transient AsyncLogProvider provider;
+
+    AsyncLogger(String name, int threshold, LogRingBuffer ring, AsyncLogProvider provider) {
+        this.name = name;
+        this.threshold = threshold;
+        this.ring = ring;
+        this.provider = provider;
+    }
+
+    @Override
+    public boolean isTraceEnabled() {
+        return threshold <= Level.TRACE.toInt();
+    }
+
+    @Override
+    public boolean isDebugEnabled() {
+        return threshold <= Level.DEBUG.toInt();
+    }
+
+    @Override
+    public boolean isInfoEnabled() {
+        return threshold <= Level.INFO.toInt();
+    }
+
+    @Override
+    public boolean isWarnEnabled() {
+        return threshold <= Level.WARN.toInt();
+    }
+
+    @Override
+    public boolean isErrorEnabled() {
+        return threshold <= Level.ERROR.toInt();
+    }
+
+    // Events built with the fluent API (log.atInfo().addKeyValue(...)), key-values kept as fields
+    @Override
+    public void log(LoggingEvent event) {
+        if (threshold <= event.getLevel().toInt()) {
+            ring.publish(event.getLevel(), name, event.getMessage(), event.getArgumentArray(), event.getThrowable(),
+                    event.getKeyValuePairs(), provider.context());
+        }
+    }
+
+    @Override
+    protected void handleNormalizedLoggingCall(Level level, Marker marker, String messagePattern, Object[] arguments, Throwable throwable) {
+        ring.publish(level, name, messagePattern, arguments, throwable, null, provider.context());
+    }
+
+    @Override
+    protected String getFullyQualifiedCallerName() {
+        return null;
+    }
+}
+// End of AsyncLogger.java //
@@ -0,0 +1,308 @@
+// Beggining of BinRoutingTable.java //
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import modules.AcsEndpoint;
+import modules.AcsGroup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides which ACS a card goes to from its BIN (the leading 6 to 11 digits of the card number),
+ * loaded from a text file.
+ *
+ * File format, one entry per line, fields separated by ';':
+ *   acs;name;host;port        declares an ACS instance; repeat the name for an issuer with several
+ *   bin;low[-high];name       routes the prefixes low..high (inclusive) to that issuer's ACS
+ * Both bounds of a range have the same number of digits, between 6 and 11. Blank lines and lines
+ * starting with '#' are ignored. Ranges may overlap: the longest matching prefix wins, and among
+ * ranges of the same length the narrowest one (the later line when they are as wide).
+ *
+ * Overlaps are resolved once, at load time: each prefix length becomes a sorted array of disjoint
+ * intervals, so a lookup is at most six binary searches over primitive arrays, reading the card
+ * number's digits in place. It allocates nothing and takes no lock.
+ *
+ * Like {@link InMemoryCardholderRepository}, the table is an immutable snapshot behind a volatile
+ * reference: reload() builds the new one aside and swaps it in, and a file that fails to load
+ * leaves the current snapshot in place.
+ */
+public final class BinRoutingTable {
+    private static final Logger log = LoggerFactory.getLogger(BinRoutingTable.class);
+    static final int MIN_BIN_DIGITS = 6;
+    static final int MAX_BIN_DIGITS = 11;
+    private static final int MAX_LOGGED_INVALID_LINES = 10;
+
+    private final File file;
+    private volatile Snapshot snapshot;
+    private long loadedLastModified;
+    private long loadedLength;
+
+    public BinRoutingTable(String path) throws IOException {
+        this.file = new File(path);
+        reload();
+    }
+
+    // ACS instances for the card, or null when no range matches (or the card number does not start with digits)
+    public AcsGroup route(String cardNumber) {
+        if (cardNumber == null) {
+            return null;
+        }
+        Snapshot current = snapshot;
+        int digits = Math.min(cardNumber.length(), MAX_BIN_DIGITS);
+        long prefix = 0;
+        AcsGroup match = null;
+        for (int i = 0; i < digits; i++) {
+            char c = cardNumber.charAt(i);
+            if (c < '0' || c > '9') {
+                return null;
+            }
+            prefix = prefix * 10 + (c - '0');
+            if (i + 1 >= MIN_BIN_DIGITS) {
+                AcsGroup hit = current.find(i + 1, prefix);
+                if (hit != null) {
+                    match = hit; // Longer prefixes are looked at later and override shorter ones
+                }
+            }
+        }
+        return match;
+    }
+
+    // Every ACS instance declared in the current file, whether or not a range points to it
+    public List<AcsEndpoint> endpoints() {
+        return snapshot.endpoints;
+    }
+
+    public int size() {
+        return snapshot.ranges;
+    }
+
+    // Loads the file into a new snapshot and publishes it; the current one stays in use if this fails
+    public synchronized void reload() throws IOException {
+        long lastModified = file.lastModified();
+        long length = file.length();
+        long start = System.nanoTime();
+        Snapshot loaded = load(file);
+        snapshot = loaded;
+        loadedLastModified = lastModified;
+        loadedLength = length;
+        log.info("Loaded {} BIN ranges to {} ACS instance(s) from {} in {} ms", loaded.ranges, loaded.endpoints.size(),
+                file, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    // Called periodically; reloads only when the file's modification time or size changed.
+    // Returns true when a new snapshot was published.
+    public synchronized boolean reloadIfChanged() {
+        if (file.lastModified() == loadedLastModified && file.length() == loadedLength) {
+            return false;
+        }
+        try {
+            reload();
+            return true;
+        } catch (IOException e) {
+            // Keep routing with the previous snapshot, the file may still be being written
+            log.warn("Failed to reload {}: {}", file, e.getMessage());
+            return false;
+        }
+    }
+
+    private static Snapshot load(File file) throws IOException {
+        Map<String, List<AcsEndpoint>> instances = new LinkedHashMap<>();
+        List<String[]> binLines = new ArrayList<>();
+        List<Integer> binLineNumbers = new ArrayList<>();
+        int invalidLines = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split(";", -1);
+                try {
+                    String kind = fields[0].trim();
+                    if (kind.equals("acs") && fields.length == 4) {
+                        String name = fields[1].trim();
+                        String host = fields[2].trim();
+                        int port = Integer.parseInt(fields[3].trim());
+                        if (name.isEmpty() || host.isEmpty() || port < 1 || port > 65535) {
+                            throw new IllegalArgumentException("field out of range");
+                        }
+                        AcsEndpoint endpoint = new AcsEndpoint(name, host, port);
+                        List<AcsEndpoint> group = instances.computeIfAbsent(name, n -> new ArrayList<>());
+                        if (!group.contains(endpoint)) {
+                            group.add(endpoint);
+                        }
+                    } else if (kind.equals("bin") && fields.length == 3) {
+                        // Resolved once every ACS is known, so the file can declare them in any order
+                        binLines.add(fields);
+                        binLineNumbers.add(lineNumber);
+                    } else {
+                        throw new IllegalArgumentException("expected acs;name;host;port or bin;low[-high];name");
+                    }
+                } catch (IllegalArgumentException e) {
+                    if (++invalidLines <= MAX_LOGGED_INVALID_LINES) {
+                        log.warn("Skipping invalid line {} of {}: {}", lineNumber, file, e.getMessage());
+                    }
+                }
+            }
+        }
+
+        Map<String, AcsGroup> groups = new HashMap<>();
+        List<AcsEndpoint> endpoints = new ArrayList<>();
+        for (Map.Entry<String, List<AcsEndpoint>> group : instances.entrySet()) {
+            groups.put(group.getKey(), new AcsGroup(group.getKey(), group.getValue()));
+            endpoints.addAll(group.getValue());
+        }
+
+        List<List<Range>> rangesByLength = new ArrayList<>();
+        for (int digits = MIN_BIN_DIGITS; digits <= MAX_BIN_DIGITS; digits++) {
+            rangesByLength.add(new ArrayList<>());
+        }
+        for (int i = 0; i < binLines.size(); i++) {
+            String[] fields = binLines.get(i);
+            try {
+                Range range = parseRange(fields[1].trim(), groups.get(fields[2].trim()));
+                rangesByLength.get(range.digits - MIN_BIN_DIGITS).add(range);
+            } catch (IllegalArgumentException e) {
+                if (++invalidLines <= MAX_LOGGED_INVALID_LINES) {
+                    log.warn("Skipping invalid line {} of {}: {}", binLineNumbers.get(i), file, e.getMessage());
+                }
+            }
+        }
+        if (invalidLines > MAX_LOGGED_INVALID_LINES) {
+            log.warn("Skipped {} invalid lines in {}", invalidLines, file);
+        }
+        return new Snapshot(rangesByLength, endpoints);
+    }
+
+    private static Range parseRange(String bounds, AcsGroup target) {
+        if (target == null) {
+            throw new IllegalArgumentException("unknown ACS");
+        }
+        int dash = bounds.indexOf('-');
+        String low = dash < 0 ? bounds : bounds.substring(0, dash).trim();
+        String high = dash < 0 ? bounds : bounds.substring(dash + 1).trim();
+        if (low.length() != high.length() || low.length() < MIN_BIN_DIGITS || low.length() > MAX_BIN_DIGITS
+                || !isDigits(low) || !isDigits(high)) {
+            throw new IllegalArgumentException("expected two bounds of " + MIN_BIN_DIGITS + " to " + MAX_BIN_DIGITS + " digits, of the same length");
+        }
+        long lowValue = Long.parseLong(low);
+        long highValue = Long.parseLong(high);
+        if (lowValue > highValue) {
+            throw new IllegalArgumentException("low bound above high bound");
+        }
+        return new Range(low.length(), lowValue, highValue, target);
+    }
+
+    private static boolean isDigits(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Range {
+        final int digits;
+        final long low;
+        final long high;
+        final AcsGroup target;
+
+        Range(int digits, long low, long high, AcsGroup target) {
+            this.digits = digits;
+            this.low = low;
+            this.high = high;
+            this.target = target;
+        }
+    }
+
+    // Per prefix length, disjoint intervals sorted by their first prefix. Never modified once published.
+    private static final class Snapshot {
+        private final long[][] lows = new long[MAX_BIN_DIGITS - MIN_BIN_DIGITS + 1][];
+        private final long[][] highs = new long[MAX_BIN_DIGITS - MIN_BIN_DIGITS + 1][];
+        private final AcsGroup[][] targets = new AcsGroup[MAX_BIN_DIGITS - MIN_BIN_DIGITS + 1][];
+        private final List<AcsEndpoint> endpoints;
+        private final int ranges;
+
+        Snapshot(List<List<Range>> rangesByLength, List<AcsEndpoint> endpoints) {
+            int count = 0;
+            for (int length = 0; length < rangesByLength.size(); length++) {
+                List<Range> ranges = rangesByLength.get(length);
+                count += ranges.size();
+                // Widest first, so narrower ranges are painted over them (a stable sort keeps file order among equals)
+                ranges.sort(Comparator.comparingLong((Range r) -> r.high - r.low).reversed());
+                TreeMap<Long, Range> disjoint = new TreeMap<>();
+                for (Range range : ranges) {
+                    paint(disjoint, range);
+                }
+                lows[length] = new long[disjoint.size()];
+                highs[length] = new long[disjoint.size()];
+                targets[length] = new AcsGroup[disjoint.size()];
+                int i = 0;
+                for (Range interval : disjoint.values()) {
+                    lows[length][i] = interval.low;
+                    highs[length][i] = interval.high;
+                    targets[length][i] = interval.target;
+                    i++;
+                }
+            }
+            this.ranges = count;
+            this.endpoints = Collections.unmodifiableList(endpoints);
+        }
+
+        // Overwrites [range.low, range.high] in a set of disjoint intervals, trimming what it covers
+        private static void paint(TreeMap<Long, Range> disjoint, Range range) {
+            Map.Entry<Long, Range> before = disjoint.lowerEntry(range.low);
+            if (before != null && before.getValue().high >= range.low) {
+                Range covered = before.getValue();
+                disjoint.put(covered.low, new Range(covered.digits, covered.low, range.low - 1, covered.target));
+                if (covered.high > range.high) {
+                    disjoint.put(range.high + 1, new Range(covered.digits, range.high + 1, covered.high, covered.target));
+                }
+            }
+            Iterator<Range> inside = disjoint.subMap(range.low, true, range.high, true).values().iterator();
+            Range last = null;
+            while (inside.hasNext()) {
+                last = inside.next();
+                inside.remove();
+            }
+            if (last != null && last.high > range.high) {
+                disjoint.put(range.high + 1, new Range(last.digits, range.high + 1, last.high, last.target));
+            }
+            disjoint.put(range.low, range);
+        }
+
+        AcsGroup find(int digits, long prefix) {
+            long[] starts = lows[digits - MIN_BIN_DIGITS];
+            int low = 0;
+            int high = starts.length - 1;
+            // Last interval starting at or before the prefix
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (starts[mid] <= prefix) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return high >= 0 && prefix <= highs[digits - MIN_BIN_DIGITS][high] ? targets[digits - MIN_BIN_DIGITS][high] : null;
+        }
+    }
+}
+// End of BinRoutingTable.java //
@@ -0,0 +1,397 @@
+// Beggining of BinaryWireCodec.java //
+import modules.PaymentInfo;
+import modules.ValidationResult;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Length-prefixed binary frames: int length (of everything after it), byte type, then the body.
+ *
+ *   REQUEST   int remainingMs, PaymentInfo in fixed field order (tokenA doubles as correlation id):
+ *             str tokenA, pan cardNumber, int month, int year, str cvv, float dueAmount,
+ *             str clientName, str receiverIdToken
+ *   RESPONSE  str correlationId, byte result code, str link-or-message
+ *   PING/PONG no body
+ *   REQUEST_BATCH   short count, then count REQUEST bodies (from remainingMs on)   (BIN/2 only)
+ *   RESPONSE_BATCH  short count, then count RESPONSE bodies (from correlationId on) (BIN/2 only)
+ *
+ * str = short byte length (-1 for null) + UTF-8 bytes. pan = byte digit count + packed BCD
+ * (two digits per byte) when the card number is all digits, otherwise -2 followed by a str.
+ * Fields are read straight into PaymentInfo, with no JSON text to build or parse.
+ *
+ * A batch that would not fit in MAX_FRAME_LENGTH, or that the peer cannot read (BIN/1), is
+ * written as separate frames in a single flush instead.
+ */
+public class BinaryWireCodec extends WireCodec {
+    static final byte TYPE_REQUEST = 1;
+    static final byte TYPE_RESPONSE = 2;
+    static final byte TYPE_PING = 3;
+    static final byte TYPE_PONG = 4;
+    static final byte TYPE_REQUEST_BATCH = 5;
+    static final byte TYPE_RESPONSE_BATCH = 6;
+    static final int MAX_FRAME_LENGTH = 64 * 1024;
+
+    private static final byte PAN_NULL = -1;
+    private static final byte PAN_TEXT = -2;
+    private static final int MAX_BCD_DIGITS = 32;
+    // Type, remainingMs, month, year, dueAmount, the PAN tag and the length of the five str fields
+    private static final int REQUEST_FIXED_BYTES = 1 + 4 + 4 + 4 + 4 + 1 + 5 * 2;
+
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    // Batch frames were negotiated (BIN/2): the peer can read them
+    private final boolean batchFrames;
+    // Reused for encoding under the write lock
+    private final ByteArrayOutputStream frameBuffer = new ByteArrayOutputStream(256);
+    private final DataOutputStream frame = new DataOutputStream(frameBuffer);
+
+    public BinaryWireCodec(InputStream in, OutputStream out) {
+        this(in, out, false);
+    }
+
+    public BinaryWireCodec(InputStream in, OutputStream out, boolean batchFrames) {
+        this.in = new DataInputStream(in);
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        this.batchFrames = batchFrames;
+    }
+
+    // Counted with every string field as a str of its UTF-8 length (a PAN in BCD takes less)
+    @Override
+    public boolean fits(PaymentInfo payment) {
+        long length = REQUEST_FIXED_BYTES;
+        for (String field : new String[]{payment.getTokenA(), payment.getCardNumber(), payment.getCvv(),
+                payment.getClientName(), payment.getReceiverIdToken()}) {
+            int bytes = field == null ? 0 : utf8Length(field);
+            if (bytes > Short.MAX_VALUE) {
+                return false;
+            }
+            length += bytes;
+        }
+        return length <= MAX_FRAME_LENGTH;
+    }
+
+    @Override
+    public synchronized void writeRequest(String correlationId, long remainingMs, PaymentInfo payment) throws IOException {
+        if (!correlationId.equals(payment.getTokenA())) {
+            throw new IllegalArgumentException("Binary requests are correlated by tokenA");
+        }
+        if (!fits(payment)) {
+            // Nothing written, the connection stays usable
+            throw new IllegalArgumentException("Request for " + correlationId + " does not fit a binary frame");
+        }
+        frameBuffer.reset();
+        encodeRequest(frame, remainingMs, payment);
+        flushFrame();
+    }
+
+    @Override
+    public synchronized void writeResponse(String correlationId, ValidationResult result) throws IOException {
+        frameBuffer.reset();
+        encodeResponse(frame, correlationId, result);
+        flushFrame();
+    }
+
+    @Override
+    public synchronized void writeRequests(List<Frame> requests) throws IOException {
+        for (Frame request : requests) {
+            if (!request.correlationId.equals(request.payment.getTokenA())) {
+                throw new IllegalArgumentException("Binary requests are correlated by tokenA");
+            }
+        }
+        if (batchFrames && requests.size() > 1 && requests.size() <= Short.MAX_VALUE) {
+            frameBuffer.reset();
+            frame.writeByte(TYPE_REQUEST_BATCH);
+            frame.writeShort(requests.size());
+            for (Frame request : requests) {
+                encodeRequestBody(frame, request.remainingMs, request.payment);
+            }
+            if (frameBuffer.size() <= MAX_FRAME_LENGTH) {
+                flushFrame();
+                return;
+            }
+        }
+        // One frame each, still in a single flush
+        for (Frame request : requests) {
+            if (!fits(request.payment)) {
+                throw new IllegalArgumentException("Request for " + request.correlationId + " does not fit a binary frame");
+            }
+        }
+        for (Frame request : requests) {
+            frameBuffer.reset();
+            encodeRequest(frame, request.remainingMs, request.payment);
+            appendFrame();
+        }
+        out.flush();
+    }
+
+    @Override
+    public synchronized void writeResponses(List<Frame> responses) throws IOException {
+        if (batchFrames && responses.size() > 1 && responses.size() <= Short.MAX_VALUE) {
+            frameBuffer.reset();
+            frame.writeByte(TYPE_RESPONSE_BATCH);
+            frame.writeShort(responses.size());
+            for (Frame response : responses) {
+                encodeResponseBody(frame, response.correlationId, response.result);
+            }
+            if (frameBuffer.size() <= MAX_FRAME_LENGTH) {
+                flushFrame();
+                return;
+            }
+        }
+        for (Frame response : responses) {
+            frameBuffer.reset();
+            encodeResponse(frame, response.correlationId, response.result);
+            appendFrame();
+        }
+        out.flush();
+    }
+
+    @Override
+    public synchronized void writePing() throws IOException {
+        frameBuffer.reset();
+        frame.writeByte(TYPE_PING);
+        flushFrame();
+    }
+
+    @Override
+    public synchronized void writePong() throws IOException {
+        frameBuffer.reset();
+        frame.writeByte(TYPE_PONG);
+        flushFrame();
+    }
+
+    @Override
+    public Frame readRequest() throws IOException {
+        Frame frame = readFrame();
+        if (frame != null && frame.type != Frame.Type.REQUEST && frame.type != Frame.Type.REQUEST_BATCH && frame.type != Frame.Type.PING) {
+            throw new IOException("Unexpected " + frame.type + " frame from client");
+        }
+        return frame;
+    }
+
+    @Override
+    public Frame readResponse() throws IOException {
+        Frame frame = readFrame();
+        if (frame != null && frame.type != Frame.Type.RESPONSE && frame.type != Frame.Type.RESPONSE_BATCH && frame.type != Frame.Type.PONG) {
+            throw new IOException("Unexpected " + frame.type + " frame from server");
+        }
+        return frame;
+    }
+
+    private void flushFrame() throws IOException {
+        appendFrame();
+        out.flush();
+    }
+
+    // Writes the encoded frame to the buffered stream, without flushing
+    private void appendFrame() throws IOException {
+        out.writeInt(frameBuffer.size());
+        frameBuffer.writeTo(out);
+    }
+
+    private Frame readFrame() throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length <= 0 || length > MAX_FRAME_LENGTH) {
+            throw new IOException("Invalid frame length " + length);
+        }
+        byte[] body = new byte[length];
+        in.readFully(body);
+        return decode(ByteBuffer.wrap(body));
+    }
+
+    static void encodeRequest(DataOutputStream frame, long remainingMs, PaymentInfo payment) throws IOException {
+        frame.writeByte(TYPE_REQUEST);
+        encodeRequestBody(frame, remainingMs, payment);
+    }
+
+    private static void encodeRequestBody(DataOutputStream frame, long remainingMs, PaymentInfo payment) throws IOException {
+        frame.writeInt((int) Math.min(Integer.MAX_VALUE, Math.max(0, remainingMs)));
+        writeString(frame, payment.getTokenA());
+        writePan(frame, payment.getCardNumber());
+        // As ints: an out-of-range month or year must reach the ACS as sent, as it does as text
+        frame.writeInt(payment.getMonth());
+        frame.writeInt(payment.getYear());
+        writeString(frame, payment.getCvv());
+        frame.writeFloat(payment.getDueAmount());
+        writeString(frame, payment.getClientName());
+        writeString(frame, payment.getReceiverIdToken());
+    }
+
+    static void encodeResponse(DataOutputStream frame, String correlationId, ValidationResult result) throws IOException {
+        frame.writeByte(TYPE_RESPONSE);
+        encodeResponseBody(frame, correlationId, result);
+    }
+
+    private static void encodeResponseBody(DataOutputStream frame, String correlationId, ValidationResult result) throws IOException {
+        writeString(frame, correlationId);
+        frame.writeByte(result.getCode().getWireValue());
+        writeString(frame, result.getValue());
+    }
+
+    // Decodes one frame body (everything after the length prefix)
+    static Frame decode(ByteBuffer body) throws IOException {
+        try {
+            byte type = body.get();
+            switch (type) {
+                case TYPE_REQUEST:
+                    return decodeRequest(body);
+                case TYPE_RESPONSE:
+                    return decodeResponse(body);
+                case TYPE_REQUEST_BATCH: {
+                    int count = readBatchCount(body);
+                    List<Frame> requests = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        requests.add(decodeRequest(body));
+                    }
+                    return Frame.requestBatch(requests);
+                }
+                case TYPE_RESPONSE_BATCH: {
+                    int count = readBatchCount(body);
+                    List<Frame> responses = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        responses.add(decodeResponse(body));
+                    }
+                    return Frame.responseBatch(responses);
+                }
+                case TYPE_PING:
+                    return Frame.PING;
+                case TYPE_PONG:
+                    return Frame.PONG;
+                default:
+                    throw new IOException("Unknown frame type " + type);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated frame");
+        }
+    }
+
+    private static Frame decodeRequest(ByteBuffer body) throws IOException {
+        long remainingMs = body.getInt();
+        PaymentInfo payment = new PaymentInfo();
+        payment.setTokenA(readString(body));
+        payment.setCardNumber(readPan(body));
+        payment.setMonth(body.getInt());
+        payment.setYear(body.getInt());
+        payment.setCvv(readString(body));
+        payment.setDueAmount(body.getFloat());
+        payment.setClientName(readString(body));
+        payment.setReceiverIdToken(readString(body));
+        if (payment.getTokenA() == null || payment.getTokenA().isEmpty()) {
+            throw new IOException("Request frame without tokenA");
+        }
+        return Frame.request(payment.getTokenA(), remainingMs, payment);
+    }
+
+    private static Frame decodeResponse(ByteBuffer body) throws IOException {
+        String correlationId = readString(body);
+        ValidationResult.Code code = ValidationResult.Code.fromWireValue(body.get());
+        String value = readString(body);
+        return Frame.response(correlationId, code == ValidationResult.Code.OK
+                ? ValidationResult.link(value)
+                : ValidationResult.error(code, value));
+    }
+
+    private static int readBatchCount(ByteBuffer body) throws IOException {
+        int count = body.getShort();
+        if (count <= 0) {
+            throw new IOException("Invalid batch size " + count);
+        }
+        return count;
+    }
+
+    private static void writeString(DataOutputStream frame, String value) throws IOException {
+        if (value == null) {
+            frame.writeShort(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > Short.MAX_VALUE) {
+            throw new IOException("Field too long for a binary frame");
+        }
+        frame.writeShort(bytes.length);
+        frame.write(bytes);
+    }
+
+    private static String readString(ByteBuffer body) {
+        int length = body.getShort();
+        if (length < 0) {
+            return null;
+        }
+        if (!body.hasArray()) {
+            // Direct buffer of the event-loop listener (TlsEventLoopServer)
+            byte[] bytes = new byte[length];
+            body.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        String value = new String(body.array(), body.arrayOffset() + body.position(), length, StandardCharsets.UTF_8);
+        body.position(body.position() + length);
+        return value;
+    }
+
+    // Bytes value takes in UTF-8, or a little more: each half of a surrogate pair is counted as 3
+    private static int utf8Length(String value) {
+        int bytes = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            bytes += c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+        }
+        return bytes;
+    }
+
+    private static void writePan(DataOutputStream frame, String pan) throws IOException {
+        if (pan == null) {
+            frame.writeByte(PAN_NULL);
+            return;
+        }
+        int digits = pan.length();
+        boolean numeric = digits <= MAX_BCD_DIGITS;
+        for (int i = 0; i < digits && numeric; i++) {
+            char c = pan.charAt(i);
+            numeric = c >= '0' && c <= '9';
+        }
+        if (!numeric) {
+            frame.writeByte(PAN_TEXT);
+            writeString(frame, pan);
+            return;
+        }
+        frame.writeByte(digits);
+        for (int i = 0; i < digits; i += 2) {
+            int high = pan.charAt(i) - '0';
+            int low = i + 1 < digits ? pan.charAt(i + 1) - '0' : 0;
+            frame.writeByte(high << 4 | low);
+        }
+    }
+
+    private static String readPan(ByteBuffer body) throws IOException {
+        byte digits = body.get();
+        if (digits == PAN_NULL) {
+            return null;
+        }
+        if (digits == PAN_TEXT) {
+            return readString(body);
+        }
+        if (digits < 0 || digits > MAX_BCD_DIGITS) {
+            throw new IOException("Invalid card number length " + digits);
+        }
+        char[] pan = new char[digits];
+        for (int i = 0; i < digits; i += 2) {
+            int packed = body.get() & 0xFF;
+            pan[i] = (char) ('0' + (packed >>> 4));
+            if (i + 1 < digits) {
+                pan[i + 1] = (char) ('0' + (packed & 0x0F));
+            }
+        }
+        return new String(pan);
+    }
+}
+// End of BinaryWireCodec.java //
@@ -0,0 +1,476 @@
+// Beggining of CallbackDispatcher.java //
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Merchant callbacks (Step 10), delivered in the background with retries and kept in a local
+ * outbox so none is lost when the ACS restarts.
+ *
+ * submit() appends the callback to the outbox and returns a future that completes once it is on
+ * disk; delivery then happens asynchronously. The outbox is an append-only text file written by a
+ * single thread that takes everything queued since its last write, writes it in one go and forces
+ * it once (group commit), so concurrent confirmations share one fsync.
+ *
+ *   A <id> <url> <json body>   callback to deliver
+ *   D <id>                     delivered (2xx)
+ *   X <id>                     given up (non-retryable status or attempts exhausted)
+ *
+ * Each line is prefixed with the record's length in UTF-8 bytes and its CRC32 (hex), so a record
+ * torn by a crash mid-write, e.g. an A line cut inside its body, fails the check and is dropped on
+ * replay instead of being delivered truncated. Its submit() never completed, nobody relied on it.
+ *
+ * On open, every A without a matching D or X is delivered again, so a merchant may see the same
+ * callback twice (at-least-once, keyed by orderId). The file is rewritten with only the
+ * outstanding callbacks at startup and whenever finished records make up most of it.
+ *
+ * Failed attempts (I/O errors, timeouts, 408, 425, 429, 5xx) are retried with exponential backoff
+ * and jitter, up to maxAttempts. At most concurrencyPerMerchant requests are in flight per
+ * merchant host; the rest wait in that merchant's queue, so one slow merchant cannot hold every
+ * connection.
+ */
+public class CallbackDispatcher implements Closeable {
+    private static final int MAX_BATCH = 1024;
+    private static final int COMPACT_MIN_RECORDS = 10_000;
+
+    private final Path outboxPath;
+    private final HttpClient httpClient;
+    private final String authorization;
+    private final int maxAttempts;
+    private final long baseBackoffMs;
+    private final long maxBackoffMs;
+    private final Duration requestTimeout;
+    private final int concurrencyPerMerchant;
+
+    private final Map<Long, Delivery> outstanding = new ConcurrentHashMap<>();
+    private final Map<String, MerchantQueue> merchants = new ConcurrentHashMap<>();
+    private final BlockingQueue<Record> journal = new LinkedBlockingQueue<>();
+    private final ScheduledExecutorService retries;
+    private final Thread writer;
+    private final AtomicLong nextId;
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong abandoned = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private static final Logger log = LoggerFactory.getLogger(CallbackDispatcher.class);
+    private static final Metrics.Histogram attemptSeconds = Metrics.histogram(
+            "callback_attempt_duration_seconds", "Time from sending a merchant callback to its response or failure");
+    private static final Metrics.Counter[] attemptsByStatus = {
+            attemptsByStatus("2xx"), attemptsByStatus("3xx"), attemptsByStatus("4xx"), attemptsByStatus("5xx"), attemptsByStatus("error")};
+    // Written by the writer thread only (and by open() before it starts)
+    private FileChannel outbox;
+    private long recordsInFile;
+    private volatile boolean closed;
+
+    private CallbackDispatcher(Path outboxPath, HttpClient httpClient, String authorization, int maxAttempts,
+                               long baseBackoffMs, long maxBackoffMs, long requestTimeoutMs, int concurrencyPerMerchant,
+                               long firstId) {
+        this.outboxPath = outboxPath;
+        this.httpClient = httpClient;
+        this.authorization = authorization;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseBackoffMs = Math.max(1, baseBackoffMs);
+        this.maxBackoffMs = Math.max(this.baseBackoffMs, maxBackoffMs);
+        this.requestTimeout = Duration.ofMillis(requestTimeoutMs);
+        this.concurrencyPerMerchant = Math.max(1, concurrencyPerMerchant);
+        this.nextId = new AtomicLong(firstId);
+        this.retries = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "callback-retries");
+            t.setDaemon(true);
+            return t;
+        });
+        this.writer = new Thread(this::writeLoop, "callback-outbox");
+    }
+
+    // Replays the outbox, compacts it and starts delivering whatever was still outstanding
+    public static CallbackDispatcher open(String outboxPath, HttpClient httpClient, String authorization, int maxAttempts,
+                                          long baseBackoffMs, long maxBackoffMs, long requestTimeoutMs,
+                                          int concurrencyPerMerchant) throws IOException {
+        Path path = Paths.get(outboxPath);
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        Map<Long, String[]> pending = replay(path);
+        long firstId = 1;
+        for (long id : pending.keySet()) {
+            firstId = Math.max(firstId, id + 1);
+        }
+
+        CallbackDispatcher dispatcher = new CallbackDispatcher(path, httpClient, authorization, maxAttempts,
+                baseBackoffMs, maxBackoffMs, requestTimeoutMs, concurrencyPerMerchant, firstId);
+        for (Map.Entry<Long, String[]> entry : pending.entrySet()) {
+            Delivery delivery = new Delivery(entry.getKey(), URI.create(entry.getValue()[0]), entry.getValue()[1]);
+            dispatcher.outstanding.put(delivery.id, delivery);
+        }
+        dispatcher.rewrite();
+        dispatcher.writer.start();
+        for (Delivery delivery : dispatcher.outstanding.values()) {
+            dispatcher.merchantQueue(delivery).offer(delivery);
+        }
+        if (!pending.isEmpty()) {
+            log.info("Resuming {} undelivered callback(s) from {}", pending.size(), outboxPath);
+        }
+        return dispatcher;
+    }
+
+    // Records the callback in the outbox; the future completes once it is durable (delivery
+    // follows on its own) or fails if it could not be written
+    public CompletableFuture<Void> submit(String url, String body) {
+        if (closed) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Callback dispatcher is closed"));
+        }
+        if (body.indexOf('\n') >= 0 || body.indexOf('\r') >= 0 || url.indexOf(' ') >= 0) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Callback must be a single-line body and a URL without spaces"));
+        }
+        Delivery delivery = new Delivery(nextId.getAndIncrement(), URI.create(url), body);
+        Record record = new Record("A " + delivery.id + " " + url + " " + body, new CompletableFuture<>());
+        CompletableFuture<Void> durable = record.durable.thenRun(() -> {
+            outstanding.put(delivery.id, delivery);
+            merchantQueue(delivery).offer(delivery);
+        });
+        journal.add(record);
+        return durable;
+    }
+
+    // Callbacks written but not yet delivered or given up
+    public int pending() {
+        return outstanding.size();
+    }
+
+    public long delivered() {
+        return delivered.get();
+    }
+
+    public long abandoned() {
+        return abandoned.get();
+    }
+
+    public long retried() {
+        return retried.get();
+    }
+
+    // Stops delivering and flushes what is queued; undelivered callbacks are resumed on next open
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        retries.shutdownNow();
+        journal.add(Record.STOP);
+        try {
+            writer.join(5_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Map<Long, String[]> replay(Path path) throws IOException {
+        Map<Long, String[]> pending = new LinkedHashMap<>();
+        if (!Files.exists(path)) {
+            return pending;
+        }
+        // Not Files.newBufferedReader: a torn multi-byte character must fail the record's check, not the replay
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(path), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String record = unframe(line);
+                if (record == null) {
+                    // Torn by a crash mid-write (or corrupted), its submit() never completed
+                    log.warn("Dropping outbox record that fails its length/CRC check ({} bytes)", line.length());
+                    continue;
+                }
+                String[] parts = record.split(" ", 4);
+                try {
+                    if (parts[0].equals("A") && parts.length == 4) {
+                        pending.put(Long.parseLong(parts[1]), new String[]{parts[2], parts[3]});
+                    } else if ((parts[0].equals("D") || parts[0].equals("X")) && parts.length == 2) {
+                        pending.remove(Long.parseLong(parts[1]));
+                    } else {
+                        log.warn("Skipping malformed outbox record: {}", record);
+                    }
+                } catch (NumberFormatException e) {
+                    log.warn("Skipping malformed outbox record: {}", record);
+                }
+            }
+        }
+        return pending;
+    }
+
+    // Group commit: everything queued since the last write goes out with a single force()
+    private void writeLoop() {
+        List<Record> batch = new ArrayList<>();
+        boolean stopping = false;
+        while (!stopping) {
+            try {
+                batch.add(journal.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            journal.drainTo(batch, MAX_BATCH);
+            StringBuilder text = new StringBuilder();
+            for (Record record : batch) {
+                if (record == Record.STOP) {
+                    stopping = true;
+                } else {
+                    text.append(frame(record.line)).append('\n');
+                }
+            }
+            IOException failure = null;
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) {
+                    outbox.write(buffer);
+                }
+                outbox.force(false);
+                recordsInFile += batch.size();
+            } catch (IOException e) {
+                log.error("Failed to write outbox", e);
+                failure = e;
+            }
+            for (Record record : batch) {
+                if (record.durable != null) {
+                    if (failure == null) {
+                        record.durable.complete(null);
+                    } else {
+                        record.durable.completeExceptionally(failure);
+                    }
+                }
+            }
+            batch.clear();
+            if (failure == null && recordsInFile > COMPACT_MIN_RECORDS && recordsInFile > 4L * outstanding.size()) {
+                try {
+                    rewrite();
+                } catch (IOException e) {
+                    log.error("Failed to compact outbox", e);
+                }
+            }
+        }
+        // Anything submitted after close() was never written
+        for (Record record; (record = journal.poll()) != null; ) {
+            if (record.durable != null) {
+                record.durable.completeExceptionally(new IllegalStateException("Callback dispatcher is closed"));
+            }
+        }
+        try {
+            outbox.close();
+        } catch (IOException e) {
+            log.warn("Failed to close outbox: {}", e.getMessage());
+        }
+    }
+
+    // Replaces the outbox with just the outstanding callbacks (writer thread, or open())
+    private void rewrite() throws IOException {
+        Path temporary = outboxPath.resolveSibling(outboxPath.getFileName() + ".tmp");
+        StringBuilder text = new StringBuilder();
+        for (Delivery delivery : outstanding.values()) {
+            text.append(frame("A " + delivery.id + " " + delivery.uri + " " + delivery.body)).append('\n');
+        }
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, outboxPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (outbox != null) {
+            outbox.close();
+        }
+        outbox = FileChannel.open(outboxPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        recordsInFile = outstanding.size();
+    }
+
+    // "<length> <crc32> <record>", the line written for a record
+    private static String frame(String record) {
+        byte[] bytes = record.getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return bytes.length + " " + Long.toHexString(crc.getValue()) + " " + record;
+    }
+
+    // The record of an outbox line, or null when it fails its length or CRC check
+    private static String unframe(String line) {
+        if (line.startsWith("A ") || line.startsWith("D ") || line.startsWith("X ")) {
+            return line; // Written before records were checked; the outbox is rewritten checked on open
+        }
+        int lengthEnd = line.indexOf(' ');
+        int crcEnd = lengthEnd < 0 ? -1 : line.indexOf(' ', lengthEnd + 1);
+        if (crcEnd < 0) {
+            return null;
+        }
+        try {
+            int length = Integer.parseInt(line, 0, lengthEnd, 10);
+            long checksum = Long.parseLong(line, lengthEnd + 1, crcEnd, 16);
+            String record = line.substring(crcEnd + 1);
+            byte[] bytes = record.getBytes(StandardCharsets.UTF_8);
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            return bytes.length == length && crc.getValue() == checksum ? record : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private MerchantQueue merchantQueue(Delivery delivery) {
+        String merchant = delivery.uri.getAuthority() == null ? "" : delivery.uri.getAuthority();
+        return merchants.computeIfAbsent(merchant, key -> new MerchantQueue());
+    }
+
+    private void attempt(Delivery delivery, MerchantQueue queue) {
+        delivery.attempts++;
+        HttpRequest request;
+        try {
+            request = HttpRequest.newBuilder()
+                    .uri(delivery.uri)
+                    .timeout(requestTimeout)
+                    .header("Content-Type", "application/json")
+                    .header("accept", "application/json")
+                    .header("Authorization", authorization)
+                    .POST(HttpRequest.BodyPublishers.ofString(delivery.body))
+                    .build();
+        } catch (IllegalArgumentException e) {
+            queue.done();
+            finish(delivery, false, "invalid request: " + e.getMessage());
+            return;
+        }
+        long start = System.nanoTime();
+        httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString()).whenComplete((response, error) -> {
+            queue.done();
+            attemptSeconds.observeSince(start);
+            attemptsByStatus[error != null ? 4 : Math.min(Math.max(response.statusCode() / 100 - 2, 0), 3)].increment();
+            if (error == null && response.statusCode() >= 200 && response.statusCode() < 300) {
+                finish(delivery, true, "status " + response.statusCode());
+                return;
+            }
+            String outcome = error != null ? String.valueOf(error.getCause() != null ? error.getCause() : error)
+                    : "status " + response.statusCode() + " " + response.body();
+            if ((error != null || isRetryable(response.statusCode())) && delivery.attempts < maxAttempts && !closed) {
+                long delay = backoff(delivery.attempts);
+                log.atWarn().addKeyValue("callbackId", delivery.id).addKeyValue("payload", delivery.body)
+                        .log("Callback to {} failed ({}), attempt {}/{}, retrying in {} ms", delivery.uri, outcome, delivery.attempts, maxAttempts, delay);
+                retried.incrementAndGet();
+                retries.schedule(() -> queue.offer(delivery), delay, TimeUnit.MILLISECONDS);
+            } else if (!closed) {
+                finish(delivery, false, outcome);
+            }
+        });
+    }
+
+    private void finish(Delivery delivery, boolean success, String outcome) {
+        outstanding.remove(delivery.id);
+        journal.add(new Record((success ? "D " : "X ") + delivery.id, null));
+        if (success) {
+            delivered.incrementAndGet();
+            log.atInfo().addKeyValue("callbackId", delivery.id).addKeyValue("payload", delivery.body)
+                    .log("Callback delivered to {} ({})", delivery.uri, outcome);
+        } else {
+            abandoned.incrementAndGet();
+            log.atError().addKeyValue("callbackId", delivery.id).addKeyValue("payload", delivery.body)
+                    .log("Giving up on callback to {} after {} attempt(s) ({})", delivery.uri, delivery.attempts, outcome);
+        }
+    }
+
+    private static Metrics.Counter attemptsByStatus(String status) {
+        return Metrics.counter("callback_attempts_total", "Merchant callback attempts by response status class", "status", status);
+    }
+
+    private static boolean isRetryable(int status) {
+        return status == 408 || status == 425 || status == 429 || status >= 500;
+    }
+
+    // Exponential backoff with equal jitter: between half and all of base * 2^(attempt - 1), capped
+    private long backoff(int attempt) {
+        long ceiling = Math.min(maxBackoffMs, baseBackoffMs << Math.min(attempt - 1, 30));
+        return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+    }
+
+    // Per-merchant concurrency limit: callbacks over the limit wait here for a slot
+    private final class MerchantQueue {
+        // Guarded by this
+        private final ArrayDeque<Delivery> waiting = new ArrayDeque<>();
+        private int inFlight;
+
+        void offer(Delivery delivery) {
+            synchronized (this) {
+                if (inFlight >= concurrencyPerMerchant) {
+                    waiting.add(delivery);
+                    return;
+                }
+                inFlight++;
+            }
+            attempt(delivery, this);
+        }
+
+        // Frees the caller's slot, or hands it straight to the next waiting callback
+        void done() {
+            Delivery next;
+            synchronized (this) {
+                next = closed ? null : waiting.poll();
+                if (next == null) {
+                    inFlight--;
+                    return;
+                }
+            }
+            attempt(next, this);
+        }
+    }
+
+    private static final class Delivery {
+        final long id;
+        final URI uri;
+        final String body;
+        // Only touched by the one attempt in progress
+        int attempts;
+
+        Delivery(long id, URI uri, String body) {
+            this.id = id;
+            this.uri = uri;
+            this.body = body;
+        }
+    }
+
+    private static final class Record {
+        static final Record STOP = new Record(null, null);
+
+        final String line;
+        final CompletableFuture<Void> durable; // null for D and X records, nobody waits on them
+
+        Record(String line, CompletableFuture<Void> durable) {
+            this.line = line;
+            this.durable = durable;
+        }
+    }
+}
+// End of CallbackDispatcher.java //
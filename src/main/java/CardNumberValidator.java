@@ -0,0 +1,56 @@
+// Beggining of CardNumberValidator.java //
+import modules.CardBrand;
+
+// Plausibility check run on every payment before it leaves HttpsServer and again on the ACQ:
+// 13 to 19 digits, a valid Luhn check digit, and a length the card's brand issues. One pass over
+// the characters, no allocation, so mistyped or made-up numbers are rejected without a round trip.
+public final class CardNumberValidator {
+    private static final int MIN_PAN_DIGITS = 13;
+    private static final int MAX_PAN_DIGITS = 19;
+    private static final int IIN_DIGITS = 6;
+
+    private CardNumberValidator() {
+    }
+
+    // Brand of the card, or null when the number is not plausible
+    public static CardBrand validate(String cardNumber) {
+        if (cardNumber == null) {
+            return null;
+        }
+        int length = cardNumber.length();
+        if (length < MIN_PAN_DIGITS || length > MAX_PAN_DIGITS) {
+            return null;
+        }
+        int sum = 0;
+        int iin = 0;
+        // Luhn doubles every second digit counting from the check digit (the last one)
+        boolean doubled = (length & 1) == 0;
+        for (int i = 0; i < length; i++) {
+            int digit = cardNumber.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return null;
+            }
+            if (i < IIN_DIGITS) {
+                iin = iin * 10 + digit;
+            }
+            if (doubled) {
+                digit *= 2;
+                if (digit > 9) {
+                    digit -= 9;
+                }
+            }
+            sum += digit;
+            doubled = !doubled;
+        }
+        if (sum % 10 != 0) {
+            return null;
+        }
+        CardBrand brand = CardBrand.fromIin(iin);
+        return brand.allowsLength(length) ? brand : null;
+    }
+
+    public static boolean isPlausible(String cardNumber) {
+        return validate(cardNumber) != null;
+    }
+}
+// End of CardNumberValidator.java //
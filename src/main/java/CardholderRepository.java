@@ -0,0 +1,21 @@
+// Beggining of CardholderRepository.java //
+/**
+ * Enrolled cards the ACS authenticates against (Step 5 and the bank login of Step 9).
+ * Lookups are called concurrently from the request workers and must not block on a reload.
+ */
+public interface CardholderRepository {
+
+    // True when the card is enrolled and expiry, CVV and cardholder name all match; the CVV is
+    // compared as the digits given, leading zeros included
+    boolean verify(String cardNumber, int month, int year, String cvv, String clientName);
+
+    // True when the card is enrolled to this cardholder name, whatever the other details
+    boolean isCardholder(String cardNumber, String clientName);
+
+    // True when the card is enrolled at all
+    boolean isEnrolled(String cardNumber);
+
+    // Number of enrolled cards
+    int size();
+}
+// End of CardholderRepository.java //
@@ -1,78 +1,134 @@
 // Beggining of HttpsServer.java //
-import javax.net.ssl.*;
 import java.io.*;
-import java.security.KeyStore;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import io.javalin.Javalin;
+import io.javalin.http.Context;
 import io.javalin.http.Handler;
+import modules.PaymentInfo;
+import modules.ValidationResult;
 import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class HttpsServer {
+    private static final Logger log = LoggerFactory.getLogger(HttpsServer.class);
     private static final int ACQ_PORT = 8443;
     private static final String ACQ_HOST = "localhost";
     private static final String TRUSTSTORE_PATH = "./truststore/acsTruststore.jks"; // Assuming HttpsServer has its own truststore
     private static final String PASSWORD = "password";
 
-    public static void main(String[] args) {
+    // TLS client setup and keep-alive connections to ACQ, built once for the whole process
+    private static final int ACQ_POOL_SIZE = Config.intSetting("https.acqPoolSize", 4);
+    private static final long ACQ_REQUEST_TIMEOUT_MS = Config.longSetting("https.acqRequestTimeoutMs", 15_000);
+    private static final int ACQ_CONNECT_TIMEOUT_MS = Config.intSetting("https.acqConnectTimeoutMs", 5_000);
+    private static final long ACQ_HEALTH_CHECK_INTERVAL_MS = Config.longSetting("https.acqHealthCheckIntervalMs", 10_000);
+    // Offer the binary frame format to ACQ; text frames are used when this is off or ACQ does not support it
+    private static final boolean ACQ_BINARY_WIRE = Config.booleanSetting("https.acqBinaryWire", true);
+    private static final int TLS_SESSION_CACHE_SIZE = Config.intSetting("https.tlsSessionCacheSize", 1_000);
+    private static final int TLS_SESSION_TIMEOUT_SECONDS = Config.intSetting("https.tlsSessionTimeoutSeconds", 3_600);
+    private static final long TRUSTSTORE_CHECK_INTERVAL_MS = Config.longSetting("https.truststoreCheckIntervalMs", 30_000);
+    // End-to-end budget for one /initiate-payment, shared with ACQ and ACS; merchants may ask for less
+    private static final long PAYMENT_DEADLINE_MS = Config.longSetting("https.paymentDeadlineMs", 20_000);
+    private static final String REQUEST_TIMEOUT_HEADER = "X-Request-Timeout-Ms";
+    // Statuses a payment is answered with, alone or in a batch; anything else is counted as "other"
+    private static final int[] RESPONSE_STATUSES = {200, 400, 404, 409, 413, 504};
+    private static final Metrics.Counter[] responsesByStatus = new Metrics.Counter[RESPONSE_STATUSES.length + 1];
+    private static final Metrics.Histogram paymentSeconds = Metrics.histogram(
+            "https_payment_duration_seconds", "Time to answer /initiate-payment, validation included");
+    private static final Metrics.Histogram acqRoundTripSeconds = Metrics.histogram(
+            "https_acq_request_duration_seconds", "HttpsServer to ACQ round trip of one payment");
+    private static final Metrics.Counter invalidCards = Metrics.counter(
+            "https_invalid_cards_total", "Payments rejected before ACQ because the card number is not plausible");
+    // Merchant retries of a tokenA are answered from here instead of going to ACQ again
+    private static final int IDEMPOTENCY_MAX_ENTRIES = Config.intSetting("https.idempotencyMaxEntries", 100_000);
+    private static final long IDEMPOTENCY_TTL_MS = Config.longSetting("https.idempotencyTtlMs", 600_000);
+    // /initiate-payments: payments per request, and how many of them may wait on ACQ at once
+    private static final int BATCH_MAX_ITEMS = Config.intSetting("https.batchMaxItems", 10_000);
+    private static final int BATCH_MAX_IN_FLIGHT = Config.intSetting("https.batchMaxInFlight", 256);
+    private static TlsClientContext tlsClient;
+    private static MuxChannelPool acqChannels;
+    private static IdempotencyCache idempotency;
+
+    static {
+        for (int i = 0; i < RESPONSE_STATUSES.length; i++) {
+            responsesByStatus[i] = responseCounter(Integer.toString(RESPONSE_STATUSES[i]));
+        }
+        responsesByStatus[RESPONSE_STATUSES.length] = responseCounter("other");
+    }
+
+    public static void main(String[] args) throws Exception {
+        // Charger le truststore une seule fois pour faire confiance à ACQ
+        tlsClient = new TlsClientContext(TRUSTSTORE_PATH, PASSWORD, TLS_SESSION_CACHE_SIZE, TLS_SESSION_TIMEOUT_SECONDS, TRUSTSTORE_CHECK_INTERVAL_MS);
+        acqChannels = new MuxChannelPool("ACQ", ACQ_HOST, ACQ_PORT, tlsClient::socketFactory,
+                ACQ_POOL_SIZE, ACQ_REQUEST_TIMEOUT_MS, ACQ_CONNECT_TIMEOUT_MS, ACQ_HEALTH_CHECK_INTERVAL_MS, ACQ_BINARY_WIRE);
+        idempotency = new IdempotencyCache(IDEMPOTENCY_MAX_ENTRIES, IDEMPOTENCY_TTL_MS);
+
         // Lance le thread pour gérer les API
         Thread apiThread = new Thread(() -> {
             try {
                 startAPI();
             } catch (Exception e) {
-                System.err.println("Failed to start HTTPS API server: " + e.getMessage());
-                e.printStackTrace();
+                log.error("Failed to start HTTPS API server", e);
             }
         });
         apiThread.start();
     }
 
-    private static String forwardPaymentRequestToAcq(String paymentDataJson) throws Exception {
-        // Charger le truststore pour faire confiance à ACQ
-        KeyStore trustStore = KeyStore.getInstance("JKS");
-        try (FileInputStream trustStoreFile = new FileInputStream(TRUSTSTORE_PATH)) {
-            trustStore.load(trustStoreFile, PASSWORD.toCharArray());
-        }
-
-        TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
-        trustManagerFactory.init(trustStore);
-
-        SSLContext sslContext = SSLContext.getInstance("TLS");
-        // HttpsServer acts as a client to ACQ, so it needs TrustManagers
-        // It doesn't need KeyManagers unless ACQ requires client authentication from HttpsServer
-        sslContext.init(null, trustManagerFactory.getTrustManagers(), null);
-
-        SSLSocketFactory socketFactory = sslContext.getSocketFactory();
-        try (SSLSocket socket = (SSLSocket) socketFactory.createSocket(ACQ_HOST, ACQ_PORT);
-             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
-
-            System.out.println("HTTPS Server: Connected to ACQ Server.");
-            // Envoyer les données de paiement (JSON String) à l'ACQ (Step 3)
-            out.write(paymentDataJson + "\n");
-            out.flush();
-            System.out.println("HTTPS Server: Sent payment data to ACQ: " + paymentDataJson);
-
-            // Lire la réponse (le lien de validation) de l'ACQ (Step 6)
-            String validationLink = in.readLine();
-            System.out.println("HTTPS Server: Received response from ACQ: " + validationLink);
-            if (validationLink == null) {
-                throw new IOException("ACQ Server did not return a response.");
+    // Steps 3 & 6: Sends the payment data to ACQ over the shared keep-alive connections; the future completes
+    // with ACQ's answer. Nothing blocks while ACQ and ACS work, and the deadline is passed on to both.
+    private static CompletableFuture<ValidationResult> forwardPaymentRequestToAcq(PaymentInfo payment, long deadlineMillis) {
+        // Envoyer les données de paiement à l'ACQ (Step 3)
+        log.atDebug().addKeyValue("tokenA", payment.getTokenA()).log("Sending payment data to ACQ");
+        // Lire la réponse (le lien de validation) de l'ACQ (Step 6)
+        long start = System.nanoTime();
+        return acqChannels.sendAsync(payment, deadlineMillis).whenComplete((result, error) -> {
+            acqRoundTripSeconds.observeSince(start);
+            if (error != null) {
+                log.atWarn().addKeyValue("tokenA", payment.getTokenA()).log("Error communicating with ACQ: {}", error.getMessage());
+            } else {
+                log.atDebug().addKeyValue("tokenA", payment.getTokenA()).addKeyValue("code", result.getCode())
+                        .log("Received response from ACQ");
+            }
+        });
+    }
+
+    // Time budget for one payment: the server default, or less if the merchant asks for it
+    private static long paymentDeadline(Context ctx) {
+        long budgetMs = PAYMENT_DEADLINE_MS;
+        String requested = ctx.header(REQUEST_TIMEOUT_HEADER);
+        if (requested != null) {
+            try {
+                budgetMs = Math.max(1, Math.min(budgetMs, Long.parseLong(requested.trim())));
+            } catch (NumberFormatException e) {
+                log.warn("Ignoring invalid {} header: {}", REQUEST_TIMEOUT_HEADER, requested);
             }
-            return validationLink;
-        } catch (IOException e) {
-            System.err.println("HTTPS Server: Error communicating with ACQ: " + e.getMessage());
-            throw e; // Re-throw exception to be handled by the API layer
         }
+        return System.currentTimeMillis() + budgetMs;
     }
 
     // ----------------------------------------------
 
     public static void startAPI() {
         Javalin app = Javalin.create().start(7070); // Port for Merchant Backend to call
-        System.out.println("HTTPS Server API listening on port 7070");
+        log.info("HTTPS Server API listening on port 7070");
 
         // Endpoint for Step 2: Merchant Backend -> HTTPS Server
         app.post("/initiate-payment", handlePaymentInitiation);
 
+        // Step 2 for many payments in one request, answered as NDJSON
+        app.post("/initiate-payments", handleBatchInitiation);
+
+        // Prometheus scrape endpoint
+        app.get("/metrics", Metrics::handle);
+
         // Removed old /askToken and /otp endpoints
     }
 
@@ -82,45 +138,273 @@ public class HttpsServer {
      * Returns Validation Link to Merchant Backend (Step 7)
      */
     private static Handler handlePaymentInitiation = ctx -> {
-        String requestBody = ctx.body();
-        System.out.println("HTTPS Server: Received /initiate-payment request: " + requestBody);
+        long start = System.nanoTime();
+        byte[] requestBody = ctx.bodyAsBytes();
 
+        PaymentInfo payment;
         try {
             // Basic validation: check if it's valid JSON and contains tokenA
-            JSONObject paymentData = new JSONObject(requestBody);
-            if (!paymentData.has("tokenA") || !paymentData.has("cardNumber")) {
-                ctx.status(400).result("Missing required fields (tokenA, cardNumber)");
-                return;
+            payment = PaymentJson.parse(requestBody);
+        } catch (JsonProcessingException e) {
+            // The body is not logged, it holds card data
+            log.warn("Invalid JSON received ({} bytes): {}", requestBody.length, PaymentJson.describe(e));
+            respond(ctx, Reply.error(400, "Invalid JSON format"), start);
+            return;
+        }
+        log.atInfo().addKeyValue("tokenA", payment.getTokenA()).addKeyValue("cardNumber", payment.getCardNumber())
+                .log("Received /initiate-payment request");
+        Reply rejected = check(payment);
+        if (rejected != null) {
+            respond(ctx, rejected, start);
+            return;
+        }
+
+        // Step 3 & 6: Communicate with ACQ. The Jetty thread is released here and the response is
+        // written when ACQ answers.
+        CompletableFuture<ValidationResult> response = submit(payment, paymentDeadline(ctx));
+        if (response == null) {
+            respond(ctx, Reply.error(409, "tokenA already used for a different payment"), start);
+            return;
+        }
+        ctx.future(() -> response.handle((result, error) -> {
+            respond(ctx, reply(payment.getTokenA(), result, error), start);
+            return null;
+        }));
+    };
+
+    /**
+     * Batch variant of /initiate-payment for merchants with many payments to start at once.
+     *
+     * The body is either a JSON array of payments or NDJSON (one payment object per line), read as
+     * it arrives: each payment goes to ACQ as soon as it is parsed, over the same multiplexed
+     * channels as single requests, with at most BATCH_MAX_IN_FLIGHT of them outstanding. The
+     * response is NDJSON, one line per payment in the order they complete, flushed as they come:
+     *   {"index":0,"tokenA":"...","status":200,"validationLink":"..."}
+     *   {"index":1,"tokenA":"...","status":400,"error":"Invalid card number"}
+     * index is the payment's position in the batch; status is what /initiate-payment would have
+     * answered for it. Each payment gets the full deadline (X-Request-Timeout-Ms applies per item)
+     * and the same tokenA idempotency as single requests.
+     *
+     * This holds one Jetty thread for the duration of the batch, not one per payment.
+     */
+    private static Handler handleBatchInitiation = ctx -> {
+        long batchStart = System.nanoTime();
+        // Headers go out with the first line, the body is chunked from there
+        ctx.res().setStatus(200);
+        ctx.res().setContentType("application/x-ndjson");
+        Writer out = new BufferedWriter(new OutputStreamWriter(ctx.res().getOutputStream(), StandardCharsets.UTF_8));
+        Semaphore inFlight = new Semaphore(BATCH_MAX_IN_FLIGHT);
+        BlockingQueue<String> completed = new LinkedBlockingQueue<>();
+        int pending = 0;
+        int items = 0;
+
+        try (BufferedReader body = new BufferedReader(new InputStreamReader(ctx.req().getInputStream(), StandardCharsets.UTF_8))) {
+            PaymentBatchReader payments = PaymentBatchReader.open(body);
+            while (payments.hasNext()) {
+                int index = items++;
+                long start = System.nanoTime();
+                if (index >= BATCH_MAX_ITEMS) {
+                    recordResponse(413, start);
+                    writeLine(out, itemLine(index, null, Reply.error(413, "Batch limited to " + BATCH_MAX_ITEMS + " payments")));
+                    break;
+                }
+                PaymentInfo payment;
+                Reply rejected;
+                try {
+                    payment = payments.next();
+                    rejected = check(payment);
+                } catch (JsonProcessingException e) {
+                    payment = null;
+                    rejected = Reply.error(400, "Invalid JSON format");
+                }
+                if (rejected == null) {
+                    // Write results while waiting for room to send this one
+                    while (!inFlight.tryAcquire()) {
+                        writeLine(out, completed.take());
+                        pending--;
+                    }
+                    PaymentInfo sent = payment;
+                    CompletableFuture<ValidationResult> response = submit(sent, paymentDeadline(ctx));
+                    if (response != null) {
+                        pending++;
+                        response.handle((result, error) -> {
+                            Reply reply = reply(sent.getTokenA(), result, error);
+                            recordResponse(reply.status, start);
+                            // Room first: a line the loop can see must not leave it waiting for a permit
+                            inFlight.release();
+                            completed.add(itemLine(index, sent.getTokenA(), reply));
+                            return null;
+                        });
+                    } else {
+                        inFlight.release();
+                        rejected = Reply.error(409, "tokenA already used for a different payment");
+                    }
+                }
+                if (rejected != null) {
+                    recordResponse(rejected.status, start);
+                    writeLine(out, itemLine(index, payment == null ? null : payment.getTokenA(), rejected));
+                }
+                for (String line; (line = completed.poll()) != null; pending--) {
+                    writeLine(out, line);
+                }
+                out.flush();
             }
+            writeRemaining(out, completed, pending);
+        } catch (JsonProcessingException e) {
+            // Syntax error between array items: the rest of the body cannot be delimited, but the
+            // payments already sent (and begun on the ACS) still get their lines
+            writeRemaining(out, completed, pending);
+            writeLine(out, itemLine(items, null, Reply.error(400, "Invalid JSON format")));
+        } catch (IOException e) {
+            // Merchant gone, or body cut short: payments already sent still complete, their lines are lost
+            log.warn("Batch interrupted after {} payment(s): {}", items, e.getMessage());
+            return;
+        }
+        out.flush();
+        log.info("Answered a batch of {} payment(s) in {} ms", items, (System.nanoTime() - batchStart) / 1_000_000);
+    };
+
+    // Step 2 checks: 400 reply for a payment ACQ would reject anyway, or null
+    private static Reply check(PaymentInfo payment) {
+        if (payment.getTokenA() == null || payment.getCardNumber() == null) {
+            return Reply.error(400, "Missing required fields (tokenA, cardNumber)");
+        }
+        // Length, digits, Luhn and brand, before a connection to ACQ is taken
+        if (!CardNumberValidator.isPlausible(payment.getCardNumber())) {
+            log.atWarn().addKeyValue("tokenA", payment.getTokenA()).addKeyValue("cardNumber", payment.getCardNumber())
+                    .log("Rejected implausible card number");
+            invalidCards.increment();
+            return Reply.error(400, "Invalid card number");
+        }
+        return null;
+    }
 
-            // Step 3 & 6: Communicate with ACQ
-            String validationLink = forwardPaymentRequestToAcq(requestBody);
+    // Steps 3 & 6 through the idempotency cache, so a tokenA already in flight or answered is not sent
+    // again; null when the tokenA was used for a different payment
+    private static CompletableFuture<ValidationResult> submit(PaymentInfo payment, long deadlineMillis) {
+        CompletableFuture<ValidationResult> shared = idempotency.execute(payment, () -> forwardPaymentRequestToAcq(payment, deadlineMillis));
+        if (shared == null) {
+            log.atWarn().addKeyValue("tokenA", payment.getTokenA()).log("tokenA reused with different payment data");
+            return null;
+        }
+        // A retry may have a shorter budget than the call it joined: wait on a copy, so giving up
+        // here leaves the shared result alone
+        long budgetMs = Math.max(1, deadlineMillis - System.currentTimeMillis());
+        return shared.copy().orTimeout(budgetMs, TimeUnit.MILLISECONDS);
+    }
 
-            // Step 7: Return validation link to Merchant Backend
-            // Check if ACQ returned an error indicator if necessary
-            if (validationLink.startsWith("ERROR:")) {
-                System.err.println("HTTPS Server: ACQ returned an error: " + validationLink);
-                ctx.status(404).result("Error processing payment via ACQ.");
-            } else {
-                System.out.println("HTTPS Server: Returning validation link to Merchant Backend: " + validationLink);
+    // Step 7: What to tell the Merchant Backend about a payment once ACQ answered (or did not)
+    private static Reply reply(String tokenA, ValidationResult result, Throwable error) {
+        if (error != null) {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (cause instanceof TimeoutException) {
+                log.atWarn().addKeyValue("tokenA", tokenA).log("No answer from ACQ in time");
+                return Reply.error(504, "Payment processing timed out");
+            }
+            log.atError().addKeyValue("tokenA", tokenA).log("Failed to process payment request: {}", cause.getMessage());
+            return Reply.error(404, "Internal server error during payment processing");
+        }
+
+        // Check if ACQ returned an error indicator if necessary
+        if (result.getCode() == ValidationResult.Code.DEADLINE_EXCEEDED) {
+            log.atWarn().addKeyValue("tokenA", tokenA).log("Deadline exceeded downstream");
+            return Reply.error(504, "Payment processing timed out");
+        } else if (!result.isSuccess()) {
+            log.atWarn().addKeyValue("tokenA", tokenA).log("ACQ returned an error: {}", result);
+            return Reply.error(404, "Error processing payment via ACQ.");
+        }
+        log.atInfo().addKeyValue("tokenA", tokenA).log("Returning validation link to Merchant Backend: {}", result.getValue());
+        return Reply.link(result.getValue());
+    }
+
+    // Step 7: Return validation link (or the error) to Merchant Backend
+    private static void respond(Context ctx, Reply reply, long startNanos) {
+        if (reply.validationLink != null) {
+            try {
                 JSONObject jsonResponse = new JSONObject();
-                jsonResponse.put("validationLink", validationLink);
+                jsonResponse.put("validationLink", reply.validationLink);
                 ctx.status(200).result(jsonResponse.toString()); // Send as plain text
                 ctx.contentType("application/json"); // Set the correct content type
+            } catch (org.json.JSONException e) {
+                ctx.status(404).result("Internal server error during payment processing");
             }
+        } else {
+            ctx.status(reply.status).result(reply.message);
+        }
+        recordResponse(ctx.statusCode(), startNanos);
+    }
 
+    // Lines of the payments still outstanding; every payment sent completes, at the latest when its
+    // deadline passes
+    private static void writeRemaining(Writer out, BlockingQueue<String> completed, int pending)
+            throws IOException, InterruptedException {
+        for (; pending > 0; pending--) {
+            writeLine(out, completed.take());
+            if (completed.isEmpty()) {
+                out.flush();
+            }
+        }
+    }
+
+    private static void writeLine(Writer out, String line) throws IOException {
+        out.write(line);
+        out.write('\n');
+    }
+
+    // One line of the batch response
+    private static String itemLine(int index, String tokenA, Reply reply) {
+        try {
+            JSONObject line = new JSONObject();
+            line.put("index", index);
+            line.put("tokenA", tokenA);
+            line.put("status", reply.status);
+            if (reply.validationLink != null) {
+                line.put("validationLink", reply.validationLink);
+            } else {
+                line.put("error", reply.message);
+            }
+            return line.toString();
         } catch (org.json.JSONException e) {
-            System.err.println("HTTPS Server: Invalid JSON received: " + requestBody);
-            ctx.status(400).result("Invalid JSON format");
-        } catch (Exception e) {
-            System.err.println("HTTPS Server: Failed to process payment request: " + e.getMessage());
-            e.printStackTrace();
-            ctx.status(404).result("Internal server error during payment processing");
+            return "{\"index\":" + index + ",\"status\":500}";
         }
-    };
+    }
+
+    private static void recordResponse(int status, long startNanos) {
+        paymentSeconds.observeSince(startNanos);
+        int index = 0;
+        while (index < RESPONSE_STATUSES.length && RESPONSE_STATUSES[index] != status) {
+            index++;
+        }
+        responsesByStatus[index].increment();
+    }
+
+    private static Metrics.Counter responseCounter(String status) {
+        return Metrics.counter("https_payment_responses_total", "/initiate-payment responses by HTTP status", "status", status);
+    }
 
     // Removed generateRandomToken() - Token A is generated by Merchant Backend
 
     // ----------------------------------------------
+
+    // What one payment is answered with: a validation link, or an HTTP status and message
+    private static final class Reply {
+        final int status;
+        final String validationLink;
+        final String message;
+
+        private Reply(int status, String validationLink, String message) {
+            this.status = status;
+            this.validationLink = validationLink;
+            this.message = message;
+        }
+
+        static Reply link(String validationLink) {
+            return new Reply(200, validationLink, null);
+        }
+
+        static Reply error(int status, String message) {
+            return new Reply(status, null, message);
+        }
+    }
 }
 // End of HttpsServer.java //
\ No newline at end of file
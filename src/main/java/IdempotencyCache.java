@@ -0,0 +1,195 @@
+// Beggining of IdempotencyCache.java //
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import modules.PaymentInfo;
+import modules.ValidationResult;
+
+/**
+ * Makes /initiate-payment idempotent per tokenA, for merchants that retry on timeout.
+ *
+ * The first request for a tokenA starts the ACQ/ACS call and leaves its future here. A duplicate
+ * that arrives while that call is in flight waits on the same future (single flight: one
+ * downstream call however many retries), and one that arrives after it completed gets the same
+ * validation link straight from memory, for ttlMs after completion.
+ *
+ * Only outcomes that a retry would not change are kept: validation links, and rejections of the
+ * payment itself (invalid card, unsupported issuer, invalid request). Busy, timeout and upstream
+ * failures are forgotten as soon as they complete, so the merchant's retry really is tried again.
+ *
+ * The same tokenA with different payment data is a merchant bug, not a retry: execute() returns
+ * null and HttpsServer answers 409 rather than hand out a link meant for another card or amount.
+ *
+ * Entries are also kept in a FIFO queue. With a single TTL the oldest entry is always the next to
+ * expire, so each call drops expired entries from the head of the queue (and the oldest ones
+ * beyond maxEntries) in constant amortized time, without a sweeper thread.
+ */
+public class IdempotencyCache {
+    public enum Outcome { MISS, COALESCED, HIT, CONFLICT }
+
+    private static final long IN_FLIGHT = Long.MAX_VALUE;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Queue<Entry> order = new ConcurrentLinkedQueue<>();
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final Metrics.Counter[] outcomes = new Metrics.Counter[Outcome.values().length];
+
+    public IdempotencyCache(int maxEntries, long ttlMs) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+        for (Outcome outcome : Outcome.values()) {
+            outcomes[outcome.ordinal()] = Metrics.counter("https_idempotency_lookups_total",
+                    "/initiate-payment requests by idempotency cache outcome", "outcome", outcome.name().toLowerCase());
+        }
+        Metrics.gauge("https_idempotency_entries", "tokenAs held by the idempotency cache", entries::size);
+    }
+
+    // Result of the payment's tokenA: the call already made for it, or a new one started with
+    // `call`. Null when the tokenA was already used with different payment data.
+    public CompletableFuture<ValidationResult> execute(PaymentInfo payment, Supplier<CompletableFuture<ValidationResult>> call) {
+        String tokenA = payment.getTokenA();
+        byte[] fingerprint = fingerprint(payment);
+        long now = System.nanoTime();
+        purge(now);
+        while (true) {
+            Entry existing = entries.get(tokenA);
+            if (existing != null && existing.expiresAtNanos != IN_FLIGHT && existing.expiresAtNanos - now <= 0) {
+                entries.remove(tokenA, existing);
+                continue;
+            }
+            if (existing != null) {
+                if (!MessageDigest.isEqual(existing.fingerprint, fingerprint)) {
+                    record(Outcome.CONFLICT);
+                    return null;
+                }
+                record(existing.result.isDone() ? Outcome.HIT : Outcome.COALESCED);
+                return existing.result;
+            }
+            Entry entry = new Entry(tokenA, fingerprint);
+            if (entries.putIfAbsent(tokenA, entry) != null) {
+                continue; // Lost the race to a concurrent duplicate, join it
+            }
+            order.add(entry);
+            record(Outcome.MISS);
+            CompletableFuture<ValidationResult> downstream;
+            try {
+                downstream = call.get();
+            } catch (RuntimeException e) {
+                downstream = CompletableFuture.failedFuture(e);
+            }
+            downstream.whenComplete((result, error) -> {
+                if (error == null && isFinal(result)) {
+                    entry.expiresAtNanos = System.nanoTime() + ttlNanos;
+                } else {
+                    entries.remove(tokenA, entry);
+                }
+                // Callers hold `entry.result`, completed only once the entry is settled
+                if (error != null) {
+                    entry.result.completeExceptionally(error);
+                } else {
+                    entry.result.complete(result);
+                }
+            });
+            return entry.result;
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    // Outcomes a retry of the same payment would get again
+    private static boolean isFinal(ValidationResult result) {
+        switch (result.getCode()) {
+            case OK:
+            case INVALID_CARD:
+            case INVALID_REQUEST:
+            case ISSUER_NOT_SUPPORTED:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Drops expired entries, and the oldest ones while above maxEntries, from the head of the queue
+    private void purge(long now) {
+        Entry head;
+        while ((head = order.peek()) != null) {
+            long expiresAt = head.expiresAtNanos;
+            boolean gone = entries.get(head.tokenA) != head;
+            boolean expired = expiresAt != IN_FLIGHT && expiresAt - now <= 0;
+            if (!gone && !expired && entries.size() < maxEntries) {
+                return;
+            }
+            if (order.remove(head) && !gone) {
+                // Dropping an entry still in flight only loses the coalescing, its callers keep their future
+                entries.remove(head.tokenA, head);
+            }
+        }
+    }
+
+    private void record(Outcome outcome) {
+        outcomes[outcome.ordinal()].increment();
+    }
+
+    // SHA-256 of everything in the request besides the tokenA: two different payments do not
+    // collide in practice, and the cache holds no card number or CVV. Each field is length-prefixed
+    // so that moving characters from one field to the next changes the digest.
+    private static byte[] fingerprint(PaymentInfo payment) {
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e); // Required of every JVM
+        }
+        update(sha256, payment.getCardNumber());
+        update(sha256, payment.getClientName());
+        update(sha256, payment.getMonth());
+        update(sha256, payment.getYear());
+        update(sha256, payment.getCvv());
+        update(sha256, Float.floatToIntBits(payment.getDueAmount()));
+        update(sha256, payment.getReceiverIdToken());
+        return sha256.digest();
+    }
+
+    // Null is written as length -1, distinct from the empty string
+    private static void update(MessageDigest digest, String value) {
+        if (value == null) {
+            update(digest, -1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        update(digest, bytes.length);
+        digest.update(bytes);
+    }
+
+    private static void update(MessageDigest digest, int value) {
+        digest.update((byte) (value >>> 24));
+        digest.update((byte) (value >>> 16));
+        digest.update((byte) (value >>> 8));
+        digest.update((byte) value);
+    }
+
+    private static final class Entry {
+        final String tokenA;
+        final byte[] fingerprint;
+        final CompletableFuture<ValidationResult> result = new CompletableFuture<>();
+        // IN_FLIGHT until the downstream call completes with an outcome worth keeping
+        volatile long expiresAtNanos = IN_FLIGHT;
+
+        Entry(String tokenA, byte[] fingerprint) {
+            this.tokenA = tokenA;
+            this.fingerprint = fingerprint;
+        }
+    }
+}
+// End of IdempotencyCache.java //
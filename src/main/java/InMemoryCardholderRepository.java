@@ -0,0 +1,308 @@
+// Beggining of InMemoryCardholderRepository.java //
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link CardholderRepository} held in primitive arrays and loaded from a text file.
+ *
+ * File format, one card per line: cardNumber;month;year;cvv;clientName
+ * Blank lines and lines starting with '#' are ignored; a repeated card number replaces the earlier line.
+ *
+ * Cards sit in an open-addressing hash table keyed by the card number packed into a long (19 digits
+ * still fit as an unsigned value). Every field lives in its own primitive array and all names share
+ * one char[], so there is no object per card: a few million cards take tens of megabytes, give the
+ * garbage collector nothing to trace, and a lookup allocates nothing. A CVV is kept as its value and
+ * its digit count, so "012" and "12" are different CVVs, just as leading zeros make PANs differ.
+ *
+ * The table is an immutable snapshot. reload() builds the new one next to it and swaps a single
+ * volatile reference, so lookups never wait for a reload and see either the old file or the new
+ * one, never a mix. A file that fails to load leaves the current snapshot in place.
+ */
+public final class InMemoryCardholderRepository implements CardholderRepository {
+    private static final Logger log = LoggerFactory.getLogger(InMemoryCardholderRepository.class);
+    private static final int MAX_PAN_DIGITS = 19;
+    private static final int MAX_CVV_DIGITS = 4;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int MAX_LOGGED_INVALID_LINES = 10;
+
+    private final File file;
+    private volatile Snapshot snapshot;
+    private long loadedLastModified;
+    private long loadedLength;
+
+    public InMemoryCardholderRepository(String path) throws IOException {
+        this.file = new File(path);
+        reload();
+    }
+
+    @Override
+    public boolean verify(String cardNumber, int month, int year, String cvv, String clientName) {
+        int cvvValue = parseCvv(cvv);
+        if (month < 1 || month > 12 || cvvValue < 0) {
+            return false;
+        }
+        Snapshot current = snapshot;
+        int slot = current.find(cardNumber);
+        return slot >= 0
+                && current.expiries[slot] == expiry(year, month)
+                && current.cvvs[slot] == cvvValue
+                && current.cvvLengths[slot] == cvv.length()
+                && current.nameEquals(slot, clientName);
+    }
+
+    @Override
+    public boolean isCardholder(String cardNumber, String clientName) {
+        Snapshot current = snapshot;
+        int slot = current.find(cardNumber);
+        return slot >= 0 && current.nameEquals(slot, clientName);
+    }
+
+    @Override
+    public boolean isEnrolled(String cardNumber) {
+        return snapshot.find(cardNumber) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return snapshot.size;
+    }
+
+    // Loads the file into a new snapshot and publishes it; the current one stays in use if this fails
+    public synchronized void reload() throws IOException {
+        long lastModified = file.lastModified();
+        long length = file.length();
+        long start = System.nanoTime();
+        Snapshot loaded = load(file);
+        snapshot = loaded;
+        loadedLastModified = lastModified;
+        loadedLength = length;
+        log.info("Loaded {} cards from {} in {} ms", loaded.size, file, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    // Called periodically; reloads only when the file's modification time or size changed
+    public synchronized void reloadIfChanged() {
+        if (file.lastModified() == loadedLastModified && file.length() == loadedLength) {
+            return;
+        }
+        try {
+            reload();
+        } catch (IOException e) {
+            // Keep serving the previous snapshot, the file may still be being written
+            log.warn("Failed to reload {}: {}", file, e.getMessage());
+        }
+    }
+
+    private static Snapshot load(File file) throws IOException {
+        Snapshot loaded = new Snapshot(INITIAL_CAPACITY);
+        int invalidLines = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split(";", -1);
+                try {
+                    if (fields.length != 5 || !isPanFormat(fields[0].trim())) {
+                        throw new IllegalArgumentException("expected cardNumber;month;year;cvv;clientName");
+                    }
+                    String cardNumber = fields[0].trim();
+                    int month = Integer.parseInt(fields[1].trim());
+                    int year = Integer.parseInt(fields[2].trim());
+                    String cvv = fields[3].trim();
+                    int cvvValue = parseCvv(cvv);
+                    String clientName = fields[4].trim();
+                    if (month < 1 || month > 12 || year < 0 || year > 9999 || cvvValue < 0 || clientName.isEmpty()) {
+                        throw new IllegalArgumentException("field out of range");
+                    }
+                    loaded.put(packPan(cardNumber), cardNumber.length(), expiry(year, month),
+                            (short) cvvValue, cvv.length(), clientName);
+                } catch (IllegalArgumentException e) {
+                    // Card numbers are not logged, only the position of the bad line
+                    if (++invalidLines <= MAX_LOGGED_INVALID_LINES) {
+                        log.warn("Skipping invalid line {} of {}: {}", lineNumber, file, e.getMessage());
+                    }
+                }
+            }
+        }
+        if (invalidLines > MAX_LOGGED_INVALID_LINES) {
+            log.warn("Skipped {} invalid lines in {}", invalidLines, file);
+        }
+        return loaded;
+    }
+
+    private static int expiry(int year, int month) {
+        return year * 100 + month;
+    }
+
+    private static boolean isPanFormat(String cardNumber) {
+        int length = cardNumber.length();
+        if (length == 0 || length > MAX_PAN_DIGITS) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = cardNumber.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Value of a CVV of 1 to 4 digits, or -1 when it is anything else; the caller keeps its length
+    private static int parseCvv(String cvv) {
+        if (cvv == null || cvv.isEmpty() || cvv.length() > MAX_CVV_DIGITS) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = 0; i < cvv.length(); i++) {
+            char c = cvv.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    // Up to 19 digits as an unsigned long; the digit count is kept separately for leading zeros
+    private static long packPan(String cardNumber) {
+        long pan = 0;
+        for (int i = 0; i < cardNumber.length(); i++) {
+            pan = pan * 10 + (cardNumber.charAt(i) - '0');
+        }
+        return pan;
+    }
+
+    // Open-addressing table (linear probing, at most 3/4 full). Filled by load() and never
+    // modified once published.
+    private static final class Snapshot {
+        private long[] pans;
+        private byte[] panLengths; // 0 marks an empty slot
+        private int[] expiries;    // year * 100 + month
+        private short[] cvvs;
+        private byte[] cvvLengths;
+        private int[] nameOffsets;
+        private short[] nameLengths;
+        private char[] names = new char[INITIAL_CAPACITY * 8];
+        private int namesUsed;
+        private int shift;
+        private int mask;
+        private int size;
+
+        Snapshot(int capacity) {
+            allocate(capacity);
+        }
+
+        // Slot of the card, or -1 when it is not enrolled (or not a card number at all)
+        int find(String cardNumber) {
+            if (cardNumber == null || !isPanFormat(cardNumber)) {
+                return -1;
+            }
+            int slot = slotFor(packPan(cardNumber), cardNumber.length());
+            return panLengths[slot] != 0 ? slot : -1;
+        }
+
+        boolean nameEquals(int slot, String clientName) {
+            if (clientName == null || clientName.length() != nameLengths[slot]) {
+                return false;
+            }
+            int offset = nameOffsets[slot];
+            for (int i = 0; i < clientName.length(); i++) {
+                if (names[offset + i] != clientName.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void put(long pan, int length, int expiry, short cvv, int cvvLength, String clientName) {
+            if ((size + 1) * 4L > pans.length * 3L) {
+                grow();
+            }
+            int slot = slotFor(pan, length);
+            if (panLengths[slot] == 0) {
+                size++;
+            }
+            pans[slot] = pan;
+            panLengths[slot] = (byte) length;
+            expiries[slot] = expiry;
+            cvvs[slot] = cvv;
+            cvvLengths[slot] = (byte) cvvLength;
+            nameOffsets[slot] = appendName(clientName);
+            nameLengths[slot] = (short) Math.min(clientName.length(), Short.MAX_VALUE);
+        }
+
+        // Slot holding the card, or the empty slot where it belongs
+        private int slotFor(long pan, int length) {
+            int slot = hash(pan, length);
+            while (panLengths[slot] != 0 && (pans[slot] != pan || panLengths[slot] != length)) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        // Fibonacci hashing: the top bits of the product are well mixed
+        private int hash(long pan, int length) {
+            return (int) (((pan ^ length) * 0x9E3779B97F4A7C15L) >>> shift);
+        }
+
+        private int appendName(String clientName) {
+            int length = Math.min(clientName.length(), Short.MAX_VALUE);
+            if (namesUsed + length > names.length) {
+                char[] grown = new char[Math.max(names.length * 2, namesUsed + length)];
+                System.arraycopy(names, 0, grown, 0, namesUsed);
+                names = grown;
+            }
+            clientName.getChars(0, length, names, namesUsed);
+            int offset = namesUsed;
+            namesUsed += length;
+            return offset;
+        }
+
+        private void allocate(int capacity) {
+            pans = new long[capacity];
+            panLengths = new byte[capacity];
+            expiries = new int[capacity];
+            cvvs = new short[capacity];
+            cvvLengths = new byte[capacity];
+            nameOffsets = new int[capacity];
+            nameLengths = new short[capacity];
+            mask = capacity - 1;
+            shift = 64 - Integer.numberOfTrailingZeros(capacity);
+        }
+
+        private void grow() {
+            long[] oldPans = pans;
+            byte[] oldPanLengths = panLengths;
+            int[] oldExpiries = expiries;
+            short[] oldCvvs = cvvs;
+            byte[] oldCvvLengths = cvvLengths;
+            int[] oldNameOffsets = nameOffsets;
+            short[] oldNameLengths = nameLengths;
+            allocate(oldPans.length * 2);
+            for (int i = 0; i < oldPans.length; i++) {
+                if (oldPanLengths[i] != 0) {
+                    int slot = slotFor(oldPans[i], oldPanLengths[i]);
+                    pans[slot] = oldPans[i];
+                    panLengths[slot] = oldPanLengths[i];
+                    expiries[slot] = oldExpiries[i];
+                    cvvs[slot] = oldCvvs[i];
+                    cvvLengths[slot] = oldCvvLengths[i];
+                    nameOffsets[slot] = oldNameOffsets[i];
+                    nameLengths[slot] = oldNameLengths[i];
+                }
+            }
+        }
+    }
+}
+// End of InMemoryCardholderRepository.java //
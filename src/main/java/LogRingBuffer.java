@@ -0,0 +1,287 @@
+// Beggining of LogRingBuffer.java //
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.event.KeyValuePair;
+import org.slf4j.event.Level;
+import org.slf4j.helpers.MessageFormatter;
+
+/**
+ * The asynchronous appender behind {@link AsyncLogProvider}: logging threads copy an event into a
+ * preallocated slot of a bounded ring and return, a single writer thread formats the events as
+ * JSON lines (one object per line, card data masked by {@link PanMasker}) and writes them to
+ * stdout in batches. Nothing on the request path waits for the console.
+ *
+ * The ring is a multi-producer, single-consumer array queue: a producer claims a position with
+ * one CAS on the tail and publishes its slot through that slot's sequence number, the writer reads
+ * slots in order as their sequence says they are ready. Slots are reused, so logging an event
+ * allocates only what the caller passes in.
+ *
+ * When the ring is full the writer is behind: debug and info events are dropped (and counted,
+ * log_events_dropped_total), warnings and errors wait up to FULL_WAIT_NANOS for room.
+ */
+final class LogRingBuffer {
+    private static final long FULL_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final int MAX_BATCH_CHARS = 32 * 1024;
+    private static final long SHUTDOWN_DRAIN_MS = 2_000;
+
+    private final Event[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writer;
+    private long head; // Writer thread only
+    private volatile boolean writerParked;
+    private volatile boolean closing;
+    private volatile boolean writerStopped;
+
+    // Writer thread only, reused for every event
+    private final StringBuilder batch = new StringBuilder(MAX_BATCH_CHARS + 1024);
+    private final StringBuilder scratch = new StringBuilder(256);
+
+    LogRingBuffer(int requestedSize) {
+        int size = Integer.highestOneBit(Math.max(64, requestedSize - 1)) << 1;
+        this.slots = new Event[size];
+        this.sequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Event();
+            sequences.set(i, i); // Slot i is free for position i
+        }
+        this.writer = new Thread(this::writeLoop, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "log-flush"));
+    }
+
+    long dropped() {
+        return dropped.sum();
+    }
+
+    void publish(Level level, String logger, String message, Object[] arguments, Throwable throwable,
+                 List<KeyValuePair> keyValues, Map<String, String> context) {
+        if (writerStopped) {
+            // Shutting down and already drained: write on the caller's thread rather than lose it
+            synchronized (this) {
+                Event event = new Event();
+                event.set(System.currentTimeMillis(), level, logger, Thread.currentThread().getName(), message, arguments, throwable, keyValues, context);
+                StringBuilder line = new StringBuilder(256);
+                format(event, line, new StringBuilder(256));
+                System.out.print(line);
+                System.out.flush();
+            }
+            return;
+        }
+        long position = claim(level);
+        if (position < 0) {
+            dropped.increment();
+            return;
+        }
+        slots[(int) position & mask].set(System.currentTimeMillis(), level, logger, Thread.currentThread().getName(),
+                message, arguments, throwable, keyValues, context);
+        sequences.set((int) position & mask, position + 1);
+        if (writerParked) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    // Position of a free slot, or -1 when the ring stays full
+    private long claim(Level level) {
+        long waitUntil = 0;
+        while (true) {
+            long position = tail.get();
+            long sequence = sequences.get((int) position & mask);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    return position;
+                }
+            } else if (sequence < position) {
+                // Full: the writer has not freed this slot since the last lap
+                if (level.toInt() < Level.WARN.toInt()) {
+                    return -1;
+                }
+                long now = System.nanoTime();
+                if (waitUntil == 0) {
+                    waitUntil = now + FULL_WAIT_NANOS;
+                } else if (now >= waitUntil) {
+                    return -1;
+                }
+                LockSupport.unpark(writer);
+                Thread.onSpinWait();
+            }
+            // Otherwise another producer took this position, try the next one
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            int index = (int) head & mask;
+            if (sequences.get(index) == head + 1) {
+                Event event = slots[index];
+                format(event, batch, scratch);
+                event.clear();
+                sequences.set(index, head + slots.length); // Free for the next lap
+                head++;
+                if (batch.length() >= MAX_BATCH_CHARS) {
+                    flushBatch();
+                }
+                continue;
+            }
+            // Ring empty: write what was formatted, then wait for more
+            flushBatch();
+            if (closing) {
+                writerStopped = true;
+                return;
+            }
+            writerParked = true;
+            if (sequences.get((int) head & mask) != head + 1) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+            writerParked = false;
+        }
+    }
+
+    private void flushBatch() {
+        if (batch.length() == 0) {
+            return;
+        }
+        byte[] bytes = batch.toString().getBytes(StandardCharsets.UTF_8);
+        batch.setLength(0);
+        // A single write per batch keeps lines whole next to what still goes through System.out directly
+        System.out.write(bytes, 0, bytes.length);
+        System.out.flush();
+    }
+
+    // Lets the writer drain what was logged before the JVM exits
+    private void close() {
+        closing = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(SHUTDOWN_DRAIN_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // {"ts":...,"level":...,"logger":...,"thread":...,"msg":...,<context>,<key values>,"error":...}
+    private static void format(Event event, StringBuilder out, StringBuilder scratch) {
+        out.append("{\"ts\":\"");
+        DateTimeFormatter.ISO_INSTANT.formatTo(Instant.ofEpochMilli(event.timestamp), out);
+        out.append("\",\"level\":\"").append(event.level.name());
+        out.append("\",\"logger\":");
+        appendString(out, event.logger, scratch);
+        out.append(",\"thread\":");
+        appendString(out, event.thread, scratch);
+        out.append(",\"msg\":");
+        String message = event.arguments == null || event.arguments.length == 0
+                ? event.message : MessageFormatter.basicArrayFormat(event.message, event.arguments);
+        scratch.setLength(0);
+        PanMasker.appendMasked(scratch, message == null ? "null" : message);
+        appendEscaped(out, scratch);
+        if (event.context != null) {
+            for (Map.Entry<String, String> entry : event.context.entrySet()) {
+                appendField(out, entry.getKey(), entry.getValue(), scratch);
+            }
+        }
+        if (event.keyValues != null) {
+            for (KeyValuePair pair : event.keyValues) {
+                appendField(out, pair.key, pair.value, scratch);
+            }
+        }
+        if (event.throwable != null) {
+            out.append(",\"error\":");
+            scratch.setLength(0);
+            StringWriter trace = new StringWriter();
+            event.throwable.printStackTrace(new PrintWriter(trace));
+            PanMasker.appendMasked(scratch, trace.toString());
+            appendEscaped(out, scratch);
+        }
+        out.append("}\n");
+    }
+
+    private static void appendField(StringBuilder out, String key, Object value, StringBuilder scratch) {
+        out.append(',');
+        appendString(out, key, scratch);
+        out.append(':');
+        if (value instanceof Number || value instanceof Boolean) {
+            out.append(value);
+            return;
+        }
+        scratch.setLength(0);
+        PanMasker.appendField(scratch, key, String.valueOf(value));
+        appendEscaped(out, scratch);
+    }
+
+    private static void appendString(StringBuilder out, String value, StringBuilder scratch) {
+        scratch.setLength(0);
+        scratch.append(value);
+        appendEscaped(out, scratch);
+    }
+
+    // JSON string literal of text
+    private static void appendEscaped(StringBuilder out, CharSequence text) {
+        out.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+                }
+            }
+        }
+        out.append('"');
+    }
+
+    // One slot of the ring; written by the producer that claimed it, read and cleared by the writer
+    private static final class Event {
+        long timestamp;
+        Level level;
+        String logger;
+        String thread;
+        String message;
+        Object[] arguments;
+        Throwable throwable;
+        List<KeyValuePair> keyValues;
+        Map<String, String> context;
+
+        void set(long timestamp, Level level, String logger, String thread, String message, Object[] arguments,
+                 Throwable throwable, List<KeyValuePair> keyValues, Map<String, String> context) {
+            this.timestamp = timestamp;
+            this.level = level;
+            this.logger = logger;
+            this.thread = thread;
+            this.message = message;
+            this.arguments = arguments;
+            this.throwable = throwable;
+            this.keyValues = keyValues;
+            this.context = context;
+        }
+
+        // Drops the references so a slot does not keep payloads alive for a whole lap
+        void clear() {
+            set(0, null, null, null, null, null, null, null, null);
+        }
+    }
+}
+// End of LogRingBuffer.java //
@@ -2,65 +2,143 @@
 
 import io.javalin.Javalin;
 import io.javalin.http.Handler;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
 import org.json.JSONObject;
 import org.json.JSONException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
 import java.net.URI;
+import java.net.URLEncoder;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Merchant side of the flow, in two modes.
+ *
+ * With merchant.rate unset (or 0) it sends one payment and waits for the callback, the user
+ * completing the ACS pages in a browser.
+ *
+ * With merchant.rate=N it is a load test: N virtual merchants per second for merchant.durationSec,
+ * each one driving the whole flow on its own: /initiate-payment, the ACS login page and form, the
+ * confirmation page and form, then waiting for the callback carrying its tokenA. Arrivals follow
+ * a fixed schedule whatever the servers' latency (open model): a flow that cannot start because
+ * merchant.maxConcurrency flows are already in flight is counted as dropped, not delayed, and the
+ * end-to-end latency is measured from the flow's scheduled start, so a stalled server shows up in
+ * the percentiles instead of quietly lowering the offered load.
+ *
+ * Latencies go into one HdrHistogram per stage and are printed as percentiles at the end (and as
+ * full distributions to merchant.reportFile, if set). The ACS must send its callbacks here:
+ * -Dacs.merchantCallbackUrl=http://localhost:9090/payment-callback
+ */
 public class MerchantSimulator {
 
     // --- Configuration ---
     // URL of your HttpsServer API endpoint
-    private static final String HTTPS_SERVER_INITIATE_URL = "http://145.239.196.116:7070/initiate-payment";
+    private static final String HTTPS_SERVER_INITIATE_URL = Config.setting("merchant.initiateUrl", "http://localhost:7070/initiate-payment");
+    // ACS validation web server; the host of the validation links (Config.BASE_URL) is replaced by this one
+    private static final String ACS_WEB_URL = Config.setting("merchant.acsUrl", "http://localhost:7071");
 
     // Port and Path where this simulator will listen for the callback from AcsServer
-    private static final int CALLBACK_LISTEN_PORT = 9090; // Make sure AcsServer points here
+    private static final int CALLBACK_LISTEN_PORT = Config.intSetting("merchant.callbackPort", 9090); // Make sure AcsServer points here
     private static final String CALLBACK_LISTEN_PATH = "/payment-callback"; // Make sure AcsServer points here
+
+    // Load test: arrival rate (flows per second, 0 = single interactive payment), duration,
+    // flows in flight at most, how long a flow waits for its callback, share of flows that cancel
+    private static final double LOAD_RATE = Double.parseDouble(Config.setting("merchant.rate", "0"));
+    private static final long LOAD_DURATION_SEC = Config.longSetting("merchant.durationSec", 60);
+    private static final int LOAD_MAX_CONCURRENCY = Config.intSetting("merchant.maxConcurrency", 1_000);
+    private static final long CALLBACK_TIMEOUT_MS = Config.longSetting("merchant.callbackTimeoutMs", 30_000);
+    private static final double CANCEL_RATIO = Double.parseDouble(Config.setting("merchant.cancelRatio", "0"));
+    private static final String REPORT_FILE = Config.setting("merchant.reportFile", null);
+
+    // Demo cardholder known to the ACS (cardsDb/cardholders.txt, usersDb)
+    private static final String CLIENT_NAME = "Joe";
+    private static final String CLIENT_PASSWORD = "securePass";
+    private static final String CARD_NUMBER = "1234123412341238";
     // --- End Configuration ---
 
     private static final HttpClient httpClient = HttpClient.newBuilder()
             .version(HttpClient.Version.HTTP_1_1)
             .connectTimeout(Duration.ofSeconds(10))
+            .followRedirects(HttpClient.Redirect.NEVER) // The login form answers 302, checked by the flow
             .build();
 
-    public static void main(String[] args) {
+    // Load test flows waiting for their callback, by tokenA; completed with the callback's status
+    private static final Map<String, CompletableFuture<String>> awaitingCallback = new ConcurrentHashMap<>();
+
+    // One histogram per stage, in microseconds
+    private enum Stage {
+        INITIATE("initiate-payment"),
+        LOGIN_PAGE("GET bank-login"),
+        LOGIN("POST bank-login"),
+        VALIDATION_PAGE("GET validate-payment"),
+        CONFIRM("POST confirm-payment"),
+        CALLBACK("confirm -> callback"),
+        END_TO_END("end to end");
+
+        final String label;
+        final Histogram latency = new ConcurrentHistogram(3);
+        final AtomicLong errors = new AtomicLong();
+
+        Stage(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final AtomicLong flowsStarted = new AtomicLong();
+    private static final AtomicLong flowsCompleted = new AtomicLong();
+    private static final AtomicLong flowsFailed = new AtomicLong();
+    private static final AtomicLong flowsDropped = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
 
         System.out.println("--- Merchant Simulator Starting ---");
 
         // 1. Start the callback listener first
         Javalin callbackListener = startCallbackListener();
 
+        if (LOAD_RATE > 0) {
+            runLoadTest();
+            callbackListener.stop();
+            System.exit(flowsFailed.get() == 0 ? 0 : 1);
+        }
+        runSinglePayment(callbackListener);
+    }
+
+    // The original walkthrough: one payment, the user confirms it in a browser
+    private static void runSinglePayment(Javalin callbackListener) {
         // 2. Generate unique Token A for this transaction
         String tokenA = "MERCH_TOK_" + UUID.randomUUID().toString();
         System.out.println("Generated Token A: " + tokenA);
 
         // 3. Simulate payment details (Use the valid card for success)
-        JSONObject paymentDetails = new JSONObject();
-        try {
-            paymentDetails.put("tokenA", tokenA); // Include the generated token
-            paymentDetails.put("clientName", "Joe");
-            paymentDetails.put("cardNumber", "1234123412341234"); // Use the valid card number from ACS/HTTPS
-            paymentDetails.put("month", 12);
-            paymentDetails.put("year", 2025);
-            paymentDetails.put("cvv", 123);
-            paymentDetails.put("dueAmount", 99.99);
-            paymentDetails.put("receiverIdToken", "merchantXYZ"); // Some merchant identifier
-        } catch (JSONException e) {
-            throw new RuntimeException(e);
-        }
+        String paymentDetails = paymentDetails(tokenA);
         // 4. Initiate payment flow (Step 2: Merchant -> HttpsServer)
         System.out.println("\nSending payment initiation request to HttpsServer...");
-        System.out.println("Payload: " + paymentDetails.toString());
+        System.out.println("Payload: " + paymentDetails);
 
         try {
             HttpRequest request = HttpRequest.newBuilder()
                     .uri(URI.create(HTTPS_SERVER_INITIATE_URL))
                     .header("Content-Type", "application/json")
-                    .POST(HttpRequest.BodyPublishers.ofString(paymentDetails.toString()))
+                    .POST(HttpRequest.BodyPublishers.ofString(paymentDetails))
                     .build();
 
             HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
@@ -72,7 +150,7 @@ public class MerchantSimulator {
 
             if (response.statusCode() >= 200 && response.statusCode() < 300 && !response.body().startsWith("ERROR:")) {
                 System.out.println("\n--- ACTION REQUIRED ---");
-                System.out.println("1. Open the link above in your browser: " + response.body());
+                System.out.println("1. Open the link above in your browser: " + new JSONObject(response.body()).optString("validationLink"));
                 System.out.println("2. Follow the steps on the page (click 'Confirm Payment').");
                 System.out.println("3. Check this console for the callback message received from AcsServer.");
                 System.out.println("----------------------");
@@ -88,10 +166,191 @@ public class MerchantSimulator {
         }
 
         System.out.println("\nMerchant Simulator is running and waiting for callback on port " + CALLBACK_LISTEN_PORT + "...");
-        // Keep the main thread alive (or rely on Javalin's thread)
-        // The Javalin server runs in its own thread(s), so main can exit,
-        // but adding a join or sleep can make it clearer it's waiting.
-        // For simplicity, we'll just let the Javalin thread keep it alive.
+        // The Javalin server runs in its own thread(s), so main can exit and the listener keeps the JVM alive.
+    }
+
+    // Starts one flow every 1/rate seconds on its own virtual thread, on a fixed schedule
+    private static void runLoadTest() throws InterruptedException {
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / LOAD_RATE);
+        long totalFlows = (long) (LOAD_RATE * LOAD_DURATION_SEC);
+        Semaphore inFlight = new Semaphore(LOAD_MAX_CONCURRENCY);
+        ExecutorService flows = Executors.newVirtualThreadPerTaskExecutor();
+        System.out.println("Load test: " + LOAD_RATE + " flows/s for " + LOAD_DURATION_SEC + " s against " + HTTPS_SERVER_INITIATE_URL
+                + " and " + ACS_WEB_URL + " (at most " + LOAD_MAX_CONCURRENCY + " in flight)");
+
+        long start = System.nanoTime();
+        long nextReport = start + TimeUnit.SECONDS.toNanos(1);
+        for (long i = 0; i < totalFlows; i++) {
+            long scheduledStart = start + i * intervalNanos;
+            for (long now; (now = System.nanoTime()) < scheduledStart; ) {
+                LockSupport.parkNanos(scheduledStart - now);
+            }
+            if (System.nanoTime() >= nextReport) {
+                printProgress(start, LOAD_MAX_CONCURRENCY - inFlight.availablePermits());
+                nextReport += TimeUnit.SECONDS.toNanos(1);
+            }
+            if (!inFlight.tryAcquire()) {
+                flowsDropped.incrementAndGet();
+                continue;
+            }
+            flowsStarted.incrementAndGet();
+            flows.execute(() -> {
+                try {
+                    if (runFlow(scheduledStart)) {
+                        flowsCompleted.incrementAndGet();
+                    } else {
+                        flowsFailed.incrementAndGet();
+                    }
+                } finally {
+                    inFlight.release();
+                }
+            });
+        }
+        flows.shutdown();
+        while (!flows.awaitTermination(1, TimeUnit.SECONDS)) {
+            printProgress(start, LOAD_MAX_CONCURRENCY - inFlight.availablePermits());
+        }
+        printReport(System.nanoTime() - start);
+    }
+
+    // One virtual merchant: Steps 2 to 10. Returns false at the first stage that fails.
+    private static boolean runFlow(long scheduledStart) {
+        String tokenA = "LOAD_TOK_" + UUID.randomUUID();
+        String encodedToken = URLEncoder.encode(tokenA, StandardCharsets.UTF_8);
+        boolean confirm = ThreadLocalRandom.current().nextDouble() >= CANCEL_RATIO;
+        CompletableFuture<String> callback = new CompletableFuture<>();
+        awaitingCallback.put(tokenA, callback);
+        try {
+            // Steps 2-7: the validation link, pointed at our ACS web server
+            HttpResponse<String> initiate = timed(Stage.INITIATE, HttpRequest.newBuilder(URI.create(HTTPS_SERVER_INITIATE_URL))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(paymentDetails(tokenA))), 200);
+            if (initiate == null) {
+                return false;
+            }
+            String link = new JSONObject(initiate.body()).optString("validationLink", "");
+            if (!link.contains("/validate-payment?")) {
+                Stage.INITIATE.errors.incrementAndGet();
+                System.err.println("Flow " + tokenA + ": Unexpected validation link: " + link);
+                return false;
+            }
+
+            // Steps 8-9: what a browser following the link does
+            if (timed(Stage.LOGIN_PAGE, HttpRequest.newBuilder(URI.create(ACS_WEB_URL + "/bank-login?tokenA=" + encodedToken)).GET(), 200) == null) {
+                return false;
+            }
+            String login = "tokenA=" + encodedToken + "&clientName=" + CLIENT_NAME + "&clientPassword=" + CLIENT_PASSWORD + "&clientCard=" + CARD_NUMBER;
+            if (timed(Stage.LOGIN, form(ACS_WEB_URL + "/bank-login", login), 302) == null) {
+                return false;
+            }
+            if (timed(Stage.VALIDATION_PAGE, HttpRequest.newBuilder(URI.create(ACS_WEB_URL + link.substring(link.indexOf("/validate-payment?")))).GET(), 200) == null) {
+                return false;
+            }
+            if (timed(Stage.CONFIRM, form(ACS_WEB_URL + "/confirm-payment", "tokenA=" + encodedToken + "&action=" + (confirm ? "confirm" : "cancel")), 200) == null) {
+                return false;
+            }
+
+            // Step 10: the ACS calls us back with this tokenA
+            long confirmed = System.nanoTime();
+            String status;
+            try {
+                status = callback.get(CALLBACK_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                Stage.CALLBACK.errors.incrementAndGet();
+                System.err.println("Flow " + tokenA + ": No callback within " + CALLBACK_TIMEOUT_MS + " ms");
+                return false;
+            }
+            long now = System.nanoTime();
+            Stage.CALLBACK.latency.recordValue(TimeUnit.NANOSECONDS.toMicros(now - confirmed));
+            if (!status.equals(confirm ? "paid" : "failed")) {
+                Stage.CALLBACK.errors.incrementAndGet();
+                System.err.println("Flow " + tokenA + ": Callback status " + status + " after " + (confirm ? "confirming" : "cancelling"));
+                return false;
+            }
+            Stage.END_TO_END.latency.recordValue(TimeUnit.NANOSECONDS.toMicros(now - scheduledStart));
+            return true;
+        } catch (Exception e) {
+            System.err.println("Flow " + tokenA + ": " + e);
+            return false;
+        } finally {
+            awaitingCallback.remove(tokenA);
+        }
+    }
+
+    // Sends the request and records its latency under the stage; null (and an error) unless
+    // the expected status comes back
+    private static HttpResponse<String> timed(Stage stage, HttpRequest.Builder request, int expectedStatus) {
+        long started = System.nanoTime();
+        try {
+            HttpResponse<String> response = httpClient.send(request.timeout(Duration.ofSeconds(30)).build(), HttpResponse.BodyHandlers.ofString());
+            stage.latency.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - started));
+            if (response.statusCode() != expectedStatus) {
+                stage.errors.incrementAndGet();
+                System.err.println(stage.label + ": HTTP " + response.statusCode() + " (expected " + expectedStatus + ")");
+                return null;
+            }
+            return response;
+        } catch (IOException | InterruptedException e) {
+            stage.errors.incrementAndGet();
+            System.err.println(stage.label + ": " + e);
+            return null;
+        }
+    }
+
+    private static HttpRequest.Builder form(String url, String body) {
+        return HttpRequest.newBuilder(URI.create(url))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(body));
+    }
+
+    private static String paymentDetails(String tokenA) {
+        JSONObject paymentDetails = new JSONObject();
+        try {
+            paymentDetails.put("tokenA", tokenA); // Include the generated token
+            paymentDetails.put("clientName", CLIENT_NAME);
+            paymentDetails.put("cardNumber", CARD_NUMBER); // Use the valid card number from ACS/HTTPS
+            paymentDetails.put("month", 12);
+            paymentDetails.put("year", 2025);
+            paymentDetails.put("cvv", "123");
+            paymentDetails.put("dueAmount", 99.99);
+            paymentDetails.put("receiverIdToken", "merchantXYZ"); // Some merchant identifier
+        } catch (JSONException e) {
+            throw new RuntimeException(e);
+        }
+        return paymentDetails.toString();
+    }
+
+    private static void printProgress(long start, int inFlight) {
+        long elapsedSec = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start));
+        System.out.println("[" + elapsedSec + " s] started=" + flowsStarted.get() + ", completed=" + flowsCompleted.get()
+                + ", failed=" + flowsFailed.get() + ", dropped=" + flowsDropped.get() + ", inFlight=" + inFlight
+                + ", completed/s=" + flowsCompleted.get() / elapsedSec);
+    }
+
+    private static void printReport(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.println("\n--- Load test report ---");
+        System.out.printf("Flows: started=%d, completed=%d, failed=%d, dropped=%d in %.1f s (%.1f completed/s, %.1f offered/s)%n",
+                flowsStarted.get(), flowsCompleted.get(), flowsFailed.get(), flowsDropped.get(), seconds,
+                flowsCompleted.get() / seconds, LOAD_RATE);
+        System.out.printf("%-22s %8s %7s %9s %9s %9s %9s %9s %9s%n", "stage (ms)", "count", "errors", "mean", "p50", "p90", "p99", "p99.9", "max");
+        for (Stage stage : Stage.values()) {
+            Histogram latency = stage.latency;
+            System.out.printf("%-22s %8d %7d %9.2f %9.2f %9.2f %9.2f %9.2f %9.2f%n", stage.label, latency.getTotalCount(), stage.errors.get(),
+                    latency.getMean() / 1000.0, latency.getValueAtPercentile(50) / 1000.0, latency.getValueAtPercentile(90) / 1000.0,
+                    latency.getValueAtPercentile(99) / 1000.0, latency.getValueAtPercentile(99.9) / 1000.0, latency.getMaxValue() / 1000.0);
+        }
+        if (REPORT_FILE != null) {
+            try (PrintStream out = new PrintStream(new FileOutputStream(REPORT_FILE), true, StandardCharsets.UTF_8)) {
+                for (Stage stage : Stage.values()) {
+                    out.println("# " + stage.label + " (ms)");
+                    stage.latency.outputPercentileDistribution(out, 1000.0);
+                }
+                System.out.println("Percentile distributions written to " + REPORT_FILE);
+            } catch (IOException e) {
+                System.err.println("Failed to write " + REPORT_FILE + ": " + e.getMessage());
+            }
+        }
     }
 
     /**
@@ -101,7 +360,7 @@ public class MerchantSimulator {
      */
     private static Javalin startCallbackListener() {
         Javalin app = Javalin.create().start(CALLBACK_LISTEN_PORT);
-        System.out.println("Callback listener started on http://145.239.196.116:" + CALLBACK_LISTEN_PORT + CALLBACK_LISTEN_PATH);
+        System.out.println("Callback listener started on http://localhost:" + CALLBACK_LISTEN_PORT + CALLBACK_LISTEN_PATH);
 
         // Define the handler for the callback endpoint (Step 10: AcsServer -> Merchant)
         app.post(CALLBACK_LISTEN_PATH, handlePaymentCallback);
@@ -110,25 +369,31 @@ public class MerchantSimulator {
     }
 
     /**
-     * Javalin Handler for processing the callback from AcsServer.
+     * Javalin Handler for processing the callback from AcsServer: {"orderId": tokenA, "status": "paid" | "failed"}.
+     * During a load test it completes the flow waiting for that tokenA.
      */
     private static Handler handlePaymentCallback = ctx -> {
-        System.out.println("\n--- CALLBACK RECEIVED ---");
         String requestBody = ctx.body();
-        System.out.println("Received callback body: " + requestBody);
-
         try {
             JSONObject callbackData = new JSONObject(requestBody);
-            String tokenA = callbackData.optString("tokenA", "N/A");
-            boolean isSuccessful = callbackData.optBoolean("isSuccessful", false);
+            String tokenA = callbackData.optString("orderId", "N/A");
+            String status = callbackData.optString("status", "N/A");
 
-            System.out.println("Callback details:");
-            System.out.println("  Token A: " + tokenA);
-            System.out.println("  Payment Successful: " + isSuccessful);
+            CompletableFuture<String> flow = awaitingCallback.get(tokenA);
+            if (flow != null) {
+                flow.complete(status);
+            } else {
+                System.out.println("\n--- CALLBACK RECEIVED ---");
+                System.out.println("Received callback body: " + requestBody);
+                System.out.println("Callback details:");
+                System.out.println("  Token A: " + tokenA);
+                System.out.println("  Payment Successful: " + "paid".equals(status));
+                System.out.println("--- END CALLBACK ---");
+            }
 
             // In a real application, you would:
             // 1. Verify the tokenA matches an expected transaction.
-            // 2. Update your order database based on the isSuccessful status.
+            // 2. Update your order database based on the status.
             // 3. Possibly redirect the user (though ACS usually handles the final user page).
 
             ctx.status(200).result("Callback received by MerchantSimulator. OK."); // Acknowledge receipt
@@ -140,11 +405,6 @@ public class MerchantSimulator {
             System.err.println("Error processing callback: " + e.getMessage());
             ctx.status(500).result("Internal error processing callback.");
         }
-        System.out.println("--- END CALLBACK ---");
-
-        // Optional: Stop the simulator after receiving one callback
-        // System.out.println("Stopping simulator after callback.");
-        // ctx.appData(Javalin.class).stop();
     };
 }
-// End of MerchantSimulator.java //
\ No newline at end of file
+// End of MerchantSimulator.java //
@@ -0,0 +1,214 @@
+// Beggining of Metrics.java //
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import io.javalin.http.Context;
+
+/**
+ * Counters, gauges and latency histograms of one server process, served in the Prometheus text
+ * format (version 0.0.4) on /metrics.
+ *
+ * Metrics are registered once, usually into static finals, and updating one on the hot path is a
+ * LongAdder increment: no lock, no allocation, and threads updating the same metric do not fight
+ * over one cache line. Histograms have fixed buckets in seconds; an observation finds its bucket
+ * by scanning the (few) bounds and bumps that bucket only, the cumulative counts Prometheus
+ * expects are added up when scraped.
+ *
+ * Labels are fixed at registration: a metric with labels is one child per label set, registered
+ * under the same name, e.g. counter("acq_card_checks_total", "...", "result", "valid").
+ * Registering the same name and labels twice returns the same instance.
+ */
+public final class Metrics {
+    // Latency buckets in seconds, 0.5 ms to 10 s
+    private static final double[] LATENCY_BUCKETS = {
+            0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    private static final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+    private Metrics() {
+    }
+
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    public static final class Histogram {
+        private final long[] boundsNanos;
+        private final double[] boundsSeconds;
+        private final LongAdder[] buckets; // Last one is +Inf
+        private final LongAdder sumNanos = new LongAdder();
+
+        private Histogram(double[] boundsSeconds) {
+            this.boundsSeconds = boundsSeconds;
+            this.boundsNanos = new long[boundsSeconds.length];
+            for (int i = 0; i < boundsSeconds.length; i++) {
+                boundsNanos[i] = (long) (boundsSeconds[i] * TimeUnit.SECONDS.toNanos(1));
+            }
+            this.buckets = new LongAdder[boundsSeconds.length + 1];
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        public void observeNanos(long nanos) {
+            int bucket = 0;
+            while (bucket < boundsNanos.length && nanos > boundsNanos[bucket]) {
+                bucket++;
+            }
+            buckets[bucket].increment();
+            sumNanos.add(Math.max(0, nanos));
+        }
+
+        // Time since startNanos, a System.nanoTime() reading
+        public void observeSince(long startNanos) {
+            observeNanos(System.nanoTime() - startNanos);
+        }
+    }
+
+    public static Counter counter(String name, String help, String... labels) {
+        return (Counter) register(name, help, "counter", labels, new Counter());
+    }
+
+    public static Histogram histogram(String name, String help, String... labels) {
+        return (Histogram) register(name, help, "histogram", labels, new Histogram(LATENCY_BUCKETS));
+    }
+
+    // Value read when scraped, for state that already lives elsewhere (queue sizes, existing counters)
+    public static void gauge(String name, String help, LongSupplier value, String... labels) {
+        register(name, help, "gauge", labels, value);
+    }
+
+    public static void counterFunction(String name, String help, LongSupplier value, String... labels) {
+        register(name, help, "counter", labels, value);
+    }
+
+    // GET /metrics
+    public static void handle(Context ctx) {
+        ctx.contentType("text/plain; version=0.0.4; charset=utf-8").result(scrape());
+    }
+
+    public static String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Family family : families.values()) {
+            out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            for (Child child : family.children) {
+                if (child.metric instanceof Histogram histogram) {
+                    writeHistogram(out, family.name, child.labels, histogram);
+                } else {
+                    long value = child.metric instanceof Counter counter ? counter.get() : ((LongSupplier) child.metric).getAsLong();
+                    out.append(family.name).append(child.labels(null)).append(' ').append(value).append('\n');
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    private static void writeHistogram(StringBuilder out, String name, String[] labels, Histogram histogram) {
+        String labelText = labelText(labels, null);
+        long cumulative = 0;
+        for (int i = 0; i < histogram.buckets.length; i++) {
+            cumulative += histogram.buckets[i].sum();
+            String le = i < histogram.boundsSeconds.length ? Double.toString(histogram.boundsSeconds[i]) : "+Inf";
+            out.append(name).append("_bucket").append(labelText(labels, le)).append(' ').append(cumulative).append('\n');
+        }
+        out.append(name).append("_sum").append(labelText).append(' ')
+                .append(histogram.sumNanos.sum() / (double) TimeUnit.SECONDS.toNanos(1)).append('\n');
+        out.append(name).append("_count").append(labelText).append(' ').append(cumulative).append('\n');
+    }
+
+    private static synchronized Object register(String name, String help, String type, String[] labels, Object metric) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels of " + name + " must be name/value pairs");
+        }
+        Family family = families.computeIfAbsent(name, key -> new Family(name, help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as a " + family.type);
+        }
+        String key = labelText(labels, null);
+        for (Child child : family.children) {
+            if (child.key.equals(key)) {
+                // Suppliers are replaced, so a restarted component reports its own state
+                if (metric instanceof LongSupplier) {
+                    family.children.remove(child);
+                    break;
+                }
+                return child.metric;
+            }
+        }
+        family.children.add(new Child(key, labels, metric));
+        return metric;
+    }
+
+    // {a="1",b="2"}, with le="..." appended for histogram buckets; empty without labels
+    private static String labelText(String[] labels, String le) {
+        if (labels.length == 0 && le == null) {
+            return "";
+        }
+        StringBuilder text = new StringBuilder("{");
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                text.append(',');
+            }
+            text.append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+        }
+        if (le != null) {
+            if (labels.length > 0) {
+                text.append(',');
+            }
+            text.append("le=\"").append(le).append('"');
+        }
+        return text.append('}').toString();
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static final class Family {
+        final String name;
+        final String help;
+        final String type;
+        final List<Child> children = new CopyOnWriteArrayList<>();
+
+        Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    private static final class Child {
+        final String key;
+        final String[] labels;
+        final Object metric; // Counter, Histogram or LongSupplier
+
+        Child(String key, String[] labels, Object metric) {
+            this.key = key;
+            this.labels = labels.clone();
+            this.metric = metric;
+        }
+
+        String labels(String le) {
+            return labelText(labels, le);
+        }
+    }
+}
+// End of Metrics.java //
@@ -0,0 +1,600 @@
+// Beggining of MuxChannelPool.java //
+import modules.PaymentInfo;
+import modules.ValidationResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Client side of the multiplexed protocol (server side: {@link MuxServerSession}).
+ *
+ * Keeps a small set of long-lived TLS connections to one peer. Every request carries a
+ * correlation id (the payment's tokenA) and the peer answers with the same id, in whatever
+ * order its workers finish, so many requests share one connection and one TLS handshake.
+ * Each request also carries what is left of the caller's deadline, as a budget rather than a
+ * timestamp so the two hosts' clocks do not need to agree.
+ *
+ * The frame format is negotiated per connection by the hello line: "MUX/2 BIN/1" asks for
+ * {@link BinaryWireCodec}, "MUX/2" for {@link TextWireCodec}. A peer that refuses the binary
+ * hello is retried with the text one, and a peer that refuses both (older server) gets the
+ * original one-connection-per-request exchange, so mixed versions keep working.
+ *
+ * With batching on, requests that find others already in flight to the peer are held for up to
+ * the batch window and written together (see {@link RequestBatcher}): one frame on peers that
+ * accept "MUX/2 BIN/2", consecutive frames in a single write otherwise. A request that finds
+ * nothing in flight goes out at once, so an idle pool never waits for the window.
+ *
+ * A background task pings every connection, drops the ones that stop answering and reconnects.
+ * sendAsync never blocks the caller on connecting: when no connection is open, the connect
+ * and handshake run on a background thread and the request is sent once it is ready.
+ *
+ * A request that provably never left this process (no connection could be made, or the
+ * connection was already closed before it was written) fails with {@link NotSentException};
+ * any other failure may come after the peer has received it.
+ */
+public class MuxChannelPool implements Closeable {
+    static final String HELLO = "MUX/2";
+    static final String HELLO_OK = "MUX/2 OK";
+    static final String HELLO_BINARY = "MUX/2 BIN/1";
+    static final String HELLO_BINARY_OK = "MUX/2 BIN/1 OK";
+    // Binary frames plus batch frames (several requests or responses in one frame)
+    static final String HELLO_BINARY_BATCH = "MUX/2 BIN/2";
+    static final String HELLO_BINARY_BATCH_OK = "MUX/2 BIN/2 OK";
+    // First version of the protocol, without the deadline field; still accepted by servers
+    static final String HELLO_V1 = "MUX/1";
+    static final String HELLO_V1_OK = "MUX/1 OK";
+    static final long NO_DEADLINE = 0L;
+
+    private enum PeerMode { UNKNOWN, BATCH, BINARY, TEXT, LEGACY }
+
+    private static final Logger log = LoggerFactory.getLogger(MuxChannelPool.class);
+
+    private final String name;
+    private final String host;
+    private final int port;
+    private final Supplier<SSLSocketFactory> socketFactory;
+    private final long requestTimeoutMs;
+    private final int connectTimeoutMs;
+    private final long healthCheckIntervalMs;
+    private final boolean offerBinary;
+
+    private final Channel[] channels;
+    private final AtomicInteger nextChannel = new AtomicInteger();
+    private final ScheduledExecutorService healthChecker;
+    // Connects in the background and runs the one-shot exchanges used with legacy peers
+    private final ExecutorService ioExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private volatile PeerMode peerMode = PeerMode.UNKNOWN;
+    private volatile boolean closed = false;
+    private final Metrics.Histogram handshakeSeconds;
+    // Null when batching is off
+    private final RequestBatcher<QueuedRequest> batcher;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Metrics.Counter batchesSent;
+    private final Metrics.Counter batchedRequests;
+
+    public MuxChannelPool(String name, String host, int port, Supplier<SSLSocketFactory> socketFactory,
+                          int size, long requestTimeoutMs, int connectTimeoutMs, long healthCheckIntervalMs, boolean offerBinary) {
+        this(name, host, port, socketFactory, size, requestTimeoutMs, connectTimeoutMs, healthCheckIntervalMs, offerBinary, 1, 0);
+    }
+
+    // batchMaxItems > 1 and batchWindowMicros > 0 turn batching on
+    public MuxChannelPool(String name, String host, int port, Supplier<SSLSocketFactory> socketFactory,
+                          int size, long requestTimeoutMs, int connectTimeoutMs, long healthCheckIntervalMs, boolean offerBinary,
+                          int batchMaxItems, long batchWindowMicros) {
+        this.name = name;
+        this.host = host;
+        this.port = port;
+        this.socketFactory = socketFactory;
+        this.requestTimeoutMs = requestTimeoutMs;
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.healthCheckIntervalMs = healthCheckIntervalMs;
+        this.offerBinary = offerBinary;
+        this.channels = new Channel[Math.max(1, size)];
+        this.handshakeSeconds = Metrics.histogram("tls_client_handshake_duration_seconds",
+                "TLS handshake time of outgoing channel connections", "pool", name);
+        this.healthChecker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "mux-" + name + "-health");
+            t.setDaemon(true);
+            return t;
+        });
+        healthChecker.scheduleWithFixedDelay(this::checkHealth, healthCheckIntervalMs, healthCheckIntervalMs, TimeUnit.MILLISECONDS);
+        this.batcher = batchMaxItems > 1 && batchWindowMicros > 0
+                ? new RequestBatcher<>("mux-" + name, batchMaxItems, TimeUnit.MICROSECONDS.toNanos(batchWindowMicros), this::sendBatch)
+                : null;
+        this.batchesSent = Metrics.counter("mux_request_batches_total",
+                "Request batches written to a channel (requests per batch: mux_batched_requests_total / this)", "pool", name);
+        this.batchedRequests = Metrics.counter("mux_batched_requests_total",
+                "Requests written as part of a batch", "pool", name);
+    }
+
+    public CompletableFuture<ValidationResult> sendAsync(PaymentInfo payment) {
+        return sendAsync(payment, NO_DEADLINE);
+    }
+
+    // deadlineMillis is an absolute System.currentTimeMillis() value, or NO_DEADLINE.
+    // Fails with TimeoutException once the deadline (or the pool's request timeout) passes.
+    public CompletableFuture<ValidationResult> sendAsync(PaymentInfo payment, long deadlineMillis) {
+        String correlationId = payment.getTokenA();
+        if (correlationId == null || correlationId.isEmpty() || !isSingleField(correlationId)) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Invalid correlation id: " + correlationId));
+        }
+        if (closed) {
+            return CompletableFuture.failedFuture(new NotSentException(name + ": channel pool is closed", null));
+        }
+        if (deadlineMillis != NO_DEADLINE && deadlineMillis <= System.currentTimeMillis()) {
+            return CompletableFuture.failedFuture(new TimeoutException(name + ": deadline already passed for " + correlationId));
+        }
+        if (peerMode == PeerMode.LEGACY) {
+            return CompletableFuture.supplyAsync(() -> sendLegacy(payment, deadlineMillis), ioExecutor);
+        }
+        if (batcher == null) {
+            return sendNow(payment, deadlineMillis);
+        }
+        // Others already in flight: this one can afford to wait for company
+        boolean busy = inFlight.getAndIncrement() > 0;
+        PeerMode mode = peerMode;
+        CompletableFuture<ValidationResult> response = busy && mode != PeerMode.UNKNOWN
+                ? enqueue(payment, deadlineMillis)
+                : sendNow(payment, deadlineMillis);
+        return response.whenComplete((result, error) -> inFlight.decrementAndGet());
+    }
+
+    private CompletableFuture<ValidationResult> sendNow(PaymentInfo payment, long deadlineMillis) {
+        Channel channel = openChannel();
+        if (channel != null) {
+            return channel.send(payment, deadlineMillis);
+        }
+        // Nothing connected yet (or every connection dropped): connect off the caller's thread
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return acquire();
+            } catch (IOException e) {
+                throw new CompletionException(new NotSentException(name + ": could not connect to " + host + ":" + port, e));
+            }
+        }, ioExecutor).thenCompose(connected -> connected == null
+                // Handshake just showed the peer is a legacy server
+                ? CompletableFuture.supplyAsync(() -> sendLegacy(payment, deadlineMillis), ioExecutor)
+                : connected.send(payment, deadlineMillis));
+    }
+
+    // Holds the request for the next batch; its timeout runs from now, the wait included
+    private CompletableFuture<ValidationResult> enqueue(PaymentInfo payment, long deadlineMillis) {
+        CompletableFuture<ValidationResult> future = new CompletableFuture<>();
+        future.orTimeout(Math.max(0, timeoutFor(deadlineMillis)), TimeUnit.MILLISECONDS);
+        batcher.add(new QueuedRequest(payment, deadlineMillis, future));
+        return future;
+    }
+
+    // RequestBatcher sink: the whole batch goes over one connection
+    private void sendBatch(List<QueuedRequest> batch) {
+        Channel channel = openChannel();
+        if (channel != null) {
+            batchesSent.increment();
+            batchedRequests.add(batch.size());
+            channel.sendBatch(batch);
+            return;
+        }
+        // Every connection dropped since these were queued: send them one by one once reconnected
+        for (QueuedRequest request : batch) {
+            if (request.future.isDone()) {
+                continue;
+            }
+            sendNow(request.payment, request.deadlineMillis).whenComplete((result, error) -> {
+                if (error != null) {
+                    request.future.completeExceptionally(error);
+                } else {
+                    request.future.complete(result);
+                }
+            });
+        }
+    }
+
+    // Next open connection in round-robin order, or null when none is open; never connects
+    private Channel openChannel() {
+        for (int attempt = 0; attempt < channels.length; attempt++) {
+            Channel channel = channels[Math.floorMod(nextChannel.getAndIncrement(), channels.length)];
+            if (channel != null && channel.open) {
+                return channel;
+            }
+        }
+        return null;
+    }
+
+    // Round-robin over the open connections, (re)connecting empty or dead slots on the way
+    private Channel acquire() throws IOException {
+        IOException lastError = null;
+        for (int attempt = 0; attempt < channels.length; attempt++) {
+            int slot = Math.floorMod(nextChannel.getAndIncrement(), channels.length);
+            Channel channel = channels[slot];
+            if (channel != null && channel.open) {
+                return channel;
+            }
+            try {
+                channel = reconnect(slot);
+                if (channel == null || channel.open) {
+                    return channel;
+                }
+            } catch (IOException e) {
+                lastError = e;
+            }
+        }
+        throw lastError != null ? lastError : new IOException(name + ": no connection available to " + host + ":" + port);
+    }
+
+    // Returns null when the peer turned out to be a legacy (one request per connection) server
+    private Channel reconnect(int slot) throws IOException {
+        synchronized (channels) {
+            Channel current = channels[slot];
+            if (current != null && current.open) {
+                return current;
+            }
+            if (closed) {
+                throw new IOException(name + ": channel pool is closed");
+            }
+            Channel channel = negotiate(slot);
+            PeerMode mode = channel == null ? PeerMode.LEGACY
+                    : channel.batchFrames ? PeerMode.BATCH
+                    : channel.binary ? PeerMode.BINARY : PeerMode.TEXT;
+            if (mode != peerMode) {
+                log.info("{}: {}:{} speaks the {} protocol", name, host, port, describe(mode));
+                peerMode = mode;
+            }
+            if (channel != null) {
+                channels[slot] = channel;
+            }
+            return channel;
+        }
+    }
+
+    // Tries the hellos from newest to oldest, each on a fresh connection since a refusing server closes it
+    private Channel negotiate(int slot) throws IOException {
+        if (batcher != null && offerBinary && peerMode != PeerMode.TEXT && peerMode != PeerMode.BINARY) {
+            Channel channel = Channel.open(this, slot, HELLO_BINARY_BATCH, HELLO_BINARY_BATCH_OK);
+            if (channel != null) {
+                return channel;
+            }
+        }
+        if (offerBinary && peerMode != PeerMode.TEXT) {
+            Channel channel = Channel.open(this, slot, HELLO_BINARY, HELLO_BINARY_OK);
+            if (channel != null) {
+                return channel;
+            }
+        }
+        return Channel.open(this, slot, HELLO, HELLO_OK);
+    }
+
+    private static String describe(PeerMode mode) {
+        switch (mode) {
+            case BATCH:
+                return "binary multiplexed (batch frames)";
+            case BINARY:
+                return "binary multiplexed";
+            case TEXT:
+                return "text multiplexed";
+            default:
+                return "legacy one-request-per-connection";
+        }
+    }
+
+    private void checkHealth() {
+        long staleAfterNanos = TimeUnit.MILLISECONDS.toNanos(healthCheckIntervalMs * 3);
+        for (int slot = 0; slot < channels.length && !closed; slot++) {
+            Channel channel = channels[slot];
+            try {
+                if (channel == null || !channel.open) {
+                    // Keep the pool warm, and re-probe peers that were running an older protocol
+                    if (channel != null || peerMode == PeerMode.LEGACY) {
+                        reconnect(slot);
+                    }
+                } else if (System.nanoTime() - channel.lastPongNanos > staleAfterNanos) {
+                    log.warn("{}: connection {} stopped answering pings, reconnecting", name, slot);
+                    channel.close(new IOException(name + ": connection stopped answering pings"));
+                    reconnect(slot);
+                } else {
+                    channel.ping();
+                }
+            } catch (IOException e) {
+                log.warn("{}: health check failed for {}:{} - {}", name, host, port, e.getMessage());
+            } catch (Exception e) {
+                log.error("{}: unexpected error in health check", name, e);
+            }
+        }
+    }
+
+    // Original protocol: fresh connection, one JSON line out, one line in
+    private ValidationResult sendLegacy(PaymentInfo payment, long deadlineMillis) {
+        SSLSocket connected;
+        try {
+            connected = connect();
+        } catch (IOException e) {
+            throw new CompletionException(new NotSentException(name + ": could not connect to " + host + ":" + port, e));
+        }
+        try (SSLSocket socket = connected;
+             InputStream in = new BufferedInputStream(socket.getInputStream());
+             OutputStream out = socket.getOutputStream()) {
+            long timeoutMs = timeoutFor(deadlineMillis);
+            if (timeoutMs <= 0) {
+                throw new CompletionException(new TimeoutException(name + ": deadline passed before the request was sent"));
+            }
+            socket.setSoTimeout((int) Math.min(Integer.MAX_VALUE, timeoutMs));
+            WireCodec.writeLine(out, PaymentJson.toJson(payment));
+            String response = WireCodec.readLine(in);
+            if (response == null) {
+                throw new IOException(name + ": no response from " + host + ":" + port);
+            }
+            return ValidationResult.fromLine(response);
+        } catch (SocketTimeoutException e) {
+            throw new CompletionException(new TimeoutException(name + ": no response from " + host + ":" + port + " in time"));
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    // How long a request may still wait: the pool's request timeout, shortened by the caller's deadline
+    private long timeoutFor(long deadlineMillis) {
+        if (deadlineMillis == NO_DEADLINE) {
+            return requestTimeoutMs;
+        }
+        return Math.min(requestTimeoutMs, deadlineMillis - System.currentTimeMillis());
+    }
+
+    private SSLSocket connect() throws IOException {
+        Socket raw = new Socket();
+        try {
+            raw.connect(new InetSocketAddress(host, port), connectTimeoutMs);
+            raw.setTcpNoDelay(true);
+            SSLSocket socket = (SSLSocket) socketFactory.get().createSocket(raw, host, port, true);
+            socket.setSoTimeout(connectTimeoutMs);
+            long handshakeStart = System.nanoTime();
+            socket.startHandshake();
+            handshakeSeconds.observeSince(handshakeStart);
+            return socket;
+        } catch (IOException e) {
+            raw.close();
+            throw e;
+        }
+    }
+
+    private static boolean isSingleField(String value) {
+        return value.indexOf(TextWireCodec.SEPARATOR) < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (batcher != null) {
+            // Fails what is still queued right away rather than at its timeout
+            batcher.close();
+        }
+        healthChecker.shutdownNow();
+        ioExecutor.shutdown();
+        synchronized (channels) {
+            for (Channel channel : channels) {
+                if (channel != null) {
+                    channel.close(new IOException(name + ": channel pool is closed"));
+                }
+            }
+        }
+    }
+
+    // The request never left this process: safe to send again elsewhere
+    public static final class NotSentException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        NotSentException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    // A request waiting in the batcher
+    private static final class QueuedRequest {
+        final PaymentInfo payment;
+        final long deadlineMillis;
+        final CompletableFuture<ValidationResult> future;
+
+        QueuedRequest(PaymentInfo payment, long deadlineMillis, CompletableFuture<ValidationResult> future) {
+            this.payment = payment;
+            this.deadlineMillis = deadlineMillis;
+            this.future = future;
+        }
+    }
+
+    // One persistent connection plus the requests currently waiting on it
+    private static final class Channel {
+        private final MuxChannelPool pool;
+        private final int slot;
+        private final SSLSocket socket;
+        private final WireCodec codec;
+        private final boolean binary;
+        private final boolean batchFrames;
+        private final Map<String, CompletableFuture<ValidationResult>> pending = new ConcurrentHashMap<>();
+        private volatile boolean open = true;
+        private volatile long lastPongNanos = System.nanoTime();
+
+        private Channel(MuxChannelPool pool, int slot, SSLSocket socket, WireCodec codec, boolean binary, boolean batchFrames) {
+            this.pool = pool;
+            this.slot = slot;
+            this.socket = socket;
+            this.codec = codec;
+            this.binary = binary;
+            this.batchFrames = batchFrames;
+        }
+
+        // Connects and sends the hello; null means the peer refused it
+        static Channel open(MuxChannelPool pool, int slot, String hello, String expectedReply) throws IOException {
+            SSLSocket socket = pool.connect();
+            try {
+                InputStream in = new BufferedInputStream(socket.getInputStream());
+                OutputStream out = socket.getOutputStream();
+                WireCodec.writeLine(out, hello);
+                String reply = WireCodec.readLine(in);
+                if (!expectedReply.equals(reply)) {
+                    socket.close();
+                    return null;
+                }
+                // From here on idleness is policed by the ping task, not by the socket timeout
+                socket.setSoTimeout(0);
+                boolean batchFrames = HELLO_BINARY_BATCH.equals(hello);
+                boolean binary = batchFrames || HELLO_BINARY.equals(hello);
+                WireCodec codec = binary ? new BinaryWireCodec(in, out, batchFrames) : new TextWireCodec(in, out, true);
+                Channel channel = new Channel(pool, slot, socket, codec, binary, batchFrames);
+                Thread reader = new Thread(channel::readLoop, "mux-" + pool.name + "-reader-" + slot);
+                reader.setDaemon(true);
+                reader.start();
+                log.info("{}: connection {} established to {}:{} ({})", pool.name, slot, pool.host, pool.port, hello);
+                return channel;
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        CompletableFuture<ValidationResult> send(PaymentInfo payment, long deadlineMillis) {
+            String correlationId = payment.getTokenA();
+            long timeoutMs = pool.timeoutFor(deadlineMillis);
+            if (timeoutMs <= 0) {
+                return CompletableFuture.failedFuture(new TimeoutException(pool.name + ": deadline passed before " + correlationId + " was sent"));
+            }
+            if (!codec.fits(payment)) {
+                return CompletableFuture.failedFuture(new IllegalArgumentException(pool.name + ": request for " + correlationId + " is too large to send"));
+            }
+            CompletableFuture<ValidationResult> future = new CompletableFuture<>();
+            if (pending.putIfAbsent(correlationId, future) != null) {
+                return CompletableFuture.failedFuture(new IllegalStateException("Request already in flight for " + correlationId));
+            }
+            future.orTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                    .whenComplete((response, error) -> pending.remove(correlationId, future));
+            long remainingMs = deadlineMillis == NO_DEADLINE ? NO_DEADLINE : timeoutMs;
+            try {
+                if (!open) {
+                    throw new NotSentException(pool.name + ": connection " + slot + " is closed", null);
+                }
+                codec.writeRequest(correlationId, remainingMs, payment);
+            } catch (IOException e) {
+                future.completeExceptionally(e);
+                close(e);
+            }
+            return future;
+        }
+
+        // Registers every request still worth sending, then writes them with one codec call
+        void sendBatch(List<QueuedRequest> batch) {
+            List<WireCodec.Frame> frames = new ArrayList<>(batch.size());
+            List<CompletableFuture<ValidationResult>> futures = new ArrayList<>(batch.size());
+            for (QueuedRequest request : batch) {
+                String correlationId = request.payment.getTokenA();
+                long timeoutMs = pool.timeoutFor(request.deadlineMillis);
+                CompletableFuture<ValidationResult> future = request.future;
+                if (future.isDone()) {
+                    continue; // Timed out while queued
+                }
+                if (timeoutMs <= 0) {
+                    future.completeExceptionally(new TimeoutException(pool.name + ": deadline passed before " + correlationId + " was sent"));
+                    continue;
+                }
+                if (!codec.fits(request.payment)) {
+                    future.completeExceptionally(new IllegalArgumentException(pool.name + ": request for " + correlationId + " is too large to send"));
+                    continue;
+                }
+                if (pending.putIfAbsent(correlationId, future) != null) {
+                    future.completeExceptionally(new IllegalStateException("Request already in flight for " + correlationId));
+                    continue;
+                }
+                future.whenComplete((response, error) -> pending.remove(correlationId, future));
+                long remainingMs = request.deadlineMillis == NO_DEADLINE ? NO_DEADLINE : timeoutMs;
+                frames.add(WireCodec.Frame.request(correlationId, remainingMs, request.payment));
+                futures.add(future);
+            }
+            if (frames.isEmpty()) {
+                return;
+            }
+            try {
+                if (!open) {
+                    throw new NotSentException(pool.name + ": connection " + slot + " is closed", null);
+                }
+                codec.writeRequests(frames);
+            } catch (IOException e) {
+                for (CompletableFuture<ValidationResult> future : futures) {
+                    future.completeExceptionally(e);
+                }
+                close(e);
+            }
+        }
+
+        void ping() throws IOException {
+            try {
+                codec.writePing();
+            } catch (IOException e) {
+                close(e);
+                throw e;
+            }
+        }
+
+        private void readLoop() {
+            try {
+                WireCodec.Frame frame;
+                while ((frame = codec.readResponse()) != null) {
+                    if (frame.type == WireCodec.Frame.Type.PONG) {
+                        lastPongNanos = System.nanoTime();
+                        continue;
+                    }
+                    if (frame.type == WireCodec.Frame.Type.RESPONSE_BATCH) {
+                        for (WireCodec.Frame response : frame.batch) {
+                            complete(response);
+                        }
+                    } else {
+                        complete(frame);
+                    }
+                }
+                close(new IOException(pool.name + ": connection closed by " + pool.host + ":" + pool.port));
+            } catch (IOException e) {
+                close(e);
+            }
+        }
+
+        private void complete(WireCodec.Frame response) {
+            CompletableFuture<ValidationResult> future = pending.remove(response.correlationId);
+            if (future != null) {
+                future.complete(response.result);
+            } else {
+                log.atWarn().addKeyValue("tokenA", response.correlationId).log("{}: response for unknown or expired request", pool.name);
+            }
+        }
+
+        void close(IOException reason) {
+            if (!open) {
+                return;
+            }
+            open = false;
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+            log.warn("{}: connection {} closed - {}", pool.name, slot, reason.getMessage());
+            for (CompletableFuture<ValidationResult> future : pending.values()) {
+                future.completeExceptionally(reason);
+            }
+            pending.clear();
+        }
+    }
+}
+// End of MuxChannelPool.java //
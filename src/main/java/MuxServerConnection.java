@@ -0,0 +1,165 @@
+// Beggining of MuxServerConnection.java //
+import modules.ValidationResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * What the ACQ and ACS listeners speak on a {@link TlsEventLoopServer} connection: the same
+ * exchanges as their blocking listeners, read off the event loop instead of a blocking stream.
+ *
+ * The first line is either a multiplexed-protocol hello, after which frames are split out of the
+ * decrypted buffer as they arrive and dispatched to a {@link MuxServerSession}, or a legacy JSON
+ * request, answered on a worker thread with one line before the connection is closed. Nothing on
+ * the event loop waits: handlers and the legacy exchange run on the workers.
+ */
+final class MuxServerConnection implements TlsEventLoopServer.Protocol {
+    private static final Logger log = LoggerFactory.getLogger(MuxServerConnection.class);
+
+    // Answers a legacy (one request per connection) JSON line; runs on a worker thread
+    interface LegacyHandler {
+        ValidationResult handle(String requestLine);
+    }
+
+    private enum State { FIRST_LINE, TEXT_FRAMES, BINARY_FRAMES, ANSWERED }
+
+    private final String name;
+    private final Executor workers;
+    private final MuxServerSession.RequestHandler handler;
+    private final Executor legacyWorkers;
+    private final LegacyHandler legacyHandler;
+    private final int muxIdleTimeoutMs;
+    private State state = State.FIRST_LINE;
+    private MuxServerSession session;
+    private boolean withDeadline;
+
+    // workers run multiplexed requests, legacyWorkers the legacy exchange
+    MuxServerConnection(String name, Executor workers, MuxServerSession.RequestHandler handler,
+                        Executor legacyWorkers, LegacyHandler legacyHandler, int muxIdleTimeoutMs) {
+        this.name = name;
+        this.workers = workers;
+        this.handler = handler;
+        this.legacyWorkers = legacyWorkers;
+        this.legacyHandler = legacyHandler;
+        this.muxIdleTimeoutMs = muxIdleTimeoutMs;
+    }
+
+    @Override
+    public void onData(TlsEventLoopServer.Connection connection, ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            switch (state) {
+                case FIRST_LINE: {
+                    String line = readLine(data);
+                    if (line == null) {
+                        return;
+                    }
+                    onFirstLine(connection, line);
+                    break;
+                }
+                case TEXT_FRAMES: {
+                    String line = readLine(data);
+                    if (line == null) {
+                        return;
+                    }
+                    WireCodec.Frame frame = TextWireCodec.parseRequest(line, withDeadline);
+                    if (frame == null) {
+                        log.warn("{}: Ignoring malformed request frame ({} bytes)", name, line.length());
+                    } else {
+                        session.dispatch(frame);
+                    }
+                    break;
+                }
+                case BINARY_FRAMES: {
+                    if (data.remaining() < Integer.BYTES) {
+                        return;
+                    }
+                    int length = data.getInt(data.position());
+                    if (length <= 0 || length > BinaryWireCodec.MAX_FRAME_LENGTH) {
+                        throw new IOException("Invalid frame length " + length);
+                    }
+                    if (data.remaining() < Integer.BYTES + length) {
+                        return;
+                    }
+                    // Decoded in place, the body is not copied out of the receive buffer
+                    ByteBuffer body = data.slice(data.position() + Integer.BYTES, length);
+                    data.position(data.position() + Integer.BYTES + length);
+                    session.dispatch(BinaryWireCodec.decode(body));
+                    break;
+                }
+                default:
+                    // Legacy request already taken, anything after it is ignored
+                    data.position(data.limit());
+                    return;
+            }
+        }
+    }
+
+    @Override
+    public void onClosed(TlsEventLoopServer.Connection connection) {
+        if (session != null) {
+            log.info("{}: Multiplexed channel closed by {}", name, connection.remoteAddress());
+        }
+    }
+
+    private void onFirstLine(TlsEventLoopServer.Connection connection, String line) throws IOException {
+        if (MuxServerSession.isHello(line)) {
+            log.info("{}: Multiplexed channel ({}) opened by {}", name, line, connection.remoteAddress());
+            session = MuxServerSession.open(name, line, connection.outputStream(), workers, handler);
+            connection.setIdleTimeout(muxIdleTimeoutMs);
+            withDeadline = !MuxChannelPool.HELLO_V1.equals(line);
+            state = MuxChannelPool.HELLO_BINARY.equals(line) || MuxChannelPool.HELLO_BINARY_BATCH.equals(line)
+                    ? State.BINARY_FRAMES
+                    : State.TEXT_FRAMES;
+            return;
+        }
+        state = State.ANSWERED;
+        if (line.isEmpty()) {
+            log.warn("{}: Received empty request", name);
+            connection.close();
+            return;
+        }
+        try {
+            legacyWorkers.execute(() -> answer(connection, line));
+        } catch (RejectedExecutionException e) {
+            log.warn("{}: Workers saturated, rejecting request", name);
+            reply(connection, ValidationResult.busy());
+        }
+    }
+
+    private void answer(TlsEventLoopServer.Connection connection, String line) {
+        ValidationResult result;
+        try {
+            result = legacyHandler.handle(line);
+        } catch (RuntimeException e) {
+            log.error("{}: Error processing request", name, e);
+            result = ValidationResult.error(ValidationResult.Code.ERROR, "Internal error");
+        }
+        reply(connection, result);
+    }
+
+    private static void reply(TlsEventLoopServer.Connection connection, ValidationResult result) {
+        connection.send(ByteBuffer.wrap((result.toLine() + "\n").getBytes(StandardCharsets.UTF_8)));
+        connection.closeAfterFlush();
+    }
+
+    // The next line (without its terminator), or null when it is not all there yet
+    private static String readLine(ByteBuffer data) {
+        int start = data.position();
+        for (int i = start; i < data.limit(); i++) {
+            if (data.get(i) == '\n') {
+                int end = i > start && data.get(i - 1) == '\r' ? i - 1 : i;
+                byte[] bytes = new byte[end - start];
+                data.get(start, bytes);
+                data.position(i + 1);
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+}
+// End of MuxServerConnection.java //
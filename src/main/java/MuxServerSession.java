@@ -0,0 +1,198 @@
+// Beggining of MuxServerSession.java //
+import modules.PaymentInfo;
+import modules.ValidationResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Server side of the multiplexed protocol opened by {@link MuxChannelPool}.
+ *
+ * The client's hello picks the frame format ({@link BinaryWireCodec} or {@link TextWireCodec}).
+ * After that every request frame is handed to the worker executor and answered with its
+ * correlation id as soon as it is ready, so a slow request never holds back the ones queued
+ * behind it on the same connection. Handlers return a future, so a request that is only
+ * waiting on the next hop does not keep a worker thread busy.
+ * Frames whose deadline budget has already run out are answered without running the handler.
+ *
+ * A batch frame (BIN/2) is handed to the workers as one task: its handlers are called one after
+ * the other on that worker and answered together in one batch frame once the last future is done.
+ * Handlers should therefore return as soon as their work is started rather than wait for it, or
+ * a batch costs the sum of its requests instead of the slowest one.
+ */
+public class MuxServerSession {
+    private static final Logger log = LoggerFactory.getLogger(MuxServerSession.class);
+
+    // Processes one request; deadlineMillis is absolute (System.currentTimeMillis) or NO_DEADLINE
+    public interface RequestHandler {
+        CompletableFuture<ValidationResult> handle(PaymentInfo payment, long deadlineMillis);
+    }
+
+    private final String name;
+    private final WireCodec codec;
+    private final Executor workers;
+    private final RequestHandler handler;
+
+    private MuxServerSession(String name, WireCodec codec, Executor workers, RequestHandler handler) {
+        this.name = name;
+        this.codec = codec;
+        this.workers = workers;
+        this.handler = handler;
+    }
+
+    // True when the first line of a connection asks for the multiplexed protocol
+    public static boolean isHello(String firstLine) {
+        return MuxChannelPool.HELLO_BINARY_BATCH.equals(firstLine)
+                || MuxChannelPool.HELLO_BINARY.equals(firstLine)
+                || MuxChannelPool.HELLO.equals(firstLine)
+                || MuxChannelPool.HELLO_V1.equals(firstLine);
+    }
+
+    // Acknowledges the hello and serves frames until the client disconnects.
+    // in must be positioned just after the hello line (see WireCodec.readLine).
+    public static void serve(String name, String hello, InputStream in, OutputStream out, Executor workers, RequestHandler handler) throws IOException {
+        new MuxServerSession(name, acknowledge(hello, in, out), workers, handler).readLoop();
+    }
+
+    // Acknowledges the hello for a connection whose frames are read by the caller and passed to
+    // dispatch() (MuxServerConnection); responses are written to out
+    static MuxServerSession open(String name, String hello, OutputStream out, Executor workers, RequestHandler handler) throws IOException {
+        return new MuxServerSession(name, acknowledge(hello, InputStream.nullInputStream(), out), workers, handler);
+    }
+
+    // Answers the hello and returns the codec it asked for
+    private static WireCodec acknowledge(String hello, InputStream in, OutputStream out) throws IOException {
+        if (MuxChannelPool.HELLO_BINARY_BATCH.equals(hello)) {
+            WireCodec.writeLine(out, MuxChannelPool.HELLO_BINARY_BATCH_OK);
+            return new BinaryWireCodec(in, out, true);
+        } else if (MuxChannelPool.HELLO_BINARY.equals(hello)) {
+            WireCodec.writeLine(out, MuxChannelPool.HELLO_BINARY_OK);
+            return new BinaryWireCodec(in, out);
+        } else if (MuxChannelPool.HELLO.equals(hello)) {
+            WireCodec.writeLine(out, MuxChannelPool.HELLO_OK);
+            return new TextWireCodec(in, out, true);
+        } else {
+            WireCodec.writeLine(out, MuxChannelPool.HELLO_V1_OK);
+            return new TextWireCodec(in, out, false);
+        }
+    }
+
+    private void readLoop() throws IOException {
+        WireCodec.Frame frame;
+        while ((frame = codec.readRequest()) != null) {
+            dispatch(frame);
+        }
+    }
+
+    // Answers a ping, or hands a request (or batch) to the workers
+    void dispatch(WireCodec.Frame frame) throws IOException {
+        if (frame.type == WireCodec.Frame.Type.PING) {
+            codec.writePong();
+            return;
+        }
+        if (frame.type == WireCodec.Frame.Type.REQUEST_BATCH) {
+            List<WireCodec.Frame> requests = frame.batch;
+            long[] deadlines = new long[requests.size()];
+            for (int i = 0; i < deadlines.length; i++) {
+                deadlines[i] = deadline(requests.get(i));
+            }
+            try {
+                workers.execute(() -> respondBatch(requests, deadlines));
+            } catch (RejectedExecutionException e) {
+                log.warn("{}: Workers saturated, rejecting a batch of {} requests", name, requests.size());
+                List<WireCodec.Frame> busy = new ArrayList<>(requests.size());
+                for (WireCodec.Frame request : requests) {
+                    busy.add(WireCodec.Frame.response(request.correlationId, ValidationResult.busy()));
+                }
+                writeBatch(busy);
+            }
+            return;
+        }
+        if (frame.result != null) {
+            // Payload could not be decoded, answer right away
+            write(frame.correlationId, frame.result);
+            return;
+        }
+
+        String correlationId = frame.correlationId;
+        PaymentInfo payment = frame.payment;
+        long deadline = deadline(frame);
+        try {
+            workers.execute(() -> process(correlationId, payment, deadline).thenAccept(result -> write(correlationId, result)));
+        } catch (RejectedExecutionException e) {
+            log.atWarn().addKeyValue("tokenA", correlationId).log("{}: Workers saturated, rejecting request", name);
+            write(correlationId, ValidationResult.busy());
+        }
+    }
+
+    // Absolute deadline of a request, counted from when its frame was read
+    private static long deadline(WireCodec.Frame request) {
+        return request.remainingMs > 0
+                ? System.currentTimeMillis() + request.remainingMs
+                : MuxChannelPool.NO_DEADLINE;
+    }
+
+    private void respondBatch(List<WireCodec.Frame> requests, long[] deadlines) {
+        List<CompletableFuture<ValidationResult>> results = new ArrayList<>(requests.size());
+        for (int i = 0; i < deadlines.length; i++) {
+            WireCodec.Frame request = requests.get(i);
+            results.add(request.result != null
+                    ? CompletableFuture.completedFuture(request.result)
+                    : process(request.correlationId, request.payment, deadlines[i]));
+        }
+        CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).thenRun(() -> {
+            List<WireCodec.Frame> responses = new ArrayList<>(requests.size());
+            for (int i = 0; i < deadlines.length; i++) {
+                responses.add(WireCodec.Frame.response(requests.get(i).correlationId, results.get(i).join()));
+            }
+            writeBatch(responses);
+        });
+    }
+
+    // Runs the handler; the future always completes normally, errors become error results
+    private CompletableFuture<ValidationResult> process(String correlationId, PaymentInfo payment, long deadlineMillis) {
+        if (deadlineMillis != MuxChannelPool.NO_DEADLINE && deadlineMillis <= System.currentTimeMillis()) {
+            // The caller has already given up, don't spend work on it
+            log.atWarn().addKeyValue("tokenA", correlationId).log("{}: Deadline passed before the request was processed", name);
+            return CompletableFuture.completedFuture(ValidationResult.deadlineExceeded());
+        }
+        CompletableFuture<ValidationResult> response;
+        try {
+            response = handler.handle(payment, deadlineMillis);
+        } catch (Exception e) {
+            response = CompletableFuture.failedFuture(e);
+        }
+        return response.handle((result, error) -> {
+            if (error != null) {
+                log.atError().addKeyValue("tokenA", correlationId).setCause(error).log("{}: Error processing request", name);
+                return ValidationResult.error(ValidationResult.Code.ERROR, "Internal error");
+            }
+            return result;
+        });
+    }
+
+    private void writeBatch(List<WireCodec.Frame> responses) {
+        try {
+            codec.writeResponses(responses);
+        } catch (IOException e) {
+            log.warn("{}: Could not send {} responses: {}", name, responses.size(), e.getMessage());
+        }
+    }
+
+    private void write(String correlationId, ValidationResult result) {
+        try {
+            codec.writeResponse(correlationId, result);
+        } catch (IOException e) {
+            log.atWarn().addKeyValue("tokenA", correlationId).log("{}: Could not send response: {}", name, e.getMessage());
+        }
+    }
+}
+// End of MuxServerSession.java //
@@ -0,0 +1,209 @@
+// Beggining of PageTemplate.java //
+import io.javalin.http.Context;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * An HTML page compiled once into UTF-8 byte segments with slots between them.
+ *
+ * Slots are written {{name}} (HTML-escaped) or {{name:url}} (percent-encoded, for query strings);
+ * the names are declared at compile time and given in that order to render(), so a typo fails at
+ * startup rather than on a request. Rendering copies the literal segments and encodes the slot
+ * values byte by byte into one buffer that is written out in a single call: no String building,
+ * no String.format, no re-encoding of the page on every request.
+ */
+public final class PageTemplate {
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+    private final byte[][] segments;    // slots.length + 1 literal parts
+    private final int[] slotArguments;  // index of the render() argument filling each slot
+    private final boolean[] slotUrl;    // percent-encode instead of HTML-escape
+    private final int literalLength;
+
+    private PageTemplate(byte[][] segments, int[] slotArguments, boolean[] slotUrl) {
+        this.segments = segments;
+        this.slotArguments = slotArguments;
+        this.slotUrl = slotUrl;
+        int length = 0;
+        for (byte[] segment : segments) {
+            length += segment.length;
+        }
+        this.literalLength = length;
+    }
+
+    public static PageTemplate compile(String source, String... parameters) {
+        int slots = 0;
+        for (int i = source.indexOf("{{"); i >= 0; i = source.indexOf("{{", i + 2)) {
+            slots++;
+        }
+        byte[][] segments = new byte[slots + 1][];
+        int[] slotArguments = new int[slots];
+        boolean[] slotUrl = new boolean[slots];
+
+        int position = 0;
+        for (int slot = 0; slot < slots; slot++) {
+            int open = source.indexOf("{{", position);
+            int close = source.indexOf("}}", open + 2);
+            if (close < 0) {
+                throw new IllegalArgumentException("Unclosed slot at offset " + open);
+            }
+            String name = source.substring(open + 2, close).trim();
+            if (name.endsWith(":url")) {
+                slotUrl[slot] = true;
+                name = name.substring(0, name.length() - 4);
+            }
+            slotArguments[slot] = Arrays.asList(parameters).indexOf(name);
+            if (slotArguments[slot] < 0) {
+                throw new IllegalArgumentException("Undeclared slot {{" + name + "}}");
+            }
+            segments[slot] = source.substring(position, open).getBytes(StandardCharsets.UTF_8);
+            position = close + 2;
+        }
+        segments[slots] = source.substring(position).getBytes(StandardCharsets.UTF_8);
+        return new PageTemplate(segments, slotArguments, slotUrl);
+    }
+
+    // Sends the page as the response; arguments are Strings (null renders empty) or Integers,
+    // in the order the parameters were declared
+    public void render(Context ctx, int status, Object... arguments) throws IOException {
+        ctx.status(status);
+        ctx.contentType("text/html; charset=UTF-8");
+        writeTo(ctx.outputStream(), arguments);
+    }
+
+    public void writeTo(OutputStream out, Object... arguments) throws IOException {
+        Buffer buffer = new Buffer(literalLength + 64 * slotArguments.length);
+        for (int slot = 0; slot < slotArguments.length; slot++) {
+            buffer.write(segments[slot]);
+            Object value = arguments[slotArguments[slot]];
+            if (value instanceof Integer) {
+                buffer.writeInt((Integer) value);
+            } else if (value != null) {
+                if (slotUrl[slot]) {
+                    buffer.writeUrlEncoded((String) value);
+                } else {
+                    buffer.writeHtmlEscaped((String) value);
+                }
+            }
+        }
+        buffer.write(segments[slotArguments.length]);
+        out.write(buffer.bytes, 0, buffer.length);
+    }
+
+    // Growable byte buffer with the encoders the slots need
+    private static final class Buffer {
+        byte[] bytes;
+        int length;
+
+        Buffer(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        void write(byte[] segment) {
+            ensure(segment.length);
+            System.arraycopy(segment, 0, bytes, length, segment.length);
+            length += segment.length;
+        }
+
+        void writeInt(int value) {
+            if (value < 0) {
+                put('-');
+                value = -value; // Integer.MIN_VALUE is not a page value
+            }
+            int divisor = 1;
+            while (value / divisor >= 10) {
+                divisor *= 10;
+            }
+            for (; divisor > 0; divisor /= 10) {
+                put('0' + (value / divisor) % 10);
+            }
+        }
+
+        void writeHtmlEscaped(String value) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '&': writeAscii("&amp;"); break;
+                    case '<': writeAscii("&lt;"); break;
+                    case '>': writeAscii("&gt;"); break;
+                    case '"': writeAscii("&quot;"); break;
+                    case '\'': writeAscii("&#39;"); break;
+                    default: i = writeUtf8(value, i);
+                }
+            }
+        }
+
+        // Unreserved characters (RFC 3986) as is, everything else as %XX of its UTF-8 bytes
+        void writeUrlEncoded(String value) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                        || c == '-' || c == '_' || c == '.' || c == '~') {
+                    put(c);
+                } else {
+                    i = writeUtf8(value, i, true);
+                }
+            }
+        }
+
+        private int writeUtf8(String value, int index) {
+            return writeUtf8(value, index, false);
+        }
+
+        // Writes the character at index (two for a surrogate pair); returns the last index consumed
+        private int writeUtf8(String value, int index, boolean percentEncoded) {
+            char c = value.charAt(index);
+            if (c < 0x80) {
+                put(c, percentEncoded);
+            } else if (c < 0x800) {
+                put(0xC0 | (c >> 6), percentEncoded);
+                put(0x80 | (c & 0x3F), percentEncoded);
+            } else if (Character.isHighSurrogate(c) && index + 1 < value.length() && Character.isLowSurrogate(value.charAt(index + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(index + 1));
+                put(0xF0 | (codePoint >> 18), percentEncoded);
+                put(0x80 | ((codePoint >> 12) & 0x3F), percentEncoded);
+                put(0x80 | ((codePoint >> 6) & 0x3F), percentEncoded);
+                put(0x80 | (codePoint & 0x3F), percentEncoded);
+                return index + 1;
+            } else if (Character.isSurrogate(c)) {
+                put('?', percentEncoded); // Unpaired surrogate
+            } else {
+                put(0xE0 | (c >> 12), percentEncoded);
+                put(0x80 | ((c >> 6) & 0x3F), percentEncoded);
+                put(0x80 | (c & 0x3F), percentEncoded);
+            }
+            return index;
+        }
+
+        private void put(int b, boolean percentEncoded) {
+            if (percentEncoded) {
+                put('%');
+                put(HEX[(b >> 4) & 0x0F]);
+                put(HEX[b & 0x0F]);
+            } else {
+                put(b);
+            }
+        }
+
+        private void writeAscii(String text) {
+            for (int i = 0; i < text.length(); i++) {
+                put(text.charAt(i));
+            }
+        }
+
+        private void put(int b) {
+            ensure(1);
+            bytes[length++] = (byte) b;
+        }
+
+        private void ensure(int extra) {
+            if (length + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+            }
+        }
+    }
+}
+// End of PageTemplate.java //
@@ -0,0 +1,91 @@
+// Beggining of PanMasker.java //
+/**
+ * Keeps card data out of the logs (PCI DSS 3.4: a PAN shown anywhere is masked to at most the
+ * first six and last four digits).
+ *
+ * Log fields are masked by name: a card number keeps its BIN and last four digits, a CVV or
+ * password is replaced entirely. Free text is scanned once, character by character, and every run
+ * of 13 to 19 digits (the length of a PAN) is masked the same way, whatever surrounds it. No
+ * regular expression, and text without such a run is appended as is.
+ */
+public final class PanMasker {
+    private static final int MIN_PAN_DIGITS = 13;
+    private static final int MAX_PAN_DIGITS = 19;
+    private static final int KEPT_LEADING = 6;
+    private static final int KEPT_TRAILING = 4;
+    private static final String REDACTED = "***";
+
+    private PanMasker() {
+    }
+
+    // Value to log for the field `key`: redacted, masked as a card number, or scanned like free text
+    public static void appendField(StringBuilder out, String key, String value) {
+        if (isSecret(key)) {
+            out.append(REDACTED);
+        } else if (isCardNumber(key)) {
+            appendMaskedCardNumber(out, value);
+        } else {
+            appendMasked(out, value);
+        }
+    }
+
+    // Appends text with every 13 to 19 digit run masked
+    public static void appendMasked(StringBuilder out, CharSequence text) {
+        int length = text.length();
+        int copied = 0;
+        int i = 0;
+        while (i < length) {
+            if (!isDigit(text.charAt(i))) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < length && isDigit(text.charAt(i))) {
+                i++;
+            }
+            int digits = i - start;
+            if (digits >= MIN_PAN_DIGITS && digits <= MAX_PAN_DIGITS) {
+                out.append(text, copied, start);
+                appendMaskedDigits(out, text, start, i);
+                copied = i;
+            }
+        }
+        out.append(text, copied, length);
+    }
+
+    private static void appendMaskedCardNumber(StringBuilder out, String value) {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            if (!isDigit(value.charAt(i))) {
+                out.append(REDACTED); // Not a plain card number, nothing of it is safe to show
+                return;
+            }
+        }
+        if (length < KEPT_LEADING + KEPT_TRAILING + 1) {
+            out.append(REDACTED);
+            return;
+        }
+        appendMaskedDigits(out, value, 0, length);
+    }
+
+    private static void appendMaskedDigits(StringBuilder out, CharSequence text, int start, int end) {
+        out.append(text, start, start + KEPT_LEADING);
+        for (int i = start + KEPT_LEADING; i < end - KEPT_TRAILING; i++) {
+            out.append('*');
+        }
+        out.append(text, end - KEPT_TRAILING, end);
+    }
+
+    private static boolean isCardNumber(String key) {
+        return key.equalsIgnoreCase("cardNumber") || key.equalsIgnoreCase("pan") || key.equalsIgnoreCase("clientCard");
+    }
+
+    private static boolean isSecret(String key) {
+        return key.equalsIgnoreCase("cvv") || key.equalsIgnoreCase("password") || key.equalsIgnoreCase("clientPassword");
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
+// End of PanMasker.java //
@@ -0,0 +1,94 @@
+// Beggining of PaymentBatchReader.java //
+import java.io.BufferedReader;
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import modules.PaymentInfo;
+
+/**
+ * Payments of an /initiate-payments body, which is either a JSON array of payment objects or NDJSON
+ * (one payment object per line, blank lines ignored). The first character tells them apart.
+ *
+ * Both are read as they arrive, so the first payments reach ACQ while the merchant is still
+ * sending the rest, and each payment is bound straight into a PaymentInfo without a JSON tree of
+ * the body. A malformed NDJSON line only fails that payment. In an array, an item that is not an
+ * object only fails that item, but a syntax error fails the payment it occurs in and ends the
+ * batch, since nothing after it can be delimited; one between items makes hasNext() throw.
+ */
+final class PaymentBatchReader {
+    private final BufferedReader body;
+    private final JsonParser array;
+    private JsonToken nextItem; // Array: first token of the next item, once hasNext() has read it
+    private boolean ended;
+    private int index;
+    private String nextLine;
+
+    private PaymentBatchReader(BufferedReader body, JsonParser array) {
+        this.body = body;
+        this.array = array;
+    }
+
+    static PaymentBatchReader open(BufferedReader body) throws IOException {
+        int first;
+        do {
+            body.mark(1);
+            first = body.read();
+        } while (first != -1 && Character.isWhitespace(first));
+        if (first != -1) {
+            body.reset();
+        }
+        if (first != '[') {
+            return new PaymentBatchReader(body, null);
+        }
+        JsonParser array = PaymentJson.parser(body);
+        array.nextToken(); // The opening bracket
+        return new PaymentBatchReader(body, array);
+    }
+
+    boolean hasNext() throws IOException {
+        if (array != null) {
+            if (!ended && nextItem == null) {
+                ended = true; // Unless the next token can be read
+                nextItem = array.nextToken();
+                ended = nextItem == null || nextItem == JsonToken.END_ARRAY;
+            }
+            return !ended;
+        }
+        while (nextLine == null) {
+            String line = body.readLine();
+            if (line == null) {
+                return false;
+            }
+            if (!line.isBlank()) {
+                nextLine = line;
+            }
+        }
+        return true;
+    }
+
+    // The next payment; a JsonProcessingException fails only this one
+    PaymentInfo next() throws IOException {
+        if (array != null) {
+            JsonToken item = nextItem;
+            nextItem = null;
+            int position = index++;
+            if (item != JsonToken.START_OBJECT) {
+                array.skipChildren();
+                throw new JsonParseException(array, "Payment " + position + " is not an object");
+            }
+            try {
+                return PaymentJson.read(array);
+            } catch (JsonProcessingException e) {
+                ended = true;
+                throw e;
+            }
+        }
+        String line = nextLine;
+        nextLine = null;
+        return PaymentJson.parse(line);
+    }
+}
+// End of PaymentBatchReader.java //
@@ -0,0 +1,137 @@
+// Beggining of PaymentJson.java //
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonLocation;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import modules.PaymentInfo;
+
+// Converts PaymentInfo to and from the JSON used by merchants and by text/legacy peers on the internal hops.
+// Jackson's streaming parser binds each field straight into the PaymentInfo: no JSON tree, no map of
+// values, and unknown fields are skipped without being materialized. Values are read as leniently as
+// before: numbers given as strings are accepted, and missing, null or unreadable fields stay null or 0.
+public class PaymentJson {
+    // Thread-safe once configured, and recycles the parsers' buffers
+    private static final JsonFactory JSON = new JsonFactory();
+
+    public static PaymentInfo parse(String json) throws JsonProcessingException {
+        try (JsonParser parser = JSON.createParser(json)) {
+            parser.nextToken();
+            return read(parser);
+        } catch (JsonProcessingException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Not thrown when reading from memory
+        }
+    }
+
+    // The request body as received, decoded by the parser without first building a String
+    public static PaymentInfo parse(byte[] json) throws JsonProcessingException {
+        try (JsonParser parser = JSON.createParser(json)) {
+            parser.nextToken();
+            return read(parser);
+        } catch (JsonProcessingException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // A parser over a stream of payments (PaymentBatchReader)
+    static JsonParser parser(Reader json) throws IOException {
+        return JSON.createParser(json);
+    }
+
+    // Binds the object at the parser's current token and leaves the parser on its closing brace
+    static PaymentInfo read(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "Expected a JSON object");
+        }
+        PaymentInfo payment = new PaymentInfo();
+        String field;
+        while ((field = parser.nextFieldName()) != null) {
+            parser.nextToken();
+            switch (field) {
+                case "tokenA":
+                    payment.setTokenA(text(parser));
+                    break;
+                case "clientName":
+                    payment.setClientName(text(parser));
+                    break;
+                case "cardNumber":
+                    payment.setCardNumber(text(parser));
+                    break;
+                case "month":
+                    payment.setMonth(parser.getValueAsInt(0));
+                    break;
+                case "year":
+                    payment.setYear(parser.getValueAsInt(0));
+                    break;
+                case "cvv":
+                    payment.setCvv(text(parser)); // A number loses leading zeros, so a string is preferred
+                    break;
+                case "dueAmount":
+                    payment.setDueAmount((float) parser.getValueAsDouble(0));
+                    break;
+                case "receiverIdToken":
+                    payment.setReceiverIdToken(text(parser));
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return payment;
+    }
+
+    // Compact, single-line JSON; null fields are left out
+    public static String toJson(PaymentInfo payment) {
+        StringWriter out = new StringWriter(192);
+        try (JsonGenerator json = JSON.createGenerator(out)) {
+            json.writeStartObject();
+            writeText(json, "tokenA", payment.getTokenA());
+            writeText(json, "clientName", payment.getClientName());
+            writeText(json, "cardNumber", payment.getCardNumber());
+            json.writeNumberField("month", payment.getMonth());
+            json.writeNumberField("year", payment.getYear());
+            writeText(json, "cvv", payment.getCvv());
+            // As a float, so 99.99f is written 99.99 instead of its double expansion
+            json.writeNumberField("dueAmount", payment.getDueAmount());
+            writeText(json, "receiverIdToken", payment.getReceiverIdToken());
+            json.writeEndObject();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Payment cannot be written as JSON", e);
+        }
+        return out.toString();
+    }
+
+    // Where the JSON went wrong, for logs; Jackson's messages quote the offending text, which may be card data
+    static String describe(JsonProcessingException e) {
+        JsonLocation location = e.getLocation();
+        return location == null ? "malformed JSON"
+                : "malformed JSON at line " + location.getLineNr() + ", column " + location.getColumnNr();
+    }
+
+    // Strings, numbers and booleans as their text; null, objects and arrays as null
+    private static String text(JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token.isScalarValue() && token != JsonToken.VALUE_NULL) {
+            return parser.getText();
+        }
+        parser.skipChildren();
+        return null;
+    }
+
+    private static void writeText(JsonGenerator json, String field, String value) throws IOException {
+        if (value != null) {
+            json.writeStringField(field, value);
+        }
+    }
+}
+// End of PaymentJson.java //
@@ -0,0 +1,823 @@
+// Beggining of ReplicatedSessionStore.java //
+import modules.LoginSession;
+import modules.TransactionState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * {@link SessionStore} shared by several ACS nodes, so the node that takes an enrollment from ACQ
+ * and the node that serves the user's pages need not be the same process.
+ *
+ * Every tokenA has an owner, picked by consistent hashing: each node sits on a hash ring at
+ * VIRTUAL_NODES points and a tokenA belongs to the first node found clockwise from its own hash.
+ * Adding or removing a node only moves the tokens next to its points. Operations on a tokenA owned
+ * elsewhere are forwarded to the owner; the owner applies them to its local
+ * {@link TransactionStateStore} (journaled as usual) and copies the result, synchronously, to a
+ * backup: the next node on the ring. Reads on the owner are always local.
+ *
+ * A node that does not answer (connection refused, timeout) is marked down and skipped in the ring
+ * walk, so its tokens fall to the next node, its backup, which already has them. Down nodes are
+ * pinged every heartbeat; when one answers again it is sent the transactions it owns or backs up,
+ * and a node that starts asks every reachable peer for them. Copies are merged by last change
+ * (wall-clock changedAtMillis), so the nodes' clocks are assumed to be kept in sync.
+ *
+ * Peers talk plain TCP with a small binary protocol, one request at a time per connection, each
+ * node keeping a few connections to every other. It carries tokens, states and login attempt
+ * counts only, no card data, and is meant for the private network between ACS nodes.
+ *
+ * Membership is static: every node is configured with the same list, its own id included.
+ */
+public class ReplicatedSessionStore implements SessionStore {
+    private static final Logger log = LoggerFactory.getLogger(ReplicatedSessionStore.class);
+    private static final int VIRTUAL_NODES = 128;
+
+    private static final byte OP_BEGIN = 1;
+    private static final byte OP_TRANSITION = 2;
+    private static final byte OP_STATE = 3;
+    private static final byte OP_LOGIN_SESSION = 4;
+    // 5 was START_LOGIN, which changed state on the owner without replicating it; not to be reused
+    private static final byte OP_RECORD_LOGIN = 6;
+    private static final byte OP_REPLICATE = 7;
+    private static final byte OP_HANDOFF = 8;
+    private static final byte OP_PING = 9;
+    private static final byte OP_RECORD_FAILED_LOGIN = 10;
+    private static final byte OP_IS_CARD_OF = 11;
+
+    // DataOutputStream.writeUTF takes at most this many bytes of modified UTF-8
+    private static final int MAX_TOKEN_BYTES = 65535;
+
+    private static final byte STATUS_OK = 0;
+    private static final byte STATUS_ERROR = 1;
+    private static final byte NO_STATE = -1;
+    private static final TransactionState[] STATES = TransactionState.values();
+
+    // One request/response exchange on a peer connection
+    private interface Exchange<T> {
+        T run(DataInputStream in, DataOutputStream out) throws IOException;
+    }
+
+    private final TransactionStateStore local;
+    private final Node[] nodes;
+    private final Node self;
+    private final long[] ringPoints;
+    private final Node[] ringNodes;
+    private final int connectionsPerPeer;
+    private final int requestTimeoutMs;
+    private final long heartbeatMs;
+    private final ExecutorService connectionHandlers = Executors.newVirtualThreadPerTaskExecutor();
+    private final ScheduledExecutorService heartbeat;
+    private volatile ServerSocket listener;
+    private volatile boolean closed = false;
+
+    // peers: "id@host:port,id@host:port,...", the same on every node and including this one
+    public ReplicatedSessionStore(TransactionStateStore local, String selfId, String peers,
+                                  int connectionsPerPeer, int requestTimeoutMs, long heartbeatMs) {
+        this.local = local;
+        this.connectionsPerPeer = Math.max(1, connectionsPerPeer);
+        this.requestTimeoutMs = requestTimeoutMs;
+        this.heartbeatMs = heartbeatMs;
+
+        List<Node> parsed = new ArrayList<>();
+        for (String peer : peers.split(",")) {
+            peer = peer.trim();
+            int at = peer.indexOf('@');
+            int colon = peer.lastIndexOf(':');
+            if (peer.isEmpty()) {
+                continue;
+            }
+            if (at <= 0 || colon < at) {
+                throw new IllegalArgumentException("Invalid session peer '" + peer + "', expected id@host:port");
+            }
+            String id = peer.substring(0, at);
+            for (Node node : parsed) {
+                if (node.id.equals(id)) {
+                    throw new IllegalArgumentException("Session peer " + id + " is listed twice");
+                }
+            }
+            parsed.add(new Node(id, peer.substring(at + 1, colon), Integer.parseInt(peer.substring(colon + 1)), this.connectionsPerPeer));
+        }
+        this.nodes = parsed.toArray(new Node[0]);
+        Node found = null;
+        for (Node node : nodes) {
+            if (node.id.equals(selfId)) {
+                found = node;
+            }
+        }
+        if (found == null) {
+            throw new IllegalArgumentException("Session node id " + selfId + " is not in the peer list " + peers);
+        }
+        this.self = found;
+
+        if (nodes.length > 256) {
+            throw new IllegalArgumentException("At most 256 session peers are supported");
+        }
+        // VIRTUAL_NODES positions per node; the low byte carries the node's index, so one sort
+        // of plain longs orders both
+        long[] points = new long[nodes.length * VIRTUAL_NODES];
+        for (int n = 0; n < nodes.length; n++) {
+            for (int v = 0; v < VIRTUAL_NODES; v++) {
+                points[n * VIRTUAL_NODES + v] = (hash(nodes[n].id + "#" + v) & ~0xFFL) | n;
+            }
+        }
+        Arrays.sort(points);
+        this.ringPoints = points;
+        this.ringNodes = new Node[points.length];
+        for (int i = 0; i < points.length; i++) {
+            ringNodes[i] = nodes[(int) (points[i] & 0xFF)];
+        }
+
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "session-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Listens for peers, pulls the transactions this node is responsible for from the ones that are
+    // up, then starts the heartbeat. Call it once the local store has been restored from its journal.
+    public void start() throws IOException {
+        ServerSocket serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(self.port));
+        listener = serverSocket;
+        Thread acceptor = new Thread(this::acceptPeers, "session-peer-listener");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        log.info("Node {} listening for peers on port {} ({} node(s) in the ring)", self.id, self.port, nodes.length);
+
+        for (Node node : nodes) {
+            if (node != self) {
+                pullFrom(node);
+            }
+        }
+        heartbeat.scheduleWithFixedDelay(this::checkPeers, heartbeatMs, heartbeatMs, TimeUnit.MILLISECONDS);
+    }
+
+    // ---- SessionStore ----
+
+    @Override
+    public void begin(String tokenA, byte[] cardDigest) {
+        route(tokenA, () -> {
+            ownerBegin(tokenA, cardDigest);
+            return null;
+        }, (in, out) -> {
+            request(out, OP_BEGIN, tokenA);
+            writeDigest(out, cardDigest);
+            out.flush();
+            readStatus(in);
+            return null;
+        });
+    }
+
+    @Override
+    public boolean transition(String tokenA, TransactionState state) {
+        if (tokenA == null) {
+            return false;
+        }
+        return route(tokenA, () -> ownerTransition(tokenA, state), (in, out) -> {
+            request(out, OP_TRANSITION, tokenA);
+            out.writeByte(state.ordinal());
+            out.flush();
+            readStatus(in);
+            return in.readBoolean();
+        });
+    }
+
+    @Override
+    public TransactionState state(String tokenA) {
+        if (tokenA == null) {
+            return null;
+        }
+        return route(tokenA, () -> local.state(tokenA), (in, out) -> {
+            request(out, OP_STATE, tokenA);
+            out.flush();
+            readStatus(in);
+            return readState(in);
+        });
+    }
+
+    @Override
+    public boolean isCardOf(String tokenA, byte[] cardDigest) {
+        if (tokenA == null || cardDigest == null) {
+            return false;
+        }
+        return route(tokenA, () -> local.isCardOf(tokenA, cardDigest), (in, out) -> {
+            request(out, OP_IS_CARD_OF, tokenA);
+            writeDigest(out, cardDigest);
+            out.flush();
+            readStatus(in);
+            return in.readBoolean();
+        });
+    }
+
+    @Override
+    public LoginSession loginSession(String tokenA) {
+        if (tokenA == null) {
+            return null;
+        }
+        return route(tokenA, () -> local.loginSession(tokenA), (in, out) -> {
+            request(out, OP_LOGIN_SESSION, tokenA);
+            out.flush();
+            readStatus(in);
+            return readLogin(in);
+        });
+    }
+
+    // Counted by the owner alone, so attempts made through different nodes add up
+    @Override
+    public int recordFailedLogin(String tokenA, int maxAttempts) {
+        if (tokenA == null) {
+            return -1;
+        }
+        return route(tokenA, () -> ownerRecordFailedLogin(tokenA, maxAttempts), (in, out) -> {
+            request(out, OP_RECORD_FAILED_LOGIN, tokenA);
+            out.writeInt(maxAttempts);
+            out.flush();
+            readStatus(in);
+            return in.readInt();
+        });
+    }
+
+    @Override
+    public boolean recordLogin(String tokenA) {
+        if (tokenA == null) {
+            return false;
+        }
+        return route(tokenA, () -> ownerRecordLogin(tokenA), (in, out) -> {
+            request(out, OP_RECORD_LOGIN, tokenA);
+            out.flush();
+            readStatus(in);
+            return in.readBoolean();
+        });
+    }
+
+    // Changes applied on other nodes are made durable there before they answer
+    @Override
+    public CompletableFuture<Void> sync() {
+        return local.sync();
+    }
+
+    @Override
+    public boolean ownsExpiry(String tokenA) {
+        return owner(tokenA) == self;
+    }
+
+    @Override
+    public int size() {
+        return local.size();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        heartbeat.shutdownNow();
+        ServerSocket serverSocket = listener;
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (IOException ignored) {
+            }
+        }
+        connectionHandlers.shutdownNow();
+        for (Node node : nodes) {
+            node.closeConnections();
+        }
+        local.close();
+    }
+
+    // ---- Owner side: applied here, copied to the backup ----
+
+    private void ownerBegin(String tokenA, byte[] cardDigest) {
+        local.begin(tokenA, cardDigest);
+        replicate(tokenA);
+    }
+
+    private boolean ownerTransition(String tokenA, TransactionState state) {
+        boolean changed = local.transition(tokenA, state);
+        if (changed) {
+            replicate(tokenA);
+        }
+        return changed;
+    }
+
+    private int ownerRecordFailedLogin(String tokenA, int maxAttempts) {
+        int attempts = local.recordFailedLogin(tokenA, maxAttempts);
+        if (attempts > 0 && attempts <= maxAttempts) {
+            replicate(tokenA);
+        }
+        return attempts;
+    }
+
+    private boolean ownerRecordLogin(String tokenA) {
+        boolean changed = local.recordLogin(tokenA);
+        if (changed) {
+            replicate(tokenA);
+        }
+        return changed;
+    }
+
+    // Sends the transaction as it now is to the next node up on the ring after this one
+    private void replicate(String tokenA) {
+        local.read(tokenA, (token, state, changedAtMillis, cardDigest, login) -> {
+            int start = ringIndex(hash(token));
+            Node tried = null;
+            for (int i = 0; i < ringNodes.length; i++) {
+                Node backup = ringNodes[(start + i) % ringNodes.length];
+                if (backup == self || backup == tried || !backup.up) {
+                    continue;
+                }
+                tried = backup;
+                try {
+                    exchange(backup, (in, out) -> {
+                        writeCopy(out, OP_REPLICATE, token, state, changedAtMillis, cardDigest, login);
+                        out.flush();
+                        readStatus(in);
+                        return null;
+                    });
+                    return;
+                } catch (IOException e) {
+                    markDown(backup, e);
+                }
+            }
+        });
+    }
+
+    // ---- Routing ----
+
+    // Runs onOwner here when this node owns the tokenA, otherwise the exchange with the owner; an
+    // owner that cannot be reached is marked down and the next one on the ring is tried. A tokenA
+    // too long for the peer protocol is refused whoever owns it, as it could not be copied to a backup.
+    private <T> T route(String tokenA, Supplier<T> onOwner, Exchange<T> remote) {
+        checkToken(tokenA);
+        for (int attempt = 0; attempt < nodes.length; attempt++) {
+            Node owner = owner(tokenA);
+            if (owner == self) {
+                return onOwner.get();
+            }
+            try {
+                return exchange(owner, remote);
+            } catch (IOException e) {
+                markDown(owner, e);
+            }
+        }
+        return onOwner.get();
+    }
+
+    // First node up clockwise from the tokenA's hash; this node when every other one is down
+    private Node owner(String tokenA) {
+        int start = ringIndex(hash(tokenA));
+        for (int i = 0; i < ringNodes.length; i++) {
+            Node node = ringNodes[(start + i) % ringNodes.length];
+            if (node.up) {
+                return node;
+            }
+        }
+        return self;
+    }
+
+    // Whether node is the owner or the backup of tokenA when every node is up
+    private boolean isResponsible(Node node, String tokenA) {
+        int start = ringIndex(hash(tokenA));
+        Node first = null;
+        for (int i = 0; i < ringNodes.length; i++) {
+            Node candidate = ringNodes[(start + i) % ringNodes.length];
+            if (first == null) {
+                first = candidate;
+            } else if (candidate != first) {
+                return candidate == node;
+            }
+            if (candidate == node) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int ringIndex(long hash) {
+        int index = Arrays.binarySearch(ringPoints, hash);
+        index = index >= 0 ? index : -index - 1;
+        return index == ringPoints.length ? 0 : index;
+    }
+
+    // FNV-1a over the UTF-16 code units, then a splitmix64 finalizer to spread the bits; the same on every JVM
+    static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+        return hash ^ (hash >>> 31);
+    }
+
+    // ---- Peer liveness and handoff ----
+
+    private void markDown(Node node, IOException cause) {
+        if (node.up) {
+            node.up = false;
+            log.warn("Peer {} is down ({}), its tokens move to the next node", node.id, cause.toString());
+        }
+        node.closeConnections();
+    }
+
+    private void checkPeers() {
+        for (Node node : nodes) {
+            if (node == self || closed) {
+                continue;
+            }
+            try {
+                exchange(node, (in, out) -> {
+                    out.writeByte(OP_PING);
+                    out.flush();
+                    readStatus(in);
+                    return null;
+                });
+                if (!node.up) {
+                    log.info("Peer {} is back, sending it its transactions", node.id);
+                    pushTo(node);
+                    node.up = true;
+                }
+            } catch (IOException e) {
+                markDown(node, e);
+            } catch (RuntimeException e) {
+                log.error("Heartbeat to {} failed", node.id, e);
+            }
+        }
+    }
+
+    // Copies to node every transaction held here that it owns or backs up
+    private void pushTo(Node node) throws IOException {
+        int[] pushed = {0};
+        IOException[] failure = {null};
+        local.forEach((tokenA, state, changedAtMillis, cardDigest, login) -> {
+            if (failure[0] != null || !isResponsible(node, tokenA)) {
+                return;
+            }
+            try {
+                exchange(node, (in, out) -> {
+                    writeCopy(out, OP_REPLICATE, tokenA, state, changedAtMillis, cardDigest, login);
+                    out.flush();
+                    readStatus(in);
+                    return null;
+                });
+                pushed[0]++;
+            } catch (IOException e) {
+                failure[0] = e;
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        log.info("Sent {} transaction(s) to {}", pushed[0], node.id);
+    }
+
+    // Asks node for the transactions this node owns or backs up, at startup
+    private void pullFrom(Node node) {
+        try {
+            int merged = exchange(node, (in, out) -> {
+                out.writeByte(OP_HANDOFF);
+                out.writeUTF(self.id);
+                out.flush();
+                readStatus(in);
+                int count = 0;
+                while (in.readBoolean()) {
+                    String tokenA = in.readUTF();
+                    TransactionState state = readState(in);
+                    long changedAtMillis = in.readLong();
+                    byte[] cardDigest = readDigest(in);
+                    LoginSession login = readLogin(in);
+                    if (state != null && local.merge(tokenA, state, changedAtMillis, cardDigest, login)) {
+                        count++;
+                    }
+                }
+                return count;
+            });
+            log.info("Merged {} transaction(s) from {}", merged, node.id);
+        } catch (IOException e) {
+            markDown(node, e);
+        }
+    }
+
+    // ---- Server side ----
+
+    private void acceptPeers() {
+        while (!closed) {
+            Socket socket;
+            try {
+                socket = listener.accept();
+            } catch (IOException e) {
+                if (!closed) {
+                    log.warn("Error accepting peer connection: {}", e.getMessage());
+                }
+                continue;
+            }
+            connectionHandlers.execute(() -> servePeer(socket));
+        }
+    }
+
+    // Requests from one peer connection, one at a time; always applied here, never forwarded again
+    private void servePeer(Socket socket) {
+        try (socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            socket.setTcpNoDelay(true);
+            while (!closed) {
+                byte op;
+                try {
+                    op = in.readByte();
+                } catch (EOFException e) {
+                    return; // Peer closed the connection
+                }
+                try {
+                    handle(op, in, out);
+                } catch (RuntimeException e) {
+                    log.error("Error handling peer request {}", op, e);
+                    out.writeByte(STATUS_ERROR);
+                    out.writeUTF(String.valueOf(e.getMessage()));
+                }
+                out.flush();
+            }
+        } catch (SocketException e) {
+            // Connection reset or closed at shutdown
+        } catch (IOException e) {
+            log.warn("Peer connection failed: {}", e.getMessage());
+        }
+    }
+
+    private void handle(byte op, DataInputStream in, DataOutputStream out) throws IOException {
+        switch (op) {
+            case OP_BEGIN -> {
+                String tokenA = in.readUTF();
+                ownerBegin(tokenA, readDigest(in));
+                local.sync().join(); // Durable before the forwarding node sends the link
+                out.writeByte(STATUS_OK);
+            }
+            case OP_TRANSITION -> {
+                String tokenA = in.readUTF();
+                TransactionState state = STATES[in.readByte()];
+                boolean changed = ownerTransition(tokenA, state);
+                local.sync().join();
+                out.writeByte(STATUS_OK);
+                out.writeBoolean(changed);
+            }
+            case OP_STATE -> {
+                String tokenA = in.readUTF();
+                out.writeByte(STATUS_OK);
+                writeState(out, local.state(tokenA));
+            }
+            case OP_IS_CARD_OF -> {
+                String tokenA = in.readUTF();
+                byte[] cardDigest = readDigest(in);
+                out.writeByte(STATUS_OK);
+                out.writeBoolean(local.isCardOf(tokenA, cardDigest));
+            }
+            case OP_LOGIN_SESSION -> {
+                String tokenA = in.readUTF();
+                out.writeByte(STATUS_OK);
+                writeLogin(out, local.loginSession(tokenA));
+            }
+            case OP_RECORD_FAILED_LOGIN -> {
+                String tokenA = in.readUTF();
+                int maxAttempts = in.readInt();
+                int attempts = ownerRecordFailedLogin(tokenA, maxAttempts);
+                out.writeByte(STATUS_OK);
+                out.writeInt(attempts);
+            }
+            case OP_RECORD_LOGIN -> {
+                String tokenA = in.readUTF();
+                boolean changed = ownerRecordLogin(tokenA);
+                out.writeByte(STATUS_OK);
+                out.writeBoolean(changed);
+            }
+            case OP_REPLICATE -> {
+                String tokenA = in.readUTF();
+                TransactionState state = readState(in);
+                long changedAtMillis = in.readLong();
+                byte[] cardDigest = readDigest(in);
+                LoginSession login = readLogin(in);
+                if (state != null) {
+                    local.merge(tokenA, state, changedAtMillis, cardDigest, login);
+                }
+                out.writeByte(STATUS_OK);
+            }
+            case OP_HANDOFF -> {
+                String peerId = in.readUTF();
+                Node peer = null;
+                for (Node node : nodes) {
+                    if (node.id.equals(peerId)) {
+                        peer = node;
+                    }
+                }
+                out.writeByte(STATUS_OK);
+                if (peer != null) {
+                    Node requester = peer;
+                    IOException[] failure = {null};
+                    local.forEach((tokenA, state, changedAtMillis, cardDigest, login) -> {
+                        if (failure[0] != null || !isResponsible(requester, tokenA)) {
+                            return;
+                        }
+                        try {
+                            out.writeBoolean(true);
+                            out.writeUTF(tokenA);
+                            writeState(out, state);
+                            out.writeLong(changedAtMillis);
+                            writeDigest(out, cardDigest);
+                            writeLogin(out, login);
+                        } catch (IOException e) {
+                            failure[0] = e;
+                        }
+                    });
+                    if (failure[0] != null) {
+                        throw failure[0];
+                    }
+                    // A node that asks is up, whatever the heartbeat last saw
+                    peer.up = true;
+                }
+                out.writeBoolean(false);
+            }
+            case OP_PING -> out.writeByte(STATUS_OK);
+            default -> throw new IOException("Unknown peer request " + op);
+        }
+    }
+
+    // ---- Client side ----
+
+    private <T> T exchange(Node node, Exchange<T> exchange) throws IOException {
+        Connection connection = node.idle.poll();
+        if (connection == null) {
+            connection = connect(node);
+        }
+        T result;
+        try {
+            result = exchange.run(connection.in, connection.out);
+        } catch (IOException | RuntimeException e) {
+            connection.close();
+            throw e;
+        }
+        if (closed || !node.idle.offer(connection)) {
+            connection.close();
+        }
+        return result;
+    }
+
+    private Connection connect(Node node) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(node.host, node.port), requestTimeoutMs);
+            socket.setSoTimeout(requestTimeoutMs);
+            socket.setTcpNoDelay(true);
+            return new Connection(socket);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private static void request(DataOutputStream out, byte op, String tokenA) throws IOException {
+        checkToken(tokenA); // Before anything is written, so the connection stays usable
+        out.writeByte(op);
+        out.writeUTF(tokenA);
+    }
+
+    // A local error rather than an I/O one, so the peer is not taken for down
+    private static void checkToken(String tokenA) {
+        if (tokenA.length() <= MAX_TOKEN_BYTES / 3) {
+            return; // At most 3 bytes per char
+        }
+        long bytes = 0;
+        for (int i = 0; i < tokenA.length(); i++) {
+            char c = tokenA.charAt(i);
+            bytes += c >= 0x0001 && c <= 0x007F ? 1 : c <= 0x07FF ? 2 : 3;
+        }
+        if (bytes > MAX_TOKEN_BYTES) {
+            throw new IllegalArgumentException("tokenA of " + tokenA.length() + " characters is too long to share with peers");
+        }
+    }
+
+    private static void readStatus(DataInputStream in) throws IOException {
+        if (in.readByte() != STATUS_OK) {
+            throw new IllegalStateException("Peer failed: " + in.readUTF());
+        }
+    }
+
+    private static void writeCopy(DataOutputStream out, byte op, String tokenA, TransactionState state,
+                                  long changedAtMillis, byte[] cardDigest, LoginSession login) throws IOException {
+        request(out, op, tokenA);
+        writeState(out, state);
+        out.writeLong(changedAtMillis);
+        writeDigest(out, cardDigest);
+        writeLogin(out, login);
+    }
+
+    // Byte length (-1 for null), then the digest
+    private static void writeDigest(DataOutputStream out, byte[] cardDigest) throws IOException {
+        if (cardDigest == null) {
+            out.writeByte(-1);
+            return;
+        }
+        out.writeByte(cardDigest.length);
+        out.write(cardDigest);
+    }
+
+    private static byte[] readDigest(DataInputStream in) throws IOException {
+        int length = in.readByte();
+        if (length < 0) {
+            return null;
+        }
+        byte[] cardDigest = new byte[length];
+        in.readFully(cardDigest);
+        return cardDigest;
+    }
+
+    private static void writeState(DataOutputStream out, TransactionState state) throws IOException {
+        out.writeByte(state == null ? NO_STATE : state.ordinal());
+    }
+
+    private static TransactionState readState(DataInputStream in) throws IOException {
+        byte state = in.readByte();
+        return state == NO_STATE ? null : STATES[state];
+    }
+
+    private static void writeLogin(DataOutputStream out, LoginSession login) throws IOException {
+        out.writeBoolean(login != null);
+        if (login != null) {
+            out.writeBoolean(login.isLoggedIn);
+            out.writeInt(login.attempts);
+        }
+    }
+
+    private static LoginSession readLogin(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        LoginSession login = new LoginSession();
+        login.isLoggedIn = in.readBoolean();
+        login.attempts = in.readInt();
+        return login;
+    }
+
+    private static final class Node {
+        final String id;
+        final String host;
+        final int port;
+        final BlockingQueue<Connection> idle;
+        volatile boolean up = true; // Until a request or the heartbeat says otherwise
+
+        Node(String id, String host, int port, int connections) {
+            this.id = id;
+            this.host = host;
+            this.port = port;
+            this.idle = new ArrayBlockingQueue<>(connections);
+        }
+
+        void closeConnections() {
+            Connection connection;
+            while ((connection = idle.poll()) != null) {
+                connection.close();
+            }
+        }
+    }
+
+    private static final class Connection {
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
+// End of ReplicatedSessionStore.java //
@@ -0,0 +1,88 @@
+// Beggining of SessionStore.java //
+import modules.LoginSession;
+import modules.TransactionState;
+
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Where the ACS keeps the transaction state and bank-login session of each tokenA, between the
+ * enrollment request from ACQ (Step 5) and the user's decision on the web pages (Step 9).
+ *
+ * {@link TransactionStateStore} keeps them in the JVM: the listener that creates a transaction and
+ * the web server that completes it must then be the same process. {@link ReplicatedSessionStore}
+ * shares them between several ACS nodes, so any node can serve any step.
+ *
+ * A LoginSession returned here is a copy taken when it was read; changes go through
+ * recordFailedLogin() and recordLogin().
+ */
+public interface SessionStore extends Closeable {
+    // Step 5: a new transaction, waiting for the user (replaces any previous state of this tokenA).
+    // cardDigest is cardDigest() of the card it pays with, kept until it completes.
+    void begin(String tokenA, byte[] cardDigest);
+
+    // Moves an existing transaction to a new state and restarts its TTL; the login session is
+    // dropped once the transaction is completed. False when the tokenA is unknown or expired.
+    boolean transition(String tokenA, TransactionState state);
+
+    // Current state, or null when the tokenA is unknown or expired
+    TransactionState state(String tokenA);
+
+    default boolean contains(String tokenA) {
+        return state(tokenA) != null;
+    }
+
+    default boolean isPending(String tokenA) {
+        return state(tokenA) == TransactionState.PENDING;
+    }
+
+    // Whether a pending transaction pays with the card of this cardDigest(); false when the tokenA is
+    // unknown, expired or already completed
+    boolean isCardOf(String tokenA, byte[] cardDigest);
+
+    // What binds a transaction to its card: SHA-256 of the tokenA and the card number, so the store
+    // never holds the number itself and equal numbers do not look alike across transactions
+    static byte[] cardDigest(String tokenA, String cardNumber) {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            sha256.update(tokenA.getBytes(StandardCharsets.UTF_8));
+            sha256.update((byte) 0);
+            return sha256.digest(cardNumber.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e); // Required of every JVM
+        }
+    }
+
+    // Login session of a transaction, or null when nobody has tried to log in yet
+    LoginSession loginSession(String tokenA);
+
+    // Counts a bank-login attempt of a pending transaction as failed, under the same lock as every
+    // other change to it, and returns the new count: 1 to maxAttempts when the attempt may go ahead,
+    // maxAttempts + 1 (not stored) once they are all used up. Called before the password is checked,
+    // so concurrent attempts cannot all pass the limit; recordLogin() clears the count on success.
+    // -1 when the tokenA is unknown, expired or already completed.
+    int recordFailedLogin(String tokenA, int maxAttempts);
+
+    // Marks the login session of a pending transaction as logged in and clears its failed attempts;
+    // false when there is no such session (the transaction has since completed)
+    boolean recordLogin(String tokenA);
+
+    // Completes once every change made so far through this store is durable
+    CompletableFuture<Void> sync();
+
+    // Whether this node reports the expiry of tokenA to the merchant. Every copy of a transaction
+    // expires on its own, so with several nodes only the one that owns it must speak.
+    default boolean ownsExpiry(String tokenA) {
+        return true;
+    }
+
+    // Transactions held by this node
+    int size();
+
+    @Override
+    void close();
+}
+// End of SessionStore.java //
@@ -0,0 +1,60 @@
+// Beggining of StaticAsset.java //
+import io.javalin.http.Context;
+import io.javalin.http.Handler;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A file served from memory with a content-hash ETag. Pages link it with "?v=" + version(), so
+ * browsers may cache it for a long time; when the content changes the URL changes with it.
+ * A revalidation with a matching If-None-Match gets 304 and no body.
+ */
+public final class StaticAsset implements Handler {
+    private static final String CACHE_CONTROL = "public, max-age=86400";
+
+    private final byte[] content;
+    private final String contentType;
+    private final String version;
+    private final String etag;
+
+    public StaticAsset(String content, String contentType) {
+        this.content = content.getBytes(StandardCharsets.UTF_8);
+        this.contentType = contentType;
+        this.version = hash(this.content);
+        this.etag = "\"" + version + "\"";
+    }
+
+    // Short content hash, for cache-busting query strings
+    public String version() {
+        return version;
+    }
+
+    @Override
+    public void handle(Context ctx) throws Exception {
+        ctx.header("ETag", etag);
+        ctx.header("Cache-Control", CACHE_CONTROL);
+        String ifNoneMatch = ctx.header("If-None-Match");
+        if (ifNoneMatch != null && (ifNoneMatch.contains(etag) || ifNoneMatch.trim().equals("*"))) {
+            ctx.status(304);
+            return;
+        }
+        ctx.contentType(contentType);
+        ctx.result(content);
+    }
+
+    private static String hash(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            StringBuilder hex = new StringBuilder();
+            for (int i = 0; i < 8; i++) {
+                hex.append(String.format("%02x", digest[i]));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
+// End of StaticAsset.java //
@@ -0,0 +1,168 @@
+// Beggining of TextWireCodec.java //
+import modules.PaymentInfo;
+import modules.ValidationResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Line-based frames, one per line:
+ *   request   "correlationId TAB remainingMs TAB paymentJson"   (MUX/1: no remainingMs field)
+ *   response  "correlationId TAB validationLink-or-ERROR-line"
+ *   ping/pong "TAB PING" / "TAB PONG"
+ * There is no batch frame: a batch is written as consecutive lines with a single flush.
+ */
+public class TextWireCodec extends WireCodec {
+    static final char SEPARATOR = '\t';
+    static final String PING = "PING";
+    static final String PONG = "PONG";
+    private static final Logger log = LoggerFactory.getLogger(TextWireCodec.class);
+
+    private final BufferedReader in;
+    private final Writer out;
+    private final boolean withDeadline;
+
+    public TextWireCodec(InputStream in, OutputStream out, boolean withDeadline) {
+        this.in = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        this.withDeadline = withDeadline;
+    }
+
+    @Override
+    public void writeRequest(String correlationId, long remainingMs, PaymentInfo payment) throws IOException {
+        writeFrame(requestLine(correlationId, remainingMs, payment));
+    }
+
+    @Override
+    public void writeResponse(String correlationId, ValidationResult result) throws IOException {
+        writeFrame(responseLine(correlationId, result));
+    }
+
+    @Override
+    public void writeRequests(List<Frame> requests) throws IOException {
+        synchronized (out) {
+            for (Frame request : requests) {
+                out.write(requestLine(request.correlationId, request.remainingMs, request.payment));
+                out.write('\n');
+            }
+            out.flush();
+        }
+    }
+
+    @Override
+    public void writeResponses(List<Frame> responses) throws IOException {
+        synchronized (out) {
+            for (Frame response : responses) {
+                out.write(responseLine(response.correlationId, response.result));
+                out.write('\n');
+            }
+            out.flush();
+        }
+    }
+
+    @Override
+    public void writePing() throws IOException {
+        writeFrame(SEPARATOR + PING);
+    }
+
+    @Override
+    public void writePong() throws IOException {
+        writeFrame(SEPARATOR + PONG);
+    }
+
+    @Override
+    public Frame readRequest() throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            Frame frame = parseRequest(line, withDeadline);
+            if (frame != null) {
+                return frame;
+            }
+            // Only the length: the frame carries the payment's card data
+            log.warn("Ignoring malformed request frame ({} bytes)", line.length());
+        }
+        return null;
+    }
+
+    @Override
+    public Frame readResponse() throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            Frame frame = parseResponse(line);
+            if (frame != null) {
+                return frame;
+            }
+            log.warn("Ignoring malformed response frame ({} bytes)", line.length());
+        }
+        return null;
+    }
+
+    // null when the line has no correlation id at all (nothing can be answered)
+    static Frame parseRequest(String line, boolean withDeadline) {
+        int separator = line.indexOf(SEPARATOR);
+        if (separator < 0) {
+            return null;
+        }
+        String correlationId = line.substring(0, separator);
+        if (correlationId.isEmpty()) {
+            return PING.equals(line.substring(separator + 1)) ? Frame.PING : null;
+        }
+
+        int payloadStart = separator + 1;
+        long remainingMs = MuxChannelPool.NO_DEADLINE;
+        if (withDeadline) {
+            int deadlineEnd = line.indexOf(SEPARATOR, payloadStart);
+            if (deadlineEnd < 0) {
+                return Frame.invalidRequest(correlationId, ValidationResult.error(ValidationResult.Code.INVALID_REQUEST, "Malformed request frame"));
+            }
+            try {
+                remainingMs = Long.parseLong(line, payloadStart, deadlineEnd, 10);
+            } catch (NumberFormatException e) {
+                return Frame.invalidRequest(correlationId, ValidationResult.error(ValidationResult.Code.INVALID_REQUEST, "Malformed request frame"));
+            }
+            payloadStart = deadlineEnd + 1;
+        }
+
+        try {
+            return Frame.request(correlationId, remainingMs, PaymentJson.parse(line.substring(payloadStart)));
+        } catch (Exception e) {
+            return Frame.invalidRequest(correlationId, ValidationResult.error(ValidationResult.Code.INVALID_REQUEST, "Invalid request format"));
+        }
+    }
+
+    static Frame parseResponse(String line) {
+        int separator = line.indexOf(SEPARATOR);
+        if (separator < 0) {
+            return null;
+        }
+        String correlationId = line.substring(0, separator);
+        String body = line.substring(separator + 1);
+        if (correlationId.isEmpty()) {
+            return PONG.equals(body) ? Frame.PONG : null;
+        }
+        return Frame.response(correlationId, ValidationResult.fromLine(body));
+    }
+
+    private String requestLine(String correlationId, long remainingMs, PaymentInfo payment) {
+        String json = PaymentJson.toJson(payment);
+        return withDeadline
+                ? correlationId + SEPARATOR + remainingMs + SEPARATOR + json
+                : correlationId + SEPARATOR + json;
+    }
+
+    private static String responseLine(String correlationId, ValidationResult result) {
+        return correlationId + SEPARATOR + result.toLine();
+    }
+
+    private void writeFrame(String frame) throws IOException {
+        synchronized (out) {
+            out.write(frame);
+            out.write('\n');
+            out.flush();
+        }
+    }
+}
+// End of TextWireCodec.java //
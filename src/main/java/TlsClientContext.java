@@ -0,0 +1,101 @@
+// Beggining of TlsClientContext.java //
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.File;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Process-wide TLS client setup for outgoing connections.
+ *
+ * The truststore is loaded and the SSLContext built once, instead of on every request. The
+ * context keeps its client session cache between connections, so reconnecting to the same peer
+ * resumes the TLS session instead of running a full handshake. At most once per check interval
+ * the truststore's modification time is compared with the loaded copy; when it changed, a new
+ * context is built and handed out to new connections (existing connections keep theirs).
+ */
+public class TlsClientContext {
+    private static final Logger log = LoggerFactory.getLogger(TlsClientContext.class);
+
+    private final File truststoreFile;
+    private final char[] password;
+    private final int sessionCacheSize;
+    private final int sessionTimeoutSeconds;
+    private final long checkIntervalNanos;
+
+    private volatile SSLContext sslContext;
+    private volatile long loadedLastModified;
+    private volatile long nextCheckNanos;
+
+    public TlsClientContext(String truststorePath, String password, int sessionCacheSize, int sessionTimeoutSeconds, long checkIntervalMs)
+            throws IOException, GeneralSecurityException {
+        this.truststoreFile = new File(truststorePath);
+        this.password = password.toCharArray();
+        this.sessionCacheSize = sessionCacheSize;
+        this.sessionTimeoutSeconds = sessionTimeoutSeconds;
+        this.checkIntervalNanos = TimeUnit.MILLISECONDS.toNanos(checkIntervalMs);
+        this.loadedLastModified = truststoreFile.lastModified();
+        this.sslContext = build();
+        this.nextCheckNanos = System.nanoTime() + checkIntervalNanos;
+    }
+
+    public SSLSocketFactory socketFactory() {
+        return context().getSocketFactory();
+    }
+
+    public SSLContext context() {
+        if (System.nanoTime() - nextCheckNanos >= 0) {
+            reloadIfChanged();
+        }
+        return sslContext;
+    }
+
+    private synchronized void reloadIfChanged() {
+        if (System.nanoTime() - nextCheckNanos < 0) {
+            return; // Another thread just checked
+        }
+        nextCheckNanos = System.nanoTime() + checkIntervalNanos;
+        long lastModified = truststoreFile.lastModified();
+        if (lastModified == loadedLastModified) {
+            return;
+        }
+        try {
+            sslContext = build();
+            loadedLastModified = lastModified;
+            log.info("Reloaded truststore {}", truststoreFile);
+        } catch (IOException | GeneralSecurityException e) {
+            // Keep serving with the previous context, the file may still be being written
+            log.warn("Failed to reload truststore {}: {}", truststoreFile, e.getMessage());
+        }
+    }
+
+    private SSLContext build() throws IOException, GeneralSecurityException {
+        KeyStore trustStore = KeyStore.getInstance("JKS");
+        try (InputStream trustStoreFile = new FileInputStream(truststoreFile)) {
+            trustStore.load(trustStoreFile, password);
+        }
+
+        TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagerFactory.init(trustStore);
+
+        SSLContext context = SSLContext.getInstance("TLS");
+        // Client only: no KeyManagers unless the peer starts requiring client authentication
+        context.init(null, trustManagerFactory.getTrustManagers(), null);
+
+        // Sessions are cached per host:port and resumed on reconnect
+        SSLSessionContext sessions = context.getClientSessionContext();
+        sessions.setSessionCacheSize(sessionCacheSize);
+        sessions.setSessionTimeout(sessionTimeoutSeconds);
+        return context;
+    }
+}
+// End of TlsClientContext.java //
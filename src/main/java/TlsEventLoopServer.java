@@ -0,0 +1,697 @@
+// Beggining of TlsEventLoopServer.java //
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLSession;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * TLS listener on non-blocking SocketChannels and SSLEngine, for the ACQ and ACS ports: a few
+ * event-loop threads serve every connection, instead of a thread (and its stack) per connection
+ * as with SSLServerSocket, so tens of thousands of idle keep-alive channels cost little more than
+ * their SSLEngine.
+ *
+ * One acceptor thread accepts connections and deals them round-robin to the event loops. Each
+ * loop owns a Selector and its connections outright: handshake, decryption, frame splitting (by
+ * the connection's {@link Protocol}), encryption and writes all happen on that loop, so a
+ * connection's state needs no locking. Other threads only hand a loop plaintext to send, through
+ * a queue, and wake it up.
+ *
+ * Buffers are direct and pooled ({@link BufferPool}), and held by a connection only while it has
+ * bytes in progress: a received record not yet complete, a frame not yet complete, or output the
+ * socket did not take yet. Frames are split straight out of the decrypted buffer, without first
+ * being copied into a line or array. Plaintext queued by several threads goes out in one wrap
+ * call (a single TLS record when it fits) and one write.
+ *
+ * One loop per core by default. The JDK offers no way to pin a thread to a CPU; the loops are
+ * long-lived and few, so the OS scheduler keeps them where they run, and taskset or a cgroup
+ * cpuset can pin the process when strict placement is needed.
+ *
+ * Connections that send nothing for readTimeoutMs (or the timeout their protocol sets, see
+ * {@link Connection#setIdleTimeout}) are closed. Beyond maxConnections, a new connection completes
+ * its handshake, gets busyReply and is closed. A connection whose peer stops reading while its
+ * replies pile up is closed once more than maxQueuedBytes of them wait to be sent, rather than
+ * holding them in the heap without bound.
+ */
+public class TlsEventLoopServer implements Closeable {
+    // What a connection does with the bytes it receives; one instance per connection
+    public interface Protocol {
+        // Called on the connection's event loop with the plaintext received so far. Whole frames are
+        // consumed (the position moved past them); a partial frame is left in place for the next call.
+        void onData(Connection connection, ByteBuffer data) throws IOException;
+
+        default void onClosed(Connection connection) {
+        }
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(TlsEventLoopServer.class);
+    private static final long IDLE_CHECK_INTERVAL_MS = 1_000;
+    private static final int MAX_GATHERED_BUFFERS = 16;
+    private static final int NET_BUFFERS_PER_LOOP = 64;
+    private static final int APP_BUFFERS_PER_LOOP = 16;
+    private static final ByteBuffer NOTHING = ByteBuffer.allocate(0);
+
+    private final String name;
+    private final SSLContext sslContext;
+    private final int maxConnections;
+    private final long maxQueuedBytes;
+    private final long readTimeoutNanos;
+    private final byte[] busyReply;
+    private final Function<Connection, Protocol> protocols;
+    private final Metrics.Counter acceptedConnections;
+    private final Metrics.Counter rejectedConnections;
+    private final Metrics.Histogram handshakeSeconds;
+    private final BufferPool netBuffers;
+    private final BufferPool appBuffers;
+    private final EventLoop[] loops;
+    private final ServerSocketChannel serverChannel;
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private int nextLoop; // Acceptor thread only
+    private volatile boolean accepting = true;
+    private volatile boolean closed;
+
+    // maxFrameBytes: largest frame the protocol accepts, which a connection's receive buffer must hold whole;
+    // maxQueuedBytes: plaintext a connection may have waiting to be sent before it is closed
+    public TlsEventLoopServer(String name, SSLContext sslContext, int port, int eventLoops, int maxConnections, int readTimeoutMs,
+                              int maxFrameBytes, long maxQueuedBytes, String busyReply, Metrics.Counter acceptedConnections,
+                              Metrics.Counter rejectedConnections, Metrics.Histogram handshakeSeconds,
+                              Function<Connection, Protocol> protocols) throws IOException {
+        this.name = name;
+        this.sslContext = sslContext;
+        this.maxConnections = maxConnections;
+        this.maxQueuedBytes = maxQueuedBytes;
+        this.readTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(readTimeoutMs);
+        this.busyReply = busyReply.getBytes(StandardCharsets.UTF_8);
+        this.protocols = protocols;
+        this.acceptedConnections = acceptedConnections;
+        this.rejectedConnections = rejectedConnections;
+        this.handshakeSeconds = handshakeSeconds;
+
+        SSLSession probe = sslContext.createSSLEngine().getSession();
+        int loopCount = Math.max(1, eventLoops);
+        this.netBuffers = new BufferPool(probe.getPacketBufferSize(), NET_BUFFERS_PER_LOOP * loopCount);
+        // Room for a whole frame still incomplete, plus the next record decrypted behind it
+        this.appBuffers = new BufferPool(maxFrameBytes + probe.getApplicationBufferSize(), APP_BUFFERS_PER_LOOP * loopCount);
+
+        this.loops = new EventLoop[loopCount];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(name + "-loop-" + i);
+        }
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), 1024);
+    }
+
+    // Starts the event loops, then accepts connections on the calling thread until stopAccepting()
+    public void serve() {
+        for (EventLoop loop : loops) {
+            loop.thread.start();
+        }
+        log.info("{} listening on port {} ({} event loops, max {} connections)",
+                name, serverChannel.socket().getLocalPort(), loops.length, maxConnections);
+        while (accepting) {
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                if (!accepting) {
+                    break;
+                }
+                log.warn("{}: Error accepting connection: {}", name, e.getMessage());
+                continue;
+            }
+            accept(channel);
+        }
+        log.info("{}: Listener stopped", name);
+    }
+
+    public int activeConnections() {
+        return activeConnections.get();
+    }
+
+    // Stops taking new connections; the open ones keep being served
+    public void stopAccepting() {
+        accepting = false;
+        try {
+            serverChannel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    // Stops accepting and closes every connection
+    @Override
+    public void close() {
+        stopAccepting();
+        closed = true;
+        for (EventLoop loop : loops) {
+            loop.selector.wakeup();
+        }
+    }
+
+    // Whatever goes wrong with one accepted socket closes that socket only, the listener carries on
+    private void accept(SocketChannel channel) {
+        boolean counted = false;
+        try {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            boolean rejecting = activeConnections.get() >= maxConnections;
+            if (rejecting) {
+                rejectedConnections.increment();
+                log.warn("{}: Too many connections, rejecting {}", name, channel.socket().getInetAddress());
+            } else {
+                acceptedConnections.increment();
+                activeConnections.incrementAndGet();
+                counted = true;
+            }
+            SSLEngine engine = sslContext.createSSLEngine();
+            engine.setUseClientMode(false);
+            EventLoop loop = loops[Math.floorMod(nextLoop++, loops.length)];
+            Connection connection = new Connection(loop, channel, engine, rejecting);
+            counted = false; // From here the connection gives its slot back when it closes
+            loop.execute(() -> loop.register(connection));
+        } catch (IOException e) {
+            log.warn("{}: Could not set up connection: {}", name, e.getMessage());
+            discard(channel, counted);
+        } catch (RuntimeException e) {
+            log.warn("{}: Could not set up connection", name, e);
+            discard(channel, counted);
+        }
+    }
+
+    private void discard(SocketChannel channel, boolean counted) {
+        if (counted) {
+            activeConnections.decrementAndGet();
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    // One selector thread and the connections assigned to it
+    private final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Thread thread;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean wakeupPending = new AtomicBoolean();
+
+        EventLoop(String threadName) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, threadName);
+            thread.setDaemon(true);
+        }
+
+        // Runs the task on this loop; callable from any thread
+        void execute(Runnable task) {
+            tasks.add(task);
+            if (Thread.currentThread() != thread && wakeupPending.compareAndSet(false, true)) {
+                selector.wakeup();
+            }
+        }
+
+        void register(Connection connection) {
+            try {
+                connection.key = connection.channel.register(selector, SelectionKey.OP_READ, connection);
+                connection.engine.beginHandshake();
+                if (!connection.rejecting) {
+                    connection.protocol = protocols.apply(connection);
+                }
+            } catch (IOException e) {
+                connection.closeNow(e.getMessage());
+            } catch (RuntimeException e) {
+                log.warn("{}: Could not set up connection from {}", name, connection.remoteAddress, e);
+                connection.closeNow(null);
+            }
+        }
+
+        @Override
+        public void run() {
+            long nextIdleCheck = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(IDLE_CHECK_INTERVAL_MS);
+            while (!closed) {
+                try {
+                    if (tasks.isEmpty()) {
+                        selector.select(IDLE_CHECK_INTERVAL_MS);
+                    } else {
+                        selector.selectNow();
+                    }
+                    wakeupPending.set(false);
+                    Set<SelectionKey> ready = selector.selectedKeys();
+                    for (SelectionKey key : ready) {
+                        Connection connection = (Connection) key.attachment();
+                        if (key.isValid() && key.isWritable()) {
+                            connection.onWritable();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            connection.onReadable();
+                        }
+                    }
+                    ready.clear();
+                    // Only the tasks queued so far, so a task that queues another cannot hold up the selector
+                    for (int pending = tasks.size(); pending > 0; pending--) {
+                        tasks.poll().run();
+                    }
+                    long now = System.nanoTime();
+                    if (now - nextIdleCheck >= 0) {
+                        closeIdle(now);
+                        nextIdleCheck = now + TimeUnit.MILLISECONDS.toNanos(IDLE_CHECK_INTERVAL_MS);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    log.error("{}: Unexpected error in event loop", name, e);
+                }
+            }
+            for (SelectionKey key : selector.keys().toArray(new SelectionKey[0])) {
+                ((Connection) key.attachment()).closeNow("server closed");
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        private void closeIdle(long now) {
+            for (SelectionKey key : selector.keys().toArray(new SelectionKey[0])) {
+                Connection connection = (Connection) key.attachment();
+                if (now - connection.lastReadNanos > connection.idleTimeoutNanos) {
+                    connection.closeNow("nothing received for " + TimeUnit.NANOSECONDS.toMillis(connection.idleTimeoutNanos) + " ms");
+                }
+            }
+        }
+    }
+
+    /**
+     * One accepted connection. Everything but send(), closeAfterFlush(), close() and
+     * outputStream() is called on its event loop only.
+     */
+    public final class Connection {
+        private final EventLoop loop;
+        private final SocketChannel channel;
+        private final SSLEngine engine;
+        private final boolean rejecting;
+        private final InetAddress remoteAddress;
+        private final long acceptedNanos = System.nanoTime();
+        // Plaintext waiting to be encrypted, in order; added by any thread, taken by the loop
+        private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+        // Plaintext bytes in outbound not yet encrypted, held under maxQueuedBytes
+        private final AtomicLong queuedBytes = new AtomicLong();
+        private final AtomicBoolean flushScheduled = new AtomicBoolean();
+        private final ByteBuffer[] gathered = new ByteBuffer[MAX_GATHERED_BUFFERS];
+        private SelectionKey key;
+        private Protocol protocol;
+        // Pooled, null while the connection has nothing in progress
+        private ByteBuffer netIn;
+        private ByteBuffer appIn;
+        private ByteBuffer netOut;
+        private boolean handshaken;
+        private long lastReadNanos = acceptedNanos;
+        private volatile long idleTimeoutNanos = readTimeoutNanos;
+        private volatile boolean closeWhenFlushed;
+        private volatile boolean overflowed; // Went past maxQueuedBytes, close() is on its way
+        private volatile boolean closed;
+        private OutputStream outputStream;
+
+        private Connection(EventLoop loop, SocketChannel channel, SSLEngine engine, boolean rejecting) {
+            this.loop = loop;
+            this.channel = channel;
+            this.engine = engine;
+            this.rejecting = rejecting;
+            this.remoteAddress = channel.socket().getInetAddress();
+        }
+
+        public InetAddress remoteAddress() {
+            return remoteAddress;
+        }
+
+        // Close the connection after this long without receiving anything
+        public void setIdleTimeout(long timeoutMs) {
+            idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        }
+
+        // Queues plaintext to send; the buffer must not be modified afterwards. False, and nothing
+        // queued, when the connection is closed or already has maxQueuedBytes waiting (it is then
+        // closed: its peer is not reading what it is sent)
+        public boolean send(ByteBuffer data) {
+            if (closed || overflowed) {
+                return false;
+            }
+            if (queuedBytes.addAndGet(data.remaining()) > maxQueuedBytes) {
+                overflowed = true;
+                log.warn("{}: Closing connection from {}: more than {} bytes waiting to be sent",
+                        name, remoteAddress, maxQueuedBytes);
+                close();
+                return false;
+            }
+            outbound.add(data);
+            if (flushScheduled.compareAndSet(false, true)) {
+                loop.execute(this::flushQueued);
+            }
+            return true;
+        }
+
+        // Sends what is queued, then closes
+        public void closeAfterFlush() {
+            closeWhenFlushed = true;
+            if (flushScheduled.compareAndSet(false, true)) {
+                loop.execute(this::flushQueued);
+            }
+        }
+
+        public void close() {
+            loop.execute(() -> closeNow(null));
+        }
+
+        // For WireCodec: each flush() sends what was written since the previous one
+        public synchronized OutputStream outputStream() {
+            if (outputStream == null) {
+                outputStream = new ConnectionOutputStream(this);
+            }
+            return outputStream;
+        }
+
+        private void onReadable() {
+            if (netIn == null) {
+                netIn = netBuffers.acquire();
+            }
+            int read;
+            try {
+                read = channel.read(netIn);
+            } catch (IOException e) {
+                closeNow(e.getMessage());
+                return;
+            }
+            if (read < 0) {
+                closeNow(null);
+                return;
+            }
+            lastReadNanos = System.nanoTime();
+            process();
+        }
+
+        private void onWritable() {
+            try {
+                if (flush()) {
+                    if (closeWhenFlushed && outbound.isEmpty()) {
+                        closeNow(null);
+                    } else {
+                        process(); // A handshake may have been waiting for its output to go out
+                    }
+                }
+            } catch (IOException e) {
+                closeNow(e.getMessage());
+            }
+        }
+
+        private void flushQueued() {
+            flushScheduled.set(false);
+            if (closed) {
+                return;
+            }
+            try {
+                if (flush() && closeWhenFlushed && outbound.isEmpty()) {
+                    closeNow(null);
+                }
+            } catch (IOException e) {
+                closeNow(e.getMessage());
+            }
+        }
+
+        // Drives the handshake and decrypts what was received, handing the plaintext to the protocol
+        private void process() {
+            try {
+                while (!closed) {
+                    HandshakeStatus status = engine.getHandshakeStatus();
+                    if (status == HandshakeStatus.NEED_TASK) {
+                        runDelegatedTasks();
+                        continue;
+                    }
+                    if (status == HandshakeStatus.NEED_WRAP) {
+                        if (!flush()) {
+                            break; // Resumed by onWritable
+                        }
+                        continue;
+                    }
+                    if (netIn == null || netIn.position() == 0) {
+                        break;
+                    }
+                    if (appIn == null) {
+                        appIn = appBuffers.acquire();
+                    }
+                    netIn.flip();
+                    SSLEngineResult result = engine.unwrap(netIn, appIn);
+                    netIn.compact();
+                    if (result.getHandshakeStatus() == HandshakeStatus.FINISHED) {
+                        onHandshakeFinished();
+                    }
+                    if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                        break; // Rest of the record not received yet
+                    }
+                    if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        closeNow(null);
+                        return;
+                    }
+                    if (result.bytesProduced() > 0 || result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                        deliver();
+                        if (!closed && result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW
+                                && appIn.remaining() < engine.getSession().getApplicationBufferSize()) {
+                            throw new IOException("Frame larger than " + (appBuffers.bufferSize() - engine.getSession().getApplicationBufferSize()) + " bytes");
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                closeNow(e.getMessage());
+                return;
+            }
+            releaseIdleBuffers();
+        }
+
+        private void deliver() throws IOException {
+            ByteBuffer data = appIn;
+            data.flip();
+            if (protocol != null) {
+                protocol.onData(this, data);
+            } else {
+                data.position(data.limit()); // Being rejected: whatever it sends is ignored
+            }
+            if (!closed) {
+                data.compact();
+            }
+        }
+
+        private void onHandshakeFinished() {
+            handshaken = true;
+            handshakeSeconds.observeSince(acceptedNanos);
+            if (rejecting) {
+                send(ByteBuffer.wrap(busyReply));
+                closeAfterFlush();
+            } else if (!outbound.isEmpty() && flushScheduled.compareAndSet(false, true)) {
+                loop.execute(this::flushQueued);
+            }
+        }
+
+        // Encrypts handshake messages and queued plaintext into netOut and writes it. False when the
+        // socket did not take everything; OP_WRITE then calls back once it can take more.
+        private boolean flush() throws IOException {
+            if (netOut != null && netOut.position() > 0 && !writeNet()) {
+                return false;
+            }
+            while (true) {
+                HandshakeStatus status = engine.getHandshakeStatus();
+                int count = status == HandshakeStatus.NEED_WRAP || !handshaken ? 0 : gather();
+                if (status != HandshakeStatus.NEED_WRAP && count == 0) {
+                    break;
+                }
+                if (netOut == null) {
+                    netOut = netBuffers.acquire();
+                }
+                SSLEngineResult result = count == 0
+                        ? engine.wrap(NOTHING, netOut)
+                        : engine.wrap(gathered, 0, count, netOut);
+                if (count > 0) {
+                    queuedBytes.addAndGet(-result.bytesConsumed());
+                    dropSent(count);
+                }
+                if (result.getHandshakeStatus() == HandshakeStatus.FINISHED) {
+                    onHandshakeFinished();
+                } else if (result.getHandshakeStatus() == HandshakeStatus.NEED_TASK) {
+                    runDelegatedTasks();
+                }
+                if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                    // netOut is full: write it out, then carry on
+                    if (!writeNet()) {
+                        return false;
+                    }
+                    continue;
+                }
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED
+                        || (result.bytesConsumed() == 0 && result.bytesProduced() == 0)) {
+                    break;
+                }
+            }
+            return netOut == null || writeNet();
+        }
+
+        // The first queued buffers, in order, as the sources of one wrap call
+        private int gather() {
+            int count = 0;
+            for (ByteBuffer buffer : outbound) {
+                if (count == gathered.length) {
+                    break;
+                }
+                gathered[count++] = buffer;
+            }
+            return count;
+        }
+
+        private void dropSent(int count) {
+            for (int i = 0; i < count && !gathered[i].hasRemaining(); i++) {
+                outbound.poll();
+            }
+            Arrays.fill(gathered, 0, count, null);
+        }
+
+        private boolean writeNet() throws IOException {
+            netOut.flip();
+            channel.write(netOut);
+            if (netOut.hasRemaining()) {
+                netOut.compact();
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return false;
+            }
+            netBuffers.release(netOut);
+            netOut = null;
+            if ((key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+            return true;
+        }
+
+        private void runDelegatedTasks() {
+            Runnable task;
+            while ((task = engine.getDelegatedTask()) != null) {
+                task.run();
+            }
+        }
+
+        // Gives back the buffers that hold nothing in progress
+        private void releaseIdleBuffers() {
+            if (netIn != null && netIn.position() == 0) {
+                netBuffers.release(netIn);
+                netIn = null;
+            }
+            if (appIn != null && appIn.position() == 0) {
+                appBuffers.release(appIn);
+                appIn = null;
+            }
+        }
+
+        private void closeNow(String reason) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (reason != null) {
+                log.debug("{}: Closing connection from {}: {}", name, remoteAddress, reason);
+            }
+            if (handshaken && key != null) {
+                try {
+                    // Best effort close_notify, no waiting for the socket
+                    engine.closeOutbound();
+                    flush();
+                } catch (IOException | RuntimeException ignored) {
+                }
+            }
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            for (ByteBuffer buffer : new ByteBuffer[]{netIn, netOut}) {
+                if (buffer != null) {
+                    netBuffers.release(buffer);
+                }
+            }
+            if (appIn != null) {
+                appBuffers.release(appIn);
+            }
+            netIn = appIn = netOut = null;
+            outbound.clear();
+            if (!rejecting) {
+                activeConnections.decrementAndGet();
+            }
+            if (protocol != null) {
+                protocol.onClosed(this);
+            }
+        }
+    }
+
+    // Collects what a codec writes; flush() hands it to the connection as one buffer
+    private static final class ConnectionOutputStream extends OutputStream {
+        private final Connection connection;
+        private byte[] pending = new byte[256];
+        private int count;
+
+        ConnectionOutputStream(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            ensureCapacity(1);
+            pending[count++] = (byte) b;
+        }
+
+        @Override
+        public synchronized void write(byte[] bytes, int offset, int length) {
+            ensureCapacity(length);
+            System.arraycopy(bytes, offset, pending, count, length);
+            count += length;
+        }
+
+        @Override
+        public synchronized void flush() throws IOException {
+            if (count == 0) {
+                return;
+            }
+            boolean sent = !connection.closed && connection.send(ByteBuffer.wrap(Arrays.copyOf(pending, count)));
+            count = 0;
+            if (!sent) {
+                throw new IOException("Connection closed");
+            }
+        }
+
+        private void ensureCapacity(int extra) {
+            if (count + extra > pending.length) {
+                pending = Arrays.copyOf(pending, Math.max(pending.length * 2, count + extra));
+            }
+        }
+    }
+}
+// End of TlsEventLoopServer.java //
@@ -0,0 +1,473 @@
+// Beggining of TransactionJournal.java //
+import modules.LoginSession;
+import modules.TransactionState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of the TransactionStateStore, so a restart of the ACS keeps every in-flight
+ * challenge: its state, when it last changed (the rest of its TTL) and its login attempts.
+ *
+ * The store appends each change under the entry's lock; a single writer thread takes everything
+ * queued since its last write, writes it in one go and forces it once (group commit). sync()
+ * resolves once everything appended before it is durable, for the steps that must not be lost.
+ *
+ * Files live in one directory, by generation:
+ *
+ *   snapshot-<n>.dat   every live transaction when generation n started
+ *   journal-<n>.log    changes made during generation n
+ *
+ * Both use the same record format: [int length][int crc32][type][tokenA][fields]. A BEGIN record
+ * carries the digest binding the transaction to its card after its time, and a snapshot writes
+ * each PENDING transaction as a BEGIN to keep it (older BEGIN records, without one, still replay).
+ * Records are
+ * absolute (the new state, the new attempt count), so replaying one twice is harmless. Every
+ * snapshotIntervalMs, or once the journal grows past maxJournalBytes, the writer starts
+ * generation n+1 and writes its snapshot from the store; the files of older generations are
+ * deleted once that snapshot is in place. Recovery loads the newest complete snapshot and replays
+ * the journals from its generation on, reading the files through memory maps, and stops at the
+ * first torn or corrupt record.
+ */
+public class TransactionJournal implements TransactionStateStore.Journal, Closeable {
+    private static final Logger log = LoggerFactory.getLogger(TransactionJournal.class);
+    private static final byte BEGIN = 1;
+    private static final byte STATE = 2;
+    private static final byte LOGIN = 3;
+    private static final byte REMOVE = 4;
+    private static final byte SYNC = 5;  // Queue marker only, never written
+    private static final byte STOP = 6;  // Queue marker only, never written
+
+    private static final int MAX_BATCH = 4096;
+    private static final int HEADER_BYTES = 8;
+    private static final Pattern FILE_NAME = Pattern.compile("(snapshot|journal)-(\\d+)\\.(dat|log|tmp)");
+    private static final TransactionState[] STATES = TransactionState.values();
+
+    private final Path directory;
+    private final TransactionStateStore store;
+    private final long snapshotIntervalMs;
+    private final long maxJournalBytes;
+    private final BlockingQueue<Record> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    // Writer thread only (and open() before it starts)
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+    private FileChannel journal;
+    private long generation;
+    private long journalBytes;
+    private long lastSnapshotMillis;
+    private volatile boolean closed;
+
+    private TransactionJournal(Path directory, TransactionStateStore store, long snapshotIntervalMs, long maxJournalBytes) {
+        this.directory = directory;
+        this.store = store;
+        this.snapshotIntervalMs = snapshotIntervalMs;
+        this.maxJournalBytes = maxJournalBytes;
+        this.writer = new Thread(this::writeLoop, "transaction-journal");
+    }
+
+    // Restores the store from the directory, then journals its changes from here on
+    public static TransactionJournal open(String directory, TransactionStateStore store, long snapshotIntervalMs,
+                                          long maxJournalBytes) throws IOException {
+        Path path = Paths.get(directory);
+        Files.createDirectories(path);
+        TransactionJournal journal = new TransactionJournal(path, store, snapshotIntervalMs, maxJournalBytes);
+        long started = System.nanoTime();
+        int restored = journal.recover();
+        // Changes made from now on queue up for the writer; the first snapshot already includes
+        // them or they land in the new journal right after it, replaying them again is harmless
+        store.setJournal(journal);
+        journal.snapshot();
+        journal.writer.start();
+        log.info("Restored {} transaction(s) from {} in {} ms", restored, directory,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        return journal;
+    }
+
+    @Override
+    public void begun(String tokenA, byte[] cardDigest, long atMillis) {
+        queue.add(new Record(BEGIN, tokenA, atMillis, null, cardDigest, false, 0, null));
+    }
+
+    @Override
+    public void transitioned(String tokenA, TransactionState state, long atMillis) {
+        queue.add(new Record(STATE, tokenA, atMillis, state, null, false, 0, null));
+    }
+
+    @Override
+    public void loginRecorded(String tokenA, boolean loggedIn, int attempts) {
+        queue.add(new Record(LOGIN, tokenA, 0, null, null, loggedIn, attempts, null));
+    }
+
+    @Override
+    public void removed(String tokenA) {
+        queue.add(new Record(REMOVE, tokenA, 0, null, null, false, 0, null));
+    }
+
+    @Override
+    public CompletableFuture<Void> sync() {
+        if (closed) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Transaction journal is closed"));
+        }
+        CompletableFuture<Void> durable = new CompletableFuture<>();
+        queue.add(new Record(SYNC, null, 0, null, null, false, 0, durable));
+        return durable;
+    }
+
+    // Writes out what is queued and stops; the next open() replays it
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        store.setJournal(null);
+        queue.add(new Record(STOP, null, 0, null, null, false, 0, null));
+        try {
+            writer.join(5_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ---- Recovery ----
+
+    // Transaction being rebuilt from the records
+    private static final class Recovered {
+        TransactionState state;
+        long changedAtMillis;
+        byte[] cardDigest;
+        LoginSession login;
+    }
+
+    private int recover() throws IOException {
+        TreeMap<Long, Path> snapshots = new TreeMap<>();
+        TreeMap<Long, Path> journals = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Matcher matcher = FILE_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches() && !matcher.group(3).equals("tmp")) {
+                    (matcher.group(1).equals("snapshot") ? snapshots : journals).put(Long.parseLong(matcher.group(2)), file);
+                }
+            }
+        }
+        long base = snapshots.isEmpty() ? 0 : snapshots.lastKey();
+        generation = Math.max(base, journals.isEmpty() ? 0 : journals.lastKey());
+
+        Map<String, Recovered> recovered = new HashMap<>();
+        if (!snapshots.isEmpty()) {
+            replay(snapshots.lastEntry().getValue(), recovered);
+        }
+        for (Path file : journals.tailMap(base, true).values()) {
+            replay(file, recovered);
+        }
+        for (Map.Entry<String, Recovered> entry : recovered.entrySet()) {
+            Recovered transaction = entry.getValue();
+            store.restore(entry.getKey(), transaction.state, transaction.changedAtMillis, transaction.cardDigest, transaction.login);
+        }
+        return recovered.size();
+    }
+
+    private static void replay(Path file, Map<String, Recovered> recovered) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(file + " is larger than 2 GB");
+            }
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            CRC32 crc = new CRC32();
+            byte[] token = new byte[256];
+            int records = 0;
+            while (map.remaining() >= HEADER_BYTES) {
+                int start = map.position();
+                int length = map.getInt();
+                int checksum = map.getInt();
+                if (length <= 0 || length > map.remaining()) {
+                    log.warn("Torn record at offset {} of {}, ignoring the rest", start, file);
+                    break;
+                }
+                crc.reset();
+                crc.update(map.slice(map.position(), length));
+                if ((int) crc.getValue() != checksum) {
+                    log.warn("Corrupt record at offset {} of {}, ignoring the rest", start, file);
+                    break;
+                }
+                byte type = map.get();
+                int tokenLength = map.getShort() & 0xFFFF;
+                if (tokenLength > token.length) {
+                    token = new byte[tokenLength];
+                }
+                map.get(token, 0, tokenLength);
+                String tokenA = new String(token, 0, tokenLength, StandardCharsets.UTF_8);
+                switch (type) {
+                    case BEGIN -> {
+                        Recovered transaction = new Recovered();
+                        transaction.state = TransactionState.PENDING;
+                        transaction.changedAtMillis = map.getLong();
+                        if (length > 1 + 2 + tokenLength + 8) {
+                            transaction.cardDigest = new byte[map.get() & 0xFF];
+                            map.get(transaction.cardDigest);
+                        }
+                        recovered.put(tokenA, transaction);
+                    }
+                    case STATE -> {
+                        long atMillis = map.getLong();
+                        TransactionState state = STATES[map.get()];
+                        Recovered transaction = recovered.computeIfAbsent(tokenA, key -> new Recovered());
+                        transaction.state = state;
+                        transaction.changedAtMillis = atMillis;
+                        if (state.isCompleted()) {
+                            transaction.login = null;
+                            transaction.cardDigest = null;
+                        }
+                    }
+                    case LOGIN -> {
+                        boolean loggedIn = map.get() != 0;
+                        int attempts = map.getInt();
+                        Recovered transaction = recovered.get(tokenA);
+                        if (transaction != null) {
+                            transaction.login = new LoginSession();
+                            transaction.login.isLoggedIn = loggedIn;
+                            transaction.login.attempts = attempts;
+                        }
+                    }
+                    case REMOVE -> recovered.remove(tokenA);
+                    default -> {
+                        log.warn("Unknown record type {} at offset {} of {}, ignoring the rest", type, start, file);
+                        return;
+                    }
+                }
+                map.position(start + HEADER_BYTES + length);
+                records++;
+            }
+            log.info("Replayed {} record(s) from {}", records, file);
+        }
+    }
+
+    // ---- Writing (writer thread) ----
+
+    private void writeLoop() {
+        List<Record> batch = new ArrayList<>();
+        boolean stopping = false;
+        while (!stopping) {
+            try {
+                Record first = queue.poll(Math.max(1, snapshotIntervalMs), TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH);
+                }
+            } catch (InterruptedException e) {
+                break;
+            }
+            IOException failure = null;
+            try {
+                for (Record record : batch) {
+                    if (record.type == STOP) {
+                        stopping = true;
+                    } else if (record.type != SYNC) {
+                        encode(record);
+                    }
+                }
+                flush();
+            } catch (IOException e) {
+                log.error("Failed to write journal", e);
+                buffer.clear();
+                failure = e;
+            }
+            for (Record record : batch) {
+                if (record.durable != null) {
+                    if (failure == null) {
+                        record.durable.complete(null);
+                    } else {
+                        record.durable.completeExceptionally(failure);
+                    }
+                }
+            }
+            batch.clear();
+            long now = System.currentTimeMillis();
+            if (!stopping && journalBytes > 0 && (journalBytes >= maxJournalBytes || now - lastSnapshotMillis >= snapshotIntervalMs)) {
+                try {
+                    snapshot();
+                } catch (IOException e) {
+                    log.error("Failed to write snapshot", e);
+                }
+            }
+        }
+        for (Record record; (record = queue.poll()) != null; ) {
+            if (record.durable != null) {
+                record.durable.completeExceptionally(new IllegalStateException("Transaction journal is closed"));
+            }
+        }
+        try {
+            journal.close();
+        } catch (IOException e) {
+            log.warn("Failed to close journal: {}", e.getMessage());
+        }
+    }
+
+    // Starts the next generation: a new journal, then a snapshot of the store. Everything in the
+    // older journals was applied to the store before it was written, so the snapshot covers it.
+    private void snapshot() throws IOException {
+        long next = generation + 1;
+        FileChannel nextJournal = FileChannel.open(directory.resolve("journal-" + next + ".log"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        if (journal != null) {
+            journal.close();
+        }
+        journal = nextJournal;
+        journalBytes = 0;
+        generation = next;
+
+        Path temporary = directory.resolve("snapshot-" + next + ".tmp");
+        int[] count = new int[1];
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            IOException[] failure = new IOException[1];
+            store.forEach((tokenA, state, changedAtMillis, cardDigest, login) -> {
+                if (failure[0] != null) {
+                    return;
+                }
+                try {
+                    encode(state == TransactionState.PENDING
+                            ? new Record(BEGIN, tokenA, changedAtMillis, null, cardDigest, false, 0, null)
+                            : new Record(STATE, tokenA, changedAtMillis, state, null, false, 0, null));
+                    if (login != null) {
+                        encode(new Record(LOGIN, tokenA, 0, null, null, login.isLoggedIn, login.attempts, null));
+                    }
+                    count[0]++;
+                    if (buffer.position() > buffer.capacity() / 2) {
+                        drain(channel);
+                    }
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+            drain(channel);
+            channel.force(true);
+        }
+        Files.move(temporary, directory.resolve("snapshot-" + next + ".dat"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        lastSnapshotMillis = System.currentTimeMillis();
+
+        // The new snapshot is in place: older generations are no longer needed
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Matcher matcher = FILE_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches() && Long.parseLong(matcher.group(2)) < next) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private void encode(Record record) {
+        byte[] token = record.tokenA.getBytes(StandardCharsets.UTF_8);
+        if (token.length > 0xFFFF) {
+            log.warn("tokenA of {} bytes is too long to journal, skipping", token.length);
+            return;
+        }
+        int length = 1 + 2 + token.length + switch (record.type) {
+            case BEGIN -> record.cardDigest == null ? 8 : 8 + 1 + record.cardDigest.length;
+            case STATE -> 9;
+            case LOGIN -> 5;
+            default -> 0;
+        };
+        ensure(HEADER_BYTES + length);
+        int start = buffer.position();
+        buffer.putInt(length);
+        buffer.putInt(0); // crc32, filled in below
+        buffer.put(record.type);
+        buffer.putShort((short) token.length);
+        buffer.put(token);
+        switch (record.type) {
+            case BEGIN -> {
+                buffer.putLong(record.atMillis);
+                if (record.cardDigest != null) {
+                    buffer.put((byte) record.cardDigest.length).put(record.cardDigest);
+                }
+            }
+            case STATE -> buffer.putLong(record.atMillis).put((byte) record.state.ordinal());
+            case LOGIN -> buffer.put((byte) (record.loggedIn ? 1 : 0)).putInt(record.attempts);
+            default -> {
+            }
+        }
+        crc.reset();
+        crc.update(buffer.slice(start + HEADER_BYTES, length));
+        buffer.putInt(start + 4, (int) crc.getValue());
+    }
+
+    private void ensure(int bytes) {
+        if (buffer.remaining() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+    }
+
+    private void flush() throws IOException {
+        if (buffer.position() == 0) {
+            return;
+        }
+        journalBytes += buffer.position();
+        drain(journal);
+        journal.force(false);
+    }
+
+    private void drain(FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static final class Record {
+        final byte type;
+        final String tokenA;
+        final long atMillis;
+        final TransactionState state;
+        final byte[] cardDigest; // BEGIN only, may be null
+        final boolean loggedIn;
+        final int attempts;
+        final CompletableFuture<Void> durable; // SYNC only
+
+        Record(byte type, String tokenA, long atMillis, TransactionState state, byte[] cardDigest, boolean loggedIn,
+               int attempts, CompletableFuture<Void> durable) {
+            this.type = type;
+            this.tokenA = tokenA;
+            this.atMillis = atMillis;
+            this.state = state;
+            this.cardDigest = cardDigest;
+            this.loggedIn = loggedIn;
+            this.attempts = attempts;
+            this.durable = durable;
+        }
+    }
+}
+// End of TransactionJournal.java //
@@ -0,0 +1,490 @@
+// Beggining of TransactionStateStore.java //
+import modules.LoginSession;
+import modules.TransactionState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * State of every tokenA the ACS knows about, with its bank-login session, bounded in time and size.
+ *
+ * Each state has a time to live: a PENDING transaction the user never finishes expires after
+ * pendingTtlMs, a CONFIRMED or CANCELLED one is kept for completedTtlMs so late page loads still
+ * find it, then dropped. Expiry uses a hashed timing wheel: one bucket per tick, sized to cover
+ * the longest TTL, and a sweeper thread that empties the bucket of the tick that just passed, so
+ * the cost is proportional to what expires rather than to the number of transactions.
+ *
+ * At maxEntries the transaction closest to expiry is evicted to make room. Every expired or
+ * evicted transaction is reported to the listener (ACS tells the merchant a PENDING one failed).
+ *
+ * With a Journal attached every change is also appended to it, under the entry's lock so the
+ * journal sees each transaction's changes in the order they were applied; restore() and forEach()
+ * are the journal's way back in and out at recovery and snapshot time.
+ *
+ * This is the in-process {@link SessionStore}; {@link ReplicatedSessionStore} keeps one on every
+ * node and copies transactions between them with merge() and read().
+ */
+public class TransactionStateStore implements SessionStore {
+
+    // Called on the sweeper thread (or the thread that triggered an eviction); must not block
+    public interface ExpiryListener {
+        void expired(String tokenA, TransactionState state, boolean evicted);
+    }
+
+    // Receives every change, called under the entry's lock; must not block
+    public interface Journal {
+        void begun(String tokenA, byte[] cardDigest, long atMillis);
+
+        void transitioned(String tokenA, TransactionState state, long atMillis);
+
+        void loginRecorded(String tokenA, boolean loggedIn, int attempts);
+
+        void removed(String tokenA);
+
+        // Completes once everything appended so far is durable
+        CompletableFuture<Void> sync();
+    }
+
+    public interface EntryVisitor {
+        // login is a copy, or null when nobody has tried to log in; cardDigest is null once the
+        // transaction completed, and is never modified
+        void visit(String tokenA, TransactionState state, long changedAtMillis, byte[] cardDigest, LoginSession login);
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(TransactionStateStore.class);
+    private static final long EVICT = Long.MAX_VALUE;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Set<Entry>[] wheel;
+    private final int wheelMask;
+    private final long tickNanos;
+    private final long startNanos = System.nanoTime();
+    private final int maxEntries;
+    private final long pendingTtlMs;
+    private final long completedTtlMs;
+    private final ExpiryListener listener;
+    private final ScheduledExecutorService sweeper;
+    private volatile Journal journal;
+    // Next tick the sweeper will process; every earlier bucket has been emptied
+    private volatile long cursor;
+
+    @SuppressWarnings("unchecked")
+    public TransactionStateStore(int maxEntries, long pendingTtlMs, long completedTtlMs, long tickMs, ExpiryListener listener) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.pendingTtlMs = pendingTtlMs;
+        this.completedTtlMs = completedTtlMs;
+        this.listener = listener;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMs));
+        // One revolution covers the longest TTL (up to 2^20 ticks), so a bucket normally only holds
+        // entries due on that tick; beyond that, expire() leaves those due in a later revolution
+        long ticks = Math.max(pendingTtlMs, completedTtlMs) / Math.max(1, tickMs) + 2;
+        int size = Integer.highestOneBit((int) Math.min(1 << 20, ticks - 1)) << 1;
+        Set<Entry>[] buckets = (Set<Entry>[]) new Set<?>[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = ConcurrentHashMap.newKeySet();
+        }
+        this.wheel = buckets;
+        this.wheelMask = size - 1;
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "transaction-expiry");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleAtFixedRate(this::sweep, tickMs, tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void begin(String tokenA, byte[] cardDigest) {
+        while (entries.size() >= maxEntries && evictOne()) {
+            // Make room, soonest-to-expire first
+        }
+        Entry entry = new Entry(tokenA);
+        synchronized (entry) {
+            entry.state = TransactionState.PENDING;
+            entry.cardDigest = cardDigest;
+            entry.changedAtMillis = System.currentTimeMillis();
+            schedule(entry, pendingTtlMs);
+            Entry previous = entries.put(tokenA, entry);
+            if (previous != null) {
+                synchronized (previous) {
+                    previous.removed = true;
+                    unschedule(previous);
+                }
+            }
+            Journal journal = this.journal;
+            if (journal != null) {
+                journal.begun(tokenA, cardDigest, entry.changedAtMillis);
+            }
+        }
+    }
+
+    // Recovery: puts back a transaction as it was at changedAtMillis, with whatever is left of
+    // its TTL. A PENDING one whose TTL ran out while the ACS was down expires on the next tick
+    // (and is reported to the listener); a completed one is dropped.
+    public void restore(String tokenA, TransactionState state, long changedAtMillis, byte[] cardDigest, LoginSession login) {
+        long ttlMs = state.isCompleted() ? completedTtlMs : pendingTtlMs;
+        long remainingMs = ttlMs - (System.currentTimeMillis() - changedAtMillis);
+        if (remainingMs <= 0 && state.isCompleted()) {
+            return;
+        }
+        while (entries.size() >= maxEntries && evictOne()) {
+            // Make room, soonest-to-expire first
+        }
+        Entry entry = new Entry(tokenA);
+        synchronized (entry) {
+            entry.state = state;
+            entry.changedAtMillis = changedAtMillis;
+            entry.cardDigest = state.isCompleted() ? null : cardDigest;
+            entry.login = state.isCompleted() ? null : login;
+            schedule(entry, Math.max(1, remainingMs));
+            Entry previous = entries.put(tokenA, entry);
+            if (previous != null) {
+                synchronized (previous) {
+                    previous.removed = true;
+                    unschedule(previous);
+                }
+            }
+        }
+    }
+
+    // Replication and handoff: takes a copy of a transaction from another node, unless the one held
+    // here changed later. Journaled like a local change. False when the local copy was kept.
+    public boolean merge(String tokenA, TransactionState state, long changedAtMillis, byte[] cardDigest, LoginSession login) {
+        Entry current = entries.get(tokenA);
+        if (current != null) {
+            synchronized (current) {
+                if (!current.removed) {
+                    if (current.changedAtMillis > changedAtMillis) {
+                        return false;
+                    }
+                    copyInto(current, state, changedAtMillis, cardDigest, login);
+                    return true;
+                }
+            }
+        }
+        while (entries.size() >= maxEntries && evictOne()) {
+            // Make room, soonest-to-expire first
+        }
+        Entry entry = new Entry(tokenA);
+        synchronized (entry) {
+            Entry previous = entries.putIfAbsent(tokenA, entry);
+            if (previous != null) {
+                // Lost a race with a local change or another copy, which is at least as recent
+                return merge(tokenA, state, changedAtMillis, cardDigest, login);
+            }
+            copyInto(entry, state, changedAtMillis, cardDigest, login);
+            return true;
+        }
+    }
+
+    // Sessions are handed out and taken in as copies, so nobody holds one the store is changing
+    private static LoginSession copyOf(LoginSession login) {
+        if (login == null) {
+            return null;
+        }
+        LoginSession copy = new LoginSession();
+        copy.isLoggedIn = login.isLoggedIn;
+        copy.attempts = login.attempts;
+        return copy;
+    }
+
+    // Caller holds the entry's lock
+    private void copyInto(Entry entry, TransactionState state, long changedAtMillis, byte[] cardDigest, LoginSession login) {
+        entry.state = state;
+        entry.changedAtMillis = changedAtMillis;
+        entry.cardDigest = state.isCompleted() ? null : cardDigest;
+        if (state.isCompleted() || login == null) {
+            entry.login = null;
+        } else {
+            entry.login = copyOf(login);
+        }
+        long ttlMs = state.isCompleted() ? completedTtlMs : pendingTtlMs;
+        schedule(entry, Math.max(1, ttlMs - (System.currentTimeMillis() - changedAtMillis)));
+        Journal journal = this.journal;
+        if (journal != null) {
+            if (state == TransactionState.PENDING) {
+                journal.begun(entry.tokenA, entry.cardDigest, changedAtMillis);
+            } else {
+                journal.transitioned(entry.tokenA, state, changedAtMillis);
+            }
+            if (entry.login != null) {
+                journal.loginRecorded(entry.tokenA, entry.login.isLoggedIn, entry.login.attempts);
+            }
+        }
+    }
+
+    @Override
+    public boolean transition(String tokenA, TransactionState state) {
+        Entry entry = tokenA == null ? null : entries.get(tokenA);
+        if (entry == null) {
+            return false;
+        }
+        synchronized (entry) {
+            if (entry.removed) {
+                return false;
+            }
+            entry.state = state;
+            entry.changedAtMillis = System.currentTimeMillis();
+            if (state.isCompleted()) {
+                entry.login = null;
+                entry.cardDigest = null;
+            }
+            schedule(entry, state.isCompleted() ? completedTtlMs : pendingTtlMs);
+            Journal journal = this.journal;
+            if (journal != null) {
+                journal.transitioned(tokenA, state, entry.changedAtMillis);
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public TransactionState state(String tokenA) {
+        Entry entry = tokenA == null ? null : entries.get(tokenA);
+        if (entry == null) {
+            return null;
+        }
+        synchronized (entry) {
+            return entry.removed ? null : entry.state;
+        }
+    }
+
+    @Override
+    public boolean isCardOf(String tokenA, byte[] cardDigest) {
+        Entry entry = tokenA == null ? null : entries.get(tokenA);
+        if (entry == null || cardDigest == null) {
+            return false;
+        }
+        synchronized (entry) {
+            return !entry.removed && entry.state == TransactionState.PENDING && entry.cardDigest != null
+                    && MessageDigest.isEqual(entry.cardDigest, cardDigest);
+        }
+    }
+
+    @Override
+    public LoginSession loginSession(String tokenA) {
+        Entry entry = tokenA == null ? null : entries.get(tokenA);
+        if (entry == null) {
+            return null;
+        }
+        synchronized (entry) {
+            return entry.removed ? null : copyOf(entry.login);
+        }
+    }
+
+    @Override
+    public int recordFailedLogin(String tokenA, int maxAttempts) {
+        Entry entry = tokenA == null ? null : entries.get(tokenA);
+        if (entry == null) {
+            return -1;
+        }
+        synchronized (entry) {
+            if (entry.removed || entry.state != TransactionState.PENDING) {
+                return -1;
+            }
+            if (entry.login == null) {
+                entry.login = new LoginSession();
+            }
+            if (entry.login.attempts >= maxAttempts) {
+                return maxAttempts + 1;
+            }
+            entry.login.isLoggedIn = false;
+            entry.login.attempts++;
+            Journal journal = this.journal;
+            if (journal != null) {
+                journal.loginRecorded(tokenA, false, entry.login.attempts);
+            }
+            return entry.login.attempts;
+        }
+    }
+
+    @Override
+    public boolean recordLogin(String tokenA) {
+        Entry entry = tokenA == null ? null : entries.get(tokenA);
+        if (entry == null) {
+            return false;
+        }
+        synchronized (entry) {
+            if (entry.removed || entry.login == null) {
+                return false;
+            }
+            entry.login.isLoggedIn = true;
+            entry.login.attempts = 0;
+            Journal journal = this.journal;
+            if (journal != null) {
+                journal.loginRecorded(tokenA, true, 0);
+            }
+            return true;
+        }
+    }
+
+    // Immediately without a journal
+    @Override
+    public CompletableFuture<Void> sync() {
+        Journal journal = this.journal;
+        return journal == null ? CompletableFuture.completedFuture(null) : journal.sync();
+    }
+
+    public void setJournal(Journal journal) {
+        this.journal = journal;
+    }
+
+    // Visits one transaction, read under its lock; false (and no visit) when it is unknown or expired
+    public boolean read(String tokenA, EntryVisitor visitor) {
+        Entry entry = tokenA == null ? null : entries.get(tokenA);
+        if (entry == null) {
+            return false;
+        }
+        TransactionState state;
+        long changedAtMillis;
+        byte[] cardDigest;
+        LoginSession login;
+        synchronized (entry) {
+            if (entry.removed) {
+                return false;
+            }
+            state = entry.state;
+            changedAtMillis = entry.changedAtMillis;
+            cardDigest = entry.cardDigest;
+            login = copyOf(entry.login);
+        }
+        visitor.visit(tokenA, state, changedAtMillis, cardDigest, login);
+        return true;
+    }
+
+    // Visits every live transaction, each one read under its lock
+    public void forEach(EntryVisitor visitor) {
+        for (Entry entry : entries.values()) {
+            TransactionState state;
+            long changedAtMillis;
+            byte[] cardDigest;
+            LoginSession login;
+            synchronized (entry) {
+                if (entry.removed) {
+                    continue;
+                }
+                state = entry.state;
+                changedAtMillis = entry.changedAtMillis;
+                cardDigest = entry.cardDigest;
+                login = copyOf(entry.login);
+            }
+            visitor.visit(entry.tokenA, state, changedAtMillis, cardDigest, login);
+        }
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+    }
+
+    private long currentTick() {
+        return (System.nanoTime() - startNanos) / tickNanos;
+    }
+
+    // Caller holds the entry's lock
+    private void schedule(Entry entry, long ttlMs) {
+        unschedule(entry);
+        long ticks = Math.max(1, (TimeUnit.MILLISECONDS.toNanos(ttlMs) + tickNanos - 1) / tickNanos);
+        // Never behind the sweeper; a deadline more than one revolution ahead is swept past until then
+        long base = Math.max(currentTick(), cursor);
+        entry.deadlineTick = base + ticks;
+        wheel[(int) (entry.deadlineTick & wheelMask)].add(entry);
+        entry.scheduled = true;
+    }
+
+    // Caller holds the entry's lock
+    private void unschedule(Entry entry) {
+        if (entry.scheduled) {
+            wheel[(int) (entry.deadlineTick & wheelMask)].remove(entry);
+            entry.scheduled = false;
+        }
+    }
+
+    private void sweep() {
+        try {
+            long now = currentTick();
+            while (cursor <= now) {
+                long tick = cursor;
+                for (Entry entry : wheel[(int) (tick & wheelMask)]) {
+                    expire(entry, tick);
+                }
+                cursor = tick + 1;
+            }
+        } catch (Exception e) {
+            log.error("Expiry sweep failed", e);
+        }
+    }
+
+    // Walks the wheel from the current tick and evicts the first (soonest-to-expire) transaction
+    private boolean evictOne() {
+        long start = cursor;
+        for (int i = 0; i <= wheelMask; i++) {
+            for (Entry entry : wheel[(int) ((start + i) & wheelMask)]) {
+                if (expire(entry, EVICT)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Expires the entry if it is due at tick (checked under its lock, a transition may have just
+    // rescheduled it); EVICT removes it regardless
+    private boolean expire(Entry entry, long tick) {
+        boolean evicted = tick == EVICT;
+        TransactionState state;
+        synchronized (entry) {
+            if (entry.removed || entry.deadlineTick > tick) {
+                return false;
+            }
+            entry.removed = true;
+            unschedule(entry);
+            state = entry.state;
+            entries.remove(entry.tokenA, entry);
+            Journal journal = this.journal;
+            if (journal != null) {
+                journal.removed(entry.tokenA);
+            }
+        }
+        if (evicted) {
+            log.atWarn().addKeyValue("tokenA", entry.tokenA).log("Capacity of {} reached, evicting {} transaction", maxEntries, state);
+        }
+        try {
+            listener.expired(entry.tokenA, state, evicted);
+        } catch (Exception e) {
+            log.atError().addKeyValue("tokenA", entry.tokenA).setCause(e).log("Expiry listener failed");
+        }
+        return true;
+    }
+
+    // Identity-based equality: a replaced tokenA gets a new Entry
+    private static final class Entry {
+        final String tokenA;
+        // Guarded by this
+        TransactionState state;
+        byte[] cardDigest; // Of the card paying, while PENDING; never modified, only replaced
+        LoginSession login;
+        long changedAtMillis; // Wall clock, so a restored entry keeps the rest of its TTL
+        long deadlineTick;
+        boolean scheduled;
+        boolean removed;
+
+        Entry(String tokenA) {
+            this.tokenA = tokenA;
+        }
+    }
+}
+// End of TransactionStateStore.java //
@@ -1,23 +1,24 @@
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
 
 public class UserCreator {
     public static void main(String[] args) throws NoSuchAlgorithmException, IOException {
-        String username = "simon";
-        String password = "aaabbbcccsecurise";
+        // Usage: UserCreator [login password]
+        String username = args.length >= 2 ? args[0] : "simon";
+        String password = args.length >= 2 ? args[1] : "aaabbbcccsecurise";
 
         // Générer un sel et hacher le mot de passe
         String salt = PasswordUtils.generateSalt();
         String hashedPassword = PasswordUtils.hashPassword(password, salt);
 
-        // Ajouter l'utilisateur dans le fichier
-        BufferedWriter writer = new BufferedWriter(new FileWriter("./usersDb/users.txt", true));
-        writer.write(username + ";" + hashedPassword + ";" + salt);
-        writer.newLine();
-        writer.close();
-
-        System.out.println("Utilisateur créé et ajouté");
+        // Ajouter l'utilisateur dans la base (safe même si AcsServer tourne)
+        try (UserStore users = UserStore.open(Config.setting("acs.usersDbFile", "./usersDb/users.db"),
+                Config.intSetting("acs.usersDbCapacity", 65_536))) {
+            if (users.add(new User(username, hashedPassword, salt))) {
+                System.out.println("Utilisateur créé et ajouté");
+            } else {
+                System.out.println("Utilisateur déjà existant : " + username);
+            }
+        }
     }
 }
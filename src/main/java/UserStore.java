@@ -0,0 +1,309 @@
+// Beggining of UserStore.java //
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bank login users, in a memory-mapped file with its own on-disk hash index.
+ *
+ * Layout (big endian):
+ *   header   64 bytes: magic, version, capacity, bucket count, record size, committed record count
+ *   buckets  bucketCount ints: record index + 1, 0 = empty (open addressing, linear probing)
+ *   records  capacity fixed 128-byte records: login (len + 63 bytes UTF-8), SHA-256 hash (32 bytes),
+ *            salt (len + 31 bytes)
+ *
+ * A lookup hashes the login, probes a few buckets and compares the records they point to: no scan,
+ * no copy of the file on the heap. Readers take no lock. An append writes and flushes the record
+ * first, then publishes it by storing the bucket and finally the committed count (volatile stores,
+ * flushed again), so a reader or a crash never exposes a half-written record: a bucket pointing at
+ * or past the committed count is ignored, and cleared the next time the file is opened.
+ * Appends are serialized within the process and, with a file lock, with other processes such as
+ * UserCreator.
+ */
+public class UserStore implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(UserStore.class);
+    private static final int MAGIC = 0x55534442; // "USDB"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int BUCKET_COUNT_OFFSET = 12;
+    private static final int RECORD_SIZE_OFFSET = 16;
+    private static final int COUNT_OFFSET = 20;
+
+    private static final int RECORD_SIZE = 128;
+    private static final int MAX_LOGIN_BYTES = 63;
+    private static final int HASH_OFFSET = 64;
+    private static final int HASH_BYTES = 32;
+    private static final int SALT_OFFSET = 96;
+    private static final int MAX_SALT_BYTES = 31;
+
+    // Volatile int access to the mapped file, for the committed count and the buckets
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+    private final File file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final int bucketCount;
+    private final int recordsOffset;
+
+    private UserStore(File file, FileChannel channel, MappedByteBuffer buffer, int capacity, int bucketCount) {
+        this.file = file;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.capacity = capacity;
+        this.bucketCount = bucketCount;
+        this.recordsOffset = HEADER_SIZE + bucketCount * 4;
+    }
+
+    // Opens the store, creating it with room for capacity users if the file does not exist yet
+    @SuppressWarnings("try") // The file lock is only held for the block
+    public static UserStore open(String path, int capacity) throws IOException {
+        File file = new File(path);
+        if (file.getParentFile() != null) {
+            Files.createDirectories(file.getParentFile().toPath());
+        }
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try (FileLock lock = channel.lock()) {
+            if (channel.size() == 0) {
+                initialize(channel, capacity);
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || header.getInt(RECORD_SIZE_OFFSET) != RECORD_SIZE) {
+                throw new IOException(path + " is not a version " + VERSION + " user store");
+            }
+            int storedCapacity = header.getInt(CAPACITY_OFFSET);
+            int bucketCount = header.getInt(BUCKET_COUNT_OFFSET);
+            long size = fileSize(storedCapacity, bucketCount);
+            if (channel.size() < size) {
+                throw new IOException(path + " is truncated");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            UserStore store = new UserStore(file, channel, buffer, storedCapacity, bucketCount);
+            store.recover();
+            return store;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static void initialize(FileChannel channel, int capacity) throws IOException {
+        // bucketCount can reach 4 * capacity, 4 bytes each
+        if (capacity <= 0 || capacity > (Integer.MAX_VALUE - HEADER_SIZE) / (RECORD_SIZE + 16)) {
+            throw new IOException("Invalid user store capacity " + capacity);
+        }
+        // At most half of the buckets in use keeps probe sequences short
+        int bucketCount = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize(capacity, bucketCount));
+        buffer.putInt(4, VERSION);
+        buffer.putInt(CAPACITY_OFFSET, capacity);
+        buffer.putInt(BUCKET_COUNT_OFFSET, bucketCount);
+        buffer.putInt(RECORD_SIZE_OFFSET, RECORD_SIZE);
+        buffer.putInt(COUNT_OFFSET, 0);
+        buffer.force();
+        // Magic last: a file without it was never fully initialized
+        buffer.putInt(0, MAGIC);
+        buffer.force();
+    }
+
+    private static long fileSize(int capacity, int bucketCount) {
+        return HEADER_SIZE + bucketCount * 4L + (long) capacity * RECORD_SIZE;
+    }
+
+    // Clears buckets left behind by an append that crashed before committing its record
+    private void recover() {
+        int count = committedCount();
+        int cleared = 0;
+        for (int bucket = 0; bucket < bucketCount; bucket++) {
+            int entry = (int) INT.getVolatile(buffer, bucketOffset(bucket));
+            if (entry > count) {
+                INT.setVolatile(buffer, bucketOffset(bucket), 0);
+                cleared++;
+            }
+        }
+        if (cleared > 0) {
+            buffer.force();
+            log.warn("Cleared {} uncommitted index entries in {}", cleared, file);
+        }
+    }
+
+    // The user with this login, or null
+    public User find(String login) {
+        if (login == null) {
+            return null;
+        }
+        int record = findRecord(login.getBytes(StandardCharsets.UTF_8));
+        if (record < 0) {
+            return null;
+        }
+        int offset = recordOffset(record);
+        byte[] hash = new byte[HASH_BYTES];
+        buffer.get(offset + HASH_OFFSET, hash);
+        return new User(login, Base64.getEncoder().encodeToString(hash), readText(offset + SALT_OFFSET));
+    }
+
+    public boolean verifyPassword(String login, String password) throws NoSuchAlgorithmException {
+        User user = find(login);
+        if (user == null || password == null) {
+            return false;
+        }
+        // Constant-time comparison of the two digests
+        byte[] expected = Base64.getDecoder().decode(user.getHashPassword());
+        byte[] actual = Base64.getDecoder().decode(PasswordUtils.hashPassword(password, user.getSalt()));
+        return MessageDigest.isEqual(expected, actual);
+    }
+
+    // Appends a user; false when the login is already taken
+    @SuppressWarnings("try") // The file lock is only held for the block
+    public synchronized boolean add(User user) throws IOException {
+        byte[] login = user.getLogin().getBytes(StandardCharsets.UTF_8);
+        byte[] salt = user.getSalt().getBytes(StandardCharsets.UTF_8);
+        byte[] hash;
+        try {
+            hash = Base64.getDecoder().decode(user.getHashPassword());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Password hash is not Base64", e);
+        }
+        if (login.length == 0 || login.length > MAX_LOGIN_BYTES || salt.length > MAX_SALT_BYTES || hash.length != HASH_BYTES) {
+            throw new IllegalArgumentException("User does not fit a " + RECORD_SIZE + "-byte record: " + user.getLogin());
+        }
+
+        try (FileLock lock = channel.lock()) {
+            // Checked again under the lock, another process may have added it
+            if (findRecord(login) >= 0) {
+                return false;
+            }
+            int count = committedCount();
+            if (count >= capacity) {
+                throw new IOException("User store " + file + " is full (" + capacity + " users)");
+            }
+
+            // 1. Record, flushed before anything points to it
+            int offset = recordOffset(count);
+            byte[] record = new byte[RECORD_SIZE];
+            record[0] = (byte) login.length;
+            System.arraycopy(login, 0, record, 1, login.length);
+            System.arraycopy(hash, 0, record, HASH_OFFSET, HASH_BYTES);
+            record[SALT_OFFSET] = (byte) salt.length;
+            System.arraycopy(salt, 0, record, SALT_OFFSET + 1, salt.length);
+            buffer.put(offset, record);
+            buffer.force(offset, RECORD_SIZE);
+
+            // 2. Index entry, then 3. commit by bumping the count
+            int bucket = hash(login);
+            while ((int) INT.getVolatile(buffer, bucketOffset(bucket)) != 0) {
+                bucket = (bucket + 1) & (bucketCount - 1);
+            }
+            INT.setVolatile(buffer, bucketOffset(bucket), count + 1);
+            INT.setVolatile(buffer, COUNT_OFFSET, count + 1);
+            buffer.force(0, recordsOffset);
+            return true;
+        }
+    }
+
+    // Adds the users of a "login;hash;salt" text file that are not in the store yet
+    public int importTextFile(String path) throws IOException {
+        int added = 0;
+        try (BufferedReader reader = Files.newBufferedReader(new File(path).toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.trim().split(";");
+                if (fields.length != 3) {
+                    continue;
+                }
+                try {
+                    if (add(new User(fields[0], fields[1], fields[2]))) {
+                        added++;
+                    }
+                } catch (IllegalArgumentException e) {
+                    log.warn("Skipping user {} from {}: {}", fields[0], path, e.getMessage());
+                }
+            }
+        }
+        return added;
+    }
+
+    public int size() {
+        return committedCount();
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    private int findRecord(byte[] login) {
+        int count = committedCount();
+        int bucket = hash(login);
+        for (int probes = 0; probes < bucketCount; probes++) {
+            int entry = (int) INT.getVolatile(buffer, bucketOffset(bucket));
+            if (entry == 0) {
+                return -1;
+            }
+            int record = entry - 1;
+            if (record < count && loginEquals(recordOffset(record), login)) {
+                return record;
+            }
+            bucket = (bucket + 1) & (bucketCount - 1);
+        }
+        return -1;
+    }
+
+    private boolean loginEquals(int offset, byte[] login) {
+        if ((buffer.get(offset) & 0xFF) != login.length) {
+            return false;
+        }
+        for (int i = 0; i < login.length; i++) {
+            if (buffer.get(offset + 1 + i) != login[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String readText(int offset) {
+        byte[] text = new byte[buffer.get(offset) & 0xFF];
+        buffer.get(offset + 1, text);
+        return new String(text, StandardCharsets.UTF_8);
+    }
+
+    // FNV-1a over the UTF-8 login: part of the file format, must never change
+    private int hash(byte[] login) {
+        int h = 0x811C9DC5;
+        for (byte b : login) {
+            h = (h ^ (b & 0xFF)) * 0x01000193;
+        }
+        return (h ^ (h >>> 16)) & (bucketCount - 1);
+    }
+
+    private int committedCount() {
+        return (int) INT.getVolatile(buffer, COUNT_OFFSET);
+    }
+
+    private static int bucketOffset(int bucket) {
+        return HEADER_SIZE + bucket * 4;
+    }
+
+    private int recordOffset(int record) {
+        return recordsOffset + record * RECORD_SIZE;
+    }
+}
+// End of UserStore.java //
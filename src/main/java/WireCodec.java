@@ -0,0 +1,128 @@
+// Beggining of WireCodec.java //
+import modules.PaymentInfo;
+import modules.ValidationResult;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Frame encoding for one multiplexed ACQ/ACS connection, chosen by the hello exchange:
+ * {@link TextWireCodec} for "MUX/1" and "MUX/2" peers, {@link BinaryWireCodec} for "MUX/2 BIN/1",
+ * and for "MUX/2 BIN/2", which adds frames carrying a batch of requests or responses.
+ *
+ * Readers are used by one thread per connection. Writers are synchronized, so responses
+ * finishing on different worker threads can share the connection.
+ */
+public abstract class WireCodec {
+    // One decoded frame; which fields are set depends on the type
+    public static final class Frame {
+        public enum Type { REQUEST, RESPONSE, PING, PONG, REQUEST_BATCH, RESPONSE_BATCH }
+
+        public final Type type;
+        public final String correlationId;
+        // REQUEST: remaining time budget in ms (MuxChannelPool.NO_DEADLINE = none)
+        public final long remainingMs;
+        public final PaymentInfo payment;
+        // RESPONSE: the answer; REQUEST: set instead of payment when the payload could not be decoded
+        public final ValidationResult result;
+        // REQUEST_BATCH / RESPONSE_BATCH: the REQUEST or RESPONSE frames carried, in order
+        public final List<Frame> batch;
+
+        private Frame(Type type, String correlationId, long remainingMs, PaymentInfo payment, ValidationResult result, List<Frame> batch) {
+            this.type = type;
+            this.correlationId = correlationId;
+            this.remainingMs = remainingMs;
+            this.payment = payment;
+            this.result = result;
+            this.batch = batch;
+        }
+
+        static Frame request(String correlationId, long remainingMs, PaymentInfo payment) {
+            return new Frame(Type.REQUEST, correlationId, remainingMs, payment, null, null);
+        }
+
+        static Frame invalidRequest(String correlationId, ValidationResult error) {
+            return new Frame(Type.REQUEST, correlationId, MuxChannelPool.NO_DEADLINE, null, error, null);
+        }
+
+        static Frame response(String correlationId, ValidationResult result) {
+            return new Frame(Type.RESPONSE, correlationId, MuxChannelPool.NO_DEADLINE, null, result, null);
+        }
+
+        static Frame requestBatch(List<Frame> requests) {
+            return new Frame(Type.REQUEST_BATCH, null, MuxChannelPool.NO_DEADLINE, null, null, requests);
+        }
+
+        static Frame responseBatch(List<Frame> responses) {
+            return new Frame(Type.RESPONSE_BATCH, null, MuxChannelPool.NO_DEADLINE, null, null, responses);
+        }
+
+        static final Frame PING = new Frame(Type.PING, null, MuxChannelPool.NO_DEADLINE, null, null, null);
+        static final Frame PONG = new Frame(Type.PONG, null, MuxChannelPool.NO_DEADLINE, null, null, null);
+    }
+
+    // Whether the payment can be sent as one REQUEST frame. One that cannot is failed on its own
+    // before it is written, rather than making the peer drop the connection every request shares.
+    public boolean fits(PaymentInfo payment) {
+        return true;
+    }
+
+    public abstract void writeRequest(String correlationId, long remainingMs, PaymentInfo payment) throws IOException;
+
+    public abstract void writeResponse(String correlationId, ValidationResult result) throws IOException;
+
+    // Several REQUEST frames at once; codecs that can put them in one frame, or one write, override this
+    public void writeRequests(List<Frame> requests) throws IOException {
+        for (Frame request : requests) {
+            writeRequest(request.correlationId, request.remainingMs, request.payment);
+        }
+    }
+
+    // Several RESPONSE frames at once, same as writeRequests
+    public void writeResponses(List<Frame> responses) throws IOException {
+        for (Frame response : responses) {
+            writeResponse(response.correlationId, response.result);
+        }
+    }
+
+    public abstract void writePing() throws IOException;
+
+    public abstract void writePong() throws IOException;
+
+    // Next frame sent by a client (REQUEST, REQUEST_BATCH or PING), null at end of stream
+    public abstract Frame readRequest() throws IOException;
+
+    // Next frame sent by a server (RESPONSE, RESPONSE_BATCH or PONG), null at end of stream
+    public abstract Frame readResponse() throws IOException;
+
+    // Reads the hello (or a legacy request) line byte by byte, so nothing after it is consumed
+    // and the same (buffered) stream can then be handed to either codec
+    public static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                break;
+            }
+            line.write(b);
+        }
+        if (b == -1 && line.size() == 0) {
+            return null;
+        }
+        return stripCarriageReturn(line.toString(StandardCharsets.UTF_8));
+    }
+
+    public static void writeLine(OutputStream out, String line) throws IOException {
+        out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static String stripCarriageReturn(String line) {
+        return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+    }
+}
+// End of WireCodec.java //
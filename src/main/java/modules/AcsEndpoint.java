@@ -0,0 +1,53 @@
+package modules;
+
+import java.util.Objects;
+
+// AcsEndpoint.java
+// One ACS the acquirer can route payments to, as declared in the BIN routing file.
+// Two endpoints with the same name, host and port are the same endpoint: reloading the routing
+// file keeps using the connections already open to it.
+public final class AcsEndpoint {
+    private final String name;
+    private final String host;
+    private final int port;
+
+    public AcsEndpoint(String name, String host, int port) {
+        this.name = name;
+        this.host = host;
+        this.port = port;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof AcsEndpoint)) {
+            return false;
+        }
+        AcsEndpoint other = (AcsEndpoint) o;
+        return port == other.port && name.equals(other.name) && host.equals(other.host);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name, host, port);
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + host + ":" + port + ")";
+    }
+}
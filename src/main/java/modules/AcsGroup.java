@@ -0,0 +1,30 @@
+package modules;
+
+import java.util.Collections;
+import java.util.List;
+
+// AcsGroup.java
+// The ACS instances of one issuer, declared in the BIN routing file by repeating an acs line under
+// the same name. Any instance can take an enrollment; AcqServer spreads the load across them.
+public final class AcsGroup {
+    private final String name;
+    private final List<AcsEndpoint> instances;
+
+    public AcsGroup(String name, List<AcsEndpoint> instances) {
+        this.name = name;
+        this.instances = Collections.unmodifiableList(instances);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<AcsEndpoint> getInstances() {
+        return instances;
+    }
+
+    @Override
+    public String toString() {
+        return name + " " + instances.size() + " instance(s)";
+    }
+}
@@ -0,0 +1,63 @@
+package modules;
+
+// CardBrand.java
+// Card scheme told by the leading digits (IIN) of a card number, with the lengths it issues.
+// UNKNOWN covers private ranges such as the demo issuer's, and accepts any length from 13 to 19.
+public enum CardBrand {
+    VISA(13, 16, 19),
+    MASTERCARD(16),
+    AMEX(15),
+    DISCOVER(16, 17, 18, 19),
+    JCB(16, 17, 18, 19),
+    DINERS(14, 15, 16, 17, 18, 19),
+    UNIONPAY(16, 17, 18, 19),
+    MAESTRO(13, 14, 15, 16, 17, 18, 19),
+    UNKNOWN(13, 14, 15, 16, 17, 18, 19);
+
+    // Bit n set when n digits is a valid length
+    private final int lengths;
+
+    CardBrand(int... lengths) {
+        int mask = 0;
+        for (int length : lengths) {
+            mask |= 1 << length;
+        }
+        this.lengths = mask;
+    }
+
+    public boolean allowsLength(int digits) {
+        return digits >= 0 && digits < Integer.SIZE && (lengths & (1 << digits)) != 0;
+    }
+
+    // Brand of a card whose first six digits are iin (as a number, 100000 to 999999)
+    public static CardBrand fromIin(int iin) {
+        int two = iin / 10_000;
+        int three = iin / 1_000;
+        int four = iin / 100;
+        if (iin / 100_000 == 4) {
+            return VISA;
+        }
+        if ((two >= 51 && two <= 55) || (iin >= 222_100 && iin <= 272_099)) {
+            return MASTERCARD;
+        }
+        if (two == 34 || two == 37) {
+            return AMEX;
+        }
+        if (four == 6011 || (three >= 644 && three <= 649) || two == 65 || (iin >= 622_126 && iin <= 622_925)) {
+            return DISCOVER;
+        }
+        if (four >= 3528 && four <= 3589) {
+            return JCB;
+        }
+        if ((three >= 300 && three <= 305) || two == 36 || two == 38 || two == 39) {
+            return DINERS;
+        }
+        if (two == 62) {
+            return UNIONPAY;
+        }
+        if (two == 50 || (two >= 56 && two <= 58) || iin / 100_000 == 6) {
+            return MAESTRO;
+        }
+        return UNKNOWN;
+    }
+}
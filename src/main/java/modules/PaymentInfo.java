@@ -1,18 +1,20 @@
 package modules;
 
-import java.math.BigInteger;
-
 // PaymentInfo.java
 public class PaymentInfo {
+    private String tokenA;
     private String clientName;
     private String cardNumber;
     private int month;
     private int year;
-    private int cvv;
+    private String cvv; // As given, digits and leading zeros
     private float dueAmount;
     private String receiverIdToken;
 
     // Getters and setters
+    public String getTokenA() { return tokenA; }
+    public void setTokenA(String tokenA) { this.tokenA = tokenA; }
+
     public String getClientName() { return clientName; }
     public void setClientName(String clientName) { this.clientName = clientName; }
 
@@ -25,8 +27,8 @@ public class PaymentInfo {
     public int getYear() { return year; }
     public void setYear(int year) { this.year = year; }
 
-    public int getCvv() { return cvv; }
-    public void setCvv(int cvv) { this.cvv = cvv; }
+    public String getCvv() { return cvv; }
+    public void setCvv(String cvv) { this.cvv = cvv; }
 
     public float getDueAmount() { return dueAmount; }
     public void setDueAmount(float dueAmount) { this.dueAmount = dueAmount; }
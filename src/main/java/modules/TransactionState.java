@@ -0,0 +1,11 @@
+package modules;
+
+// TransactionState.java
+// Where a tokenA stands on the ACS, from enrollment (Step 5) to the user's decision (Step 9).
+public enum TransactionState {
+    PENDING,
+    CONFIRMED,
+    CANCELLED;
+
+    public boolean isCompleted() { return this != PENDING; }
+}
@@ -0,0 +1,79 @@
+package modules;
+
+// ValidationResult.java
+// Answer to a payment request on the ACQ/ACS hops: a validation link, or an error code with a message.
+// Text peers exchange it as one line (the link, or "ERROR: <message>"), binary peers as code + value.
+public class ValidationResult {
+    public enum Code {
+        OK(0),
+        ERROR(1),
+        BUSY(2),
+        DEADLINE_EXCEEDED(3),
+        INVALID_REQUEST(4),
+        INVALID_CARD(5),
+        ISSUER_NOT_SUPPORTED(6),
+        UPSTREAM_FAILURE(7);
+
+        private final byte wireValue;
+
+        Code(int wireValue) { this.wireValue = (byte) wireValue; }
+
+        public byte getWireValue() { return wireValue; }
+
+        public static Code fromWireValue(byte wireValue) {
+            for (Code code : values()) {
+                if (code.wireValue == wireValue) {
+                    return code;
+                }
+            }
+            return ERROR; // Code added by a newer peer
+        }
+    }
+
+    private static final String ERROR_PREFIX = "ERROR: ";
+    private static final String BUSY_MESSAGE = "busy";
+    private static final String DEADLINE_MESSAGE = "Deadline exceeded";
+
+    private final Code code;
+    private final String value;
+
+    private ValidationResult(Code code, String value) {
+        this.code = code;
+        this.value = value;
+    }
+
+    public static ValidationResult link(String validationLink) { return new ValidationResult(Code.OK, validationLink); }
+
+    public static ValidationResult error(Code code, String message) { return new ValidationResult(code, message); }
+
+    public static ValidationResult busy() { return new ValidationResult(Code.BUSY, BUSY_MESSAGE); }
+
+    public static ValidationResult deadlineExceeded() { return new ValidationResult(Code.DEADLINE_EXCEEDED, DEADLINE_MESSAGE); }
+
+    // Reads the single-line form written by text peers and legacy servers
+    public static ValidationResult fromLine(String line) {
+        if (!line.startsWith(ERROR_PREFIX)) {
+            return link(line);
+        }
+        String message = line.substring(ERROR_PREFIX.length());
+        if (BUSY_MESSAGE.equals(message)) {
+            return busy();
+        }
+        if (DEADLINE_MESSAGE.equals(message)) {
+            return deadlineExceeded();
+        }
+        return error(Code.ERROR, message);
+    }
+
+    public String toLine() { return code == Code.OK ? value : ERROR_PREFIX + value; }
+
+    public boolean isSuccess() { return code == Code.OK; }
+
+    public Code getCode() { return code; }
+
+    // Validation link when successful, error message otherwise
+    public String getValue() { return value; }
+
+    @Override
+    public String toString() { return toLine(); }
+}